@@ -1,13 +1,20 @@
 package com.example.centralServer;
 
 
+import com.example.centralServer.lock.LockProperties;
+import com.example.centralServer.placement.PlacementProperties;
 import com.example.centralServer.storage.ServerManager;
+import com.example.centralServer.transport.NodeTransportProperties;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
+@EnableConfigurationProperties({NodeTransportProperties.class, PlacementProperties.class, LockProperties.class})
 public class CentralServerApplication {
 
 
@@ -1,40 +1,73 @@
 package com.example.centralServer;
 
 
+import com.example.centralServer.lock.LockMode;
+import com.example.centralServer.lock.PathLock;
+import com.example.centralServer.lock.PathLockManager;
+import com.example.centralServer.relay.StreamingRelay;
 import com.example.centralServer.storage.ServerManager;
+import com.example.centralServer.transport.NodeTransport;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.Resource;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
-import org.springframework.util.LinkedMultiValueMap;
-import org.springframework.util.MultiValueMap;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestClientResponseException;
 import org.springframework.web.client.RestTemplate;
-import org.springframework.web.multipart.MultipartFile;
-//lock
-import com.example.centralServer.redisLock.RedisLockTool;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.util.UriComponentsBuilder;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
 
 import static org.springframework.web.bind.annotation.RequestMethod.POST;
 
 @Controller
 public class FileUploadController {
+    private static final String CONFLICT_MESSAGE = "Directory is bing modified";
+    /**
+     * status of a node server that refused a mutation because it does not lead the replicated log
+     */
+    private static final int MISDIRECTED_REQUEST = 421;
+    /**
+     * times a mutation is sent to the leader before the client is told no node server leads
+     */
+    private static final int LEADER_ATTEMPTS = 3;
+
     ServerManager serverManager;
-    @Autowired
-    RedisLockTool lockManager;
+    private final PathLockManager lockManager;
+    private final StreamingRelay streamingRelay;
+    private final NodeTransport nodeTransport;
 
     @Autowired
-    public FileUploadController(ServerManager serverManager) {
+    public FileUploadController(ServerManager serverManager, PathLockManager lockManager, StreamingRelay streamingRelay,
+                                NodeTransport nodeTransport) {
         this.serverManager = serverManager;
+        this.lockManager = lockManager;
+        this.streamingRelay = streamingRelay;
+        this.nodeTransport = nodeTransport;
     }
 
     /**
-     * get all the files and directories under a directory
+     * get all the files and directories under a directory.
+     * every node server holds every directory but only the files placed on it, unless every file is on
+     * every node server the listings of enough node servers to hold a replica of every file are merged.
+     * the directory cannot be deleted while it is listed, files may be added to it.
      *
      * @param path path of the directory
      * @return A List of String with the name of paths and directories
@@ -42,11 +75,57 @@ public class FileUploadController {
     @GetMapping("/dirs")
     @ResponseBody
     public ResponseEntity<?> getDirectoriesByPath(@RequestParam(value = "path", defaultValue = "/") String path) {
-        String url = serverManager.getNextAvailableServerUrl();
-        RestTemplate restTemplate = new RestTemplate();
-        ResponseEntity response = restTemplate.getForEntity(url + "/dirs?path=" + path, String.class);
-        return response;
+        PathLock lock = lockManager.lock(Collections.singletonMap(path, LockMode.INTENT_SHARED));
+        if (lock == null) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(CONFLICT_MESSAGE);
+        }
+        try {
+            return listDirectory(path);
+        } finally {
+            lock.unlock();
+        }
+    }
 
+    private ResponseEntity<?> listDirectory(String path) {
+        RestTemplate restTemplate = nodeTransport.getRestTemplate();
+        if (serverManager.getNumberOfReplicas() >= serverManager.getNumberOfServers()) {
+            ResponseEntity<String> response = sendToServer(serverManager.getNextAvailableServerUrl(), url -> restTemplate.getForEntity(url + "/dirs?path=" + path, String.class));
+            return response;
+        }
+        // the replicas of a file cannot all be among the servers left out
+        int needed = serverManager.getNumberOfServers() - serverManager.getNumberOfReplicas() + 1;
+        String[] urls = serverManager.getAllServerUrl();
+        int first = ThreadLocalRandom.current().nextInt(urls.length);
+        Set<String> names = new TreeSet<>();
+        HttpClientErrorException clientError = null;
+        int listed = 0;
+        for (int i = 0; i < urls.length && listed < needed; i++) {
+            String url = urls[(first + i) % urls.length];
+            if (!serverManager.acquireServer(url)) {
+                // down or ejected, it is not asked again until a probe finds it healthy
+                continue;
+            }
+            try {
+                String listing = sendToServer(url, nodeUrl -> restTemplate.getForObject(nodeUrl + "/dirs?path=" + path, String.class));
+                for (String name : listing == null ? new String[0] : listing.split(" ")) {
+                    if (!name.isEmpty()) {
+                        names.add(name);
+                    }
+                }
+                listed++;
+            } catch (HttpClientErrorException e) {
+                clientError = e;
+            } catch (RestClientException e) {
+                // the files of a server that is down are listed by another replica
+            }
+        }
+        if (clientError != null && listed == 0) {
+            return ResponseEntity.status(clientError.getStatusCode()).body(clientError.getResponseBodyAsString());
+        }
+        if (listed < needed) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Too many node servers are down to list " + path);
+        }
+        return ResponseEntity.ok(String.join(" ", names));
     }
 
     /**
@@ -58,30 +137,21 @@ public class FileUploadController {
     @PostMapping("/dirs")
     @ResponseBody
     public ResponseEntity<?> createDirectoryByPath(@RequestParam(value = "path") String path) {
-        //lock
-        String lockKey = path;
-        String identity = "deleteDirLock";
-        boolean lockSuccess = lockManager.getLock(lockKey, identity, 60);
-
-        if (lockSuccess) {
-            String url = serverManager.getNextAvailableServerUrl();
-            RestTemplate restTemplate = new RestTemplate();
-
-            ResponseEntity response = restTemplate.postForEntity(url + "/dirs?path=" + path, null, String.class);
-
-
-            //release lock
-            boolean releaseSuccess = (boolean) lockManager.unlock(lockKey, identity);
-
-            return response;
-        } else {
-            return ResponseEntity.status(HttpStatus.CONFLICT).body("Directory is bing modified");
+        PathLock lock = lockManager.lockExclusive(path);
+        if (lock == null) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(CONFLICT_MESSAGE);
+        }
+        try {
+            RestTemplate restTemplate = nodeTransport.getRestTemplate();
+            return sendToLeader(path, url -> restTemplate.postForEntity(fenced(url + "/dirs?path=" + path, lock), null, String.class));
+        } finally {
+            lock.unlock();
         }
     }
 
 
     /**
-     * delete a directory by path
+     * delete a directory by path, uploads and downloads of files in it are finished first.
      *
      * @param path path of the directory
      * @return response
@@ -89,70 +159,284 @@ public class FileUploadController {
     @DeleteMapping("/dirs")
     @ResponseBody
     public void deleteDirectoryByPath(@RequestParam(value = "path") String path) {
-        //lock
-        String lockKey = path;
-        String identity = "deleteDirLock";
-        boolean lockSuccess = lockManager.getLock(lockKey, identity, 60);
-
-        if (lockSuccess) {
-            String url = serverManager.getNextAvailableServerUrl();
-            RestTemplate restTemplate = new RestTemplate();
-            restTemplate.delete(url + "/dirs?path=" + path);
-            //release lock
-            boolean releaseSuccess = (boolean) lockManager.unlock(lockKey, identity);
+        PathLock lock = lockManager.lockExclusive(path);
+        if (lock == null) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, CONFLICT_MESSAGE);
+        }
+        try {
+            RestTemplate restTemplate = nodeTransport.getRestTemplate();
+            sendToLeader(path, url -> {
+                restTemplate.delete(fenced(url + "/dirs?path=" + path, lock));
+                return null;
+            });
+        } finally {
+            lock.unlock();
         }
     }
 
     /**
-     * get a file by path
+     * get a file by path,
+     * the body of the node response is streamed to the client as it arrives.
+     * the request goes to a node server holding the file.
+     * Range requests are passed on to the node server, a client downloading parts of a file
+     * in parallel can pin each part to a different replica.
      *
-     * @param path path of the file
-     * @return file
+     * @param path     path of the file
+     * @param replica  index of the replica to read from, any available replica if missing
+     * @param request  request with optional range headers
+     * @param response response the file is written to
      */
     @GetMapping("/files")
-    @ResponseBody
-    public ResponseEntity<?> getFileByPath(@RequestParam(value = "path") String path) {
-        String url = serverManager.getNextAvailableServerUrl();
-        RestTemplate restTemplate = new RestTemplate();
-        return restTemplate.getForEntity(url + "/files?path=" + path, Resource.class);
+    public void getFileByPath(@RequestParam(value = "path") String path, @RequestParam(required = false) Integer replica,
+                              HttpServletRequest request, HttpServletResponse response) throws IOException {
+        PathLock lock = lockManager.lockShared(path);
+        if (lock == null) {
+            response.sendError(HttpStatus.CONFLICT.value(), "File is being modified");
+            return;
+        }
+        try {
+            String url = replica == null ? serverManager.getServerUrl(path) : serverManager.getServerUrl(path, replica);
+            relayToServer(url, nodeUrl -> streamingRelay.relayDownload(nodeUrl + "/files?path=" + path, request, response));
+        } finally {
+            lock.unlock();
+        }
     }
 
 
     /**
-     * upload a file in a multipart form
+     * upload a file in a multipart form.
+     * the multipart body is not parsed here, it is streamed to a node server as it arrives.
+     * files with other names can be uploaded to the same folder at the same time if the name of the file is given.
      *
-     * @param path path of the file
-     * @return response
+     * @param path     path of the file
+     * @param fileName name of the uploaded file, locks only that file instead of the whole folder
+     * @param request  request with the multipart body
+     * @param response response of the node server
      */
     @RequestMapping(path = "/files", method = POST, consumes = {MediaType.MULTIPART_FORM_DATA_VALUE})
-    public ResponseEntity<?> handleFileUpload(@RequestBody MultipartFile file, @RequestParam("path") String path) throws IOException {
-        //lock
-        String lockKey = path;
-        String identity = "uploadFileLock";
-        boolean lockSuccess = lockManager.getLock(lockKey, identity, 60);
-        if (lockSuccess) {
+    public void handleFileUpload(@RequestParam("path") String path, @RequestParam(required = false) String fileName,
+                                 HttpServletRequest request, HttpServletResponse response) throws IOException {
+        PathLock lock = lockUpload(path, fileName);
+        if (lock == null) {
+            response.sendError(HttpStatus.CONFLICT.value(), CONFLICT_MESSAGE);
+            return;
+        }
+        try {
+            relayToLeader(serverManager.getLeaderServerUrl(), url -> streamingRelay.relay(HttpMethod.POST, fenced(url + "/files?path=" + path, lock), request, response));
+        } finally {
+            lock.unlock();
+        }
+    }
 
-            MultiValueMap<String, Object> map = new LinkedMultiValueMap<>();
-            map.add("file", file.getResource());
 
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+    /**
+     * get the signatures of the blocks of a file, a client sends its changes to the file as a delta against them.
+     *
+     * @param path      path of the file
+     * @param blockSize size of the blocks, picked by the node server if missing
+     * @param request   request
+     * @param response  response the signatures are written to
+     */
+    @GetMapping("/files/signature")
+    public void getFileSignature(@RequestParam(value = "path") String path, @RequestParam(required = false) Integer blockSize,
+                                 HttpServletRequest request, HttpServletResponse response) throws IOException {
+        PathLock lock = lockManager.lockShared(path);
+        if (lock == null) {
+            response.sendError(HttpStatus.CONFLICT.value(), "File is being modified");
+            return;
+        }
+        try {
+            String query = "/files/signature?path=" + path + (blockSize == null ? "" : "&blockSize=" + blockSize);
+            relayToServer(serverManager.getServerUrl(path), url -> streamingRelay.relayDownload(url + query, request, response));
+        } finally {
+            lock.unlock();
+        }
+    }
 
-            HttpEntity<MultiValueMap<String, Object>> requestEntity = new HttpEntity<>(map, headers);
+    /**
+     * upload a new version of a file as a delta against the stored version, in a multipart form with a part named "delta".
+     * the request goes to a node server holding the file, it answers 412 if the file changed since its signatures were taken.
+     *
+     * @param path     path of the folder holding the file
+     * @param fileName name of the file
+     * @param request  request with the multipart body
+     * @param response response of the node server
+     */
+    @RequestMapping(path = "/files/delta", method = POST, consumes = {MediaType.MULTIPART_FORM_DATA_VALUE})
+    public void handleDeltaUpload(@RequestParam("path") String path, @RequestParam("fileName") String fileName,
+                                  HttpServletRequest request, HttpServletResponse response) throws IOException {
+        PathLock lock = lockUpload(path, fileName);
+        if (lock == null) {
+            response.sendError(HttpStatus.CONFLICT.value(), CONFLICT_MESSAGE);
+            return;
+        }
+        try {
+            String filePath = path.endsWith("/") ? path + fileName : path + "/" + fileName;
+            relayToLeader(serverManager.getLeaderServerUrl(filePath),
+                    url -> streamingRelay.relay(HttpMethod.POST, fenced(url + "/files/delta?path=" + path, lock), request, response));
+        } finally {
+            lock.unlock();
+        }
+    }
 
-            String url = serverManager.getNextAvailableServerUrl();
-            RestTemplate restTemplate = new RestTemplate();
+    /**
+     * upload many files to a folder in one multipart request, they are committed as one operation.
+     * the multipart body is not parsed here, it is streamed to the node server as it arrives.
+     * the file name of every part is its path relative to the folder, the names are not known here so the folder is locked exclusively.
+     *
+     * @param path     path of the folder the files are uploaded to
+     * @param request  request with the files as parts named "file"
+     * @param response response of the node server
+     */
+    @RequestMapping(path = "/files/bulk", method = POST, consumes = {MediaType.MULTIPART_FORM_DATA_VALUE})
+    public void handleBulkUpload(@RequestParam("path") String path, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        PathLock lock = lockUpload(path, null);
+        if (lock == null) {
+            response.sendError(HttpStatus.CONFLICT.value(), CONFLICT_MESSAGE);
+            return;
+        }
+        try {
+            relayToLeader(serverManager.getLeaderServerUrl(), url -> streamingRelay.relay(HttpMethod.POST, fenced(url + "/files/bulk?path=" + path, lock), request, response));
+        } finally {
+            lock.unlock();
+        }
+    }
 
-            String result = restTemplate.postForObject(url + "/files?path=" + path, requestEntity, String.class);
-            //release lock
-            boolean releaseSuccess = (boolean) lockManager.unlock(lockKey, identity);
+    /**
+     * delete many files and directories in one request, they are locked as a set and deleted as one operation.
+     * a directory is deleted with everything in it.
+     *
+     * @param paths paths to delete, one per line
+     * @return response of the node server
+     */
+    @PostMapping("/files/bulk/delete")
+    @ResponseBody
+    public ResponseEntity<?> deleteFilesByPaths(@RequestBody String paths) {
+        List<String> lockKeys = new ArrayList<>();
+        for (String path : paths.split("\n")) {
+            if (!path.trim().isEmpty()) {
+                lockKeys.add(path.trim());
+            }
+        }
+        PathLock lock = lockManager.lockExclusive(lockKeys);
+        if (lock == null) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(CONFLICT_MESSAGE);
+        }
+        try {
+            RestTemplate restTemplate = nodeTransport.getRestTemplate();
+            return sendToLeader(null, url -> {
+                try {
+                    return restTemplate.postForEntity(fenced(url + "/files/bulk/delete", lock), String.join("\n", lockKeys), String.class);
+                } catch (HttpClientErrorException e) {
+                    return ResponseEntity.status(e.getStatusCode()).body(e.getResponseBodyAsString());
+                }
+            });
+        } finally {
+            lock.unlock();
+        }
+    }
 
-            return ResponseEntity.ok(result);
-        } else {
-            return ResponseEntity.status(HttpStatus.CONFLICT).body("Directory is bing modified");
+    /**
+     * start a chunked upload on a node server.
+     * the node server that holds the session is encoded in the returned id, so every chunk
+     * of the upload reaches the same node server without the central server keeping any state.
+     *
+     * @param path      path of the folder the file is uploaded to
+     * @param fileName  name of the file
+     * @param size      size of the file in bytes
+     * @param chunkSize size of every chunk but the last one
+     * @return id of the upload session
+     */
+    @PostMapping("/uploads")
+    @ResponseBody
+    public ResponseEntity<?> initiateUpload(@RequestParam("path") String path, @RequestParam("fileName") String fileName,
+                                            @RequestParam("size") long size, @RequestParam("chunkSize") long chunkSize) {
+        RestTemplate restTemplate = nodeTransport.getRestTemplate();
+        // the session is completed where it was started, which must be the node accepting mutations
+        return sendToLeader(path + "/" + fileName, url -> {
+            URI uri = UriComponentsBuilder.fromHttpUrl(url + "/uploads")
+                    .queryParam("path", path)
+                    .queryParam("fileName", fileName)
+                    .queryParam("size", size)
+                    .queryParam("chunkSize", chunkSize)
+                    .encode()
+                    .build()
+                    .toUri();
+            try {
+                ResponseEntity<String> response = restTemplate.postForEntity(uri, null, String.class);
+                int node = Arrays.asList(serverManager.getAllServerUrl()).indexOf(url);
+                return ResponseEntity.status(response.getStatusCode()).body(node + "." + response.getBody());
+            } catch (HttpClientErrorException e) {
+                return ResponseEntity.status(e.getStatusCode()).body(e.getResponseBodyAsString());
+            }
+        });
+    }
+
+    /**
+     * upload one chunk of a chunked upload, the body is streamed to the node server holding the session.
+     *
+     * @param id       id of the upload session
+     * @param index    index of the chunk
+     * @param request  request with the chunk as body
+     * @param response response of the node server
+     */
+    @PutMapping("/uploads/{id}/chunks/{index}")
+    public void uploadChunk(@PathVariable String id, @PathVariable int index,
+                            HttpServletRequest request, HttpServletResponse response) {
+        streamingRelay.relay(HttpMethod.PUT, getSessionUrl(id) + "/chunks/" + index, request, response);
+    }
+
+    /**
+     * get the chunks of a chunked upload that have not arrived yet
+     *
+     * @param id       id of the upload session
+     * @param request  request
+     * @param response indexes of the missing chunks separated by spaces
+     */
+    @GetMapping("/uploads/{id}")
+    public void getUpload(@PathVariable String id, HttpServletRequest request, HttpServletResponse response) {
+        streamingRelay.relayDownload(getSessionUrl(id), request, response);
+    }
+
+    /**
+     * finish a chunked upload, the file is locked while the node server replicates it.
+     *
+     * @param id       id of the upload session
+     * @param path     path of the folder the file is uploaded to
+     * @param fileName name of the uploaded file, locks only that file instead of the whole folder
+     * @param request  request
+     * @param response response of the node server
+     */
+    @PostMapping("/uploads/{id}/complete")
+    public void completeUpload(@PathVariable String id, @RequestParam("path") String path, @RequestParam(required = false) String fileName,
+                               HttpServletRequest request, HttpServletResponse response) throws IOException {
+        PathLock lock = lockUpload(path, fileName);
+        if (lock == null) {
+            response.sendError(HttpStatus.CONFLICT.value(), CONFLICT_MESSAGE);
+            return;
+        }
+        try {
+            String sessionUrl = getSessionUrl(id);
+            if (streamingRelay.relay(HttpMethod.POST, fenced(sessionUrl + "/complete", lock), request, response) == MISDIRECTED_REQUEST) {
+                // the session was started on a node server that lost its leadership since
+                serverManager.reportNotLeader(sessionUrl.substring(0, sessionUrl.indexOf("/uploads/")));
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
+    /**
+     * cancel a chunked upload
+     *
+     * @param id       id of the upload session
+     * @param request  request
+     * @param response response of the node server
+     */
+    @DeleteMapping("/uploads/{id}")
+    public void abortUpload(@PathVariable String id, HttpServletRequest request, HttpServletResponse response) {
+        streamingRelay.relay(HttpMethod.DELETE, getSessionUrl(id), request, response);
+    }
 
     /**
      * delete a file by path
@@ -162,16 +446,131 @@ public class FileUploadController {
     @DeleteMapping("/files")
     @ResponseBody
     public void deleteFileByPath(@RequestParam(value = "path") String path) {
-        //lock
-        String lockKey = path;
-        String identity = "deltetFileLock";
-        boolean lockSuccess = lockManager.getLock(lockKey, identity, 60);
-        if (lockSuccess) {
-            String url = serverManager.getNextAvailableServerUrl();
-            RestTemplate restTemplate = new RestTemplate();
-            restTemplate.delete(url + "/files?path=" + path);
-            //release lock
-            boolean releaseSuccess = (boolean) lockManager.unlock(lockKey, identity);
+        PathLock lock = lockManager.lockExclusive(path);
+        if (lock == null) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, CONFLICT_MESSAGE);
+        }
+        try {
+            RestTemplate restTemplate = nodeTransport.getRestTemplate();
+            sendToLeader(path, url -> {
+                restTemplate.delete(fenced(url + "/files?path=" + path, lock));
+                return null;
+            });
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * add the fencing token of a lock to the url of a node server,
+     * the node servers refuse the mutation if a later holder of the lock already changed the path.
+     */
+    private static String fenced(String url, PathLock lock) {
+        if (lock.getFencingToken() == PathLock.UNFENCED) {
+            return url;
+        }
+        return url + (url.contains("?") ? "&" : "?") + "fencingToken=" + lock.getFencingToken();
+    }
+
+    /**
+     * lock the target of an upload, the file when its name is known.
+     * the name of a file in a multipart body that is not parsed is unknown, the whole folder is then
+     * locked exclusively so no other upload can write the same file at the same time.
+     */
+    private PathLock lockUpload(String path, String fileName) {
+        if (fileName == null || fileName.isEmpty()) {
+            return lockManager.lockExclusive(path);
+        }
+        return lockManager.lockExclusive(path + "/" + fileName);
+    }
+
+    /**
+     * url of an upload session on the node server that holds it, ids look like "{node}.{session id on the node}".
+     */
+    private String getSessionUrl(String id) {
+        String[] urls = serverManager.getAllServerUrl();
+        int separator = id.indexOf('.');
+        try {
+            int node = Integer.parseInt(id.substring(0, Math.max(separator, 0)));
+            if (node >= 0 && node < urls.length) {
+                return urls[node] + "/uploads/" + id.substring(separator + 1);
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown upload session " + id);
+    }
+
+    /**
+     * send a request to a node server picked by the server manager and report the outcome to the server manager.
+     * client errors are answers of a working server, only unreachable servers and server errors count as failures.
+     */
+    private <T> T sendToServer(String url, Function<String, T> call) {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            T result = call.apply(url);
+            success = true;
+            return result;
+        } catch (RestClientResponseException e) {
+            success = e.getRawStatusCode() < 500;
+            throw e;
+        } finally {
+            serverManager.releaseServer(url, System.nanoTime() - start, success);
+        }
+    }
+
+    /**
+     * send a mutation to the node server accepting mutations of a path.
+     * a node server that does not lead the replicated log refuses it with 421, right after an election
+     * or before the leader was probed, the leader is then looked for again and the mutation sent to it.
+     *
+     * @param path path of the mutation, null for mutations of many paths
+     */
+    private <T> T sendToLeader(String path, Function<String, T> call) {
+        for (int attempt = 1; ; attempt++) {
+            String url = path == null ? serverManager.getLeaderServerUrl() : serverManager.getLeaderServerUrl(path);
+            try {
+                return sendToServer(url, call);
+            } catch (RestClientResponseException e) {
+                if (e.getRawStatusCode() != MISDIRECTED_REQUEST) {
+                    throw e;
+                }
+                serverManager.reportNotLeader(url);
+                if (attempt >= LEADER_ATTEMPTS) {
+                    throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "No node server leads the replicated log", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * relay a request to a node server picked by the server manager and report the outcome to the server manager.
+     */
+    private void relayToServer(String url, ToIntFunction<String> relay) {
+        long start = System.nanoTime();
+        int status = HttpStatus.INTERNAL_SERVER_ERROR.value();
+        try {
+            status = relay.applyAsInt(url);
+        } finally {
+            serverManager.releaseServer(url, System.nanoTime() - start, status < 500);
+        }
+    }
+
+    /**
+     * relay a mutation whose body is streamed to the node server accepting mutations.
+     * the body cannot be sent twice, a node server that does not lead the replicated log answers the client 421,
+     * the leader is looked for again so the client's next attempt reaches it.
+     */
+    private void relayToLeader(String url, ToIntFunction<String> relay) {
+        long start = System.nanoTime();
+        int status = HttpStatus.INTERNAL_SERVER_ERROR.value();
+        try {
+            status = relay.applyAsInt(url);
+        } finally {
+            serverManager.releaseServer(url, System.nanoTime() - start, status < 500);
+            if (status == MISDIRECTED_REQUEST) {
+                serverManager.reportNotLeader(url);
+            }
         }
     }
 
@@ -0,0 +1,152 @@
+package com.example.centralServer.lock;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps path locks in this process, for a single central server.
+ * Paths are spread over stripes that each guard their own paths, so requests for unrelated paths
+ * rarely meet on the same monitor. Every path has a queue of waiting requests that are granted
+ * in order, a request is not overtaken by later compatible ones so exclusive locks are not starved.
+ */
+@Component
+@ConditionalOnProperty(name = "lock.manager", havingValue = "local", matchIfMissing = true)
+public class LocalPathLockManager implements PathLockManager {
+
+    private final Stripe[] stripes;
+    private final long waitNanos;
+    private final LockMetrics metrics;
+
+    @Autowired
+    public LocalPathLockManager(LockProperties properties, LockMetrics metrics) {
+        this.metrics = metrics;
+        this.stripes = new Stripe[Math.max(1, properties.getStripes())];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.waitNanos = TimeUnit.MILLISECONDS.toNanos(properties.getWaitMillis());
+    }
+
+    @Override
+    public PathLock lock(Map<String, LockMode> paths) {
+        long start = System.nanoTime();
+        return metrics.record(paths, start, tryLock(paths));
+    }
+
+    private PathLock tryLock(Map<String, LockMode> paths) {
+        long deadline = System.nanoTime() + waitNanos;
+        List<Map.Entry<String, LockMode>> acquired = new ArrayList<>();
+        for (Map.Entry<String, LockMode> entry : PathLockManager.withIntents(paths).entrySet()) {
+            if (!acquire(entry.getKey(), entry.getValue(), deadline)) {
+                release(acquired);
+                return null;
+            }
+            acquired.add(entry);
+        }
+        AtomicBoolean released = new AtomicBoolean();
+        return () -> {
+            if (released.compareAndSet(false, true)) {
+                release(acquired);
+            }
+        };
+    }
+
+    private boolean acquire(String path, LockMode mode, long deadline) {
+        Stripe stripe = stripeOf(path);
+        synchronized (stripe) {
+            PathState state = stripe.paths.computeIfAbsent(path, p -> new PathState());
+            if (state.waiting.isEmpty() && state.isCompatible(mode)) {
+                state.granted[mode.ordinal()]++;
+                return true;
+            }
+            Object waiter = new Object();
+            state.waiting.addLast(waiter);
+            try {
+                while (true) {
+                    if (state.waiting.peekFirst() == waiter && state.isCompatible(mode)) {
+                        state.waiting.removeFirst();
+                        state.granted[mode.ordinal()]++;
+                        // the next waiter may be compatible as well
+                        stripe.notifyAll();
+                        return true;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(stripe, remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            state.waiting.remove(waiter);
+            stripe.removeIfUnused(path, state);
+            stripe.notifyAll();
+            return false;
+        }
+    }
+
+    private void release(List<Map.Entry<String, LockMode>> acquired) {
+        for (Map.Entry<String, LockMode> entry : acquired) {
+            Stripe stripe = stripeOf(entry.getKey());
+            synchronized (stripe) {
+                PathState state = stripe.paths.get(entry.getKey());
+                state.granted[entry.getValue().ordinal()]--;
+                stripe.removeIfUnused(entry.getKey(), state);
+                stripe.notifyAll();
+            }
+        }
+    }
+
+    private Stripe stripeOf(String path) {
+        return stripes[Math.floorMod(path.hashCode(), stripes.length)];
+    }
+
+    private static class Stripe {
+        private final Map<String, PathState> paths = new HashMap<>();
+
+        void removeIfUnused(String path, PathState state) {
+            if (state.waiting.isEmpty() && state.isUnlocked()) {
+                paths.remove(path);
+            }
+        }
+    }
+
+    private static class PathState {
+        /**
+         * number of holders of every mode
+         */
+        private final int[] granted = new int[LockMode.values().length];
+        /**
+         * requests waiting for the path, in the order they arrived
+         */
+        private final ArrayDeque<Object> waiting = new ArrayDeque<>();
+
+        boolean isCompatible(LockMode mode) {
+            for (LockMode held : LockMode.values()) {
+                if (granted[held.ordinal()] > 0 && !mode.isCompatibleWith(held)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean isUnlocked() {
+            for (int count : granted) {
+                if (count > 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.centralServer.lock;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times how long requests wait for their path locks, as lock.wait by mode and outcome.
+ * A request that gives up is answered 409 Conflict, so the count of outcome=conflict is the count of
+ * requests turned away by contention.
+ */
+@Component
+public class LockMetrics {
+
+    private final Timer[][] timers = new Timer[2][2];
+
+    @Autowired
+    public LockMetrics(MeterRegistry registry) {
+        String[] modes = {"shared", "exclusive"};
+        String[] outcomes = {"acquired", "conflict"};
+        for (int mode = 0; mode < modes.length; mode++) {
+            for (int outcome = 0; outcome < outcomes.length; outcome++) {
+                timers[mode][outcome] = Timer.builder("lock.wait")
+                        .description("Time spent waiting for path locks")
+                        .tag("mode", modes[mode])
+                        .tag("outcome", outcomes[outcome])
+                        .register(registry);
+            }
+        }
+    }
+
+    /**
+     * record a lock request.
+     *
+     * @param paths mode every path was locked in
+     * @param start System.nanoTime() when the request started waiting
+     * @param lock  the locks, null if the request gave up
+     * @return the locks
+     */
+    public PathLock record(Map<String, LockMode> paths, long start, PathLock lock) {
+        int mode = paths.containsValue(LockMode.EXCLUSIVE) ? 1 : 0;
+        timers[mode][lock == null ? 1 : 0].record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return lock;
+    }
+}
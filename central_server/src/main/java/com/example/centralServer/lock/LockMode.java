@@ -0,0 +1,72 @@
+package com.example.centralServer.lock;
+
+/**
+ * Modes a path can be locked in.
+ * A shared or exclusive lock on a path puts an intent lock on every ancestor of the path, so locking a
+ * directory exclusively conflicts with any lock below it while locks on unrelated paths only meet
+ * as compatible intent locks on their common ancestors.
+ */
+public enum LockMode {
+    /**
+     * a path below is locked shared
+     */
+    INTENT_SHARED,
+    /**
+     * a path below is locked exclusive
+     */
+    INTENT_EXCLUSIVE,
+    SHARED,
+    EXCLUSIVE;
+
+    private static final boolean[][] COMPATIBLE = {
+            // IS     IX     S      X
+            {true, true, true, false},      // IS
+            {true, true, false, false},     // IX
+            {true, false, true, false},     // S
+            {false, false, false, false},   // X
+    };
+
+    /**
+     * @return true if the path may be locked in both modes by different holders at the same time
+     */
+    public boolean isCompatibleWith(LockMode other) {
+        return COMPATIBLE[ordinal()][other.ordinal()];
+    }
+
+    /**
+     * @return the mode the ancestors of a path locked in this mode are locked in
+     */
+    public LockMode intent() {
+        return this == SHARED || this == INTENT_SHARED ? INTENT_SHARED : INTENT_EXCLUSIVE;
+    }
+
+    /**
+     * @return the weakest mode covering both modes, a holder needing both locks the path once
+     */
+    public LockMode combine(LockMode other) {
+        if (this == other) {
+            return this;
+        }
+        if (this == INTENT_SHARED || other == INTENT_SHARED) {
+            return this == INTENT_SHARED ? other : this;
+        }
+        // shared with intent exclusive would need a mode of its own, exclusive covers it
+        return EXCLUSIVE;
+    }
+
+    /**
+     * @return short name of the mode, as stored in redis
+     */
+    public String code() {
+        switch (this) {
+            case INTENT_SHARED:
+                return "IS";
+            case INTENT_EXCLUSIVE:
+                return "IX";
+            case SHARED:
+                return "S";
+            default:
+                return "X";
+        }
+    }
+}
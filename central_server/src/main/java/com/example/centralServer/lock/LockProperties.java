@@ -0,0 +1,61 @@
+package com.example.centralServer.lock;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@ConfigurationProperties("lock")
+public class LockProperties {
+
+    /**
+     * Where locks are kept, "local" keeps them in this process for a single central server,
+     * "redis" shares them between central servers at the cost of a round trip to redis for every lock
+     */
+    private String manager = "local";
+
+    /**
+     * Milliseconds a lock request waits for conflicting locks before it fails
+     */
+    private long waitMillis = 5000;
+
+    /**
+     * Seconds a lock kept in redis lives unless it is renewed, held locks are renewed every third of it,
+     * so this only bounds how long the locks of a crashed central server are held
+     */
+    private long leaseSeconds = 15;
+
+    /**
+     * Number of stripes the paths of the local lock manager are spread over
+     */
+    private int stripes = 64;
+
+    public String getManager() {
+        return manager;
+    }
+
+    public void setManager(String manager) {
+        this.manager = manager;
+    }
+
+    public long getWaitMillis() {
+        return waitMillis;
+    }
+
+    public void setWaitMillis(long waitMillis) {
+        this.waitMillis = waitMillis;
+    }
+
+    public long getLeaseSeconds() {
+        return leaseSeconds;
+    }
+
+    public void setLeaseSeconds(long leaseSeconds) {
+        this.leaseSeconds = leaseSeconds;
+    }
+
+    public int getStripes() {
+        return stripes;
+    }
+
+    public void setStripes(int stripes) {
+        this.stripes = stripes;
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.centralServer.lock;
+
+/**
+ * Locks held on a set of paths, released together.
+ */
+@FunctionalInterface
+public interface PathLock {
+
+    /**
+     * fencing token of locks that cannot expire while they are held
+     */
+    long UNFENCED = 0;
+
+    /**
+     * release every lock, releasing more than once has no effect.
+     */
+    void unlock();
+
+    /**
+     * a token larger than the token of every lock granted before, node servers refuse mutations
+     * carrying a smaller token than one they already committed for the same path.
+     *
+     * @return the token, {@link #UNFENCED} if the locks cannot expire while they are held
+     */
+    default long getFencingToken() {
+        return UNFENCED;
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.centralServer.lock;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Locks paths of the file system in shared or exclusive mode, with intent locks on their ancestors.
+ * Every holder locks the paths it needs in the same order, ancestors first, so holders cannot deadlock.
+ * A request for a lock held in a conflicting mode waits a bounded time before it gives up.
+ * The implementation is picked by lock.manager.
+ */
+public interface PathLockManager {
+
+    /**
+     * lock paths and their ancestors, either every path is locked or none.
+     *
+     * @param paths mode to lock every path in
+     * @return the locks, or null if conflicting locks were not released within lock.wait-millis
+     */
+    PathLock lock(Map<String, LockMode> paths);
+
+    /**
+     * lock a path to read it.
+     */
+    default PathLock lockShared(String path) {
+        return lock(Collections.singletonMap(path, LockMode.SHARED));
+    }
+
+    /**
+     * lock a path to change it.
+     */
+    default PathLock lockExclusive(String path) {
+        return lock(Collections.singletonMap(path, LockMode.EXCLUSIVE));
+    }
+
+    /**
+     * lock several paths to change them as one operation.
+     */
+    default PathLock lockExclusive(List<String> paths) {
+        Map<String, LockMode> modes = new HashMap<>();
+        for (String path : paths) {
+            modes.put(path, LockMode.EXCLUSIVE);
+        }
+        return lock(modes);
+    }
+
+    /**
+     * add the intent locks of the ancestors to the locks of the paths.
+     *
+     * @param paths mode to lock every path in
+     * @return mode to lock every normalized path and ancestor in, in the order they must be locked
+     */
+    static SortedMap<String, LockMode> withIntents(Map<String, LockMode> paths) {
+        SortedMap<String, LockMode> plan = new TreeMap<>();
+        for (Map.Entry<String, LockMode> entry : paths.entrySet()) {
+            String path = normalize(entry.getKey());
+            LockMode intent = entry.getValue().intent();
+            plan.merge("/", intent, LockMode::combine);
+            for (int end = path.indexOf('/', 1); end != -1; end = path.indexOf('/', end + 1)) {
+                plan.merge(path.substring(0, end), intent, LockMode::combine);
+            }
+            plan.merge(path, entry.getValue(), LockMode::combine);
+        }
+        return plan;
+    }
+
+    /**
+     * the same path must be locked whether it was given as "/a//b" or "a/b/".
+     */
+    static String normalize(String path) {
+        StringBuilder normalized = new StringBuilder();
+        for (String name : path.split("/")) {
+            if (!name.isEmpty()) {
+                normalized.append('/').append(name);
+            }
+        }
+        return normalized.length() == 0 ? "/" : normalized.toString();
+    }
+}
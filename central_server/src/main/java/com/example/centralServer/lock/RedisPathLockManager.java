@@ -0,0 +1,281 @@
+package com.example.centralServer.lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps path locks in redis, so several central servers share them.
+ * Every path is a hash with one field per holder, holding its mode and the time its lease ends,
+ * so a lock of a crashed central server expires without dropping the other holders of the path.
+ * All the paths of a request are checked and locked by one script, a request that conflicts is
+ * retried with a growing pause until lock.wait-millis passed.
+ *
+ * The scripts are loaded once and called by their digest. The leases of held locks are renewed
+ * in the background, all of them in one pipelined round trip, so a slow upload keeps its lock
+ * while the lease only bounds how long the locks of a crashed central server are held.
+ * Every grant gets a fencing token from a counter in redis, a holder that lost its lease anyway
+ * is refused by the node servers once the next holder committed.
+ */
+@Component
+@ConditionalOnProperty(name = "lock.manager", havingValue = "redis")
+public class RedisPathLockManager implements PathLockManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedisPathLockManager.class);
+
+    private static final String KEY_PREFIX = "pathLock:";
+    private static final String FENCING_TOKEN_KEY = "pathLockFencingToken";
+    private static final long MIN_PAUSE_MILLIS = 2;
+    private static final long MAX_PAUSE_MILLIS = 100;
+
+    /**
+     * KEYS are the paths, ARGV holds the holder, the current time, the lease and the mode of every path.
+     * returns the fencing token of the locks, 0 if a path is locked in a conflicting mode.
+     */
+    private static final String LOCK_SCRIPT =
+            "local compatible = {IS = {IS = true, IX = true, S = true}, IX = {IS = true, IX = true}, " +
+            "  S = {IS = true, S = true}, X = {}} " +
+            "local now = tonumber(ARGV[2]) " +
+            "for i, key in ipairs(KEYS) do " +
+            "  local mode = ARGV[i + 3] " +
+            "  local holders = redis.call('hgetall', key) " +
+            "  for j = 1, #holders, 2 do " +
+            "    local held, expires = string.match(holders[j + 1], '(%a+) (%d+)') " +
+            "    if tonumber(expires) <= now then " +
+            "      redis.call('hdel', key, holders[j]) " +
+            "    elseif holders[j] ~= ARGV[1] and not compatible[mode][held] then " +
+            "      return 0 " +
+            "    end " +
+            "  end " +
+            "end " +
+            "for i, key in ipairs(KEYS) do " +
+            "  redis.call('hset', key, ARGV[1], ARGV[i + 3] .. ' ' .. (now + tonumber(ARGV[3]))) " +
+            "  redis.call('pexpire', key, ARGV[3]) " +
+            "end " +
+            "return redis.call('incr', '" + FENCING_TOKEN_KEY + "')";
+
+    /**
+     * KEYS are the paths, ARGV holds the holder, the current time and the lease.
+     * returns 0 if the holder lost a lock, a lost lock may have been granted to someone else since.
+     */
+    private static final String RENEW_SCRIPT =
+            "local renewed = 1 " +
+            "for i, key in ipairs(KEYS) do " +
+            "  local value = redis.call('hget', key, ARGV[1]) " +
+            "  if value then " +
+            "    local mode = string.match(value, '(%a+) ') " +
+            "    redis.call('hset', key, ARGV[1], mode .. ' ' .. (tonumber(ARGV[2]) + tonumber(ARGV[3]))) " +
+            "    redis.call('pexpire', key, ARGV[3]) " +
+            "  else " +
+            "    renewed = 0 " +
+            "  end " +
+            "end " +
+            "return renewed";
+
+    private static final String UNLOCK_SCRIPT =
+            "for i, key in ipairs(KEYS) do " +
+            "  redis.call('hdel', key, ARGV[1]) " +
+            "end " +
+            "return 1";
+
+    private final StringRedisTemplate redisTemplate;
+    private final DefaultRedisScript<Long> lockScript = new DefaultRedisScript<>(LOCK_SCRIPT, Long.class);
+    private final DefaultRedisScript<Long> renewScript = new DefaultRedisScript<>(RENEW_SCRIPT, Long.class);
+    private final DefaultRedisScript<Long> unlockScript = new DefaultRedisScript<>(UNLOCK_SCRIPT, Long.class);
+    private final long waitMillis;
+    private final long leaseMillis;
+    private final LockMetrics metrics;
+    /**
+     * locks whose leases are renewed
+     */
+    private final Set<HeldLock> heldLocks = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService renewer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "path-lock-renewer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Autowired
+    public RedisPathLockManager(StringRedisTemplate redisTemplate, LockProperties properties, LockMetrics metrics) {
+        this.metrics = metrics;
+        this.redisTemplate = redisTemplate;
+        this.waitMillis = properties.getWaitMillis();
+        this.leaseMillis = properties.getLeaseSeconds() * 1000;
+    }
+
+    @PostConstruct
+    public void start() {
+        loadScripts();
+        // a lease is renewed twice before it could run out, a renewal may fail once
+        long interval = Math.max(1, leaseMillis / 3);
+        renewer.scheduleWithFixedDelay(this::renewLeases, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        renewer.shutdownNow();
+    }
+
+    @Override
+    public PathLock lock(Map<String, LockMode> paths) {
+        long start = System.nanoTime();
+        return metrics.record(paths, start, tryLock(paths));
+    }
+
+    private PathLock tryLock(Map<String, LockMode> paths) {
+        List<String> keys = new ArrayList<>();
+        List<String> args = new ArrayList<>();
+        String holder = UUID.randomUUID().toString();
+        args.add(holder);
+        args.add(null);
+        args.add(String.valueOf(leaseMillis));
+        for (Map.Entry<String, LockMode> entry : PathLockManager.withIntents(paths).entrySet()) {
+            keys.add(KEY_PREFIX + entry.getKey());
+            args.add(entry.getValue().code());
+        }
+
+        long deadline = System.currentTimeMillis() + waitMillis;
+        long pause = MIN_PAUSE_MILLIS;
+        while (true) {
+            long now = System.currentTimeMillis();
+            args.set(1, String.valueOf(now));
+            try {
+                Long fencingToken = redisTemplate.execute(lockScript, keys, args.toArray());
+                if (fencingToken != null && fencingToken > 0) {
+                    HeldLock lock = new HeldLock(keys, holder, fencingToken);
+                    heldLocks.add(lock);
+                    return lock;
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Could not lock {}: {}", keys, e.getMessage());
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return null;
+            }
+            try {
+                Thread.sleep(Math.min(pause, remaining));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            pause = Math.min(pause * 2, MAX_PAUSE_MILLIS);
+        }
+    }
+
+    /**
+     * load the scripts, so even their first calls only send the digest.
+     * redis forgets them when it restarts, the template then sends a script once more.
+     */
+    private void loadScripts() {
+        try {
+            redisTemplate.execute((RedisCallback<Object>) connection -> {
+                for (DefaultRedisScript<Long> script : Arrays.asList(lockScript, renewScript, unlockScript)) {
+                    connection.scriptLoad(RedisSerializer.string().serialize(script.getScriptAsString()));
+                }
+                return null;
+            });
+        } catch (RuntimeException e) {
+            logger.warn("Could not load lock scripts: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * renew the leases of every held lock in one pipelined round trip.
+     */
+    private void renewLeases() {
+        List<HeldLock> locks = new ArrayList<>(heldLocks);
+        if (locks.isEmpty()) {
+            return;
+        }
+        byte[] now = RedisSerializer.string().serialize(String.valueOf(System.currentTimeMillis()));
+        byte[] lease = RedisSerializer.string().serialize(String.valueOf(leaseMillis));
+        List<Object> results;
+        try {
+            results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (HeldLock lock : locks) {
+                    connection.evalSha(renewScript.getSha1(), ReturnType.INTEGER, lock.keys.size(), lock.renewArgs(now, lease));
+                }
+                return null;
+            });
+        } catch (RuntimeException e) {
+            // redis may have restarted and forgotten the script, the leases are renewed again before they run out
+            logger.warn("Could not renew the leases of {} locks: {}", locks.size(), e.getMessage());
+            loadScripts();
+            return;
+        }
+        for (int i = 0; i < locks.size(); i++) {
+            HeldLock lock = locks.get(i);
+            if (!Long.valueOf(1).equals(results.get(i)) && heldLocks.remove(lock)) {
+                logger.warn("Lease of {} ran out, mutations with fencing token {} may be refused", lock.keys, lock.fencingToken);
+            }
+        }
+    }
+
+    private class HeldLock implements PathLock {
+        private final List<String> keys;
+        private final String holder;
+        private final long fencingToken;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        HeldLock(List<String> keys, String holder, long fencingToken) {
+            this.keys = keys;
+            this.holder = holder;
+            this.fencingToken = fencingToken;
+        }
+
+        @Override
+        public void unlock() {
+            if (!released.compareAndSet(false, true)) {
+                return;
+            }
+            heldLocks.remove(this);
+            try {
+                redisTemplate.execute(unlockScript, keys, holder);
+            } catch (RuntimeException e) {
+                // the lease releases the locks
+                logger.warn("Could not unlock {}: {}", keys, e.getMessage());
+            }
+        }
+
+        @Override
+        public long getFencingToken() {
+            return fencingToken;
+        }
+
+        /**
+         * @return keys and arguments of the renew script
+         */
+        byte[][] renewArgs(byte[] now, byte[] lease) {
+            byte[][] keysAndArgs = new byte[keys.size() + 3][];
+            for (int i = 0; i < keys.size(); i++) {
+                keysAndArgs[i] = RedisSerializer.string().serialize(keys.get(i));
+            }
+            keysAndArgs[keys.size()] = RedisSerializer.string().serialize(holder);
+            keysAndArgs[keys.size() + 1] = now;
+            keysAndArgs[keys.size() + 2] = lease;
+            return keysAndArgs;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.centralServer.placement;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring placing every path on a fixed number of nodes.
+ * Every node owns many points of the ring, its virtual nodes, so the paths spread evenly and adding
+ * a node only moves the paths that land on its points. The replicas of a path are the first distinct
+ * nodes found walking the ring clockwise from the hash of the path.
+ * Every node server keeps the same ring, all must be given the same node urls in the same order.
+ * The copies in the central server and the node server must stay identical, both HashRingTests pin the same placements.
+ */
+public class HashRing {
+
+    private final List<String> nodes;
+    private final int replicas;
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+
+    /**
+     * @param nodes        urls of the nodes
+     * @param virtualNodes number of points every node owns on the ring
+     * @param replicas     number of nodes holding every path, every node holds every path if 0 or at least the number of nodes
+     */
+    public HashRing(String[] nodes, int virtualNodes, int replicas) {
+        this.nodes = Collections.unmodifiableList(Arrays.asList(nodes.clone()));
+        this.replicas = replicas <= 0 ? nodes.length : Math.min(replicas, nodes.length);
+        for (String node : nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(node + "#" + i), node);
+            }
+        }
+    }
+
+    /**
+     * @return urls of the nodes holding a path, the first one is its primary replica
+     */
+    public List<String> getReplicas(String path) {
+        if (isFullyReplicated()) {
+            return nodes;
+        }
+        List<String> owners = new ArrayList<>(replicas);
+        long hash = hash(normalize(path));
+        for (Map<Long, String> part : Arrays.asList(ring.tailMap(hash), ring.headMap(hash))) {
+            for (String node : part.values()) {
+                if (!owners.contains(node)) {
+                    owners.add(node);
+                    if (owners.size() == replicas) {
+                        return owners;
+                    }
+                }
+            }
+        }
+        return owners;
+    }
+
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    public int getReplicas() {
+        return replicas;
+    }
+
+    /**
+     * @return true if every node holds every path
+     */
+    public boolean isFullyReplicated() {
+        return replicas == nodes.size();
+    }
+
+    /**
+     * the same file must hash the same way whether its path was given as "/a//b" or "a/b/".
+     */
+    static String normalize(String path) {
+        StringBuilder normalized = new StringBuilder();
+        for (String name : path.split("/")) {
+            if (!name.isEmpty()) {
+                normalized.append('/').append(name);
+            }
+        }
+        return normalized.length() == 0 ? "/" : normalized.toString();
+    }
+
+    /**
+     * @return first 8 bytes of the md5 digest, md5 spreads similar paths well and is the same on every jvm
+     */
+    static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = 0; i < 8; i++) {
+                hash = hash << 8 | (digest[i] & 0xff);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.centralServer.placement;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@ConfigurationProperties("placement")
+public class PlacementProperties {
+
+    /**
+     * number of node servers holding every file, 0 for every node server, must be the same as on the node servers
+     */
+    private int replicas = 0;
+
+    /**
+     * number of points every node server owns on the hash ring
+     */
+    private int virtualNodes = 128;
+
+    public int getReplicas() {
+        return replicas;
+    }
+
+    public void setReplicas(int replicas) {
+        this.replicas = replicas;
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    public void setVirtualNodes(int virtualNodes) {
+        this.virtualNodes = virtualNodes;
+    }
+}
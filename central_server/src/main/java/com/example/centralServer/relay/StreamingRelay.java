@@ -0,0 +1,158 @@
+package com.example.centralServer.relay;
+
+import com.example.centralServer.transport.NodeTransport;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.ResponseErrorHandler;
+import org.springframework.web.client.RestTemplate;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Relays request and response bodies between a client and a node server without
+ * holding the payload on the central server.
+ * Bytes are copied through a fixed-size buffer that is reused by the servlet thread,
+ * so heap usage does not grow with the size of the file.
+ */
+@Component
+public class StreamingRelay {
+
+    /**
+     * headers copied from the client request to the node server
+     */
+    private static final List<String> REQUEST_HEADERS = Arrays.asList(
+            HttpHeaders.CONTENT_TYPE,
+            HttpHeaders.CONTENT_LENGTH);
+
+    /**
+     * headers copied from a client download request to the node server
+     */
+    private static final List<String> DOWNLOAD_REQUEST_HEADERS = Arrays.asList(
+            HttpHeaders.RANGE,
+            HttpHeaders.IF_RANGE,
+            HttpHeaders.IF_NONE_MATCH,
+            HttpHeaders.IF_MODIFIED_SINCE,
+            HttpHeaders.ACCEPT_ENCODING);
+
+    /**
+     * headers copied from the node server response to the client
+     */
+    private static final List<String> RESPONSE_HEADERS = Arrays.asList(
+            HttpHeaders.CONTENT_TYPE,
+            HttpHeaders.CONTENT_LENGTH,
+            HttpHeaders.CONTENT_ENCODING,
+            HttpHeaders.CONTENT_DISPOSITION,
+            HttpHeaders.CONTENT_RANGE,
+            HttpHeaders.ACCEPT_RANGES,
+            HttpHeaders.ETAG,
+            HttpHeaders.LAST_MODIFIED,
+            HttpHeaders.VARY);
+
+    private static final ResponseErrorHandler PASS_THROUGH = new ResponseErrorHandler() {
+        @Override
+        public boolean hasError(ClientHttpResponse response) {
+            return false;
+        }
+
+        @Override
+        public void handleError(ClientHttpResponse response) {
+        }
+    };
+
+    private final RestTemplate restTemplate;
+    private final ThreadLocal<byte[]> buffers;
+
+    @Autowired
+    public StreamingRelay(NodeTransport nodeTransport, @Value("${relay.buffer-size:65536}") int bufferSize) {
+        this.restTemplate = new RestTemplate(nodeTransport.getRequestFactory());
+        this.restTemplate.setErrorHandler(PASS_THROUGH);
+        this.buffers = ThreadLocal.withInitial(() -> new byte[bufferSize]);
+    }
+
+    /**
+     * stream the body of a client request to a node server and the node response back to the client.
+     *
+     * @param method   http method used against the node server
+     * @param url      full url on the node server
+     * @param request  client request
+     * @param response client response
+     * @return status code of the node server
+     */
+    public int relay(HttpMethod method, String url, HttpServletRequest request, HttpServletResponse response) {
+        return restTemplate.execute(url, method,
+                nodeRequest -> {
+                    copyHeaders(request, nodeRequest.getHeaders(), REQUEST_HEADERS);
+                    if (request.getContentLengthLong() == 0) {
+                        return;
+                    }
+                    if (nodeRequest instanceof StreamingHttpOutputMessage) {
+                        ((StreamingHttpOutputMessage) nodeRequest).setBody(body -> copy(request.getInputStream(), body));
+                    } else {
+                        copy(request.getInputStream(), nodeRequest.getBody());
+                    }
+                },
+                nodeResponse -> writeResponse(nodeResponse, response));
+    }
+
+    /**
+     * stream the response of a GET request on a node server back to the client.
+     * range and conditional headers are passed on, so partial and not-modified responses reach the client.
+     *
+     * @param url      full url on the node server
+     * @param request  client request
+     * @param response client response
+     * @return status code of the node server
+     */
+    public int relayDownload(String url, HttpServletRequest request, HttpServletResponse response) {
+        return restTemplate.execute(url, HttpMethod.GET,
+                nodeRequest -> copyHeaders(request, nodeRequest.getHeaders(), DOWNLOAD_REQUEST_HEADERS),
+                nodeResponse -> writeResponse(nodeResponse, response));
+    }
+
+    private void copyHeaders(HttpServletRequest request, HttpHeaders headers, List<String> names) {
+        for (String name : names) {
+            String value = request.getHeader(name);
+            if (value != null) {
+                headers.set(name, value);
+            }
+        }
+    }
+
+    private int writeResponse(ClientHttpResponse nodeResponse, HttpServletResponse response) throws IOException {
+        int status = nodeResponse.getRawStatusCode();
+        response.setStatus(status);
+        HttpHeaders headers = nodeResponse.getHeaders();
+        for (String name : RESPONSE_HEADERS) {
+            String value = headers.getFirst(name);
+            if (value != null) {
+                response.setHeader(name, value);
+            }
+        }
+        copy(nodeResponse.getBody(), response.getOutputStream());
+        return status;
+    }
+
+    /**
+     * copy a stream with the buffer of the current thread, flushing after every read
+     * so the first bytes reach the receiver before the last bytes arrive.
+     */
+    private void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = buffers.get();
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,549 @@
+package com.example.centralServer.storage;
+
+import com.example.centralServer.placement.HashRing;
+import com.example.centralServer.placement.PlacementProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StreamUtils;
+
+import javax.annotation.PreDestroy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Picks node servers by the power of two choices on outstanding requests weighted by latency.
+ * Two healthy servers are sampled at random and the one with the lower
+ * (outstanding requests + 1) * average latency gets the request, so a slow server
+ * receives less traffic instead of building up a queue.
+ * Requests for a file only pick among the servers holding it on the hash ring.
+ *
+ * Servers are probed in the background and taken out of rotation after consecutive failures.
+ * A probe costs less than a request, so its latency is not counted in the average that ranks the servers.
+ *
+ * The probe also asks every server for its role in the replicated log, so mutations can be sent to the leader.
+ * While no leader is known, or after the leader refused a mutation, one background search probes for the leader
+ * until an election ended. Requests needing the leader wait for that search, at most server-manager.leader-wait-millis.
+ *
+ * The probe also asks every server whether it is catching up with the mutations it missed while it was down.
+ * Such a server gets no requests until it caught up, it still takes part in the transactions its peers replicate to it.
+ *
+ * Requests relayed to every server are timed as node.requests, its outstanding requests and availability are gauges.
+ */
+@Service
+@ConditionalOnProperty(name = "server-manager.policy", havingValue = "least-outstanding", matchIfMissing = true)
+public class HealthAwareServerManager implements ServerManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(HealthAwareServerManager.class);
+
+    /**
+     * weight of the newest sample in the latency average
+     */
+    private static final double EWMA_ALPHA = 0.2;
+    /**
+     * milliseconds between probes for the leader while an election runs
+     */
+    private static final long LEADER_RETRY_MILLIS = 100;
+
+    private final String[] nodeServerUrls;
+    private final NodeState[] nodes;
+    private final HashRing ring;
+    private final String healthPath;
+    private final String leaderPath;
+    private final String catchUpPath;
+    private final int probeTimeoutMillis;
+    private final int failureThreshold;
+    private final long ejectionNanos;
+    private final long leaderWaitNanos;
+    /**
+     * node server that reported itself leader of the highest term, null if none did
+     */
+    private volatile NodeState leader;
+    /**
+     * true once a node server answered the leader probe, the node servers then replicate through a leader
+     */
+    private volatile boolean replicatedLog;
+    /**
+     * running or last search for the leader, requests needing the leader wait for it instead of probing themselves
+     */
+    private final AtomicReference<CompletableFuture<NodeState>> leaderSearch = new AtomicReference<>();
+    private final ScheduledExecutorService leaderProber = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "leader-probe");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Autowired
+    public HealthAwareServerManager(@Value("${nodeServerUrls}") String[] nodeServerUrls,
+                                    @Value("${server-manager.health-path:/dirs?path=/}") String healthPath,
+                                    @Value("${server-manager.leader-path:/raft/status}") String leaderPath,
+                                    @Value("${server-manager.catch-up-path:/catch-up/status}") String catchUpPath,
+                                    @Value("${server-manager.probe-timeout-millis:1000}") int probeTimeoutMillis,
+                                    @Value("${server-manager.failure-threshold:3}") int failureThreshold,
+                                    @Value("${server-manager.ejection-seconds:10}") long ejectionSeconds,
+                                    @Value("${server-manager.leader-wait-millis:3000}") long leaderWaitMillis,
+                                    PlacementProperties placementProperties, MeterRegistry registry) {
+        this.nodeServerUrls = nodeServerUrls;
+        this.ring = new HashRing(nodeServerUrls, placementProperties.getVirtualNodes(), placementProperties.getReplicas());
+        this.nodes = new NodeState[nodeServerUrls.length];
+        for (int i = 0; i < nodeServerUrls.length; i++) {
+            nodes[i] = new NodeState(nodeServerUrls[i], registry);
+        }
+        this.healthPath = healthPath;
+        this.leaderPath = leaderPath;
+        this.catchUpPath = catchUpPath;
+        this.probeTimeoutMillis = probeTimeoutMillis;
+        this.failureThreshold = failureThreshold;
+        this.ejectionNanos = TimeUnit.SECONDS.toNanos(ejectionSeconds);
+        this.leaderWaitNanos = TimeUnit.MILLISECONDS.toNanos(leaderWaitMillis);
+    }
+
+    @Override
+    public String getNextAvailableServerUrl() {
+        List<NodeState> candidates = available(Arrays.asList(nodes));
+        if (candidates.isEmpty()) {
+            // every server looks down, keep trying all of them rather than failing outright
+            candidates = Arrays.asList(nodes);
+        }
+        return choose(candidates);
+    }
+
+    @Override
+    public String getServerUrl(String path) {
+        List<NodeState> candidates = available(replicasOf(path));
+        if (candidates.isEmpty()) {
+            return getNextAvailableServerUrl();
+        }
+        return choose(candidates);
+    }
+
+    @Override
+    public String getServerUrl(String path, int replica) {
+        List<NodeState> replicas = replicasOf(path);
+        NodeState node = replicas.get(Math.floorMod(replica, replicas.size()));
+        if (!node.isAvailable(System.nanoTime())) {
+            return getServerUrl(path);
+        }
+        node.inFlight.incrementAndGet();
+        return node.url;
+    }
+
+    @Override
+    public boolean acquireServer(String url) {
+        NodeState node = find(url);
+        if (node == null || !node.isAvailable(System.nanoTime())) {
+            return false;
+        }
+        node.inFlight.incrementAndGet();
+        return true;
+    }
+
+    @Override
+    public String getLeaderServerUrl() {
+        NodeState node = findLeader();
+        if (node == null) {
+            return getNextAvailableServerUrl();
+        }
+        node.inFlight.incrementAndGet();
+        return node.url;
+    }
+
+    @Override
+    public String getLeaderServerUrl(String path) {
+        NodeState node = findLeader();
+        if (node == null) {
+            // any node server coordinates, one holding the path sends one of the copies to itself
+            return getServerUrl(path);
+        }
+        node.inFlight.incrementAndGet();
+        return node.url;
+    }
+
+    @Override
+    public void reportNotLeader(String url) {
+        replicatedLog = true;
+        NodeState node = leader;
+        if (node != null && node.url.equals(url)) {
+            leader = null;
+        }
+    }
+
+    @Override
+    public void releaseServer(String url, long elapsedNanos, boolean success) {
+        NodeState node = find(url);
+        if (node == null) {
+            return;
+        }
+        node.inFlight.decrementAndGet();
+        (success ? node.succeeded : node.failed).record(elapsedNanos, TimeUnit.NANOSECONDS);
+        if (success) {
+            node.recordLatency(elapsedNanos);
+            node.consecutiveFailures.set(0);
+        } else {
+            recordFailure(node);
+        }
+    }
+
+    /**
+     * probe every node server and update whether it is healthy.
+     */
+    @Scheduled(fixedDelayString = "${server-manager.probe-interval-millis:2000}")
+    public void probeServers() {
+        NodeState newLeader = null;
+        long leaderTerm = -1;
+        for (NodeState node : nodes) {
+            boolean healthy = probe(node.url);
+            if (healthy) {
+                node.consecutiveFailures.set(0);
+                boolean caughtUp = probeCaughtUp(node.url);
+                if (caughtUp != node.caughtUp) {
+                    logger.info(caughtUp ? "Node server {} caught up" : "Node server {} is catching up", node.url);
+                }
+                node.caughtUp = caughtUp;
+                // a node that lost its leadership may still believe it leads, its term is older
+                long term = probeLeaderTerm(node.url);
+                if (term > leaderTerm) {
+                    newLeader = node;
+                    leaderTerm = term;
+                }
+            } else if (node.healthy) {
+                logger.warn("Node server {} failed its health probe", node.url);
+            }
+            node.healthy = healthy;
+        }
+        if (newLeader != null && newLeader != leader) {
+            logger.info("Node server {} leads term {}", newLeader.url, leaderTerm);
+        }
+        leader = newLeader;
+        CompletableFuture<NodeState> search = leaderSearch.get();
+        if (newLeader != null && search != null) {
+            search.complete(newLeader);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        leaderProber.shutdownNow();
+    }
+
+    /**
+     * @return the available leader, null if the node servers do not replicate through a leader
+     * or none was elected within server-manager.leader-wait-millis
+     */
+    private NodeState findLeader() {
+        NodeState node = leader;
+        if (node != null && node.isAvailable(System.nanoTime())) {
+            return node;
+        }
+        if (!replicatedLog) {
+            return null;
+        }
+        try {
+            return searchLeader().get(leaderWaitNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            logger.warn("No node server leads the replicated log");
+            return null;
+        } catch (ExecutionException e) {
+            logger.warn("Failed to probe for the leader", e.getCause());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * start a search for the leader in the background unless one is running.
+     *
+     * @return the running search, completed with the leader or with null if none was elected in time
+     */
+    private CompletableFuture<NodeState> searchLeader() {
+        while (true) {
+            CompletableFuture<NodeState> search = leaderSearch.get();
+            if (search != null && !search.isDone()) {
+                return search;
+            }
+            CompletableFuture<NodeState> started = new CompletableFuture<>();
+            if (leaderSearch.compareAndSet(search, started)) {
+                long deadline = System.nanoTime() + leaderWaitNanos;
+                leaderProber.execute(() -> probeForLeader(started, deadline));
+                return started;
+            }
+        }
+    }
+
+    /**
+     * probe for the leader once, try again later on the prober's thread while an election may still end before the deadline.
+     */
+    private void probeForLeader(CompletableFuture<NodeState> search, long deadline) {
+        try {
+            // the scheduled probe may have found the leader since the search started
+            NodeState node = leader;
+            if (node == null || !node.isAvailable(System.nanoTime())) {
+                node = probeLeader();
+            }
+            if (node != null) {
+                leader = node;
+                search.complete(node);
+            } else if (System.nanoTime() - deadline >= 0) {
+                search.complete(null);
+            } else {
+                leaderProber.schedule(() -> probeForLeader(search, deadline), LEADER_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        } catch (RuntimeException e) {
+            search.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * @return the available node server that leads the highest term, null if none does
+     */
+    private NodeState probeLeader() {
+        NodeState newLeader = null;
+        long leaderTerm = -1;
+        for (NodeState node : nodes) {
+            if (node.isAvailable(System.nanoTime())) {
+                long term = probeLeaderTerm(node.url);
+                if (term > leaderTerm) {
+                    newLeader = node;
+                    leaderTerm = term;
+                }
+            }
+        }
+        if (newLeader != null) {
+            logger.info("Node server {} leads term {}", newLeader.url, leaderTerm);
+        }
+        return newLeader;
+    }
+
+    @Override
+    public String[] getAllServerUrl() {
+        return nodeServerUrls;
+    }
+
+    @Override
+    public int getNumberOfServers() {
+        return nodeServerUrls.length;
+    }
+
+    @Override
+    public int getNumberOfReplicas() {
+        return ring.getReplicas();
+    }
+
+    private List<NodeState> replicasOf(String path) {
+        List<NodeState> replicas = new ArrayList<>();
+        for (String url : ring.getReplicas(path)) {
+            replicas.add(find(url));
+        }
+        return replicas;
+    }
+
+    private static List<NodeState> available(List<NodeState> nodes) {
+        long now = System.nanoTime();
+        List<NodeState> candidates = new ArrayList<>(nodes.size());
+        for (NodeState node : nodes) {
+            if (node.isAvailable(now)) {
+                candidates.add(node);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * pick the better of two random candidates and count the request as outstanding on it.
+     */
+    private static String choose(List<NodeState> candidates) {
+        NodeState chosen = candidates.get(0);
+        if (candidates.size() > 1) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int first = random.nextInt(candidates.size());
+            int second = random.nextInt(candidates.size() - 1);
+            if (second >= first) {
+                second++;
+            }
+            NodeState a = candidates.get(first);
+            NodeState b = candidates.get(second);
+            chosen = a.score() <= b.score() ? a : b;
+        }
+        chosen.inFlight.incrementAndGet();
+        return chosen.url;
+    }
+
+    private boolean probe(String url) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(url + healthPath).openConnection();
+            connection.setConnectTimeout(probeTimeoutMillis);
+            connection.setReadTimeout(probeTimeoutMillis);
+            int status = connection.getResponseCode();
+            try (InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                if (body != null) {
+                    while (body.read() != -1) {
+                        // drain so the connection can be reused
+                    }
+                }
+            }
+            return status < 500;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * @return false while a node server replays the mutations it missed, true once it caught up
+     * or if it does not catch up at all
+     */
+    private boolean probeCaughtUp(String url) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(url + catchUpPath).openConnection();
+            connection.setConnectTimeout(probeTimeoutMillis);
+            connection.setReadTimeout(probeTimeoutMillis);
+            int status = connection.getResponseCode();
+            try (InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                if (body == null || status >= 400) {
+                    return true;
+                }
+                return !"CATCHING_UP".equals(StreamUtils.copyToString(body, StandardCharsets.UTF_8).trim());
+            }
+        } catch (IOException e) {
+            return true;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * @return term a node server leads, -1 if it is not the leader or does not replicate through a leader
+     */
+    private long probeLeaderTerm(String url) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(url + leaderPath).openConnection();
+            connection.setConnectTimeout(probeTimeoutMillis);
+            connection.setReadTimeout(probeTimeoutMillis);
+            int status = connection.getResponseCode();
+            try (InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                if (body == null || status >= 400) {
+                    return -1;
+                }
+                replicatedLog = true;
+                // role, term, leader, commit index and last applied index
+                String[] fields = StreamUtils.copyToString(body, StandardCharsets.UTF_8).trim().split(" ");
+                return fields.length > 1 && "LEADER".equals(fields[0]) ? Long.parseLong(fields[1]) : -1;
+            }
+        } catch (IOException | NumberFormatException e) {
+            return -1;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private void recordFailure(NodeState node) {
+        if (node.consecutiveFailures.incrementAndGet() >= failureThreshold) {
+            node.ejectedUntil = System.nanoTime() + ejectionNanos;
+            node.consecutiveFailures.set(0);
+            logger.warn("Node server {} ejected after {} consecutive failures", node.url, failureThreshold);
+        }
+    }
+
+    private NodeState find(String url) {
+        for (NodeState node : nodes) {
+            if (node.url.equals(url)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private static class NodeState {
+        private final String url;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        /**
+         * average latency in nanoseconds, stored as the bits of a double so it can be updated without a lock
+         */
+        private final AtomicLong latencyBits = new AtomicLong(Double.doubleToLongBits(TimeUnit.MILLISECONDS.toNanos(1)));
+        private volatile boolean healthy = true;
+        /**
+         * false while the node server replays the mutations it missed
+         */
+        private volatile boolean caughtUp = true;
+        private volatile long ejectedUntil = System.nanoTime();
+        private final Timer succeeded;
+        private final Timer failed;
+
+        NodeState(String url, MeterRegistry registry) {
+            this.url = url;
+            this.succeeded = requestTimer(registry, "success");
+            this.failed = requestTimer(registry, "failure");
+            Gauge.builder("node.in-flight", inFlight, AtomicInteger::get)
+                    .description("Requests relayed to the node server that have not finished")
+                    .tag("node", url)
+                    .register(registry);
+            Gauge.builder("node.available", this, node -> node.isAvailable(System.nanoTime()) ? 1 : 0)
+                    .description("1 if the node server gets requests, 0 if it is down, ejected or catching up")
+                    .tag("node", url)
+                    .register(registry);
+        }
+
+        private Timer requestTimer(MeterRegistry registry, String outcome) {
+            return Timer.builder("node.requests")
+                    .description("Requests relayed to the node server")
+                    .tag("node", url)
+                    .tag("outcome", outcome)
+                    .register(registry);
+        }
+
+        boolean isAvailable(long now) {
+            return healthy && caughtUp && now - ejectedUntil >= 0;
+        }
+
+        double score() {
+            return (inFlight.get() + 1) * Double.longBitsToDouble(latencyBits.get());
+        }
+
+        void recordLatency(long elapsedNanos) {
+            long current;
+            long updated;
+            do {
+                current = latencyBits.get();
+                double average = Double.longBitsToDouble(current);
+                updated = Double.doubleToLongBits(average + EWMA_ALPHA * (elapsedNanos - average));
+            } while (!latencyBits.compareAndSet(current, updated));
+        }
+    }
+}
@@ -1,9 +1,96 @@
 package com.example.centralServer.storage;
 
 public interface ServerManager {
+    /**
+     * pick the node server for the next request.
+     * the request counts as outstanding on that server until it is released.
+     *
+     * @return url of the node server
+     */
     String getNextAvailableServerUrl();
 
+    /**
+     * pick a node server holding a file, among the replicas of its path on the hash ring.
+     * falls back to the next available server when every replica is down.
+     * the request counts as outstanding on that server until it is released.
+     *
+     * @param path path of the file
+     * @return url of the node server
+     */
+    String getServerUrl(String path);
+
+    /**
+     * pick a specific replica of a file, so parallel requests for parts of the same file can be spread over servers.
+     * falls back to another replica when that replica is down.
+     * the request counts as outstanding on that server until it is released.
+     *
+     * @param path    path of the file
+     * @param replica index of the replica, taken modulo the number of replicas
+     * @return url of the node server
+     */
+    String getServerUrl(String path, int replica);
+
+    /**
+     * pick a specific node server, for requests that must reach several different servers.
+     * the request counts as outstanding on that server until it is released.
+     *
+     * @param url url of the node server
+     * @return false if the server is down or ejected, it is then not picked and must not be released
+     */
+    default boolean acquireServer(String url) {
+        return true;
+    }
+
+    /**
+     * pick the node server that accepts mutations.
+     * when the node servers replicate through an elected leader only the leader does,
+     * otherwise any server does and this is the same as getNextAvailableServerUrl.
+     * the request counts as outstanding on that server until it is released.
+     *
+     * @return url of the node server
+     */
+    default String getLeaderServerUrl() {
+        return getNextAvailableServerUrl();
+    }
+
+    /**
+     * pick the node server that accepts mutations of a path,
+     * the leader when the node servers replicate through one, otherwise a node server holding the path.
+     * the request counts as outstanding on that server until it is released.
+     *
+     * @param path path of the file or directory
+     * @return url of the node server
+     */
+    default String getLeaderServerUrl(String path) {
+        return getLeaderServerUrl();
+    }
+
+    /**
+     * report that a node server refused a mutation because it does not lead the replicated log,
+     * the next call of getLeaderServerUrl looks for the leader again.
+     *
+     * @param url url of the node server
+     */
+    default void reportNotLeader(String url) {
+    }
+
+    /**
+     * report that a request sent to a server returned by getNextAvailableServerUrl has finished.
+     *
+     * @param url          url of the node server
+     * @param elapsedNanos time the request took
+     * @param success      false if the server could not be reached or failed to handle the request
+     */
+    default void releaseServer(String url, long elapsedNanos, boolean success) {
+    }
+
     String[] getAllServerUrl();
 
     int getNumberOfServers();
+
+    /**
+     * @return number of node servers holding every file, a node server only lists all the files
+     * of a directory if it is the number of servers
+     */
+    int getNumberOfReplicas();
 }
@@ -1,26 +1,59 @@
 package com.example.centralServer.storage;
 
+import com.example.centralServer.placement.HashRing;
+import com.example.centralServer.placement.PlacementProperties;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Round robin over all node servers, or over the replicas of a file, used when server-manager.policy is round-robin.
+ */
 @Service
+@ConditionalOnProperty(name = "server-manager.policy", havingValue = "round-robin")
 public class ServerManagerImpl implements ServerManager {
 
     @Value("${nodeServerUrls}")
     private String[] nodeServerUrls;
-    private int availableServerIndex = 0;
+    private final AtomicInteger availableServerIndex = new AtomicInteger();
+    private final PlacementProperties placementProperties;
+    private HashRing ring;
 
     @Autowired
-    public ServerManagerImpl() {
+    public ServerManagerImpl(PlacementProperties placementProperties) {
+        this.placementProperties = placementProperties;
+    }
 
+    @PostConstruct
+    public void init() {
+        ring = new HashRing(nodeServerUrls, placementProperties.getVirtualNodes(), placementProperties.getReplicas());
     }
 
 
     @Override
     public String getNextAvailableServerUrl() {
-        availableServerIndex %= nodeServerUrls.length;
-        return nodeServerUrls[availableServerIndex++];
+        return nodeServerUrls[Math.floorMod(availableServerIndex.getAndIncrement(), nodeServerUrls.length)];
+    }
+
+    @Override
+    public String getServerUrl(String path) {
+        return getServerUrl(path, availableServerIndex.getAndIncrement());
+    }
+
+    @Override
+    public String getServerUrl(String path, int replica) {
+        List<String> replicas = ring.getReplicas(path);
+        return replicas.get(Math.floorMod(replica, replicas.size()));
+    }
+
+    @Override
+    public String getLeaderServerUrl(String path) {
+        return ring.getReplicas(path).get(0);
     }
 
     @Override
@@ -32,4 +65,9 @@ public class ServerManagerImpl implements ServerManager {
     public int getNumberOfServers() {
         return nodeServerUrls.length;
     }
+
+    @Override
+    public int getNumberOfReplicas() {
+        return ring.getReplicas();
+    }
 }
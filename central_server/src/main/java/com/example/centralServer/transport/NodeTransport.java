@@ -0,0 +1,115 @@
+package com.example.centralServer.transport;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared http transport from the central server to the node servers.
+ * Connections are pooled and kept alive per node server, so a request only pays
+ * the tcp handshake when no idle connection to that node is left in the pool.
+ * The pool is published as node.connections by state, pending counts requests waiting for a connection.
+ */
+@Component
+public class NodeTransport {
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+    private final HttpComponentsClientHttpRequestFactory requestFactory;
+    private final RestTemplate restTemplate;
+
+    @Autowired
+    public NodeTransport(NodeTransportProperties properties, MeterRegistry registry) {
+        this.connectionManager = new PoolingHttpClientConnectionManager();
+        this.connectionManager.setDefaultMaxPerRoute(properties.getMaxConnectionsPerRoute());
+        this.connectionManager.setMaxTotal(properties.getMaxConnectionsTotal());
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(properties.getConnectTimeoutMillis())
+                .setSocketTimeout(properties.getReadTimeoutMillis())
+                .setConnectionRequestTimeout(properties.getConnectionRequestTimeoutMillis())
+                .build();
+
+        this.httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .evictExpiredConnections()
+                .evictIdleConnections(properties.getIdleEvictionSeconds(), TimeUnit.SECONDS)
+                // compressed downloads are relayed to the client as they are, not decoded here
+                .disableContentCompression()
+                .build();
+
+        this.requestFactory = new HttpComponentsClientHttpRequestFactory(httpClient);
+        // stream request bodies instead of collecting them before sending
+        this.requestFactory.setBufferRequestBody(false);
+        this.restTemplate = new RestTemplate(requestFactory);
+
+        Gauge.builder("node.connections", connectionManager, pool -> pool.getTotalStats().getLeased())
+                .tag("state", "leased").register(registry);
+        Gauge.builder("node.connections", connectionManager, pool -> pool.getTotalStats().getAvailable())
+                .tag("state", "idle").register(registry);
+        Gauge.builder("node.connections", connectionManager, pool -> pool.getTotalStats().getPending())
+                .tag("state", "pending").register(registry);
+    }
+
+    /**
+     * get the rest template that sends requests over the shared pool.
+     *
+     * @return rest template
+     */
+    public RestTemplate getRestTemplate() {
+        return restTemplate;
+    }
+
+    /**
+     * get the request factory of the shared pool, for callers that need their own rest template settings.
+     *
+     * @return request factory
+     */
+    public ClientHttpRequestFactory getRequestFactory() {
+        return requestFactory;
+    }
+
+    /**
+     * get the connection pool statistics of all node servers together.
+     *
+     * @return leased, pending and available connections
+     */
+    public PoolStats getTotalStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    /**
+     * get the connection pool statistics of every node server that has been contacted.
+     *
+     * @return pool statistics by node server
+     */
+    public Map<String, PoolStats> getRouteStats() {
+        Map<String, PoolStats> stats = new LinkedHashMap<>();
+        for (HttpRoute route : connectionManager.getRoutes()) {
+            stats.put(route.getTargetHost().toURI(), connectionManager.getStats(route));
+        }
+        return stats;
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        httpClient.close();
+    }
+}
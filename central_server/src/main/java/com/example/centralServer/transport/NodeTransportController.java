@@ -0,0 +1,48 @@
+package com.example.centralServer.transport;
+
+import org.apache.http.pool.PoolStats;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@Controller
+public class NodeTransportController {
+    private final NodeTransport nodeTransport;
+
+    @Autowired
+    public NodeTransportController(NodeTransport nodeTransport) {
+        this.nodeTransport = nodeTransport;
+    }
+
+    /**
+     * get the connection pool statistics of the node transport
+     *
+     * @return leased, pending and available connections in total and by node server
+     */
+    @GetMapping("/transport/stats")
+    @ResponseBody
+    public ResponseEntity<?> getPoolStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("total", toMap(nodeTransport.getTotalStats()));
+        Map<String, Object> routes = new LinkedHashMap<>();
+        for (Map.Entry<String, PoolStats> entry : nodeTransport.getRouteStats().entrySet()) {
+            routes.put(entry.getKey(), toMap(entry.getValue()));
+        }
+        stats.put("nodes", routes);
+        return ResponseEntity.ok(stats);
+    }
+
+    private Map<String, Integer> toMap(PoolStats poolStats) {
+        Map<String, Integer> map = new LinkedHashMap<>();
+        map.put("leased", poolStats.getLeased());
+        map.put("pending", poolStats.getPending());
+        map.put("available", poolStats.getAvailable());
+        map.put("max", poolStats.getMax());
+        return map;
+    }
+}
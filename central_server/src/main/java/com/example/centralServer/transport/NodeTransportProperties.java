@@ -0,0 +1,85 @@
+package com.example.centralServer.transport;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@ConfigurationProperties("node.transport")
+public class NodeTransportProperties {
+
+    /**
+     * maximum number of pooled connections to a single node server
+     */
+    private int maxConnectionsPerRoute = 50;
+
+    /**
+     * maximum number of pooled connections to all node servers
+     */
+    private int maxConnectionsTotal = 200;
+
+    /**
+     * seconds a pooled connection may stay idle before it is closed
+     */
+    private long idleEvictionSeconds = 30;
+
+    /**
+     * milliseconds to wait for a tcp connection to a node server
+     */
+    private int connectTimeoutMillis = 2000;
+
+    /**
+     * milliseconds to wait for data from a node server
+     */
+    private int readTimeoutMillis = 60000;
+
+    /**
+     * milliseconds to wait for a free connection from the pool
+     */
+    private int connectionRequestTimeoutMillis = 2000;
+
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    public int getMaxConnectionsTotal() {
+        return maxConnectionsTotal;
+    }
+
+    public void setMaxConnectionsTotal(int maxConnectionsTotal) {
+        this.maxConnectionsTotal = maxConnectionsTotal;
+    }
+
+    public long getIdleEvictionSeconds() {
+        return idleEvictionSeconds;
+    }
+
+    public void setIdleEvictionSeconds(long idleEvictionSeconds) {
+        this.idleEvictionSeconds = idleEvictionSeconds;
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    public void setReadTimeoutMillis(int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    public int getConnectionRequestTimeoutMillis() {
+        return connectionRequestTimeoutMillis;
+    }
+
+    public void setConnectionRequestTimeoutMillis(int connectionRequestTimeoutMillis) {
+        this.connectionRequestTimeoutMillis = connectionRequestTimeoutMillis;
+    }
+}
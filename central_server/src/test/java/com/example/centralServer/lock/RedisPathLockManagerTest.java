@@ -0,0 +1,150 @@
+package com.example.centralServer.lock;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the lock scripts of RedisPathLockManager against a redis server started by the test.
+ * Leases are one second long, the shortest lock.lease-seconds allows, so renewals and expiry are seen quickly.
+ */
+class RedisPathLockManagerTest {
+
+    private static RedisServer redisServer;
+    private static LettuceConnectionFactory connectionFactory;
+    private static StringRedisTemplate redisTemplate;
+
+    private final List<RedisPathLockManager> managers = new ArrayList<>();
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        redisServer = RedisServer.builder().port(port).setting("bind 127.0.0.1").build();
+        redisServer.start();
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("localhost", port));
+        connectionFactory.afterPropertiesSet();
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    static void stopRedis() {
+        connectionFactory.destroy();
+        redisServer.stop();
+    }
+
+    @BeforeEach
+    void flush() {
+        try (RedisConnection connection = connectionFactory.getConnection()) {
+            connection.flushAll();
+        }
+    }
+
+    @AfterEach
+    void stopManagers() {
+        for (RedisPathLockManager manager : managers) {
+            manager.stop();
+        }
+    }
+
+    @Test
+    void conflictingLockIsRefusedUntilReleased() {
+        RedisPathLockManager manager = manager(200);
+        PathLock lock = manager.lock(Collections.singletonMap("/a/b", LockMode.EXCLUSIVE));
+        assertNotNull(lock);
+
+        assertNull(manager.lock(Collections.singletonMap("/a/b", LockMode.SHARED)));
+        assertNull(manager.lock(Collections.singletonMap("/a", LockMode.EXCLUSIVE)));
+        PathLock sibling = manager.lock(Collections.singletonMap("/a/c", LockMode.EXCLUSIVE));
+        assertNotNull(sibling);
+
+        lock.unlock();
+        sibling.unlock();
+        assertNotNull(manager.lock(Collections.singletonMap("/a", LockMode.EXCLUSIVE)));
+    }
+
+    @Test
+    void sharedLocksAreHeldTogether() {
+        RedisPathLockManager manager = manager(200);
+        assertNotNull(manager.lock(Collections.singletonMap("/a", LockMode.SHARED)));
+        assertNotNull(manager.lock(Collections.singletonMap("/a", LockMode.SHARED)));
+        assertNull(manager.lock(Collections.singletonMap("/a", LockMode.EXCLUSIVE)));
+    }
+
+    @Test
+    void fencingTokensGrowWithEveryGrant() {
+        RedisPathLockManager first = manager(200);
+        RedisPathLockManager second = manager(200);
+        long previous = PathLock.UNFENCED;
+        for (int i = 0; i < 10; i++) {
+            PathLock lock = (i % 2 == 0 ? first : second).lock(Collections.singletonMap("/a", LockMode.EXCLUSIVE));
+            assertNotNull(lock);
+            assertTrue(lock.getFencingToken() > previous, "token " + lock.getFencingToken() + " after " + previous);
+            previous = lock.getFencingToken();
+            lock.unlock();
+        }
+    }
+
+    @Test
+    void heldLockIsRenewedPastItsLease() throws InterruptedException {
+        RedisPathLockManager holder = manager(200);
+        RedisPathLockManager other = manager(200);
+        PathLock lock = holder.lock(Collections.singletonMap("/a", LockMode.EXCLUSIVE));
+        assertNotNull(lock);
+
+        Thread.sleep(2500);
+        assertNull(other.lock(Collections.singletonMap("/a", LockMode.EXCLUSIVE)));
+
+        lock.unlock();
+        PathLock next = other.lock(Collections.singletonMap("/a", LockMode.EXCLUSIVE));
+        assertNotNull(next);
+        assertTrue(next.getFencingToken() > lock.getFencingToken());
+    }
+
+    @Test
+    void leaseOfCrashedHolderRunsOut() {
+        RedisPathLockManager crashed = manager(200);
+        PathLock lock = crashed.lock(Collections.singletonMap("/a", LockMode.EXCLUSIVE));
+        assertNotNull(lock);
+        // stops renewing without releasing the lock
+        crashed.stop();
+
+        RedisPathLockManager other = manager(3000);
+        long start = System.currentTimeMillis();
+        PathLock next = other.lock(Collections.singletonMap("/a", LockMode.EXCLUSIVE));
+        assertNotNull(next);
+        assertTrue(System.currentTimeMillis() - start < 3000);
+        assertTrue(next.getFencingToken() > lock.getFencingToken());
+    }
+
+    private RedisPathLockManager manager(long waitMillis) {
+        LockProperties properties = new LockProperties();
+        properties.setWaitMillis(waitMillis);
+        properties.setLeaseSeconds(1);
+        RedisPathLockManager manager = new RedisPathLockManager(redisTemplate, properties, new LockMetrics(new SimpleMeterRegistry()));
+        manager.start();
+        managers.add(manager);
+        return manager;
+    }
+}
@@ -0,0 +1,277 @@
+package client;
+
+import org.apache.hc.core5.net.URIBuilder;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.fluent.Request;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Uploads a file as a chunked upload session.
+ * The chunks are sent on several connections at the same time and a chunk that fails
+ * is sent again on its own, so a broken connection does not restart the whole upload.
+ * The session id and the chunks sent are kept in a ".upload.state" file next to the local file,
+ * an upload that was interrupted continues with the chunks the server reports missing, as long as
+ * neither the local file nor the session changed. The session is only discarded by {@link #cancel}.
+ */
+public class ChunkedUploader {
+
+    public static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final String url;
+    private final int connections;
+    private final int chunkSize;
+
+    public ChunkedUploader(String url, int connections, int chunkSize) {
+        this.url = url;
+        this.connections = Math.max(1, connections);
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * upload a file, or continue the interrupted upload of the same file to the same folder.
+     *
+     * @param file       local file to upload
+     * @param remotePath path of the folder to upload to
+     * @return response of the server
+     */
+    public String upload(Path file, Path remotePath) throws IOException, URISyntaxException {
+        long size = Files.size(file);
+        int chunkCount = (int) ((size + chunkSize - 1) / chunkSize);
+        Path stateFile = stateFile(file);
+
+        UploadState state = UploadState.load(stateFile, remotePath.toString(), size, Files.getLastModifiedTime(file).toMillis(), chunkSize);
+        Set<Integer> missing = state == null ? null : getMissingChunks(state.sessionId);
+        if (missing == null) {
+            // nothing to resume, or the session expired on the server
+            URIBuilder initiateUri = new URIBuilder(url + "/uploads");
+            initiateUri.addParameter("path", remotePath.toString());
+            initiateUri.addParameter("fileName", file.getFileName().toString());
+            initiateUri.addParameter("size", String.valueOf(size));
+            initiateUri.addParameter("chunkSize", String.valueOf(chunkSize));
+            String sessionId = execute(Request.Post(initiateUri.build()), 201);
+            state = new UploadState(stateFile, sessionId, remotePath.toString(), size, Files.getLastModifiedTime(file).toMillis(), chunkSize);
+            state.save();
+            missing = new TreeSet<>();
+            for (int i = 0; i < chunkCount; i++) {
+                missing.add(i);
+            }
+        } else {
+            System.out.printf("Resuming upload %s, %d of %d chunks left%n", state.sessionId, missing.size(), chunkCount);
+        }
+
+        if (!missing.isEmpty()) {
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(connections, missing.size()));
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                UploadState finalState = state;
+                for (int index : missing) {
+                    futures.add(executor.submit(() -> {
+                        uploadChunk(file, finalState.sessionId, index, size);
+                        finalState.markUploaded(index);
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw new IOException(interrupted(file, cause.getMessage()), cause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(interrupted(file, "Upload interrupted"), e);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        URIBuilder completeUri = new URIBuilder(url + "/uploads/" + state.sessionId + "/complete");
+        completeUri.addParameter("path", remotePath.toString());
+        completeUri.addParameter("fileName", file.getFileName().toString());
+        String result = execute(Request.Post(completeUri.build()), 201);
+        Files.deleteIfExists(stateFile);
+        return result;
+    }
+
+    /**
+     * cancel the interrupted upload of a file, the server discards the chunks it received.
+     *
+     * @param file local file whose upload is cancelled
+     * @return false if no upload of the file was interrupted
+     */
+    public boolean cancel(Path file) throws IOException {
+        Path stateFile = stateFile(file);
+        UploadState state = UploadState.load(stateFile);
+        if (state == null) {
+            return false;
+        }
+        try {
+            Request.Delete(URI.create(url + "/uploads/" + state.sessionId)).execute().discardContent();
+        } catch (IOException ignored) {
+            // the server discards the session when it expires
+        }
+        Files.deleteIfExists(stateFile);
+        return true;
+    }
+
+    private static Path stateFile(Path file) {
+        return file.resolveSibling(file.getFileName() + ".upload.state");
+    }
+
+    private static String interrupted(Path file, String reason) {
+        return reason + ", run scp again to resume the upload or scp -c " + file + " to cancel it";
+    }
+
+    /**
+     * ask the server for the chunks of a session that have not arrived.
+     *
+     * @return indexes of the missing chunks, null if the server does not know the session
+     */
+    private Set<Integer> getMissingChunks(String sessionId) throws IOException {
+        HttpResponse response = Request.Get(URI.create(url + "/uploads/" + sessionId)).execute().returnResponse();
+        String body = response.getEntity() == null ? "" : EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+        if (response.getStatusLine().getStatusCode() != 200) {
+            return null;
+        }
+        Set<Integer> missing = new TreeSet<>();
+        for (String index : body.trim().split(" ")) {
+            if (!index.isEmpty()) {
+                missing.add(Integer.parseInt(index));
+            }
+        }
+        return missing;
+    }
+
+    private void uploadChunk(Path file, String sessionId, int index, long size) throws IOException {
+        long position = (long) index * chunkSize;
+        byte[] chunk = new byte[(int) Math.min(chunkSize, size - position)];
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file.toFile(), "r")) {
+            randomAccessFile.seek(position);
+            randomAccessFile.readFully(chunk);
+        }
+        URI uri = URI.create(url + "/uploads/" + sessionId + "/chunks/" + index);
+        IOException lastError = null;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            try {
+                execute(Request.Put(uri).bodyByteArray(chunk, ContentType.APPLICATION_OCTET_STREAM), 200);
+                return;
+            } catch (IOException e) {
+                lastError = e;
+            }
+        }
+        throw lastError;
+    }
+
+    private static String execute(Request request, int expectedStatus) throws IOException {
+        HttpResponse response = request.execute().returnResponse();
+        String body = response.getEntity() == null ? "" : EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+        if (response.getStatusLine().getStatusCode() != expectedStatus) {
+            throw new IOException("Status " + response.getStatusLine().getStatusCode() + ": " + body);
+        }
+        return body;
+    }
+
+    /**
+     * session of an upload and the chunks sent in it, saved as a properties file.
+     * the chunks the server reports missing are what is sent again, the saved ones only show the progress.
+     */
+    private static class UploadState {
+        private final Path file;
+        private final String sessionId;
+        private final String remotePath;
+        private final long size;
+        private final long lastModified;
+        private final long chunkSize;
+        private final Set<Integer> uploaded = new TreeSet<>();
+
+        private UploadState(Path file, String sessionId, String remotePath, long size, long lastModified, long chunkSize) {
+            this.file = file;
+            this.sessionId = sessionId;
+            this.remotePath = remotePath;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.chunkSize = chunkSize;
+        }
+
+        /**
+         * load the saved session, if it uploads the same version of the file to the same folder.
+         */
+        static UploadState load(Path file, String remotePath, long size, long lastModified, long chunkSize) throws IOException {
+            UploadState state = load(file);
+            if (state == null || !state.remotePath.equals(remotePath) || state.size != size
+                    || state.lastModified != lastModified || state.chunkSize != chunkSize) {
+                return null;
+            }
+            return state;
+        }
+
+        static UploadState load(Path file) throws IOException {
+            if (!Files.exists(file)) {
+                return null;
+            }
+            Properties properties = new Properties();
+            try (Reader reader = Files.newBufferedReader(file)) {
+                properties.load(reader);
+            }
+            if (properties.getProperty("session") == null) {
+                return null;
+            }
+            UploadState state = new UploadState(file, properties.getProperty("session"), properties.getProperty("path", ""),
+                    Long.parseLong(properties.getProperty("size", "-1")),
+                    Long.parseLong(properties.getProperty("lastModified", "-1")),
+                    Long.parseLong(properties.getProperty("chunkSize", "-1")));
+            for (String index : properties.getProperty("uploaded", "").split(" ")) {
+                if (!index.isEmpty()) {
+                    state.uploaded.add(Integer.parseInt(index));
+                }
+            }
+            return state;
+        }
+
+        synchronized void markUploaded(int index) throws IOException {
+            uploaded.add(index);
+            save();
+        }
+
+        synchronized void save() throws IOException {
+            Properties properties = new Properties();
+            properties.setProperty("session", sessionId);
+            properties.setProperty("path", remotePath);
+            properties.setProperty("size", String.valueOf(size));
+            properties.setProperty("lastModified", String.valueOf(lastModified));
+            properties.setProperty("chunkSize", String.valueOf(chunkSize));
+            StringBuilder indexes = new StringBuilder();
+            for (int index : uploaded) {
+                indexes.append(indexes.length() == 0 ? "" : " ").append(index);
+            }
+            properties.setProperty("uploaded", indexes.toString());
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(tmp)) {
+                properties.store(writer, null);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
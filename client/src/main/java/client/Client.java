@@ -3,7 +3,6 @@ package client;
 import org.apache.commons.io.IOUtils;
 import org.apache.hc.client5.http.classic.HttpClient;
 import org.apache.hc.client5.http.classic.methods.HttpPost;
-import org.apache.hc.client5.http.entity.mime.FileBody;
 import org.apache.hc.client5.http.entity.mime.MultipartEntityBuilder;
 import org.apache.hc.client5.http.impl.classic.HttpClients;
 import org.apache.hc.core5.http.ClassicHttpResponse;
@@ -20,7 +19,12 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class Client {
 
@@ -28,11 +32,17 @@ public class Client {
     public static final String url = "http://127.0.0.1:8080";
 
     private static final String userName = "Yun";
+    private static final int DEFAULT_UPLOAD_CONNECTIONS = 4;
 
     private Path currentDirectory = Paths.get("/");
     private boolean running = true;
 
-    public static void main(final String... args) {
+    public static void main(final String... args) throws Exception {
+        if (args.length > 0 && args[0].equals("load")) {
+            // headless load test instead of the interactive shell
+            LoadGenerator.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         new Client();
     }
 
@@ -83,6 +93,14 @@ public class Client {
                     deleteEntryByPath(true, getAbsolutePath(dirToDelete));
                     break;
                 case "rm":
+                    if (cmdArr[1].equals("-r")) {
+                        List<Path> paths = new ArrayList<>();
+                        for (int i = 2; i < cmdArr.length; i++) {
+                            paths.add(getAbsolutePath(cmdArr[i]));
+                        }
+                        deleteEntriesByPaths(paths);
+                        break;
+                    }
                     String fileToDelete = cmdArr[1];
                     deleteEntryByPath(false, getAbsolutePath(fileToDelete));
                     break;
@@ -90,10 +108,22 @@ public class Client {
                     System.out.println(currentDirectory);
                     break;
                 case "curl":
-                    downloadFileByPath(getAbsolutePath(cmdArr[1]));
+                    if (cmdArr[1].equals("-p")) {
+                        downloadFileByPath(getAbsolutePath(cmdArr[3]), Integer.parseInt(cmdArr[2]));
+                    } else {
+                        downloadFileByPath(getAbsolutePath(cmdArr[1]));
+                    }
                     break;
                 case "scp":
-                    uploadFileByPath(Paths.get(cmdArr[1]));
+                    if (cmdArr[1].equals("-p")) {
+                        uploadFileByPath(Paths.get(cmdArr[3]), Integer.parseInt(cmdArr[2]));
+                    } else if (cmdArr[1].equals("-r")) {
+                        uploadDirectoryByPath(Paths.get(cmdArr[2]));
+                    } else if (cmdArr[1].equals("-c")) {
+                        cancelUploadByPath(Paths.get(cmdArr[2]));
+                    } else {
+                        uploadFileByPath(Paths.get(cmdArr[1]));
+                    }
                     break;
                 default:
                     System.out.println("Invalid Command");
@@ -120,8 +150,19 @@ public class Client {
     }
 
     void uploadFileByPath(Path filePath) throws IOException, URISyntaxException {
+        // an edit of a stored file only sends what changed
+        String deltaResult = new DeltaUploader(url).upload(filePath, currentDirectory);
+        if (deltaResult != null) {
+            System.out.println(deltaResult);
+            return;
+        }
+        if (Files.size(filePath) > ChunkedUploader.DEFAULT_CHUNK_SIZE) {
+            uploadFileByPath(filePath, DEFAULT_UPLOAD_CONNECTIONS);
+            return;
+        }
         URIBuilder uriBuilder = new URIBuilder(url + "/files");
         uriBuilder.addParameter("path", currentDirectory.toString());
+        uriBuilder.addParameter("fileName", filePath.getFileName().toString());
 
         File file = new File(filePath.toString());
 
@@ -129,7 +170,7 @@ public class Client {
 
         HttpPost httppost = new HttpPost(uriBuilder.build());
         MultipartEntityBuilder builder = MultipartEntityBuilder.create();
-        builder.addPart("file", new FileBody(file));
+        builder.addPart(GzipFileBody.part("file", file, file.getName()));
 
         HttpEntity entity = builder.build();
         httppost.setEntity(entity);
@@ -142,6 +183,67 @@ public class Client {
         System.out.println(result);
     }
 
+    /**
+     * upload a file in chunks over several connections at the same time,
+     * a chunk that fails is retried on its own.
+     *
+     * @param filePath    path of the local file
+     * @param connections number of parallel connections
+     */
+    void uploadFileByPath(Path filePath, int connections) throws IOException, URISyntaxException {
+        String result = new ChunkedUploader(url, connections, ChunkedUploader.DEFAULT_CHUNK_SIZE)
+                .upload(filePath, currentDirectory);
+        System.out.println(result);
+    }
+
+    /**
+     * cancel the interrupted chunked upload of a file, an interrupted upload is otherwise resumed by the next scp.
+     *
+     * @param filePath path of the local file
+     */
+    void cancelUploadByPath(Path filePath) throws IOException {
+        boolean cancelled = new ChunkedUploader(url, 1, ChunkedUploader.DEFAULT_CHUNK_SIZE).cancel(filePath);
+        System.out.println(cancelled ? "Upload cancelled" : "No interrupted upload of " + filePath);
+    }
+
+    /**
+     * upload a local folder with everything in it to the current directory in one request,
+     * the files are committed together.
+     *
+     * @param dirPath path of the local folder
+     */
+    void uploadDirectoryByPath(Path dirPath) throws IOException, URISyntaxException {
+        URIBuilder uriBuilder = new URIBuilder(url + "/files/bulk");
+        uriBuilder.addParameter("path", currentDirectory.toString());
+
+        Path root = dirPath.toAbsolutePath().normalize();
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        if (files.isEmpty()) {
+            System.out.println("Error: No files in " + dirPath);
+            return;
+        }
+
+        MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+        for (Path file : files) {
+            // the folder itself is created in the current directory, like scp -r
+            String relativePath = root.getParent().relativize(file).toString().replace(File.separatorChar, '/');
+            builder.addPart(GzipFileBody.part("file", file.toFile(), relativePath));
+        }
+
+        HttpPost httppost = new HttpPost(uriBuilder.build());
+        httppost.setEntity(builder.build());
+
+        ClassicHttpResponse response = (ClassicHttpResponse) HttpClients.createDefault().execute(httppost);
+
+        InputStream inputStream = response.getEntity().getContent();
+        String result = IOUtils.toString(inputStream, StandardCharsets.UTF_8);
+
+        System.out.println(result);
+    }
+
     void downloadFileByPath(Path filePath) throws IOException {
         try {
             URIBuilder builder = new URIBuilder(url + "/files");
@@ -164,6 +266,23 @@ public class Client {
         }
     }
 
+    /**
+     * download a file over several connections at the same time,
+     * running it again after an interruption continues the download.
+     *
+     * @param filePath    path of the file
+     * @param connections number of parallel connections
+     */
+    void downloadFileByPath(Path filePath, int connections) throws IOException, URISyntaxException {
+        Path downloadFolderPath = Paths.get("").resolve("downloads");
+        Files.createDirectories(downloadFolderPath);
+        Path downloadedFilePath = downloadFolderPath.resolve(filePath.getFileName().toString());
+
+        new ParallelDownloader(url, connections).download(filePath, downloadedFilePath);
+
+        System.out.println("File downloaded to folder: " + downloadFolderPath.toAbsolutePath());
+    }
+
     void createDirByPath(Path path) {
         try {
             URIBuilder builder = new URIBuilder(url + "/dirs");
@@ -190,6 +309,25 @@ public class Client {
         }
     }
 
+    /**
+     * delete files and directories with everything in them in one request, they are deleted together.
+     *
+     * @param paths paths of the files and directories
+     */
+    void deleteEntriesByPaths(List<Path> paths) {
+        try {
+            String body = paths.stream().map(Path::toString).collect(Collectors.joining("\n"));
+
+            Content content = Request.Post(new URIBuilder(url + "/files/bulk/delete").build())
+                    .bodyString(body, org.apache.http.entity.ContentType.TEXT_PLAIN)
+                    .execute()
+                    .returnContent();
+            System.out.println(content.toString());
+        } catch (IOException | URISyntaxException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
 
     Path getAbsolutePath(String pathStr) {
         if (pathStr.startsWith("/")) {
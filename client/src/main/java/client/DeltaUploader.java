@@ -0,0 +1,390 @@
+package client;
+
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.entity.mime.MultipartEntityBuilder;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.core5.http.ParseException;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.net.URIBuilder;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.fluent.Request;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Uploads a new version of a stored file as a delta, like rsync.
+ * The signatures of the blocks of the stored file are fetched first, the parts of the local file that
+ * match a block are sent as a reference to it and only the rest is sent as data.
+ * The format of the delta and the checksums must be the same as on the node servers.
+ */
+public class DeltaUploader {
+
+    private static final int MAGIC = 0x444c5441;
+    private static final byte END = 0;
+    private static final byte COPY = 1;
+    private static final byte DATA = 2;
+    private static final int MIN_SIZE = 4096;
+    private static final int MAX_DATA = 64 * 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final String url;
+
+    public DeltaUploader(String url) {
+        this.url = url;
+    }
+
+    /**
+     * upload a file as a delta against the stored file of the same name.
+     *
+     * @param file       path of the local file
+     * @param remotePath path of the remote folder
+     * @return response of the server, null if there is no stored version to build on or it changed meanwhile
+     */
+    public String upload(Path file, Path remotePath) throws IOException, URISyntaxException {
+        if (Files.size(file) < MIN_SIZE) {
+            return null;
+        }
+        String fileName = file.getFileName().toString();
+        String remoteFile = remotePath.resolve(fileName).toString().replace('\\', '/');
+        URIBuilder signatureUri = new URIBuilder(url + "/files/signature");
+        signatureUri.addParameter("path", remoteFile);
+        HttpResponse signatureResponse = Request.Get(signatureUri.build()).execute().returnResponse();
+        if (signatureResponse.getStatusLine().getStatusCode() != 200) {
+            return null;
+        }
+        Signatures signatures = Signatures.parse(org.apache.http.util.EntityUtils.toString(signatureResponse.getEntity(), StandardCharsets.UTF_8));
+
+        Path delta = Files.createTempFile("delta-", null);
+        try {
+            long literalBytes = diff(file, signatures, delta);
+            if (Files.size(delta) >= Files.size(file)) {
+                // nothing worth keeping, the whole file is cheaper
+                return null;
+            }
+            System.out.printf("Sending %d of %d bytes, the rest is in the stored file%n", literalBytes, Files.size(file));
+
+            URIBuilder uriBuilder = new URIBuilder(url + "/files/delta");
+            uriBuilder.addParameter("path", remotePath.toString());
+            uriBuilder.addParameter("fileName", fileName);
+            HttpPost httppost = new HttpPost(uriBuilder.build());
+            MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+            builder.addPart(GzipFileBody.part("delta", delta.toFile(), fileName));
+            httppost.setEntity(builder.build());
+            try (CloseableHttpClient httpClient = HttpClients.createDefault();
+                 CloseableHttpResponse response = httpClient.execute(httppost)) {
+                String body = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+                // the stored file changed since its signatures were fetched
+                return response.getCode() == 412 ? null : body;
+            } catch (ParseException e) {
+                throw new IOException(e);
+            }
+        } finally {
+            Files.deleteIfExists(delta);
+        }
+    }
+
+    /**
+     * write the delta that turns the stored file into the local file.
+     *
+     * @return number of bytes sent as data
+     */
+    static long diff(Path file, Signatures signatures, Path target) throws IOException {
+        int blockSize = signatures.blockSize;
+        try (InputStream inputStream = new BufferedInputStream(Files.newInputStream(file), 64 * 1024);
+             DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(target), 64 * 1024))) {
+            outputStream.writeInt(MAGIC);
+            outputStream.writeUTF(signatures.version);
+            outputStream.writeInt(blockSize);
+            outputStream.writeLong(Files.size(file));
+            outputStream.write(sha256(file));
+
+            DeltaWriter writer = new DeltaWriter(outputStream);
+            RollingChecksum checksum = new RollingChecksum();
+            byte[] window = new byte[blockSize];
+            int start = 0;
+            int filled = readFully(inputStream, window);
+            if (filled == blockSize) {
+                checksum.reset(window, blockSize);
+            }
+            while (filled == blockSize) {
+                int block = signatures.find(checksum.getValue(), window, start, writer.nextBlock());
+                if (block >= 0) {
+                    writer.copy(block);
+                    start = 0;
+                    filled = readFully(inputStream, window);
+                    if (filled == blockSize) {
+                        checksum.reset(window, blockSize);
+                    }
+                    continue;
+                }
+                int next = inputStream.read();
+                if (next == -1) {
+                    break;
+                }
+                byte out = window[start];
+                writer.data(out);
+                window[start] = (byte) next;
+                start = (start + 1) % blockSize;
+                checksum.roll(out, (byte) next);
+            }
+
+            // the rest may end with the last block of the stored file, which is shorter than the others
+            byte[] rest = new byte[filled];
+            for (int i = 0; i < filled; i++) {
+                rest[i] = window[(start + i) % blockSize];
+            }
+            int tail = signatures.tailLength();
+            if (tail > 0 && filled >= tail && signatures.matchesTail(rest, filled - tail)) {
+                writer.data(rest, 0, filled - tail);
+                writer.copy(signatures.blockCount() - 1);
+            } else {
+                writer.data(rest, 0, filled);
+            }
+            writer.end();
+            return writer.dataBytes;
+        }
+    }
+
+    private static int readFully(InputStream inputStream, byte[] buffer) throws IOException {
+        int filled = 0;
+        int read;
+        while (filled < buffer.length && (read = inputStream.read(buffer, filled, buffer.length - filled)) != -1) {
+            filled += read;
+        }
+        return filled;
+    }
+
+    private static byte[] sha256(Path file) throws IOException {
+        MessageDigest digest = newDigest("SHA-256");
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return digest.digest();
+    }
+
+    private static MessageDigest newDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[2 * i + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * signatures of the blocks of the stored file.
+     */
+    static class Signatures {
+        private final String version;
+        private final int blockSize;
+        private final long length;
+        private final List<String> hashes = new ArrayList<>();
+        /**
+         * indexes of the full blocks by their weak checksum
+         */
+        private final Map<Integer, List<Integer>> blocksByChecksum = new HashMap<>();
+        private final MessageDigest md5 = newDigest("MD5");
+
+        private Signatures(String version, int blockSize, long length) {
+            this.version = version;
+            this.blockSize = blockSize;
+            this.length = length;
+        }
+
+        static Signatures parse(String text) throws IOException {
+            String[] lines = text.split("\n");
+            String[] header = lines[0].trim().split(" ");
+            if (header.length != 3) {
+                throw new IOException("Invalid signatures: " + lines[0]);
+            }
+            Signatures signatures = new Signatures(header[0], Integer.parseInt(header[1]), Long.parseLong(header[2]));
+            for (int i = 1; i < lines.length; i++) {
+                String[] fields = lines[i].trim().split(" ");
+                if (fields.length != 2) {
+                    continue;
+                }
+                int index = signatures.hashes.size();
+                signatures.hashes.add(fields[1]);
+                if ((long) (index + 1) * signatures.blockSize <= signatures.length) {
+                    signatures.blocksByChecksum.computeIfAbsent(Integer.parseUnsignedInt(fields[0], 16), key -> new ArrayList<>()).add(index);
+                }
+            }
+            return signatures;
+        }
+
+        int blockCount() {
+            return hashes.size();
+        }
+
+        /**
+         * @return length of the last block if it is shorter than the others, otherwise 0
+         */
+        int tailLength() {
+            return (int) (length % blockSize);
+        }
+
+        /**
+         * find a full block equal to a window, the block after the last copied one is preferred.
+         *
+         * @return index of the block, -1 if none matches
+         */
+        int find(int checksum, byte[] window, int start, int preferred) {
+            List<Integer> candidates = blocksByChecksum.get(checksum);
+            if (candidates == null) {
+                return -1;
+            }
+            md5.update(window, start, window.length - start);
+            md5.update(window, 0, start);
+            String hash = toHex(md5.digest());
+            int found = -1;
+            for (int block : candidates) {
+                if (hashes.get(block).equals(hash)) {
+                    if (block == preferred) {
+                        return block;
+                    }
+                    if (found == -1) {
+                        found = block;
+                    }
+                }
+            }
+            return found;
+        }
+
+        boolean matchesTail(byte[] bytes, int offset) {
+            md5.update(bytes, offset, tailLength());
+            return hashes.get(hashes.size() - 1).equals(toHex(md5.digest()));
+        }
+    }
+
+    /**
+     * writes COPY and DATA instructions, consecutive blocks are copied with one instruction.
+     */
+    private static class DeltaWriter {
+        private final DataOutputStream outputStream;
+        private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        private int firstBlock;
+        private int blockCount;
+        private int lastBlock = -1;
+        private long dataBytes;
+
+        DeltaWriter(DataOutputStream outputStream) {
+            this.outputStream = outputStream;
+        }
+
+        /**
+         * @return block after the last copied one
+         */
+        int nextBlock() {
+            return lastBlock + 1;
+        }
+
+        void copy(int block) throws IOException {
+            flushData();
+            lastBlock = block;
+            if (blockCount > 0 && block == firstBlock + blockCount) {
+                blockCount++;
+                return;
+            }
+            flushCopy();
+            firstBlock = block;
+            blockCount = 1;
+        }
+
+        void data(byte value) throws IOException {
+            flushCopy();
+            data.write(value);
+            if (data.size() >= MAX_DATA) {
+                flushData();
+            }
+        }
+
+        void data(byte[] bytes, int offset, int length) throws IOException {
+            for (int i = 0; i < length; i++) {
+                data(bytes[offset + i]);
+            }
+        }
+
+        void end() throws IOException {
+            flushCopy();
+            flushData();
+            outputStream.writeByte(END);
+        }
+
+        private void flushCopy() throws IOException {
+            if (blockCount > 0) {
+                outputStream.writeByte(COPY);
+                outputStream.writeInt(firstBlock);
+                outputStream.writeInt(blockCount);
+                blockCount = 0;
+            }
+        }
+
+        private void flushData() throws IOException {
+            if (data.size() > 0) {
+                outputStream.writeByte(DATA);
+                outputStream.writeInt(data.size());
+                data.writeTo(outputStream);
+                dataBytes += data.size();
+                data.reset();
+            }
+        }
+    }
+
+    /**
+     * weak checksum of rsync over a window, moved by one byte at a time.
+     */
+    private static class RollingChecksum {
+        private int a;
+        private int b;
+        private int length;
+
+        void reset(byte[] bytes, int length) {
+            a = 0;
+            b = 0;
+            this.length = length;
+            for (int i = 0; i < length; i++) {
+                int value = bytes[i] & 0xff;
+                a += value;
+                b += (length - i) * value;
+            }
+        }
+
+        void roll(byte out, byte in) {
+            a += (in & 0xff) - (out & 0xff);
+            b += a - length * (out & 0xff);
+        }
+
+        int getValue() {
+            return (a & 0xffff) | (b << 16);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package client;
+
+import org.apache.hc.client5.http.entity.mime.FileBody;
+import org.apache.hc.client5.http.entity.mime.FormBodyPart;
+import org.apache.hc.client5.http.entity.mime.FormBodyPartBuilder;
+import org.apache.hc.core5.http.ContentType;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * File part of a multipart upload that is gzip compressed while it is sent.
+ * The node servers decode parts with a Content-Encoding header, the central server passes them on as they are.
+ */
+public class GzipFileBody extends FileBody {
+
+    private static final int MIN_SIZE = 4096;
+    private static final int SAMPLE_SIZE = 64 * 1024;
+    private static final double MIN_SAVING = 0.1;
+
+    public GzipFileBody(File file, ContentType contentType, String fileName) {
+        super(file, contentType, fileName);
+    }
+
+    /**
+     * create the part of a file, compressed if a sample of it compresses.
+     *
+     * @param name     name of the part
+     * @param file     file to upload
+     * @param fileName file name of the part
+     * @return the part
+     */
+    public static FormBodyPart part(String name, File file, String fileName) throws IOException {
+        if (compresses(file)) {
+            return FormBodyPartBuilder.create(name, new GzipFileBody(file, ContentType.DEFAULT_BINARY, fileName))
+                    .addField("Content-Encoding", "gzip")
+                    .build();
+        }
+        return FormBodyPartBuilder.create(name, new FileBody(file, ContentType.DEFAULT_BINARY, fileName)).build();
+    }
+
+    /**
+     * check whether the start of a file gets at least MIN_SAVING smaller when it is compressed.
+     */
+    private static boolean compresses(File file) throws IOException {
+        if (file.length() < MIN_SIZE) {
+            return false;
+        }
+        byte[] sample = new byte[(int) Math.min(SAMPLE_SIZE, file.length())];
+        int length = 0;
+        try (InputStream inputStream = Files.newInputStream(file.toPath())) {
+            int read;
+            while (length < sample.length && (read = inputStream.read(sample, length, sample.length - length)) > 0) {
+                length += read;
+            }
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(sample, 0, length);
+            deflater.finish();
+            byte[] buffer = new byte[8192];
+            long compressed = 0;
+            while (!deflater.finished()) {
+                compressed += deflater.deflate(buffer);
+            }
+            return compressed <= length * (1 - MIN_SAVING);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public long getContentLength() {
+        // the compressed length is only known once the part is sent
+        return -1;
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        GZIPOutputStream gzip = new GZIPOutputStream(new FilterOutputStream(outputStream) {
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                out.write(bytes, offset, length);
+            }
+
+            @Override
+            public void close() throws IOException {
+                // the rest of the multipart body is written to the same stream
+                flush();
+            }
+        }, 8192);
+        try (InputStream inputStream = getInputStream()) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                gzip.write(buffer, 0, read);
+            }
+        }
+        gzip.close();
+    }
+}
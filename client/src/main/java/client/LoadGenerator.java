@@ -0,0 +1,509 @@
+package client;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+import org.apache.hc.client5.http.classic.methods.HttpDelete;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.entity.mime.ByteArrayBody;
+import org.apache.hc.client5.http.entity.mime.MultipartEntityBuilder;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.net.URIBuilder;
+import org.apache.hc.core5.util.Timeout;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless load test of the central server: simulated users run a mix of ls, mkdir, scp, curl and rm
+ * in directories of their own, waiting a think time between operations.
+ * Prints throughput and latency percentiles per operation, and can write HdrHistogram logs.
+ *
+ * Every user follows a schedule: an operation is due a think time after the previous one was due,
+ * and its latency is counted from when it was due rather than from when it was sent. An operation delayed
+ * by a slow one before it is counted with the delay, so a stalled server is not hidden by the users
+ * that waited for it (coordinated omission). The time from sending to the answer is kept as the service time.
+ *
+ * Run with: java client.Client load [--option=value ...], see usage() for the options.
+ */
+public class LoadGenerator {
+
+    enum Operation {
+        LS, MKDIR, SCP, CURL, RM;
+
+        String label() {
+            return name().toLowerCase();
+        }
+    }
+
+    private final Map<String, String> options;
+    private final String runId = Long.toString(System.currentTimeMillis(), 36);
+    private final int users;
+    private final long durationNanos;
+    private final long warmupNanos;
+    private final long thinkNanos;
+    private final String thinkDistribution;
+    private final long reportNanos;
+    private final Operation[] operations;
+    private final double[] operationWeights;
+    private final byte[][] fileContents;
+    private final double[] fileWeights;
+    private final Path output;
+
+    private final Map<Operation, Recorder> responseRecorders = new LinkedHashMap<>();
+    private final Map<Operation, Recorder> serviceRecorders = new LinkedHashMap<>();
+    private final Map<Operation, Histogram> responseTotals = new LinkedHashMap<>();
+    private final Map<Operation, Histogram> serviceTotals = new LinkedHashMap<>();
+    private final Map<Operation, AtomicLong> errors = new LinkedHashMap<>();
+    /**
+     * failed operations by operation and status, or by exception when there was no answer
+     */
+    private final Map<String, AtomicLong> errorCauses = new ConcurrentHashMap<>();
+
+    private String url;
+    private CloseableHttpClient httpClient;
+    private volatile boolean measuring;
+
+    public static void main(String... args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                usage();
+                throw new IllegalArgumentException("Invalid option " + arg);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        new LoadGenerator(options).run();
+    }
+
+    static void usage() {
+        System.out.println("Usage: java client.Client load [--option=value ...]\n"
+                + "  --url=" + Client.url + "            central server to load\n"
+                + "  --cluster-nodes=0                       start a local cluster of that many node servers instead\n"
+                + "  --cluster-port=18080                    port of its central server, node servers take the next ones\n"
+                + "  --node-jar=../node_server/target/FileNodeServer.jar\n"
+                + "  --central-jar=../central_server/target/CentralServer.jar\n"
+                + "  --users=100                             concurrent simulated users\n"
+                + "  --duration-seconds=60                   measured run time\n"
+                + "  --warmup-seconds=10                     run time before measuring\n"
+                + "  --mix=ls:40,curl:30,scp:15,mkdir:10,rm:5  weights of the operations\n"
+                + "  --file-sizes=4096:60,65536:30,1048576:10  sizes of uploaded files in bytes and their weights\n"
+                + "  --think-millis=500                      mean time between the operations of a user\n"
+                + "  --think-distribution=exponential        exponential, fixed or none\n"
+                + "  --report-seconds=5                      interval of progress lines and histogram log entries\n"
+                + "  --output=                               folder for load.hlog and <operation>.hgrm files");
+    }
+
+    LoadGenerator(Map<String, String> options) {
+        this.options = options;
+        this.users = Integer.parseInt(option("users", "100"));
+        this.durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(option("duration-seconds", "60")));
+        this.warmupNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(option("warmup-seconds", "10")));
+        this.thinkNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(option("think-millis", "500")));
+        this.thinkDistribution = option("think-distribution", "exponential");
+        this.reportNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(option("report-seconds", "5")));
+        this.output = options.containsKey("output") && !options.get("output").isEmpty() ? Paths.get(options.get("output")) : null;
+
+        Map<String, Double> mix = parseWeights(option("mix", "ls:40,curl:30,scp:15,mkdir:10,rm:5"));
+        this.operations = new Operation[mix.size()];
+        this.operationWeights = new double[mix.size()];
+        int i = 0;
+        for (Map.Entry<String, Double> entry : mix.entrySet()) {
+            operations[i] = Operation.valueOf(entry.getKey().toUpperCase());
+            operationWeights[i++] = entry.getValue();
+        }
+
+        Map<String, Double> sizes = parseWeights(option("file-sizes", "4096:60,65536:30,1048576:10"));
+        this.fileContents = new byte[sizes.size()][];
+        this.fileWeights = new double[sizes.size()];
+        Random random = new Random(42);
+        i = 0;
+        for (Map.Entry<String, Double> entry : sizes.entrySet()) {
+            fileContents[i] = new byte[Integer.parseInt(entry.getKey())];
+            // random bytes, so compression on the wire does not flatter the numbers
+            random.nextBytes(fileContents[i]);
+            fileWeights[i++] = entry.getValue();
+        }
+
+        for (Operation operation : Operation.values()) {
+            // microseconds up to an hour, three significant digits
+            responseRecorders.put(operation, new Recorder(TimeUnit.HOURS.toMicros(1), 3));
+            serviceRecorders.put(operation, new Recorder(TimeUnit.HOURS.toMicros(1), 3));
+            responseTotals.put(operation, new Histogram(TimeUnit.HOURS.toMicros(1), 3));
+            serviceTotals.put(operation, new Histogram(TimeUnit.HOURS.toMicros(1), 3));
+            errors.put(operation, new AtomicLong());
+        }
+    }
+
+    void run() throws Exception {
+        int clusterNodes = Integer.parseInt(option("cluster-nodes", "0"));
+        LocalCluster cluster = null;
+        if (clusterNodes > 0) {
+            System.out.printf("Starting a local cluster of %d node servers%n", clusterNodes);
+            cluster = new LocalCluster(Paths.get(option("node-jar", "../node_server/target/FileNodeServer.jar")),
+                    Paths.get(option("central-jar", "../central_server/target/CentralServer.jar")),
+                    clusterNodes, Integer.parseInt(option("cluster-port", "18080")));
+            System.out.println("Local cluster is up, its storage and logs are in " + cluster.getDirectory());
+            url = cluster.getUrl();
+        } else {
+            url = option("url", Client.url);
+        }
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(Timeout.ofSeconds(5))
+                .setResponseTimeout(Timeout.ofSeconds(60))
+                .build();
+        httpClient = HttpClients.custom()
+                .setConnectionManager(PoolingHttpClientConnectionManagerBuilder.create()
+                        .setMaxConnPerRoute(users)
+                        .setMaxConnTotal(users)
+                        .build())
+                .setDefaultRequestConfig(requestConfig)
+                .build();
+
+        try {
+            String root = "/load-" + runId;
+            expect(send(new HttpPost(uri("/dirs", root))), "create " + root);
+            List<User> userList = new ArrayList<>();
+            for (int i = 0; i < users; i++) {
+                User user = new User(root + "/user-" + i);
+                user.setUp();
+                userList.add(user);
+            }
+            System.out.printf("Running %d users against %s, warming up for %d s then measuring for %d s%n",
+                    users, url, TimeUnit.NANOSECONDS.toSeconds(warmupNanos), TimeUnit.NANOSECONDS.toSeconds(durationNanos));
+            measure(userList);
+            report();
+        } finally {
+            httpClient.close();
+            if (cluster != null) {
+                cluster.close();
+            }
+        }
+    }
+
+    /**
+     * run the users for the warmup and the measured time, collecting the interval histograms meanwhile.
+     */
+    private void measure(List<User> userList) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        long measureStart = start + warmupNanos;
+        long end = measureStart + durationNanos;
+        CountDownLatch finished = new CountDownLatch(userList.size());
+        for (User user : userList) {
+            Thread thread = new Thread(() -> {
+                try {
+                    user.run(start, end);
+                } finally {
+                    finished.countDown();
+                }
+            }, "load-" + user.directory);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        HistogramLogWriter logWriter = null;
+        if (output != null) {
+            Files.createDirectories(output);
+            logWriter = new HistogramLogWriter(new PrintStream(new FileOutputStream(output.resolve("load.hlog").toFile())));
+            logWriter.outputComment("load test " + runId + " of " + url + " with " + users + " users, values in microseconds");
+            logWriter.outputLogFormatVersion();
+            logWriter.outputStartTime(System.currentTimeMillis());
+            logWriter.outputLegend();
+        }
+
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(warmupNanos));
+        // drop what was recorded during the warmup
+        for (Operation operation : Operation.values()) {
+            responseRecorders.get(operation).reset();
+            serviceRecorders.get(operation).reset();
+            errors.get(operation).set(0);
+        }
+        errorCauses.clear();
+        measuring = true;
+        long intervalStart = System.nanoTime();
+        while (!finished.await(Math.min(reportNanos, Math.max(0, end - System.nanoTime())), TimeUnit.NANOSECONDS)
+                && System.nanoTime() < end) {
+            collect(logWriter, intervalStart);
+            intervalStart = System.nanoTime();
+        }
+        measuring = false;
+        collect(logWriter, intervalStart);
+        // users in the middle of an operation finish it, it is no longer recorded
+        finished.await(60, TimeUnit.SECONDS);
+        if (logWriter != null) {
+            logWriter.close();
+        }
+    }
+
+    /**
+     * add the histograms of the last interval to the totals, log them and print a progress line.
+     */
+    private void collect(HistogramLogWriter logWriter, long intervalStart) {
+        long operationsInInterval = 0;
+        for (Operation operation : Operation.values()) {
+            Histogram response = responseRecorders.get(operation).getIntervalHistogram();
+            Histogram service = serviceRecorders.get(operation).getIntervalHistogram();
+            responseTotals.get(operation).add(response);
+            serviceTotals.get(operation).add(service);
+            operationsInInterval += response.getTotalCount();
+            if (logWriter != null && response.getTotalCount() > 0) {
+                response.setTag(operation.label());
+                logWriter.outputIntervalHistogram(response);
+                service.setTag(operation.label() + "-service");
+                logWriter.outputIntervalHistogram(service);
+            }
+        }
+        double seconds = (System.nanoTime() - intervalStart) / 1e9;
+        System.out.printf("%8.0f ops/s%n", seconds > 0 ? operationsInInterval / seconds : 0);
+    }
+
+    private void report() throws IOException {
+        double seconds = durationNanos / 1e9;
+        System.out.printf("%n%-6s %9s %7s %9s %9s %9s %9s %9s %9s %12s%n", "op", "count", "errors", "ops/s",
+                "p50 ms", "p95 ms", "p99 ms", "p99.9 ms", "max ms", "svc p99 ms");
+        long totalCount = 0;
+        Histogram all = new Histogram(TimeUnit.HOURS.toMicros(1), 3);
+        for (Operation operation : Operation.values()) {
+            Histogram response = responseTotals.get(operation);
+            Histogram service = serviceTotals.get(operation);
+            if (response.getTotalCount() == 0 && errors.get(operation).get() == 0) {
+                continue;
+            }
+            printRow(operation.label(), response, service, errors.get(operation).get(), seconds);
+            totalCount += response.getTotalCount();
+            all.add(response);
+            if (output != null) {
+                writePercentiles(response, output.resolve(operation.label() + ".hgrm"));
+                writePercentiles(service, output.resolve(operation.label() + "-service.hgrm"));
+            }
+        }
+        long totalErrors = errors.values().stream().mapToLong(AtomicLong::get).sum();
+        printRow("all", all, null, totalErrors, seconds);
+        System.out.printf("%nLatency is counted from when each operation was due, svc p99 from when it was sent.%n");
+        if (totalCount == 0) {
+            System.out.println("No operation completed.");
+        }
+        if (!errorCauses.isEmpty()) {
+            System.out.println("Errors: " + new TreeMap<>(errorCauses));
+        }
+        if (output != null) {
+            writePercentiles(all, output.resolve("all.hgrm"));
+            System.out.println("Histograms written to " + output.toAbsolutePath());
+        }
+    }
+
+    private static void printRow(String label, Histogram response, Histogram service, long errorCount, double seconds) {
+        System.out.printf("%-6s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f %12s%n", label, response.getTotalCount(), errorCount,
+                response.getTotalCount() / seconds, millis(response, 50), millis(response, 95), millis(response, 99),
+                millis(response, 99.9), response.getMaxValue() / 1000.0,
+                service == null ? "" : String.format("%.2f", millis(service, 99)));
+    }
+
+    private static double millis(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    private static void writePercentiles(Histogram histogram, Path file) throws IOException {
+        try (PrintStream stream = new PrintStream(new FileOutputStream(file.toFile()))) {
+            // values are microseconds, the distribution is written in milliseconds
+            histogram.outputPercentileDistribution(stream, 1000.0);
+        }
+    }
+
+    /**
+     * a simulated user, working in a directory of its own.
+     */
+    private class User {
+        private final String directory;
+        private final List<String> files = new ArrayList<>();
+        private int created;
+
+        User(String directory) {
+            this.directory = directory;
+        }
+
+        /**
+         * create the directory of the user with one file, so a curl has something to download from the start.
+         */
+        void setUp() throws IOException, URISyntaxException {
+            expect(send(new HttpPost(uri("/dirs", directory))), "create " + directory);
+            expect(upload(), "upload to " + directory);
+        }
+
+        void run(long start, long end) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            // users start spread over a think time, not all at once
+            long due = start + (long) (random.nextDouble() * thinkNanos);
+            while (true) {
+                long now = System.nanoTime();
+                if (due - end >= 0) {
+                    return;
+                }
+                if (due > now) {
+                    sleepNanos(due - now);
+                }
+                Operation operation = pick(random);
+                long sent = System.nanoTime();
+                String cause;
+                try {
+                    int status = execute(operation, random);
+                    cause = status < 300 ? null : String.valueOf(status);
+                } catch (IOException | URISyntaxException | RuntimeException e) {
+                    cause = e.getClass().getSimpleName();
+                }
+                long done = System.nanoTime();
+                if (measuring) {
+                    if (cause == null) {
+                        responseRecorders.get(operation).recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(done - due)));
+                        serviceRecorders.get(operation).recordValue(TimeUnit.NANOSECONDS.toMicros(done - sent));
+                    } else {
+                        errors.get(operation).incrementAndGet();
+                        errorCauses.computeIfAbsent(operation.label() + " " + cause, key -> new AtomicLong()).incrementAndGet();
+                    }
+                }
+                due += think(random);
+            }
+        }
+
+        /**
+         * pick the next operation by the weights of the mix.
+         * a user keeps at least one file to download, it uploads instead of removing its last file.
+         */
+        private Operation pick(ThreadLocalRandom random) {
+            Operation operation = operations[weighted(operationWeights, random)];
+            if (operation == Operation.CURL && files.isEmpty() || operation == Operation.RM && files.size() < 2) {
+                return Operation.SCP;
+            }
+            return operation;
+        }
+
+        /**
+         * @return status of the response
+         */
+        private int execute(Operation operation, ThreadLocalRandom random) throws IOException, URISyntaxException {
+            switch (operation) {
+                case LS:
+                    return send(new HttpGet(uri("/dirs", directory)));
+                case MKDIR:
+                    return send(new HttpPost(uri("/dirs", directory + "/dir-" + created++)));
+                case SCP:
+                    return upload();
+                case CURL:
+                    return send(new HttpGet(uri("/files", files.get(random.nextInt(files.size())))));
+                case RM:
+                    return send(new HttpDelete(uri("/files", files.remove(random.nextInt(files.size())))));
+                default:
+                    throw new IllegalStateException("Unknown operation " + operation);
+            }
+        }
+
+        private int upload() throws IOException, URISyntaxException {
+            String fileName = "file-" + created++;
+            byte[] content = fileContents[weighted(fileWeights, ThreadLocalRandom.current())];
+            HttpPost post = new HttpPost(uri("/files", directory));
+            post.setEntity(MultipartEntityBuilder.create()
+                    .addPart("file", new ByteArrayBody(content, ContentType.APPLICATION_OCTET_STREAM, fileName))
+                    .build());
+            int status = send(post);
+            if (status < 300) {
+                files.add(directory + "/" + fileName);
+            }
+            return status;
+        }
+
+        private long think(ThreadLocalRandom random) {
+            switch (thinkDistribution) {
+                case "none":
+                    return 0;
+                case "fixed":
+                    return thinkNanos;
+                default:
+                    return (long) (-Math.log(1 - random.nextDouble()) * thinkNanos);
+            }
+        }
+    }
+
+    /**
+     * send a request and read the whole response.
+     *
+     * @return status of the response
+     */
+    private int send(HttpUriRequestBase request) throws IOException {
+        return httpClient.execute(request, response -> {
+            EntityUtils.consume(response.getEntity());
+            return response.getCode();
+        });
+    }
+
+    private URI uri(String endpoint, String path) throws URISyntaxException {
+        return new URIBuilder(url + endpoint).addParameter("path", path).build();
+    }
+
+    private static void expect(int status, String what) throws IOException {
+        if (status >= 300) {
+            throw new IOException("Could not " + what + ", the server answered " + status);
+        }
+    }
+
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    private static Map<String, Double> parseWeights(String list) {
+        Map<String, Double> weights = new LinkedHashMap<>();
+        for (String item : list.split(",")) {
+            String[] parts = item.split(":");
+            weights.put(parts[0].trim(), parts.length > 1 ? Double.parseDouble(parts[1]) : 1);
+        }
+        return weights;
+    }
+
+    private static int weighted(double[] weights, ThreadLocalRandom random) {
+        double total = 0;
+        for (double weight : weights) {
+            total += weight;
+        }
+        double value = random.nextDouble() * total;
+        for (int i = 0; i < weights.length - 1; i++) {
+            value -= weights[i];
+            if (value < 0) {
+                return i;
+            }
+        }
+        return weights.length - 1;
+    }
+
+    private static void sleepNanos(long nanos) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package client;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts node servers and a central server on localhost ports, for a load test without a deployed cluster.
+ * Every server runs from its built jar in a process of its own, in a temporary folder that holds its storage
+ * and its log, and is stopped when the cluster is closed or the load generator exits.
+ * The central server keeps its path locks in memory, so no redis is needed.
+ */
+public class LocalCluster implements AutoCloseable {
+
+    private static final long START_TIMEOUT_MILLIS = 120_000;
+
+    private final List<Process> processes = new ArrayList<>();
+    private final Path directory;
+    private final String url;
+
+    /**
+     * start the servers and wait until all of them answer.
+     *
+     * @param nodeJar    jar of the node server
+     * @param centralJar jar of the central server
+     * @param nodes      number of node servers
+     * @param basePort   port of the central server, the node servers take the next ports
+     */
+    public LocalCluster(Path nodeJar, Path centralJar, int nodes, int basePort) throws IOException, InterruptedException {
+        this.directory = Files.createTempDirectory("load-cluster");
+        this.url = "http://localhost:" + basePort;
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+
+        List<String> nodeUrls = new ArrayList<>();
+        for (int i = 1; i <= nodes; i++) {
+            nodeUrls.add("http://localhost:" + (basePort + i));
+        }
+        String nodeServerUrls = String.join(",", nodeUrls);
+        try {
+            for (int i = 1; i <= nodes; i++) {
+                start("node" + i, nodeServerUrls, "-jar", nodeJar.toAbsolutePath().toString(), String.valueOf(basePort + i),
+                        "--placement.replicas=" + Math.min(3, nodes));
+            }
+            start("central", nodeServerUrls, "-jar", centralJar.toAbsolutePath().toString(), "--server.port=" + basePort,
+                    "--lock.manager=local", "--placement.replicas=" + Math.min(3, nodes));
+
+            for (String nodeUrl : nodeUrls) {
+                awaitReady(nodeUrl);
+            }
+            awaitReady(url);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return url of the central server
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return folder holding the storage and the logs of the servers
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Process process : processes) {
+            process.destroy();
+        }
+        for (Process process : processes) {
+            try {
+                if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+        processes.clear();
+    }
+
+    private synchronized void start(String name, String nodeServerUrls, String... args) throws IOException {
+        Path workingDirectory = Files.createDirectories(directory.resolve(name));
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        for (String arg : args) {
+            command.add(arg);
+        }
+        ProcessBuilder builder = new ProcessBuilder(command)
+                .directory(workingDirectory.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(workingDirectory.resolve("server.log").toFile());
+        builder.environment().put("NODE_URLS", nodeServerUrls);
+        processes.add(builder.start());
+    }
+
+    /**
+     * wait until a server lists the root directory.
+     */
+    private void awaitReady(String serverUrl) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + START_TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            for (Process process : processes) {
+                if (!process.isAlive()) {
+                    throw new IOException("A server of the local cluster exited, see the logs in " + directory);
+                }
+            }
+            try {
+                HttpURLConnection connection = (HttpURLConnection) new URL(serverUrl + "/dirs?path=/").openConnection();
+                connection.setConnectTimeout(1000);
+                connection.setReadTimeout(5000);
+                if (connection.getResponseCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                // not listening yet
+            }
+            Thread.sleep(500);
+        }
+        throw new IOException(serverUrl + " did not start, see the logs in " + directory);
+    }
+}
@@ -0,0 +1,270 @@
+package client;
+
+import org.apache.hc.core5.net.URIBuilder;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.fluent.Request;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Downloads a file as several byte ranges at the same time, each range from a different replica.
+ * The ranges are written into a preallocated ".part" file, and the progress of every range is kept
+ * in a ".part.state" file next to it, so a download that was interrupted continues where it stopped
+ * as long as the file on the server has not changed.
+ */
+public class ParallelDownloader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long STATE_SAVE_INTERVAL = 4 * 1024 * 1024;
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final String url;
+    private final int connections;
+
+    public ParallelDownloader(String url, int connections) {
+        this.url = url;
+        this.connections = Math.max(1, connections);
+    }
+
+    /**
+     * download a file.
+     *
+     * @param remotePath path of the file on the server
+     * @param target     local file to write
+     */
+    public void download(Path remotePath, Path target) throws IOException, URISyntaxException {
+        Path partFile = target.resolveSibling(target.getFileName() + ".part");
+        Path stateFile = target.resolveSibling(target.getFileName() + ".part.state");
+
+        HttpResponse probe = Request.Get(buildUri(remotePath, null))
+                .addHeader("Range", "bytes=0-0")
+                .execute()
+                .returnResponse();
+        int status = probe.getStatusLine().getStatusCode();
+        if (status == 416) {
+            // nothing to split, the file is empty
+            Files.deleteIfExists(stateFile);
+            Files.deleteIfExists(partFile);
+            Files.write(target, new byte[0]);
+            return;
+        }
+        if (status != 206) {
+            throw new IOException("Server does not support range requests, status " + status);
+        }
+        long size = parseTotalSize(probe.getFirstHeader("Content-Range"));
+        Header etagHeader = probe.getFirstHeader("ETag");
+        String etag = etagHeader == null ? "" : etagHeader.getValue();
+
+        DownloadState state = DownloadState.load(stateFile, etag, size);
+        if (state == null || !Files.exists(partFile)) {
+            state = DownloadState.create(stateFile, etag, size, connections);
+        }
+        try (RandomAccessFile file = new RandomAccessFile(partFile.toFile(), "rw")) {
+            file.setLength(size);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(state.ranges.size());
+        try (FileChannel channel = FileChannel.open(partFile, StandardOpenOption.WRITE)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < state.ranges.size(); i++) {
+                int replica = i;
+                DownloadState finalState = state;
+                futures.add(executor.submit(() -> {
+                    downloadRange(remotePath, finalState, replica, channel);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Download interrupted", e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Files.move(partFile, target, StandardCopyOption.REPLACE_EXISTING);
+        Files.deleteIfExists(stateFile);
+    }
+
+    private void downloadRange(Path remotePath, DownloadState state, int index, FileChannel channel) throws IOException, URISyntaxException {
+        Range range = state.ranges.get(index);
+        IOException lastError = null;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS && range.next <= range.end; attempt++) {
+            try {
+                Request request = Request.Get(buildUri(remotePath, index))
+                        .addHeader("Range", "bytes=" + range.next + "-" + range.end);
+                if (!state.etag.isEmpty()) {
+                    request.addHeader("If-Range", state.etag);
+                }
+                request.execute().handleResponse(response -> {
+                    if (response.getStatusLine().getStatusCode() != 206) {
+                        state.delete();
+                        throw new FileChangedException();
+                    }
+                    writeRange(response.getEntity().getContent(), range, state, channel);
+                    return null;
+                });
+            } catch (FileChangedException e) {
+                throw e;
+            } catch (IOException e) {
+                lastError = e;
+            }
+        }
+        if (range.next <= range.end) {
+            throw lastError != null ? lastError : new IOException("Range " + index + " incomplete");
+        }
+    }
+
+    private void writeRange(InputStream inputStream, Range range, DownloadState state, FileChannel channel) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long unsaved = 0;
+        int read;
+        while (range.next <= range.end && (read = inputStream.read(buffer)) != -1) {
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+            long position = range.next;
+            while (byteBuffer.hasRemaining()) {
+                position += channel.write(byteBuffer, position);
+            }
+            range.next += read;
+            unsaved += read;
+            if (unsaved >= STATE_SAVE_INTERVAL) {
+                state.save();
+                unsaved = 0;
+            }
+        }
+        state.save();
+    }
+
+    private URI buildUri(Path remotePath, Integer replica) throws URISyntaxException {
+        URIBuilder builder = new URIBuilder(url + "/files");
+        builder.addParameter("path", remotePath.toString());
+        if (replica != null) {
+            builder.addParameter("replica", String.valueOf(replica));
+        }
+        return builder.build();
+    }
+
+    private static long parseTotalSize(Header contentRange) throws IOException {
+        if (contentRange == null || !contentRange.getValue().contains("/")) {
+            throw new IOException("Missing Content-Range in response");
+        }
+        String value = contentRange.getValue();
+        return Long.parseLong(value.substring(value.lastIndexOf('/') + 1).trim());
+    }
+
+    private static class FileChangedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        FileChangedException() {
+            super("File changed on the server, download it again");
+        }
+    }
+
+    private static class Range {
+        private volatile long next;
+        private final long end;
+
+        Range(long next, long end) {
+            this.next = next;
+            this.end = end;
+        }
+    }
+
+    /**
+     * progress of a download, saved as a properties file.
+     */
+    private static class DownloadState {
+        private final Path file;
+        private final String etag;
+        private final long size;
+        private final List<Range> ranges = new ArrayList<>();
+
+        private DownloadState(Path file, String etag, long size) {
+            this.file = file;
+            this.etag = etag;
+            this.size = size;
+        }
+
+        static DownloadState create(Path file, String etag, long size, int connections) throws IOException {
+            DownloadState state = new DownloadState(file, etag, size);
+            int count = (int) Math.max(1, Math.min(connections, size / BUFFER_SIZE));
+            long rangeSize = size / count;
+            for (int i = 0; i < count; i++) {
+                long start = i * rangeSize;
+                long end = i == count - 1 ? size - 1 : start + rangeSize - 1;
+                state.ranges.add(new Range(start, end));
+            }
+            state.save();
+            return state;
+        }
+
+        /**
+         * load the saved progress, if it belongs to the same version of the file.
+         */
+        static DownloadState load(Path file, String etag, long size) throws IOException {
+            if (!Files.exists(file)) {
+                return null;
+            }
+            Properties properties = new Properties();
+            try (Reader reader = Files.newBufferedReader(file)) {
+                properties.load(reader);
+            }
+            if (!etag.equals(properties.getProperty("etag")) || size != Long.parseLong(properties.getProperty("size", "-1"))) {
+                return null;
+            }
+            DownloadState state = new DownloadState(file, etag, size);
+            int count = Integer.parseInt(properties.getProperty("ranges", "0"));
+            for (int i = 0; i < count; i++) {
+                state.ranges.add(new Range(
+                        Long.parseLong(properties.getProperty("range." + i + ".next")),
+                        Long.parseLong(properties.getProperty("range." + i + ".end"))));
+            }
+            return count == 0 ? null : state;
+        }
+
+        synchronized void save() throws IOException {
+            Properties properties = new Properties();
+            properties.setProperty("etag", etag);
+            properties.setProperty("size", String.valueOf(size));
+            properties.setProperty("ranges", String.valueOf(ranges.size()));
+            for (int i = 0; i < ranges.size(); i++) {
+                properties.setProperty("range." + i + ".next", String.valueOf(ranges.get(i).next));
+                properties.setProperty("range." + i + ".end", String.valueOf(ranges.get(i).end));
+            }
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(tmp)) {
+                properties.store(writer, null);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        synchronized void delete() throws IOException {
+            Files.deleteIfExists(file);
+        }
+    }
+}
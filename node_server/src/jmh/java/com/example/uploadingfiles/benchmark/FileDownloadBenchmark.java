@@ -0,0 +1,125 @@
+package com.example.uploadingfiles.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.UrlResource;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the old download path, a UrlResource copied through a heap buffer,
+ * with FileChannel.transferTo, both writing to a local socket that is drained by another thread.
+ * Besides throughput every benchmark reports the bytes sent and the cpu time of the sending thread,
+ * cpuNanos / bytes * 2^30 is the cpu cost per GB.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileDownloadBenchmark {
+
+    private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+    @Param({"1048576", "67108864"})
+    public int fileSize;
+
+    private Path file;
+    private ServerSocketChannel serverChannel;
+    private SocketChannel senderChannel;
+    private Thread drainThread;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("download-benchmark", ".bin");
+        byte[] content = new byte[fileSize];
+        new Random(42).nextBytes(content);
+        Files.write(file, content);
+
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        senderChannel = SocketChannel.open(serverChannel.getLocalAddress());
+        SocketChannel receiverChannel = serverChannel.accept();
+
+        drainThread = new Thread(() -> {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+            try {
+                while (receiverChannel.read(buffer) != -1) {
+                    buffer.clear();
+                }
+            } catch (IOException ignored) {
+            }
+        }, "drain");
+        drainThread.setDaemon(true);
+        drainThread.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, InterruptedException {
+        senderChannel.close();
+        drainThread.join();
+        serverChannel.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public long resourceCopy(CpuCounters counters) throws IOException {
+        long cpuStart = threadMXBean.getCurrentThreadCpuTime();
+        Resource resource = new UrlResource(file.toUri());
+        long sent;
+        try (InputStream inputStream = resource.getInputStream()) {
+            sent = StreamUtils.copy(inputStream, Channels.newOutputStream(senderChannel));
+        }
+        counters.record(sent, threadMXBean.getCurrentThreadCpuTime() - cpuStart);
+        return sent;
+    }
+
+    @Benchmark
+    public long transferTo(CpuCounters counters) throws IOException {
+        long cpuStart = threadMXBean.getCurrentThreadCpuTime();
+        long sent = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            while (sent < size) {
+                sent += channel.transferTo(sent, size - sent, senderChannel);
+            }
+        }
+        counters.record(sent, threadMXBean.getCurrentThreadCpuTime() - cpuStart);
+        return sent;
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class CpuCounters {
+        public long bytes;
+        public long cpuNanos;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+            cpuNanos = 0;
+        }
+
+        void record(long sentBytes, long elapsedCpuNanos) {
+            bytes += sentBytes;
+            cpuNanos += elapsedCpuNanos;
+        }
+    }
+}
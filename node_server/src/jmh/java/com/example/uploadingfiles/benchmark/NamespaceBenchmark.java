@@ -0,0 +1,79 @@
+package com.example.uploadingfiles.benchmark;
+
+import com.example.uploadingfiles.storage.FileSystemStorageService;
+import com.example.uploadingfiles.storage.StorageProperties;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.io.Resource;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the read side of FileSystemStorageService on a directory of fanOut empty files:
+ * listing the directory, resolving a file for a download, and resolving a path with load.
+ * Lookups cycle through the files so they are not answered from a single hot entry.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NamespaceBenchmark {
+
+    private static final String DIRECTORY = "/a/b/c/dir";
+
+    @Param({"10", "1000", "10000"})
+    public int fanOut;
+
+    private Path root;
+    private FileSystemStorageService storageService;
+    private String[] filePaths;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("namespace-benchmark");
+        Path location = root.resolve("upload-dir");
+        Path directory = Files.createDirectories(location.resolve(DIRECTORY.substring(1)));
+        filePaths = new String[fanOut];
+        for (int i = 0; i < fanOut; i++) {
+            Files.createFile(directory.resolve("file-" + i));
+            filePaths[i] = DIRECTORY + "/file-" + i;
+        }
+
+        StorageProperties properties = new StorageProperties();
+        properties.setLocation(location.toString());
+        storageService = new FileSystemStorageService(properties);
+        storageService.loadIndex();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileSystemUtils.deleteRecursively(root);
+    }
+
+    @Benchmark
+    public long loadAllByPath() throws NoSuchFileException {
+        return storageService.loadAllByPath(DIRECTORY).count();
+    }
+
+    @Benchmark
+    public Resource loadAsResource() {
+        return storageService.loadAsResource(filePaths[next++ % fanOut]);
+    }
+
+    @Benchmark
+    public Path load() {
+        return storageService.load(filePaths[next++ % fanOut]);
+    }
+
+    @Benchmark
+    public boolean isDirectory() {
+        return storageService.isDirectory(DIRECTORY);
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.uploadingfiles.benchmark;
+
+import com.example.uploadingfiles.replication.PeerClient;
+import com.example.uploadingfiles.replication.ReplicationDispatcher;
+import com.example.uploadingfiles.replication.ReplicationProperties;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the quorum fan-out of ReplicationDispatcher against stub peers in this process.
+ * dispatchDirect acknowledges in the calling thread and measures the dispatcher alone,
+ * the http benchmarks send every message with the PeerClient to a local http server that answers 200 at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReplicationDispatchBenchmark {
+
+    @Param({"2", "4"})
+    public int peers;
+
+    private HttpServer[] servers;
+    private ExecutorService serverExecutor;
+    private String[] peerUrls;
+    private ReplicationDispatcher dispatcher;
+    private PeerClient peerClient;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        // answers must not wait for the acknowledgement of the request, as behind Tomcat
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        serverExecutor = Executors.newFixedThreadPool(peers * 4);
+        servers = new HttpServer[peers];
+        peerUrls = new String[peers];
+        for (int i = 0; i < peers; i++) {
+            servers[i] = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+            servers[i].createContext("/transactions", exchange -> {
+                exchange.getRequestBody().close();
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            });
+            servers[i].setExecutor(serverExecutor);
+            servers[i].start();
+            peerUrls[i] = "http://localhost:" + servers[i].getAddress().getPort();
+        }
+
+        ReplicationProperties properties = new ReplicationProperties();
+        // peers that have not answered when the quorum returns are still queued, the next calls must not be rejected
+        properties.setQueueCapacity(4096);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        dispatcher = new ReplicationDispatcher(properties, registry);
+        peerClient = new PeerClient(properties, registry);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        dispatcher.shutdown();
+        peerClient.close();
+        for (HttpServer server : servers) {
+            server.stop(0);
+        }
+        serverExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public boolean dispatchDirect() {
+        return dispatcher.dispatch(peerUrls, peer -> true);
+    }
+
+    @Benchmark
+    public boolean dispatchHttp() {
+        return dispatcher.dispatch(peerUrls, this::propose);
+    }
+
+    @Benchmark
+    public boolean dispatchUntilHttp() {
+        // every peer must acknowledge, as for the peers of a batch that holds files of all of them
+        AtomicInteger acks = new AtomicInteger();
+        return dispatcher.dispatchUntil(peerUrls, peer -> {
+            boolean ack = propose(peer);
+            if (ack) {
+                acks.incrementAndGet();
+            }
+            return ack;
+        }, () -> acks.get() == peers, () -> {
+        }, 10000);
+    }
+
+    private boolean propose(String peer) throws IOException {
+        return peerClient.execute(new HttpPost(peer + "/transactions?mode=PROPOSE")) == 200;
+    }
+}
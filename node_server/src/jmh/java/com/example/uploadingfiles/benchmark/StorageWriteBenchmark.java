@@ -0,0 +1,89 @@
+package com.example.uploadingfiles.benchmark;
+
+import com.example.uploadingfiles.storage.FileSystemStorageService;
+import com.example.uploadingfiles.storage.StorageProperties;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures FileSystemStorageService.store for the two ways files reach the storage folder:
+ * an upload copied from the request, and a file staged by a transaction that is moved into place on commit.
+ * Files are written over a fixed set of names, so the folder does not grow during a run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StorageWriteBenchmark {
+
+    private static final int NAMES = 256;
+
+    @Param({"4096", "1048576", "16777216"})
+    public int fileSize;
+
+    private Path root;
+    private FileSystemStorageService storageService;
+    private byte[] content;
+    private MockMultipartFile[] uploads;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("storage-benchmark");
+        StorageProperties properties = new StorageProperties();
+        properties.setLocation(root.resolve("upload-dir").toString());
+        storageService = new FileSystemStorageService(properties);
+        storageService.loadIndex();
+        storageService.createDirectoryByPath("/bench");
+
+        content = new byte[fileSize];
+        new Random(42).nextBytes(content);
+        uploads = new MockMultipartFile[NAMES];
+        for (int i = 0; i < NAMES; i++) {
+            uploads[i] = new MockMultipartFile("file", "upload-" + i, null, content);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileSystemUtils.deleteRecursively(root);
+    }
+
+    @Benchmark
+    public void storeUpload() {
+        storageService.store("/bench", uploads[next++ % NAMES]);
+    }
+
+    @Benchmark
+    public void storeStaged(StagedFile staged) {
+        storageService.store("/bench", "staged-" + (next++ % NAMES), staged.file);
+    }
+
+    /**
+     * a file written to the staging folder before every call, as a transaction does before it commits.
+     */
+    @State(Scope.Thread)
+    public static class StagedFile {
+        private Path file;
+
+        @Setup(Level.Invocation)
+        public void stage(StorageWriteBenchmark benchmark) throws IOException {
+            file = Files.createTempFile(benchmark.root, "staged", null);
+            Files.write(file, benchmark.content);
+        }
+
+        @TearDown(Level.Invocation)
+        public void cleanUp() throws IOException {
+            Files.deleteIfExists(file);
+        }
+    }
+}
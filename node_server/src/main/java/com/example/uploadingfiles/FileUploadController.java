@@ -1,57 +1,94 @@
 package com.example.uploadingfiles;
 
+import com.example.uploadingfiles.dedup.ChunkTransfer;
+import com.example.uploadingfiles.delta.DeltaBaseChangedException;
+import com.example.uploadingfiles.delta.DeltaSync;
 import com.example.uploadingfiles.mode.Mode;
+import com.example.uploadingfiles.placement.Placement;
+import com.example.uploadingfiles.replication.PeerClient;
+import com.example.uploadingfiles.replication.Replicator;
+import com.example.uploadingfiles.storage.StagingArea;
 import com.example.uploadingfiles.storage.StorageException;
 import com.example.uploadingfiles.storage.StorageFileNotFoundException;
 import com.example.uploadingfiles.storage.StorageService;
+import com.example.uploadingfiles.storage.UploadSessionService;
+import com.example.uploadingfiles.transaction.FencingTokens;
+import com.example.uploadingfiles.transaction.Operation;
 import com.example.uploadingfiles.transaction.Transaction;
-import org.apache.http.client.fluent.Request;
-import org.apache.commons.io.IOUtils;
-import org.apache.hc.client5.http.classic.HttpClient;
-import org.apache.hc.client5.http.classic.methods.HttpPost;
-import org.apache.hc.client5.http.entity.mime.FileBody;
-import org.apache.hc.client5.http.entity.mime.MultipartEntityBuilder;
-import org.apache.hc.core5.http.ClassicHttpResponse;
-import org.apache.hc.core5.http.HttpEntity;
+import com.example.uploadingfiles.transaction.TransactionLog;
+import com.example.uploadingfiles.transaction.TransactionResponse;
+import com.example.uploadingfiles.transfer.ZeroCopyFileSender;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
 import org.apache.hc.core5.net.URIBuilder;
-import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.multipart.MultipartHttpServletRequest;
 import org.springframework.web.server.ResponseStatusException;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URISyntaxException;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import static com.example.uploadingfiles.mode.Mode.COMMIT;
-import static com.example.uploadingfiles.mode.Mode.PROPOSE;
 import static com.example.uploadingfiles.transaction.TransactionResponse.*;
 import static org.springframework.web.bind.annotation.RequestMethod.POST;
 
 @Controller
 public class FileUploadController {
-    @Value("${nodeServerUrls}")
-    private String[] nodeServerUrls;
+    private static final Logger logger = LoggerFactory.getLogger(FileUploadController.class);
+
     private final StorageService storageService;
+    private final Replicator replicator;
+    private final StagingArea stagingArea;
+    private final ZeroCopyFileSender zeroCopyFileSender;
+    private final UploadSessionService uploadSessionService;
+    private final TransactionLog transactionLog;
+    private final Placement placement;
+    private final PeerClient peerClient;
+    private final FencingTokens fencingTokens;
+    private final DeltaSync deltaSync;
+    /**
+     * sends files to peers as chunks, null unless storage.mode is dedup
+     */
+    private final ChunkTransfer chunkTransfer;
 
     @Autowired
-    public FileUploadController(StorageService storageService) {
+    public FileUploadController(StorageService storageService, Replicator replicator,
+                                StagingArea stagingArea, ZeroCopyFileSender zeroCopyFileSender, UploadSessionService uploadSessionService,
+                                TransactionLog transactionLog, ObjectProvider<ChunkTransfer> chunkTransfer,
+                                Placement placement, PeerClient peerClient, FencingTokens fencingTokens, DeltaSync deltaSync) {
         this.storageService = storageService;
+        this.deltaSync = deltaSync;
+        this.fencingTokens = fencingTokens;
+        this.placement = placement;
+        this.peerClient = peerClient;
+        this.chunkTransfer = chunkTransfer.getIfAvailable();
+        this.stagingArea = stagingArea;
+        this.zeroCopyFileSender = zeroCopyFileSender;
+        this.uploadSessionService = uploadSessionService;
+        this.transactionLog = transactionLog;
+        this.replicator = replicator;
     }
 
     /**
@@ -77,34 +114,36 @@ public class FileUploadController {
     /**
      * create a directory by path
      *
-     * @param path path of the new directory
+     * @param path         path of the new directory
+     * @param fencingToken token of the lock the central server holds on the path
      * @return response
-     * TODO Add Paxos
      */
     @PostMapping("/dirs")
     @ResponseBody
-    public ResponseEntity createDirectoryByPath(@RequestParam(value = "path") String path, @RequestParam(required = false) Mode mode) {
+    public ResponseEntity createDirectoryByPath(@RequestParam(value = "path") String path, @RequestParam(required = false) Mode mode,
+                                                @RequestParam(required = false) String txnId,
+                                                @RequestParam(required = false) Long fencingToken) {
         if (mode == null) {
             mode = Mode.PREPARE;
         }
         switch (mode) {
             case COMMIT:
+                fencingTokens.committed(Operation.CREATE_DIR, path, null, fencingToken);
+                transactionLog.commit(txnId, Operation.CREATE_DIR, System.currentTimeMillis(), path, null);
                 storageService.createDirectoryByPath(path);
+                transactionLog.done(txnId);
                 return ResponseEntity.status(HttpStatus.CREATED).body("Directory Created");
             case PREPARE:
-                // START PAXOS
-                Boolean proposeResult = this.sendProposeMessage(new Transaction(null, path), "/dirs");
-                if (!proposeResult) {
-                    return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(TXN_PROPOSE_FAILED);
-                }
-
-                Boolean commitResult = this.sendCommitMessage(new Transaction(null, path), "/dirs");
-                if (!commitResult) {
-                    return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(TXN_FAILED);
-                }
-                return ResponseEntity.status(HttpStatus.CREATED).body("Directory Created");
+                return replicate(new Transaction(Operation.CREATE_DIR, path).setFencingToken(fencingToken), "Directory Created");
             case PROPOSE:
+                if (!fencingTokens.admit(Operation.CREATE_DIR, path, null, fencingToken)) {
+                    return ResponseEntity.status(HttpStatus.CONFLICT).body(TXN_FENCED);
+                }
+                transactionLog.propose(txnId, Operation.CREATE_DIR, System.currentTimeMillis(), path, null);
                 return ResponseEntity.status(HttpStatus.OK).body(TXN_PROPOSE_SUCCESS);
+            case ABORT:
+                transactionLog.abort(txnId);
+                return ResponseEntity.status(HttpStatus.OK).body(TXN_ABORTED);
             default:
                 return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(TXN_UNKNOWN_MODE);
         }
@@ -114,95 +153,161 @@ public class FileUploadController {
     /**
      * delete a directory by path
      *
-     * @param path path of the directory
+     * @param path         path of the directory
+     * @param fencingToken token of the lock the central server holds on the path
      * @return response
-     * TODO Add Paxos
      */
     @DeleteMapping("/dirs")
     @ResponseBody
-    public ResponseEntity<?> deleteDirectoryByPath(@RequestParam(value = "path") String path, @RequestParam(required = false) Mode mode) {
+    public ResponseEntity<?> deleteDirectoryByPath(@RequestParam(value = "path") String path, @RequestParam(required = false) Mode mode,
+                                                   @RequestParam(required = false) String txnId,
+                                                   @RequestParam(required = false) Long fencingToken) {
         if (mode == null) {
             mode = Mode.PREPARE;
         }
         switch (mode) {
             case COMMIT:
+                fencingTokens.committed(Operation.DELETE_DIR, path, null, fencingToken);
+                transactionLog.commit(txnId, Operation.DELETE_DIR, System.currentTimeMillis(), path, null);
                 storageService.deleteDirectoryByPath(path);
+                transactionLog.done(txnId);
                 return ResponseEntity.status(HttpStatus.CREATED).body("Directory Deleted");
             case PREPARE:
-                // START PAXOS
-                Boolean proposeResult = this.sendProposeDeleteMessaage(new Transaction(null, path), "/dirs");
-                if (!proposeResult) {
-                    return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(TXN_PROPOSE_FAILED);
-                }
-
-                Boolean commitResult = this.sendCommitDeleteMessaage(new Transaction(null, path), "/dirs");
-                if (!commitResult) {
-                    return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(TXN_FAILED);
-                }
-                return ResponseEntity.status(HttpStatus.CREATED).body("Directory Deleted");
+                return replicate(new Transaction(Operation.DELETE_DIR, path).setFencingToken(fencingToken), "Directory Deleted");
             case PROPOSE:
+                if (!fencingTokens.admit(Operation.DELETE_DIR, path, null, fencingToken)) {
+                    return ResponseEntity.status(HttpStatus.CONFLICT).body(TXN_FENCED);
+                }
+                transactionLog.propose(txnId, Operation.DELETE_DIR, System.currentTimeMillis(), path, null);
                 return ResponseEntity.status(HttpStatus.OK).body(TXN_PROPOSE_SUCCESS);
+            case ABORT:
+                transactionLog.abort(txnId);
+                return ResponseEntity.status(HttpStatus.OK).body(TXN_ABORTED);
             default:
                 return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(TXN_UNKNOWN_MODE);
         }
     }
 
     /**
-     * get a file by path
+     * get a file by path,
+     * the file is sent with sendfile so it is not copied through the heap.
      *
-     * @param path path of the file
-     * @return file
+     * @param path     path of the file
+     * @param request  request
+     * @param response response the file is written to
      */
     @GetMapping("/files")
-    @ResponseBody
-    public ResponseEntity<Resource> getFileByPath(@RequestParam(value = "path") String path) {
+    public void getFileByPath(@RequestParam(value = "path") String path,
+                              HttpServletRequest request, HttpServletResponse response) throws IOException {
         Resource file = storageService.loadAsResource(path);
-        return ResponseEntity.ok().header(HttpHeaders.CONTENT_DISPOSITION,
-                "attachment; filename=\"" + file.getFilename() + "\"").body(file);
+        zeroCopyFileSender.send(file, request, response);
     }
 
     /**
      * upload a file in a multipart form
      *
-     * @param file file to upload
-     * @param path path of the file
-     * @return response
+     * the file is only sent with the PROPOSE message, every peer stages it
+     * and moves it into place when the transaction is committed.
+     * When files are deduplicated the PROPOSE message carries the manifest of the file
+     * and only the chunks the peer does not hold. A file uploaded as a delta may be proposed as the delta,
+     * a peer that holds another version of the file than the delta was made against answers 412.
      *
-     * TODO Add Paxos
+     * @param file      file to upload
+     * @param manifest  manifest of a deduplicated file, instead of the file
+     * @param chunks    chunks of the manifest missing on this node
+     * @param delta     delta against the stored version of the file, instead of the file
+     * @param path      path of the file
+     * @param mode      phase of the transaction
+     * @param txnId     id of the transaction
+     * @param timestamp time the coordinator accepted the upload, used as modification time of the file
+     * @param fencingToken token of the lock the central server holds on the file
+     * @return response
      */
-    @RequestMapping(path = "/files", method = POST, consumes = {MediaType.MULTIPART_FORM_DATA_VALUE})
-    public ResponseEntity<?> handleFileUpload(@RequestBody MultipartFile file, @RequestParam("path") String path, @RequestParam(required = false) Mode mode) {
+    @RequestMapping(path = "/files", method = POST)
+    public ResponseEntity<?> handleFileUpload(@RequestBody(required = false) MultipartFile file,
+                                              @RequestParam(required = false) MultipartFile manifest,
+                                              @RequestParam(value = "chunk", required = false) List<MultipartFile> chunks,
+                                              @RequestParam(required = false) MultipartFile delta,
+                                              @RequestParam("path") String path,
+                                              @RequestParam(required = false) Mode mode, @RequestParam(required = false) String txnId,
+                                              @RequestParam(required = false) Long timestamp,
+                                              @RequestParam(required = false) Long fencingToken) throws IOException {
         if (mode == null) {
             mode = Mode.PREPARE;
         }
         switch (mode) {
             case COMMIT:
-                storageService.store(path, file);
+                StagingArea.StagedFile stagedFile = stagingArea.remove(txnId);
+                try {
+                    fencingTokens.committed(stagedFile.isManifest() ? Operation.UPLOAD_MANIFEST : Operation.UPLOAD, path,
+                            stagedFile.getFileName(), fencingToken);
+                    transactionLog.commit(txnId, stagedFile.isManifest() ? Operation.UPLOAD_MANIFEST : Operation.UPLOAD,
+                            timestamp == null ? System.currentTimeMillis() : timestamp, path, stagedFile.getFileName());
+                    if (timestamp != null) {
+                        // every replica reports the same Last-Modified, so range requests can be spread over replicas
+                        stagedFile.setLastModified(timestamp);
+                    }
+                    if (stagedFile.isManifest()) {
+                        requireChunkTransfer().commit(path, stagedFile);
+                    } else {
+                        storageService.store(path, stagedFile.getFileName(), stagedFile.getFile());
+                    }
+                    transactionLog.done(txnId);
+                } finally {
+                    stagingArea.release(stagedFile);
+                }
                 return ResponseEntity.status(HttpStatus.CREATED).body("File uploaded");
             case PREPARE:
-                // START PAXOS
-                File tmpFile = null;
-                if (file != null) {
-                    tmpFile = new File(System.getProperty("java.io.tmpdir")+"/" + file.getOriginalFilename());
-                    try {
-                        file.transferTo(tmpFile);
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
-                    }
+                if (file == null || file.isEmpty()) {
+                    throw new StorageException("Failed to store empty file.");
                 }
-
-                Boolean proposeResult = this.sendProposeMessage(new Transaction(tmpFile, path), "/files");
-                if (!proposeResult) {
-                    return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(TXN_PROPOSE_FAILED);
+                File tmpFile;
+                try {
+                    tmpFile = File.createTempFile("txn-", null);
+                    file.transferTo(tmpFile);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
                 }
 
-                Boolean commitResult = this.sendCommitMessage(new Transaction(tmpFile, path), "/files");
-                if (!commitResult) {
-                    return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(TXN_FAILED);
-                }
-                return ResponseEntity.status(HttpStatus.CREATED).body("File uploaded");
+                return replicate(new Transaction(Operation.UPLOAD, tmpFile, file.getOriginalFilename(), path).setFencingToken(fencingToken),
+                        "File uploaded");
             case PROPOSE:
+                if (!storageService.isDirectory(path)) {
+                    throw new StorageException("Folder doesn't exist");
+                }
+                MultipartFile upload = manifest != null ? manifest : delta != null ? delta : file;
+                // the token is checked by the vote, a replica that accepted the upload must not refuse its COMMIT
+                if (!fencingTokens.admit(manifest != null ? Operation.UPLOAD_MANIFEST : Operation.UPLOAD, path,
+                        upload == null ? null : upload.getOriginalFilename(), fencingToken)) {
+                    return ResponseEntity.status(HttpStatus.CONFLICT).body(TXN_FENCED);
+                }
+                // a delta that does not fit the stored file is refused before the vote is logged, the file is sent instead
+                File rebuilt = delta == null ? null : rebuild(path, delta);
+                // the vote is logged before the file is staged, a COMMIT waiting for the file must not be logged before it
+                transactionLog.propose(txnId, manifest != null ? Operation.UPLOAD_MANIFEST : Operation.UPLOAD,
+                        timestamp == null ? System.currentTimeMillis() : timestamp, path,
+                        upload == null ? null : upload.getOriginalFilename());
+                try {
+                    if (manifest != null) {
+                        requireChunkTransfer().stage(txnId, path, manifest, chunks);
+                    } else if (rebuilt != null) {
+                        stagingArea.stage(txnId, path, delta.getOriginalFilename(), rebuilt.toPath());
+                    } else {
+                        stagingArea.stage(txnId, path, file);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // this node votes no, nothing is left to recover
+                    transactionLog.done(txnId);
+                    if (rebuilt != null) {
+                        rebuilt.delete();
+                    }
+                    throw e;
+                }
                 return ResponseEntity.status(HttpStatus.OK).body(TXN_PROPOSE_SUCCESS);
+            case ABORT:
+                transactionLog.abort(txnId);
+                stagingArea.abort(txnId);
+                return ResponseEntity.status(HttpStatus.OK).body(TXN_ABORTED);
             default:
                 return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(TXN_UNKNOWN_MODE);
         }
@@ -210,37 +315,232 @@ public class FileUploadController {
 
 
     /**
-     * delete a file by path
+     * get the signatures of the blocks of a file, a client sends the changes to the file as a delta against them.
+     *
+     * @param path      path of the file
+     * @param blockSize size of the blocks, picked from the length of the file if missing
+     * @return the version of the file, the block size and the length on the first line, a weak checksum and an MD5 hash per block
+     */
+    @GetMapping("/files/signature")
+    @ResponseBody
+    public ResponseEntity<?> getFileSignature(@RequestParam("path") String path,
+                                              @RequestParam(required = false) Integer blockSize) throws IOException {
+        return ResponseEntity.ok(deltaSync.signatures(path, blockSize));
+    }
+
+    /**
+     * upload a new version of a stored file as a delta against the version it replaces.
+     * the file is rebuilt here and replicated like an upload, replicas holding the same version get only the delta.
+     *
+     * @param delta        delta named like the file
+     * @param path         path of the folder holding the file
+     * @param fencingToken token of the lock the central server holds on the file
+     * @return response, 412 if the stored file changed since its signatures were taken
+     */
+    @PostMapping("/files/delta")
+    @ResponseBody
+    public ResponseEntity<?> handleDeltaUpload(@RequestParam("delta") MultipartFile delta, @RequestParam("path") String path,
+                                               @RequestParam(required = false) Long fencingToken) throws IOException {
+        File deltaFile = File.createTempFile("delta-", null);
+        File file;
+        try {
+            delta.transferTo(deltaFile);
+            file = deltaSync.rebuild(path, delta.getOriginalFilename(), deltaFile.toPath());
+        } catch (IOException | RuntimeException e) {
+            deltaFile.delete();
+            throw e;
+        }
+        return replicate(new Transaction(Operation.UPLOAD, file, delta.getOriginalFilename(), path)
+                .setDelta(deltaFile).setFencingToken(fencingToken), "File uploaded");
+    }
+
+    /**
+     * upload many files in one multipart request, they are replicated and committed as one operation.
+     * the file name of every part is the path of the file relative to the folder, missing folders are created.
+     *
+     * @param path         path of the folder the files are uploaded to
+     * @param fencingToken token of the lock the central server holds on the folder
+     * @param request      request with the files as parts named "file"
+     * @return response
+     */
+    @PostMapping("/files/bulk")
+    @ResponseBody
+    public ResponseEntity<?> handleBulkUpload(@RequestParam("path") String path, @RequestParam(required = false) Long fencingToken,
+                                              MultipartHttpServletRequest request) throws IOException {
+        if (!storageService.isDirectory(path)) {
+            throw new StorageException("Folder doesn't exist");
+        }
+        String folder = path.endsWith("/") ? path : path + "/";
+        List<Transaction> directories = new ArrayList<>();
+        List<Transaction> uploads = new ArrayList<>();
+        Set<String> createdDirectories = new HashSet<>();
+        try {
+            for (MultipartFile file : request.getFiles("file")) {
+                String relativePath = Objects.requireNonNull(file.getOriginalFilename()).replace('\\', '/');
+                int separator = relativePath.lastIndexOf('/');
+                String fileName = relativePath.substring(separator + 1);
+                String directory = separator == -1 ? path : folder + relativePath.substring(0, separator);
+                if (fileName.isEmpty() || relativePath.startsWith("/") || Arrays.asList(relativePath.split("/")).contains("..")) {
+                    throw new StorageException("Invalid file name " + relativePath);
+                }
+                // every missing folder on the way is created, parents before their children
+                for (int end = relativePath.indexOf('/'); end != -1; end = relativePath.indexOf('/', end + 1)) {
+                    String parent = folder + relativePath.substring(0, end);
+                    if (createdDirectories.add(parent) && !storageService.isDirectory(parent)) {
+                        directories.add(new Transaction(Operation.CREATE_DIR, parent).setFencingToken(fencingToken));
+                    }
+                }
+                File tmpFile = File.createTempFile("txn-", null);
+                uploads.add(new Transaction(Operation.UPLOAD, tmpFile, fileName, directory).setFencingToken(fencingToken));
+                file.transferTo(tmpFile);
+            }
+        } catch (IOException | RuntimeException e) {
+            for (Transaction upload : uploads) {
+                upload.getFile().delete();
+            }
+            throw e;
+        }
+        if (uploads.isEmpty()) {
+            throw new StorageException("Failed to store empty file.");
+        }
+        List<Transaction> txns = new ArrayList<>(directories);
+        txns.addAll(uploads);
+        return replicateAll(txns, uploads.size() + " files uploaded");
+    }
+
+    /**
+     * delete many files and directories in one request, they are replicated and committed as one operation.
+     * a directory is deleted with everything in it.
      *
-     * @param path path of the file
+     * @param paths        paths to delete, one per line
+     * @param fencingToken token of the locks the central server holds on the paths
      * @return response
+     */
+    @PostMapping("/files/bulk/delete")
+    @ResponseBody
+    public ResponseEntity<?> handleBulkDelete(@RequestBody String paths, @RequestParam(required = false) Long fencingToken) {
+        List<Transaction> txns = new ArrayList<>();
+        for (String path : paths.split("\n")) {
+            if (!path.trim().isEmpty()) {
+                addDeletions(path.trim(), txns);
+            }
+        }
+        for (Transaction txn : txns) {
+            txn.setFencingToken(fencingToken);
+        }
+        return replicateAll(txns, txns.size() + " entries deleted");
+    }
+
+    /**
+     * start a chunked upload, the chunks are sent with PUT /uploads/{id}/chunks/{index}.
      *
-     * TODO Add Paxos
+     * @param path      path of the folder the file is uploaded to
+     * @param fileName  name of the file
+     * @param size      size of the file in bytes
+     * @param chunkSize size of every chunk but the last one
+     * @return id of the upload session
+     */
+    @PostMapping("/uploads")
+    @ResponseBody
+    public ResponseEntity<?> initiateUpload(@RequestParam("path") String path, @RequestParam("fileName") String fileName,
+                                            @RequestParam("size") long size, @RequestParam("chunkSize") long chunkSize) {
+        if (!storageService.isDirectory(path)) {
+            throw new StorageException("Folder doesn't exist");
+        }
+        UploadSessionService.UploadSession session = uploadSessionService.initiate(path, fileName, size, chunkSize);
+        return ResponseEntity.status(HttpStatus.CREATED).body(session.getId());
+    }
+
+    /**
+     * upload one chunk of a chunked upload, the request body is the raw chunk.
+     * chunks may be sent in any order and in parallel, a failed chunk is simply sent again.
+     *
+     * @param id      id of the upload session
+     * @param index   index of the chunk
+     * @param request request with the chunk as body
+     * @return response
+     */
+    @PutMapping("/uploads/{id}/chunks/{index}")
+    @ResponseBody
+    public ResponseEntity<?> uploadChunk(@PathVariable String id, @PathVariable int index, HttpServletRequest request) throws IOException {
+        uploadSessionService.writeChunk(id, index, request.getInputStream());
+        return ResponseEntity.ok("Chunk uploaded");
+    }
+
+    /**
+     * get the chunks of a chunked upload that have not arrived yet
+     *
+     * @param id id of the upload session
+     * @return indexes of the missing chunks separated by spaces
+     */
+    @GetMapping("/uploads/{id}")
+    @ResponseBody
+    public ResponseEntity<?> getUpload(@PathVariable String id) {
+        UploadSessionService.UploadSession session = uploadSessionService.get(id);
+        return ResponseEntity.ok(session.getMissingChunks().stream().map(String::valueOf).collect(Collectors.joining(" ")));
+    }
+
+    /**
+     * finish a chunked upload, the assembled file is replicated like a file uploaded in one piece.
+     *
+     * @param id           id of the upload session
+     * @param fencingToken token of the lock the central server holds on the file
+     * @return response
+     */
+    @PostMapping("/uploads/{id}/complete")
+    @ResponseBody
+    public ResponseEntity<?> completeUpload(@PathVariable String id, @RequestParam(required = false) Long fencingToken) {
+        UploadSessionService.UploadSession session = uploadSessionService.complete(id);
+        return replicate(new Transaction(Operation.UPLOAD, session.getFile().toFile(), session.getFileName(), session.getPath())
+                .setFencingToken(fencingToken), "File uploaded");
+    }
+
+    /**
+     * cancel a chunked upload
+     *
+     * @param id id of the upload session
+     * @return response
+     */
+    @DeleteMapping("/uploads/{id}")
+    @ResponseBody
+    public ResponseEntity<?> abortUpload(@PathVariable String id) {
+        uploadSessionService.abort(id);
+        return ResponseEntity.ok("Upload aborted");
+    }
+
+    /**
+     * delete a file by path
+     *
+     * @param path         path of the file
+     * @param fencingToken token of the lock the central server holds on the path
+     * @return response
      */
     @DeleteMapping("/files")
     @ResponseBody
-    public ResponseEntity<?> deleteFileByPath(@RequestParam(value = "path") String path, @RequestParam(required = false) Mode mode) {
+    public ResponseEntity<?> deleteFileByPath(@RequestParam(value = "path") String path, @RequestParam(required = false) Mode mode,
+                                              @RequestParam(required = false) String txnId,
+                                              @RequestParam(required = false) Long fencingToken) {
         if (mode == null) {
             mode = Mode.PREPARE;
         }
         switch (mode) {
             case COMMIT:
+                fencingTokens.committed(Operation.DELETE_FILE, path, null, fencingToken);
+                transactionLog.commit(txnId, Operation.DELETE_FILE, System.currentTimeMillis(), path, null);
                 storageService.deleteFileByPath(path);
+                transactionLog.done(txnId);
                 return ResponseEntity.status(HttpStatus.CREATED).body("Directory Deleted");
             case PREPARE:
-                // START PAXOS
-                Boolean proposeResult = this.sendProposeDeleteMessaage(new Transaction(null, path), "/files");
-                if (!proposeResult) {
-                    return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(TXN_PROPOSE_FAILED);
-                }
-
-                Boolean commitResult = this.sendCommitDeleteMessaage(new Transaction(null, path), "/files");
-                if (!commitResult) {
-                    return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(TXN_FAILED);
-                }
-                return ResponseEntity.status(HttpStatus.CREATED).body("Directory Deleted");
+                return replicate(new Transaction(Operation.DELETE_FILE, path).setFencingToken(fencingToken), "Directory Deleted");
             case PROPOSE:
+                if (!fencingTokens.admit(Operation.DELETE_FILE, path, null, fencingToken)) {
+                    return ResponseEntity.status(HttpStatus.CONFLICT).body(TXN_FENCED);
+                }
+                transactionLog.propose(txnId, Operation.DELETE_FILE, System.currentTimeMillis(), path, null);
                 return ResponseEntity.status(HttpStatus.OK).body(TXN_PROPOSE_SUCCESS);
+            case ABORT:
+                transactionLog.abort(txnId);
+                return ResponseEntity.status(HttpStatus.OK).body(TXN_ABORTED);
             default:
                 return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(TXN_UNKNOWN_MODE);
         }
@@ -251,6 +551,11 @@ public class FileUploadController {
         return ResponseEntity.notFound().build();
     }
 
+    @ExceptionHandler(DeltaBaseChangedException.class)
+    public ResponseEntity<?> handleDeltaBaseChanged(DeltaBaseChangedException exc) {
+        return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).body(exc.getMessage());
+    }
+
     @ExceptionHandler(StorageException.class)
     public ResponseEntity<?> handleStorageFileNotFound(StorageException exc) {
         return new ResponseEntity<Object>(
@@ -258,181 +563,103 @@ public class FileUploadController {
 
     }
 
-    private Boolean sendProposeMessage(Transaction txn, String url) {
-
-        AtomicInteger successCounter = new AtomicInteger();
-
-        for (String i : this.nodeServerUrls) {
-            Thread t = new Thread(() -> {
-                URIBuilder uriBuilder = null;
-                try {
-                    uriBuilder = new URIBuilder(i + url);
-                } catch (URISyntaxException e) {
-                    throw new RuntimeException(e);
-                }
-                uriBuilder.addParameter("path", txn.getPath());
-                uriBuilder.addParameter("mode", String.valueOf(PROPOSE));
-
-                HttpClient httpclient = HttpClients.createDefault();
-
-                HttpPost httppost = null;
-                try {
-                    httppost = new HttpPost(uriBuilder.build());
-                } catch (URISyntaxException e) {
-                    throw new RuntimeException(e);
-                }
-                MultipartEntityBuilder builder = MultipartEntityBuilder.create();
-                if (txn.getFile() != null) {
-                    builder.addPart("file", new FileBody(txn.getFile()));
-                    HttpEntity entity = builder.build();
-                    httppost.setEntity(entity);
-                }
+    /**
+     * replicate a mutation to every node and answer the central server.
+     */
+    private ResponseEntity<?> replicate(Transaction txn, String message) {
+        return toResponse(replicator.replicate(txn), message);
+    }
 
-                ClassicHttpResponse response = null;
-                try {
-                    response = (ClassicHttpResponse) httpclient.execute(httppost);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
+    private static ResponseEntity<?> toResponse(TransactionResponse result, String message) {
+        switch (result) {
+            case TXN_SUCCESS:
+                return ResponseEntity.status(HttpStatus.CREATED).body(message);
+            case TXN_NOT_LEADER:
+                return ResponseEntity.status(421).body(result);
+            case TXN_FENCED:
+                return ResponseEntity.status(HttpStatus.CONFLICT).body(result);
+            default:
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(result);
+        }
+    }
 
-                InputStream inputStream = null;
-                try {
-                    inputStream = response.getEntity().getContent();
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-                String result;
-                try {
-                    result = IOUtils.toString(inputStream, StandardCharsets.UTF_8);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-                if (response.getCode() == 200) {
-                    successCounter.addAndGet(1);
-                }
-            });
-            t.start();
-            try {
-                t.join();
-            } catch (Exception ignored) {
+    /**
+     * replicate mutations as one operation and answer the central server.
+     */
+    private ResponseEntity<?> replicateAll(List<Transaction> txns, String message) {
+        return toResponse(replicator.replicateAll(txns), message);
+    }
 
+    /**
+     * add the deletion of a file, or of a directory after everything in it.
+     */
+    private void addDeletions(String path, List<Transaction> txns) {
+        if (!storageService.isDirectory(path)) {
+            // a missing file fails the whole request before anything is deleted
+            int separator = path.lastIndexOf('/', path.length() - 2);
+            String parent = separator <= 0 ? "/" : path.substring(0, separator);
+            if (!loadAllEverywhere(parent).contains(path.substring(separator + 1))) {
+                throw new StorageFileNotFoundException("Could not read file: " + path);
             }
+            txns.add(new Transaction(Operation.DELETE_FILE, path));
+            return;
+        }
+        String folder = path.endsWith("/") ? path : path + "/";
+        for (String child : loadAllEverywhere(path)) {
+            addDeletions(folder + child, txns);
         }
-        return successCounter.get() >= this.nodeServerUrls.length / 2 + 1;
+        txns.add(new Transaction(Operation.DELETE_DIR, path));
     }
 
-    private Boolean sendProposeDeleteMessaage(Transaction txn, String  url) {
-        AtomicInteger successCounter = new AtomicInteger();
-        for (String i : this.nodeServerUrls) {
-            Thread t = new Thread(() -> {
-                try {
-                    URIBuilder uriBuilder = new URIBuilder(i + url);
-                    uriBuilder.addParameter("path", txn.getPath());
-                    uriBuilder.addParameter("mode", String.valueOf(PROPOSE));
-                    Request.Delete(uriBuilder.build()).execute().returnContent();
-                } catch (URISyntaxException | IOException var4) {
-                    throw new RuntimeException(var4);
-                }
-                successCounter.addAndGet(1);
-            });
-            t.start();
-            try {
-                t.join();
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
+    /**
+     * get the names of the files and directories in a directory on every node,
+     * a node only holds the files placed on it unless every node holds every file.
+     */
+    private Set<String> loadAllEverywhere(String path) {
+        Set<String> names = new LinkedHashSet<>();
+        if (placement.isFullyReplicated()) {
+            try (Stream<Path> children = storageService.loadAllByPath(path)) {
+                children.forEach(child -> names.add(child.toString()));
+            } catch (NoSuchFileException e) {
+                throw new StorageFileNotFoundException("Could not read directory: " + path, e);
             }
-        };
-
-        return successCounter.get() >= this.nodeServerUrls.length / 2 + 1;
-    }
-
-        private Boolean sendCommitDeleteMessaage(Transaction txn, String  url) {
-        AtomicInteger successCounter = new AtomicInteger();
-        for (String i : this.nodeServerUrls) {
-            Thread t = new Thread(() -> {
-                try {
-                    URIBuilder uriBuilder = new URIBuilder(i + url);
-                    uriBuilder.addParameter("path", txn.getPath());
-                    uriBuilder.addParameter("mode", String.valueOf(COMMIT));
-                    Request.Delete(uriBuilder.build()).execute().returnContent();
-                } catch (URISyntaxException | IOException var4) {
-                    throw new RuntimeException(var4);
-                }
-                successCounter.addAndGet(1);
-            });
-            t.start();
+            return names;
+        }
+        for (String node : placement.getNodes()) {
             try {
-                t.join();
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
+                String listing = peerClient.executeForString(new HttpGet(new URIBuilder(node + "/dirs")
+                        .addParameter("path", path)
+                        .build()));
+                for (String name : listing.trim().split(" ")) {
+                    if (!name.isEmpty()) {
+                        names.add(name);
+                    }
+                }
+            } catch (IOException | URISyntaxException e) {
+                // the files of a node that is down are held by other replicas too
+                logger.warn("Could not list {} on {}: {}", path, node, e.getMessage());
             }
-        };
-
-        return successCounter.get() >= this.nodeServerUrls.length / 2 + 1;
+        }
+        return names;
     }
 
-    private Boolean sendCommitMessage(Transaction txn, String url) {
-
-        AtomicInteger successCounter = new AtomicInteger();
-
-        for (String i : this.nodeServerUrls) {
-            Thread t = new Thread(() -> {
-                URIBuilder uriBuilder = null;
-                try {
-                    uriBuilder = new URIBuilder(i + url);
-                } catch (URISyntaxException e) {
-                    throw new RuntimeException(e);
-                }
-                uriBuilder.addParameter("path", txn.getPath());
-                uriBuilder.addParameter("mode", String.valueOf(COMMIT));
-
-                HttpClient httpclient = HttpClients.createDefault();
-
-                HttpPost httppost = null;
-                try {
-                    httppost = new HttpPost(uriBuilder.build());
-                } catch (URISyntaxException e) {
-                    throw new RuntimeException(e);
-                }
-                MultipartEntityBuilder builder = MultipartEntityBuilder.create();
-                if (txn.getFile() != null) {
-                    builder.addPart("file", new FileBody(txn.getFile()));
-                    HttpEntity entity = builder.build();
-                    httppost.setEntity(entity);
-                }
-
-                ClassicHttpResponse response = null;
-                try {
-                    response = (ClassicHttpResponse) httpclient.execute(httppost);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-
-                InputStream inputStream = null;
-                try {
-                    inputStream = response.getEntity().getContent();
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-                String result;
-                try {
-                    result = IOUtils.toString(inputStream, StandardCharsets.UTF_8);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-
-                if (response.getCode() == 201) {
-                    successCounter.addAndGet(1);
-                }
-            });
-            t.start();
-            try {
-                t.join();
-            } catch (Exception ignored) {
-
-            }
+    /**
+     * rebuild a file from a delta received with a PROPOSE message.
+     */
+    private File rebuild(String path, MultipartFile delta) throws IOException {
+        File deltaFile = File.createTempFile("delta-", null);
+        try {
+            delta.transferTo(deltaFile);
+            return deltaSync.rebuild(path, delta.getOriginalFilename(), deltaFile.toPath());
+        } finally {
+            deltaFile.delete();
         }
+    }
 
-        return successCounter.get() >= this.nodeServerUrls.length / 2 + 1;
+    private ChunkTransfer requireChunkTransfer() {
+        if (chunkTransfer == null) {
+            throw new StorageException("Deduplication is not enabled on this node");
+        }
+        return chunkTransfer;
     }
 }
@@ -1,5 +1,10 @@
 package com.example.uploadingfiles;
 
+import com.example.uploadingfiles.antientropy.AntiEntropyProperties;
+import com.example.uploadingfiles.catchup.CatchUpProperties;
+import com.example.uploadingfiles.compression.CompressionProperties;
+import com.example.uploadingfiles.placement.PlacementProperties;
+import com.example.uploadingfiles.replication.ReplicationProperties;
 import com.example.uploadingfiles.storage.StorageProperties;
 import com.example.uploadingfiles.storage.StorageService;
 import org.springframework.boot.CommandLineRunner;
@@ -7,11 +12,14 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 import java.util.Collections;
 
 @SpringBootApplication
-@EnableConfigurationProperties(StorageProperties.class)
+@EnableScheduling
+@EnableConfigurationProperties({StorageProperties.class, ReplicationProperties.class, PlacementProperties.class,
+		CompressionProperties.class, AntiEntropyProperties.class, CatchUpProperties.class})
 public class UploadingFilesApplication {
 
 	public static void main(String[] args) {
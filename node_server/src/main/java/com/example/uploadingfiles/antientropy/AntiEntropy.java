@@ -0,0 +1,305 @@
+package com.example.uploadingfiles.antientropy;
+
+import com.example.uploadingfiles.replication.PeerClient;
+import com.example.uploadingfiles.storage.StorageException;
+import com.example.uploadingfiles.storage.StorageService;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.apache.hc.core5.net.URIBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Finds and repairs what a node missed while it was down or unreachable, by comparing Merkle trees with its peers.
+ * Each round compares this node with the next peer: the hashes of the children of the nodes that differ are
+ * fetched level by level, so only the leaves that differ are listed and only the entries that differ are repaired.
+ *
+ * Repairs are pulled, this node copies what the peer has newer and deletes what the peer deleted later,
+ * the peer repairs itself in its own round. Entries changed within anti-entropy.grace-seconds are left
+ * to the transaction that is committing them.
+ */
+@Component
+@ConditionalOnExpression("${anti-entropy.enabled:true} and '${storage.mode:filesystem}' != 'erasure'")
+public class AntiEntropy {
+
+    private static final Logger logger = LoggerFactory.getLogger(AntiEntropy.class);
+
+    private final MerkleIndex merkleIndex;
+    private final StorageService storageService;
+    private final PeerClient peerClient;
+    private final long graceMillis;
+    private int nextPeer;
+
+    private final AtomicLong rounds = new AtomicLong();
+    private final AtomicLong roundsInSync = new AtomicLong();
+    private final AtomicLong failedRounds = new AtomicLong();
+    private final AtomicLong leavesCompared = new AtomicLong();
+    private final AtomicLong filesPulled = new AtomicLong();
+    private final AtomicLong bytesPulled = new AtomicLong();
+    private final AtomicLong filesDeleted = new AtomicLong();
+    private final AtomicLong directoriesCreated = new AtomicLong();
+    private final AtomicLong directoriesDeleted = new AtomicLong();
+    private volatile long lastRoundMillis;
+
+    @Autowired
+    public AntiEntropy(MerkleIndex merkleIndex, StorageService storageService, PeerClient peerClient,
+                       AntiEntropyProperties properties) {
+        this.merkleIndex = merkleIndex;
+        this.storageService = storageService;
+        this.peerClient = peerClient;
+        this.graceMillis = properties.getGraceSeconds() * 1000L;
+    }
+
+    /**
+     * compare this node with the next peer and repair what differs.
+     */
+    @Scheduled(initialDelayString = "#{${anti-entropy.interval-seconds:30} * 1000}",
+            fixedDelayString = "#{${anti-entropy.interval-seconds:30} * 1000}")
+    public void runRound() {
+        merkleIndex.expireTombstones();
+        List<String> peers = merkleIndex.getPeers();
+        if (!merkleIndex.isReady() || peers.isEmpty()) {
+            return;
+        }
+        compareWith(peers.get(nextPeer++ % peers.size()));
+    }
+
+    /**
+     * compare this node with a peer and repair what differs.
+     *
+     * @param peer url of the peer
+     * @return false if the trees could not be compared
+     */
+    public synchronized boolean compareWith(String peer) {
+        if (!merkleIndex.isReady()) {
+            return false;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            compare(peer);
+            rounds.incrementAndGet();
+            return true;
+        } catch (IOException | RuntimeException e) {
+            failedRounds.incrementAndGet();
+            logger.debug("Could not compare with {}", peer, e);
+            return false;
+        } finally {
+            lastRoundMillis = System.currentTimeMillis() - start;
+        }
+    }
+
+    /**
+     * @return counters of the rounds and the repairs
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("self", merkleIndex.getSelf());
+        stats.put("ready", merkleIndex.isReady());
+        stats.put("rounds", rounds.get());
+        stats.put("roundsInSync", roundsInSync.get());
+        stats.put("failedRounds", failedRounds.get());
+        stats.put("lastRoundMillis", lastRoundMillis);
+        stats.put("leavesCompared", leavesCompared.get());
+        stats.put("filesPulled", filesPulled.get());
+        stats.put("bytesPulled", bytesPulled.get());
+        stats.put("filesDeleted", filesDeleted.get());
+        stats.put("directoriesCreated", directoriesCreated.get());
+        stats.put("directoriesDeleted", directoriesDeleted.get());
+        return stats;
+    }
+
+    private void compare(String peer) throws IOException {
+        int[] nodes = {0};
+        for (int level = 0; level < MerkleTree.DEPTH; level++) {
+            long[][] theirs = fetchChildren(peer, level, nodes);
+            long[][] mine = merkleIndex.children(peer, level, nodes);
+            List<Integer> differing = new ArrayList<>();
+            for (int i = 0; i < nodes.length; i++) {
+                for (int child = 0; child < MerkleTree.FAN_OUT; child++) {
+                    if (theirs[i][child] != mine[i][child]) {
+                        differing.add(nodes[i] * MerkleTree.FAN_OUT + child);
+                    }
+                }
+            }
+            if (differing.isEmpty()) {
+                roundsInSync.incrementAndGet();
+                return;
+            }
+            nodes = differing.stream().mapToInt(Integer::intValue).toArray();
+        }
+        leavesCompared.addAndGet(nodes.length);
+        repair(peer, fetchEntries(peer, nodes));
+    }
+
+    /**
+     * copy or delete what the peer changed later than this node, entries only this node has are left to the peer.
+     */
+    private void repair(String peer, Map<String, MerkleIndex.Entry> theirs) {
+        long settledBefore = System.currentTimeMillis() - graceMillis;
+        List<String> deletedDirectories = new ArrayList<>();
+        // parents sort before their content, so directories are created before the files in them
+        for (Map.Entry<String, MerkleIndex.Entry> entry : theirs.entrySet()) {
+            String path = entry.getKey();
+            MerkleIndex.Entry their = entry.getValue();
+            MerkleIndex.Entry mine = merkleIndex.get(path);
+            if (their.getTime() >= settledBefore || (mine != null && mine.getTime() >= settledBefore)) {
+                continue;
+            }
+            try {
+                if (their.isDeleted()) {
+                    if (mine == null || mine.isDeleted() || mine.getTime() >= their.getTime()) {
+                        continue;
+                    }
+                    if (mine.isDirectory()) {
+                        deletedDirectories.add(path);
+                    } else if (their.getType() == MerkleIndex.Entry.FILE) {
+                        storageService.deleteFileByPath(path);
+                        filesDeleted.incrementAndGet();
+                    }
+                } else if (mine != null && !mine.isDeleted() && mine.isDirectory() != their.isDirectory()) {
+                    logger.warn("{} is a {} on {} and not here, left as it is", path,
+                            their.isDirectory() ? "directory" : "file", peer);
+                } else if (mine != null && mine.isDeleted() && mine.getTime() >= their.getTime()) {
+                    // deleted here later, the peer deletes it in its own round
+                } else if (their.isDirectory()) {
+                    if (mine == null || mine.isDeleted()) {
+                        storageService.createDirectoryByPath(path);
+                        directoriesCreated.incrementAndGet();
+                    }
+                } else if (mine == null || mine.isDeleted() || isNewer(their, mine)) {
+                    pull(peer, path, their);
+                }
+            } catch (IOException | StorageException e) {
+                logger.warn("Could not repair {} from {}", path, peer, e);
+            }
+        }
+        // content first, a directory is only deleted once nothing is left in it
+        Collections.sort(deletedDirectories, Collections.reverseOrder());
+        for (String path : deletedDirectories) {
+            if (merkleIndex.hasChildren(path)) {
+                continue;
+            }
+            try {
+                storageService.deleteDirectoryByPath(path);
+                directoriesDeleted.incrementAndGet();
+            } catch (StorageException e) {
+                logger.warn("Could not delete {} as {} did", path, peer, e);
+            }
+        }
+    }
+
+    /**
+     * @return true if the copy of a peer wins, the later one or, for copies of the same time, the larger hash
+     */
+    private static boolean isNewer(MerkleIndex.Entry their, MerkleIndex.Entry mine) {
+        if (their.getTime() != mine.getTime()) {
+            return their.getTime() > mine.getTime();
+        }
+        if (their.sameContent(mine)) {
+            return false;
+        }
+        return their.getSize() != mine.getSize() ? their.getSize() > mine.getSize()
+                : Long.compareUnsigned(their.getHash(), mine.getHash()) > 0;
+    }
+
+    /**
+     * download a file from a peer and store it with the modification time it has there.
+     */
+    private void pull(String peer, String path, MerkleIndex.Entry their) throws IOException {
+        int slash = path.lastIndexOf('/');
+        String folder = slash == 0 ? "/" : path.substring(0, slash);
+        if (!storageService.isDirectory(folder)) {
+            return;
+        }
+        Path download = Files.createTempFile("anti-entropy-", null);
+        try {
+            HttpGet request = new HttpGet(new URIBuilder(peer + "/files").addParameter("path", path).build());
+            try (CloseableHttpResponse response = peerClient.open(request)) {
+                Files.copy(response.getEntity().getContent(), download, StandardCopyOption.REPLACE_EXISTING);
+            }
+            MerkleIndex.Entry mine = merkleIndex.get(path);
+            if (mine != null && !mine.isDeleted() && !isNewer(their, mine)) {
+                // stored here meanwhile
+                return;
+            }
+            Files.setLastModifiedTime(download, FileTime.fromMillis(their.getTime()));
+            long size = Files.size(download);
+            storageService.store(folder, path.substring(slash + 1), download);
+            filesPulled.incrementAndGet();
+            bytesPulled.addAndGet(size);
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        } finally {
+            Files.deleteIfExists(download);
+        }
+    }
+
+    private long[][] fetchChildren(String peer, int level, int[] nodes) throws IOException {
+        String body = post(peer, "/anti-entropy/tree", level, nodes);
+        String[] lines = body.split("\n");
+        if (lines.length != nodes.length) {
+            throw new IOException("Peer sent " + lines.length + " nodes for " + nodes.length);
+        }
+        long[][] children = new long[nodes.length][];
+        for (int i = 0; i < lines.length; i++) {
+            String[] hashes = lines[i].trim().split(" ");
+            if (hashes.length != MerkleTree.FAN_OUT) {
+                throw new IOException("Invalid node: " + lines[i]);
+            }
+            children[i] = new long[MerkleTree.FAN_OUT];
+            for (int child = 0; child < MerkleTree.FAN_OUT; child++) {
+                children[i][child] = Long.parseUnsignedLong(hashes[child], 16);
+            }
+        }
+        return children;
+    }
+
+    private Map<String, MerkleIndex.Entry> fetchEntries(String peer, int[] leaves) throws IOException {
+        Map<String, MerkleIndex.Entry> entries = new TreeMap<>();
+        for (String line : post(peer, "/anti-entropy/entries", null, leaves).split("\n")) {
+            if (!line.isEmpty()) {
+                Map.Entry<String, MerkleIndex.Entry> entry = MerkleIndex.Entry.parse(line);
+                entries.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return entries;
+    }
+
+    private String post(String peer, String endpoint, Integer level, int[] indexes) throws IOException {
+        try {
+            URIBuilder uriBuilder = new URIBuilder(peer + endpoint).addParameter("peer", merkleIndex.getSelf());
+            if (level != null) {
+                uriBuilder.addParameter("level", String.valueOf(level));
+            }
+            HttpPost request = new HttpPost(uriBuilder.build());
+            String body = Arrays.stream(indexes).mapToObj(String::valueOf).collect(Collectors.joining(" "));
+            request.setEntity(new StringEntity(body, ContentType.TEXT_PLAIN));
+            return peerClient.executeForString(request);
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.uploadingfiles.antientropy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.util.Arrays;
+import java.util.Map;
+
+@Controller
+@ConditionalOnExpression("${anti-entropy.enabled:true} and '${storage.mode:filesystem}' != 'erasure'")
+public class AntiEntropyController {
+    private final MerkleIndex merkleIndex;
+    private final AntiEntropy antiEntropy;
+
+    @Autowired
+    public AntiEntropyController(MerkleIndex merkleIndex, AntiEntropy antiEntropy) {
+        this.merkleIndex = merkleIndex;
+        this.antiEntropy = antiEntropy;
+    }
+
+    /**
+     * get the hashes of the children of nodes of the tree this node shares with a peer
+     *
+     * @param peer  url of the peer asking
+     * @param level level of the nodes, 0 for the root
+     * @param nodes indexes of the nodes on their level separated by spaces
+     * @return one line per node with the hashes of its children as hex
+     */
+    @PostMapping("/anti-entropy/tree")
+    @ResponseBody
+    public ResponseEntity<String> getChildren(@RequestParam("peer") String peer, @RequestParam("level") int level,
+                                              @RequestBody String nodes) {
+        if (!merkleIndex.isReady()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Tree is being built");
+        }
+        StringBuilder body = new StringBuilder();
+        for (long[] children : merkleIndex.children(peer, level, parse(nodes))) {
+            for (int i = 0; i < children.length; i++) {
+                body.append(i == 0 ? "" : " ").append(Long.toHexString(children[i]));
+            }
+            body.append('\n');
+        }
+        return ResponseEntity.ok().contentType(MediaType.TEXT_PLAIN).body(body.toString());
+    }
+
+    /**
+     * get the entries in leaves of the tree this node shares with a peer, deleted ones included
+     *
+     * @param peer   url of the peer asking
+     * @param leaves indexes of the leaves separated by spaces
+     * @return one entry per line
+     */
+    @PostMapping("/anti-entropy/entries")
+    @ResponseBody
+    public ResponseEntity<String> getEntries(@RequestParam("peer") String peer, @RequestBody String leaves) {
+        if (!merkleIndex.isReady()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Tree is being built");
+        }
+        StringBuilder body = new StringBuilder();
+        for (Map.Entry<String, MerkleIndex.Entry> entry : merkleIndex.entries(peer, parse(leaves)).entrySet()) {
+            body.append(entry.getValue().format(entry.getKey())).append('\n');
+        }
+        return ResponseEntity.ok().contentType(MediaType.TEXT_PLAIN).body(body.toString());
+    }
+
+    /**
+     * get the anti-entropy statistics of this node
+     *
+     * @return rounds, peers found out of sync and entries repaired
+     */
+    @GetMapping("/anti-entropy/stats")
+    @ResponseBody
+    public ResponseEntity<?> getStats() {
+        return ResponseEntity.ok(antiEntropy.getStats());
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<?> handleInvalidRequest(IllegalArgumentException exc) {
+        return ResponseEntity.badRequest().body(exc.getMessage());
+    }
+
+    private static int[] parse(String indexes) {
+        String trimmed = indexes.trim();
+        return trimmed.isEmpty() ? new int[0] : Arrays.stream(trimmed.split("\\s+")).mapToInt(Integer::parseInt).toArray();
+    }
+}
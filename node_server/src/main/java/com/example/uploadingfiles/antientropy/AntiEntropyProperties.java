@@ -0,0 +1,59 @@
+package com.example.uploadingfiles.antientropy;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@ConfigurationProperties("anti-entropy")
+public class AntiEntropyProperties {
+
+	/**
+	 * Whether nodes compare their Merkle trees and repair the entries they disagree on
+	 */
+	private boolean enabled = true;
+
+	/**
+	 * Seconds between two rounds, each round compares this node with the next peer
+	 */
+	private int intervalSeconds = 30;
+
+	/**
+	 * Entries changed less than this many seconds ago are left alone, their transaction may still be committing
+	 */
+	private int graceSeconds = 10;
+
+	/**
+	 * Seconds a deleted entry is remembered, a peer that missed the deletion must be compared within that time
+	 */
+	private int tombstoneSeconds = 24 * 3600;
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public int getIntervalSeconds() {
+		return intervalSeconds;
+	}
+
+	public void setIntervalSeconds(int intervalSeconds) {
+		this.intervalSeconds = intervalSeconds;
+	}
+
+	public int getGraceSeconds() {
+		return graceSeconds;
+	}
+
+	public void setGraceSeconds(int graceSeconds) {
+		this.graceSeconds = graceSeconds;
+	}
+
+	public int getTombstoneSeconds() {
+		return tombstoneSeconds;
+	}
+
+	public void setTombstoneSeconds(int tombstoneSeconds) {
+		this.tombstoneSeconds = tombstoneSeconds;
+	}
+}
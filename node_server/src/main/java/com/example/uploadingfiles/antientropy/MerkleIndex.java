@@ -0,0 +1,464 @@
+package com.example.uploadingfiles.antientropy;
+
+import com.example.uploadingfiles.placement.Placement;
+import com.example.uploadingfiles.storage.NamespaceIndex;
+import com.example.uploadingfiles.storage.StorageProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Merkle trees over the namespace of this node, one per peer, kept up to date as the storage changes.
+ * The tree for a peer holds the directories, which live on every node, and the files both nodes are replicas of,
+ * so two nodes in sync have the same tree for each other whatever else they hold.
+ *
+ * A file is known by its path, the size and the CRC32 of what is stored on disk and its modification time,
+ * which is the same on every replica. Files are hashed by a single thread in the order the storage changed,
+ * so storing a file never waits for it. Deleted entries are remembered for a while, they are not part of the
+ * trees but are listed to peers, so a peer that missed a deletion makes it instead of copying the entry back.
+ */
+@Component
+@ConditionalOnExpression("${anti-entropy.enabled:true} and '${storage.mode:filesystem}' != 'erasure'")
+public class MerkleIndex implements NamespaceIndex.Listener {
+
+    private static final Logger logger = LoggerFactory.getLogger(MerkleIndex.class);
+
+    private final Path rootLocation;
+    private final Placement placement;
+    private final long tombstoneMillis;
+    private final String self;
+    /**
+     * trees by the url of the peer they are shared with
+     */
+    private final Map<String, MerkleTree> trees = new LinkedHashMap<>();
+    /**
+     * entries by path, deleted ones included
+     */
+    private final ConcurrentNavigableMap<String, Entry> entries = new ConcurrentSkipListMap<>();
+    /**
+     * paths of the entries by leaf
+     */
+    private final List<Set<String>> leaves = new ArrayList<>(MerkleTree.LEAVES);
+    private final ExecutorService indexer;
+    /**
+     * changes of the storage not applied to the trees yet, published as anti-entropy.index.pending
+     */
+    private final AtomicInteger pending = new AtomicInteger();
+
+    @Autowired
+    public MerkleIndex(StorageProperties storageProperties, Placement placement, AntiEntropyProperties properties,
+                       MeterRegistry registry) {
+        this.rootLocation = Paths.get(storageProperties.getLocation());
+        this.placement = placement;
+        this.tombstoneMillis = properties.getTombstoneSeconds() * 1000L;
+        this.self = placement.getSelf();
+        for (String url : placement.getNodes()) {
+            if (!url.equals(self)) {
+                trees.put(url, new MerkleTree());
+            }
+        }
+        for (int i = 0; i < MerkleTree.LEAVES; i++) {
+            leaves.add(ConcurrentHashMap.newKeySet());
+        }
+        this.indexer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "merkle-index");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Gauge.builder("anti-entropy.index.pending", pending, AtomicInteger::get)
+                .description("Changes of the storage waiting to be applied to the Merkle trees")
+                .register(registry);
+    }
+
+    @PreDestroy
+    public void stop() {
+        indexer.shutdownNow();
+    }
+
+    /**
+     * @return url of this node, null if it is not known
+     */
+    public String getSelf() {
+        return self;
+    }
+
+    /**
+     * @return urls of the peers this node has a tree for
+     */
+    public List<String> getPeers() {
+        return new ArrayList<>(trees.keySet());
+    }
+
+    /**
+     * @return true once every change of the storage is in the trees, a tree that is still being built would
+     * make a peer copy what this node already has
+     */
+    public boolean isReady() {
+        return self != null && pending.get() == 0;
+    }
+
+    @Override
+    public void fileAdded(Path path) {
+        submit(() -> indexFile(toKey(path)));
+    }
+
+    @Override
+    public void directoryAdded(Path path) {
+        submit(() -> indexDirectory(toKey(path)));
+    }
+
+    @Override
+    public void removed(Path path) {
+        long deletedAt = System.currentTimeMillis();
+        submit(() -> delete(toKey(path), deletedAt));
+    }
+
+    @Override
+    public void reset() {
+        submit(() -> {
+            entries.clear();
+            leaves.forEach(Set::clear);
+            trees.values().forEach(MerkleTree::clear);
+        });
+    }
+
+    /**
+     * forget deletions older than anti-entropy.tombstone-seconds.
+     */
+    public void expireTombstones() {
+        long expiredBefore = System.currentTimeMillis() - tombstoneMillis;
+        submit(() -> {
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                if (entry.getValue().isDeleted() && entry.getValue().getTime() < expiredBefore) {
+                    put(entry.getKey(), null);
+                }
+            }
+        });
+    }
+
+    /**
+     * get the hashes of the children of nodes of the tree shared with a peer.
+     *
+     * @param peer  url of the peer
+     * @param level level of the nodes, below the leaves
+     * @param nodes indexes of the nodes on their level
+     * @return FAN_OUT hashes per node, in the order of the nodes
+     */
+    public long[][] children(String peer, int level, int[] nodes) {
+        long[] hashes = tree(peer).level(level + 1);
+        int count = hashes.length / MerkleTree.FAN_OUT;
+        long[][] children = new long[nodes.length][];
+        for (int i = 0; i < nodes.length; i++) {
+            if (nodes[i] < 0 || nodes[i] >= count) {
+                throw new IllegalArgumentException("No node " + nodes[i] + " on level " + level);
+            }
+            children[i] = Arrays.copyOfRange(hashes, nodes[i] * MerkleTree.FAN_OUT, (nodes[i] + 1) * MerkleTree.FAN_OUT);
+        }
+        return children;
+    }
+
+    /**
+     * get the entries of leaves of the tree shared with a peer, deleted ones included.
+     *
+     * @param peer   url of the peer
+     * @param leaves indexes of the leaves
+     * @return entries by path in path order
+     */
+    public Map<String, Entry> entries(String peer, int[] leaves) {
+        tree(peer);
+        Map<String, Entry> result = new TreeMap<>();
+        for (int leaf : leaves) {
+            if (leaf < 0 || leaf >= MerkleTree.LEAVES) {
+                throw new IllegalArgumentException("No leaf " + leaf);
+            }
+            for (String path : this.leaves.get(leaf)) {
+                Entry entry = entries.get(path);
+                if (entry != null && shares(path, entry, peer)) {
+                    result.put(path, entry);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return entry of a path, deleted or not, null if the path is unknown
+     */
+    public Entry get(String path) {
+        return entries.get(path);
+    }
+
+    /**
+     * @return true if something that is not deleted is under a directory
+     */
+    public boolean hasChildren(String directory) {
+        return entries.subMap(directory + "/", directory + "0").values().stream().anyMatch(entry -> !entry.isDeleted());
+    }
+
+    /**
+     * @return true if a peer holds a copy of an entry as well
+     */
+    boolean shares(String path, Entry entry, String peer) {
+        if (entry.isDirectory()) {
+            return true;
+        }
+        List<String> replicas = Arrays.asList(placement.getFileReplicas(path));
+        return replicas.contains(self) && replicas.contains(peer);
+    }
+
+    private MerkleTree tree(String peer) {
+        MerkleTree tree = trees.get(peer);
+        if (tree == null) {
+            throw new IllegalArgumentException("Unknown peer " + peer);
+        }
+        return tree;
+    }
+
+    private void submit(Runnable change) {
+        pending.incrementAndGet();
+        indexer.execute(() -> {
+            try {
+                change.run();
+            } catch (RuntimeException e) {
+                logger.warn("Could not index a change of the storage", e);
+            } finally {
+                pending.decrementAndGet();
+            }
+        });
+    }
+
+    private void indexFile(String path) {
+        Path file = rootLocation.resolve(path.substring(1));
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (attributes.isDirectory()) {
+                return;
+            }
+            CRC32 crc = new CRC32();
+            byte[] buffer = new byte[64 * 1024];
+            try (InputStream inputStream = Files.newInputStream(file)) {
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    crc.update(buffer, 0, read);
+                }
+            }
+            indexParents(path);
+            put(path, new Entry(Entry.FILE, false, attributes.size(), crc.getValue(), attributes.lastModifiedTime().toMillis()));
+        } catch (NoSuchFileException e) {
+            // removed since, its removal comes next
+        } catch (IOException e) {
+            logger.warn("Could not hash {}", path, e);
+        }
+    }
+
+    private void indexDirectory(String path) {
+        indexParents(path);
+        if (!path.equals("/")) {
+            addDirectory(path);
+        }
+    }
+
+    private void indexParents(String path) {
+        for (int slash = path.indexOf('/', 1); slash > 0; slash = path.indexOf('/', slash + 1)) {
+            addDirectory(path.substring(0, slash));
+        }
+    }
+
+    /**
+     * a directory keeps the time it was first seen, its modification time changes with its content
+     */
+    private void addDirectory(String path) {
+        Entry entry = entries.get(path);
+        if (entry != null && entry.isDirectory() && !entry.isDeleted()) {
+            return;
+        }
+        long time = System.currentTimeMillis();
+        try {
+            time = Math.min(time, Files.getLastModifiedTime(rootLocation.resolve(path.substring(1))).toMillis());
+        } catch (IOException e) {
+            // removed since, its removal comes next
+        }
+        put(path, new Entry(Entry.DIRECTORY, false, 0, 0, time));
+    }
+
+    private void delete(String path, long deletedAt) {
+        List<String> paths = new ArrayList<>(entries.subMap(path + "/", path + "0").keySet());
+        paths.add(path);
+        for (String removed : paths) {
+            Entry entry = entries.get(removed);
+            if (entry != null && !entry.isDeleted()) {
+                put(removed, new Entry(entry.getType(), true, 0, 0, deletedAt));
+            }
+        }
+    }
+
+    /**
+     * replace the entry of a path and move the digests in the trees of the peers sharing it.
+     */
+    private void put(String path, Entry entry) {
+        Entry old = entry == null ? entries.remove(path) : entries.put(path, entry);
+        int leaf = MerkleTree.leafOf(digest(path));
+        if (entry == null) {
+            leaves.get(leaf).remove(path);
+        } else {
+            leaves.get(leaf).add(path);
+        }
+        long oldDigest = old == null || old.isDeleted() ? 0 : digest(path + old.hashed());
+        long newDigest = entry == null || entry.isDeleted() ? 0 : digest(path + entry.hashed());
+        for (Map.Entry<String, MerkleTree> tree : trees.entrySet()) {
+            if (old != null && shares(path, old, tree.getKey())) {
+                tree.getValue().toggle(leaf, oldDigest);
+            }
+            if (entry != null && shares(path, entry, tree.getKey())) {
+                tree.getValue().toggle(leaf, newDigest);
+            }
+        }
+    }
+
+    /**
+     * @return path as a key, relative to the root with a leading slash
+     */
+    private static String toKey(Path path) {
+        StringBuilder key = new StringBuilder();
+        for (Path name : path) {
+            if (!name.toString().isEmpty()) {
+                key.append('/').append(name);
+            }
+        }
+        return key.length() == 0 ? "/" : key.toString();
+    }
+
+    /**
+     * @return first 8 bytes of the md5 digest
+     */
+    static long digest(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = 0; i < 8; i++) {
+                hash = hash << 8 | (digest[i] & 0xff);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+
+    /**
+     * a file or a directory as two nodes compare it.
+     */
+    public static class Entry {
+        public static final char FILE = 'f';
+        public static final char DIRECTORY = 'd';
+
+        private final char type;
+        private final boolean deleted;
+        private final long size;
+        private final long hash;
+        /**
+         * modification time of a file, time a directory was first seen, or time of the deletion
+         */
+        private final long time;
+
+        public Entry(char type, boolean deleted, long size, long hash, long time) {
+            this.type = type;
+            this.deleted = deleted;
+            this.size = size;
+            this.hash = hash;
+            this.time = time;
+        }
+
+        /**
+         * parse an entry from the line format, type, size, hash as hex, time and path separated by spaces.
+         * a deleted entry has a minus sign before its type.
+         *
+         * @return the entry and its path
+         */
+        public static Map.Entry<String, Entry> parse(String line) {
+            String[] fields = line.split(" ", 5);
+            if (fields.length != 5 || fields[0].isEmpty()) {
+                throw new IllegalArgumentException("Invalid entry: " + line);
+            }
+            boolean deleted = fields[0].startsWith("-");
+            Entry entry = new Entry(fields[0].charAt(deleted ? 1 : 0), deleted, Long.parseLong(fields[1]),
+                    Long.parseUnsignedLong(fields[2], 16), Long.parseLong(fields[3]));
+            return new AbstractMap.SimpleImmutableEntry<>(fields[4], entry);
+        }
+
+        /**
+         * @return the entry in the line format
+         */
+        public String format(String path) {
+            return (deleted ? "-" : "") + type + " " + size + " " + Long.toHexString(hash) + " " + time + " " + path;
+        }
+
+        /**
+         * @return the fields that go into the trees, directories are compared by path only
+         */
+        String hashed() {
+            return isDirectory() ? "\0d" : "\0f\0" + size + "\0" + hash + "\0" + time;
+        }
+
+        public char getType() {
+            return type;
+        }
+
+        public boolean isDirectory() {
+            return type == DIRECTORY;
+        }
+
+        public boolean isDeleted() {
+            return deleted;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getHash() {
+            return hash;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * @return true if the content of two files is the same
+         */
+        public boolean sameContent(Entry other) {
+            return type == other.type && size == other.size && hash == other.hash;
+        }
+    }
+}
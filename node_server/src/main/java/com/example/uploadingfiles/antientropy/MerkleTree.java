@@ -0,0 +1,76 @@
+package com.example.uploadingfiles.antientropy;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Merkle tree of fixed shape over the entries two nodes both hold.
+ * An entry falls into a leaf picked by the hash of its path, a leaf is the xor of the digests of its entries,
+ * so adding, replacing or removing an entry only touches its leaf. The upper levels are hashed from their
+ * children when a peer asks for them, with a function that is the same on every jvm.
+ *
+ * Level 0 is the root, level DEPTH holds the leaves, node i of a level has the children
+ * i * FAN_OUT to i * FAN_OUT + FAN_OUT - 1 on the level below.
+ */
+public class MerkleTree {
+
+    public static final int FAN_OUT = 16;
+    public static final int DEPTH = 3;
+    public static final int LEAVES = 1 << 12;
+
+    private final AtomicLongArray leaves = new AtomicLongArray(LEAVES);
+
+    /**
+     * add the digest of an entry to its leaf, or remove it if it was added before.
+     */
+    public void toggle(int leaf, long digest) {
+        leaves.accumulateAndGet(leaf, digest, (current, value) -> current ^ value);
+    }
+
+    public void clear() {
+        for (int i = 0; i < LEAVES; i++) {
+            leaves.set(i, 0);
+        }
+    }
+
+    /**
+     * @param level level from 0 for the root to DEPTH for the leaves
+     * @return hashes of every node of the level
+     */
+    public long[] level(int level) {
+        if (level < 0 || level > DEPTH) {
+            throw new IllegalArgumentException("No level " + level);
+        }
+        long[] hashes = new long[LEAVES];
+        for (int i = 0; i < LEAVES; i++) {
+            hashes[i] = leaves.get(i);
+        }
+        for (int depth = DEPTH; depth > level; depth--) {
+            long[] parents = new long[hashes.length / FAN_OUT];
+            for (int i = 0; i < parents.length; i++) {
+                long hash = 0x9e3779b97f4a7c15L;
+                for (int child = 0; child < FAN_OUT; child++) {
+                    hash = mix(hash ^ hashes[i * FAN_OUT + child]);
+                }
+                parents[i] = hash;
+            }
+            hashes = parents;
+        }
+        return hashes;
+    }
+
+    /**
+     * @return leaf of a path, the top bits of its digest
+     */
+    public static int leafOf(long pathDigest) {
+        return (int) (pathDigest >>> (64 - 12));
+    }
+
+    /**
+     * finalizer of splitmix64, every bit of the input changes about half the bits of the output.
+     */
+    static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+}
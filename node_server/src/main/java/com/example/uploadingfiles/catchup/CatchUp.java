@@ -0,0 +1,350 @@
+package com.example.uploadingfiles.catchup;
+
+import com.example.uploadingfiles.antientropy.AntiEntropy;
+import com.example.uploadingfiles.placement.Placement;
+import com.example.uploadingfiles.replication.PeerClient;
+import com.example.uploadingfiles.replication.PeerStatusException;
+import com.example.uploadingfiles.storage.StorageException;
+import com.example.uploadingfiles.storage.StorageService;
+import com.example.uploadingfiles.transaction.CommitJournal;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
+import org.apache.hc.core5.http.ParseException;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.net.URIBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Brings a node that starts up to date with the mutations its peers applied while it was down.
+ * The node asks every peer for its commit journal from a little before the newest mutation it journaled itself,
+ * and replays the entries of the files it holds in the order the peer applied them, with downloads throttled to
+ * catch-up.max-bytes-per-second. Meanwhile it takes part in new transactions but reports that it is catching up,
+ * so the central server sends it no reads. It stops catching up once it replayed the journals of all its peers,
+ * or of at least one of them when catch-up.timeout-seconds passed, a node that reached none keeps trying.
+ *
+ * Entries are replayed by their commit time, a file or a deletion that is already newer here is left alone,
+ * so an entry sent by several peers or sent again is harmless. A peer that dropped the entries asked for
+ * is compared with anti-entropy instead, when it is enabled.
+ */
+@Component
+@ConditionalOnExpression("${catch-up.enabled:true} and '${replication.mode:2pc}' == '2pc' and '${storage.mode:filesystem}' != 'erasure'")
+public class CatchUp {
+
+    private static final Logger logger = LoggerFactory.getLogger(CatchUp.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public enum State {
+        CATCHING_UP,
+        CAUGHT_UP
+    }
+
+    private final CommitJournal journal;
+    private final StorageService storageService;
+    private final PeerClient peerClient;
+    private final Placement placement;
+    private final CatchUpProperties properties;
+    private final ObjectProvider<AntiEntropy> antiEntropy;
+
+    private volatile State state = State.CATCHING_UP;
+    private volatile long since;
+    private final AtomicLong entriesReplayed = new AtomicLong();
+    private final AtomicLong filesPulled = new AtomicLong();
+    private final AtomicLong bytesPulled = new AtomicLong();
+    private volatile long durationMillis;
+
+    @Autowired
+    public CatchUp(CommitJournal journal, StorageService storageService, PeerClient peerClient, Placement placement,
+                   CatchUpProperties properties, ObjectProvider<AntiEntropy> antiEntropy) {
+        this.journal = journal;
+        this.storageService = storageService;
+        this.peerClient = peerClient;
+        this.placement = placement;
+        this.properties = properties;
+        this.antiEntropy = antiEntropy;
+    }
+
+    /**
+     * start catching up once the node serves requests, peers catching up at the same time can ask it meanwhile.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        Thread thread = new Thread(this::run, "catch-up");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return state, start of the catch-up and what was replayed
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("state", state);
+        stats.put("since", since);
+        stats.put("entriesReplayed", entriesReplayed.get());
+        stats.put("filesPulled", filesPulled.get());
+        stats.put("bytesPulled", bytesPulled.get());
+        stats.put("durationMillis", durationMillis);
+        return stats;
+    }
+
+    private void run() {
+        long start = System.currentTimeMillis();
+        long watermark = journal.getWatermark();
+        since = watermark == 0 ? 0 : watermark - TimeUnit.SECONDS.toMillis(properties.getMarginSeconds());
+        List<String> peers = new ArrayList<>();
+        for (String url : placement.getNodes()) {
+            if (!url.equals(placement.getSelf())) {
+                peers.add(url);
+            }
+        }
+        long deadline = start + TimeUnit.SECONDS.toMillis(properties.getTimeoutSeconds());
+        Throttle throttle = new Throttle(properties.getMaxBytesPerSecond());
+        // a node without peers has nothing to catch up with
+        boolean replayed = peers.isEmpty();
+        boolean warned = false;
+        try {
+            while (!peers.isEmpty()) {
+                int remaining = peers.size();
+                peers.removeIf(peer -> catchUpFrom(peer, throttle));
+                replayed |= peers.size() < remaining;
+                if (peers.isEmpty()) {
+                    break;
+                }
+                if (System.currentTimeMillis() > deadline) {
+                    if (replayed) {
+                        break;
+                    }
+                    if (!warned) {
+                        warned = true;
+                        logger.warn("Not serving reads until one of {} can be caught up with", peers);
+                    }
+                }
+                Thread.sleep(1000);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (!peers.isEmpty()) {
+            logger.warn("Serving reads without catching up with {}, they could not be reached", peers);
+        }
+        durationMillis = System.currentTimeMillis() - start;
+        state = State.CAUGHT_UP;
+        logger.info("Caught up in {} ms, replayed {} mutations and pulled {} bytes", durationMillis,
+                entriesReplayed.get(), bytesPulled.get());
+    }
+
+    /**
+     * replay the journal of a peer from the start of the catch-up.
+     *
+     * @return true if the peer was caught up with, false if it could not be reached
+     */
+    private boolean catchUpFrom(String peer, Throttle throttle) {
+        long after = 0;
+        try {
+            while (true) {
+                URIBuilder uriBuilder = new URIBuilder(peer + "/catch-up/journal")
+                        .addParameter("since", String.valueOf(since))
+                        .addParameter("after", String.valueOf(after))
+                        .addParameter("limit", String.valueOf(properties.getBatchSize()));
+                List<CommitJournal.Entry> entries = new ArrayList<>();
+                try (CloseableHttpResponse response = peerClient.open(new HttpGet(uriBuilder.build()))) {
+                    for (String line : EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8).split("\n")) {
+                        CommitJournal.Entry entry = CommitJournal.Entry.parse(line);
+                        if (entry != null) {
+                            entries.add(entry);
+                        }
+                    }
+                } catch (PeerStatusException e) {
+                    if (e.getStatus() == 410) {
+                        return resync(peer);
+                    }
+                    throw e;
+                }
+                for (CommitJournal.Entry entry : entries) {
+                    replay(peer, entry, throttle);
+                    after = entry.getSequence();
+                }
+                if (entries.size() < properties.getBatchSize()) {
+                    return true;
+                }
+            }
+        } catch (IOException | ParseException e) {
+            logger.debug("Could not catch up with {}", peer, e);
+            return false;
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * the peer no longer journals the mutations this node missed, compare the whole namespace with it instead.
+     */
+    private boolean resync(String peer) {
+        AntiEntropy comparison = antiEntropy.getIfAvailable();
+        if (comparison == null) {
+            logger.warn("{} dropped the mutations this node missed and anti-entropy is disabled, files may be stale", peer);
+            return true;
+        }
+        logger.info("{} dropped the mutations this node missed, comparing with anti-entropy", peer);
+        return comparison.compareWith(peer);
+    }
+
+    /**
+     * apply a mutation of the journal of a peer unless its effect is already here.
+     */
+    private void replay(String peer, CommitJournal.Entry entry, Throttle throttle) throws IOException {
+        try {
+            switch (entry.getOperation()) {
+                case UPLOAD:
+                case UPLOAD_MANIFEST:
+                    String filePath = entry.getPath().endsWith("/") ? entry.getPath() + entry.getFileName()
+                            : entry.getPath() + "/" + entry.getFileName();
+                    if (!placement.isReplica(filePath) || lastModified(filePath) >= entry.getTimestamp()) {
+                        return;
+                    }
+                    if (!storageService.isDirectory(entry.getPath())) {
+                        // the directory was deleted later, the deletion follows
+                        return;
+                    }
+                    if (pull(peer, filePath, entry, throttle) < 0) {
+                        return;
+                    }
+                    break;
+                case DELETE_FILE:
+                    long modified = lastModified(entry.getPath());
+                    if (!placement.isReplica(entry.getPath()) || modified < 0 || modified >= entry.getTimestamp()) {
+                        return;
+                    }
+                    storageService.deleteFileByPath(entry.getPath());
+                    break;
+                case CREATE_DIR:
+                    if (storageService.isDirectory(entry.getPath())) {
+                        return;
+                    }
+                    storageService.createDirectoryByPath(entry.getPath());
+                    break;
+                case DELETE_DIR:
+                    if (!storageService.isDirectory(entry.getPath())) {
+                        return;
+                    }
+                    storageService.deleteDirectoryByPath(entry.getPath());
+                    break;
+                default:
+                    return;
+            }
+        } catch (StorageException e) {
+            logger.warn("Could not replay {} of {} from {}: {}", entry.getOperation(), entry.getPath(), peer, e.getMessage());
+            return;
+        }
+        entriesReplayed.incrementAndGet();
+        journal.append(entry.toRecord());
+    }
+
+    /**
+     * download a file from a peer and store it with the commit time of the entry.
+     * the download is throttled buffer by buffer, so a large file does not burst at full speed.
+     *
+     * @return bytes downloaded, -1 if the peer no longer has the file
+     */
+    private long pull(String peer, String filePath, CommitJournal.Entry entry, Throttle throttle) throws IOException {
+        Path download = Files.createTempFile("catch-up-", null);
+        try {
+            HttpGet request = new HttpGet(new URIBuilder(peer + "/files").addParameter("path", filePath).build());
+            try (CloseableHttpResponse response = peerClient.open(request);
+                 InputStream inputStream = response.getEntity().getContent();
+                 OutputStream outputStream = Files.newOutputStream(download)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    throttle.acquire(read);
+                    outputStream.write(buffer, 0, read);
+                }
+            } catch (PeerStatusException e) {
+                if (e.getStatus() == 404) {
+                    // deleted on the peer later, the deletion follows
+                    return -1;
+                }
+                throw e;
+            }
+            Files.setLastModifiedTime(download, FileTime.fromMillis(entry.getTimestamp()));
+            long size = Files.size(download);
+            storageService.store(entry.getPath(), entry.getFileName(), download);
+            filesPulled.incrementAndGet();
+            bytesPulled.addAndGet(size);
+            return size;
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        } finally {
+            Files.deleteIfExists(download);
+        }
+    }
+
+    /**
+     * @return modification time of a stored file, -1 if there is no such file
+     */
+    private long lastModified(String filePath) {
+        try {
+            Resource resource = storageService.loadAsResource(filePath);
+            return resource.lastModified();
+        } catch (StorageException | IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * spreads downloads so they average at most a number of bytes per second, bytes are acquired as they arrive.
+     */
+    private static class Throttle {
+        private final long bytesPerSecond;
+        private final long start = System.nanoTime();
+        private long bytes;
+
+        Throttle(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        void acquire(long size) {
+            if (bytesPerSecond <= 0) {
+                return;
+            }
+            bytes += size;
+            long aheadNanos = (long) (bytes * 1e9 / bytesPerSecond) - (System.nanoTime() - start);
+            if (aheadNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(aheadNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.uploadingfiles.catchup;
+
+import com.example.uploadingfiles.transaction.CommitJournal;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.util.List;
+
+@Controller
+@ConditionalOnExpression("${catch-up.enabled:true} and '${replication.mode:2pc}' == '2pc' and '${storage.mode:filesystem}' != 'erasure'")
+public class CatchUpController {
+    private final CommitJournal journal;
+    private final CatchUp catchUp;
+
+    @Autowired
+    public CatchUpController(CommitJournal journal, CatchUp catchUp) {
+        this.journal = journal;
+        this.catchUp = catchUp;
+    }
+
+    /**
+     * get the mutations this node applied since a time, for a peer catching up
+     *
+     * @param since commit time of the oldest mutation wanted
+     * @param after sequence of the last entry the peer already read
+     * @param limit largest number of entries sent
+     * @return one entry per line in the order they were applied, GONE if this node no longer journals them all
+     */
+    @GetMapping("/catch-up/journal")
+    @ResponseBody
+    public ResponseEntity<String> getJournal(@RequestParam("since") long since,
+                                             @RequestParam(value = "after", defaultValue = "0") long after,
+                                             @RequestParam(value = "limit", defaultValue = "500") int limit) {
+        List<CommitJournal.Entry> entries = journal.read(since, after, Math.max(1, limit));
+        if (entries == null) {
+            return ResponseEntity.status(HttpStatus.GONE).body("Mutations since " + since + " are no longer journaled");
+        }
+        StringBuilder body = new StringBuilder();
+        for (CommitJournal.Entry entry : entries) {
+            body.append(entry.toLine()).append('\n');
+        }
+        return ResponseEntity.ok().contentType(MediaType.TEXT_PLAIN).body(body.toString());
+    }
+
+    /**
+     * get whether this node caught up with its peers, the central server sends no reads to a node catching up
+     *
+     * @return CATCHING_UP or CAUGHT_UP
+     */
+    @GetMapping("/catch-up/status")
+    @ResponseBody
+    public ResponseEntity<String> getStatus() {
+        return ResponseEntity.ok().contentType(MediaType.TEXT_PLAIN).body(catchUp.getState().name());
+    }
+
+    /**
+     * get the catch-up statistics of this node
+     *
+     * @return state, start of the catch-up and what was replayed
+     */
+    @GetMapping("/catch-up/stats")
+    @ResponseBody
+    public ResponseEntity<?> getStats() {
+        return ResponseEntity.ok(catchUp.getStats());
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.uploadingfiles.catchup;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@ConfigurationProperties("catch-up")
+public class CatchUpProperties {
+
+	/**
+	 * Whether a node that starts replays the mutations its peers applied while it was down before it serves reads
+	 */
+	private boolean enabled = true;
+
+	/**
+	 * Seconds before the newest mutation of this node the catch-up starts at,
+	 * covers clocks of coordinators that differ and transactions that were committing when the node stopped
+	 */
+	private int marginSeconds = 60;
+
+	/**
+	 * Number of journal entries asked from a peer at once
+	 */
+	private int batchSize = 500;
+
+	/**
+	 * Bytes per second the catch-up may download from peers, 0 for no limit
+	 */
+	private long maxBytesPerSecond = 32 * 1024 * 1024;
+
+	/**
+	 * Seconds a node keeps trying to reach all its peers, after that it serves reads once it caught up with one of them
+	 */
+	private int timeoutSeconds = 60;
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public int getMarginSeconds() {
+		return marginSeconds;
+	}
+
+	public void setMarginSeconds(int marginSeconds) {
+		this.marginSeconds = marginSeconds;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public long getMaxBytesPerSecond() {
+		return maxBytesPerSecond;
+	}
+
+	public void setMaxBytesPerSecond(long maxBytesPerSecond) {
+		this.maxBytesPerSecond = maxBytesPerSecond;
+	}
+
+	public int getTimeoutSeconds() {
+		return timeoutSeconds;
+	}
+
+	public void setTimeoutSeconds(int timeoutSeconds) {
+		this.timeoutSeconds = timeoutSeconds;
+	}
+}
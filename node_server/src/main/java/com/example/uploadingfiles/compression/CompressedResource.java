@@ -0,0 +1,143 @@
+package com.example.uploadingfiles.compression;
+
+import org.springframework.core.io.AbstractResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * File stored gzip compressed, read as the original file.
+ * The stored file starts with a header line holding the size of the original file, the gzip stream follows it,
+ * so the compressed bytes can be sent as they are to a client that accepts gzip.
+ */
+public class CompressedResource extends AbstractResource {
+
+    private static final String MAGIC = "compressed-file 1 gzip ";
+    private static final byte[] MAGIC_BYTES = MAGIC.getBytes(StandardCharsets.US_ASCII);
+    private static final int MAX_LENGTH = 64;
+
+    private final Path file;
+    private final long size;
+    private final long dataOffset;
+
+    private CompressedResource(Path file, long size, long dataOffset) {
+        this.file = file;
+        this.size = size;
+        this.dataOffset = dataOffset;
+    }
+
+    /**
+     * write the header of a compressed file, the gzip stream must follow it.
+     *
+     * @param outputStream stored file
+     * @param size         size of the original file
+     */
+    public static void writeHeader(OutputStream outputStream, long size) throws IOException {
+        outputStream.write((MAGIC + size + "\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * read the header of a stored file.
+     *
+     * @param file stored file
+     * @return the file as a resource, or null if it is not stored compressed
+     */
+    public static CompressedResource read(Path file) throws IOException {
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            byte[] header = new byte[MAX_LENGTH];
+            int length = 0;
+            int b;
+            while ((b = inputStream.read()) != '\n') {
+                if (b == -1 || length == header.length) {
+                    return null;
+                }
+                header[length++] = (byte) b;
+                if (length <= MAGIC_BYTES.length && header[length - 1] != MAGIC_BYTES[length - 1]) {
+                    return null;
+                }
+            }
+            if (length <= MAGIC_BYTES.length) {
+                return null;
+            }
+            try {
+                long size = Long.parseLong(new String(header, MAGIC_BYTES.length, length - MAGIC_BYTES.length, StandardCharsets.US_ASCII));
+                return new CompressedResource(file, size, length + 1);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the stored file
+     */
+    public Path getStoredFile() {
+        return file;
+    }
+
+    /**
+     * @return position of the gzip stream in the stored file
+     */
+    public long getDataOffset() {
+        return dataOffset;
+    }
+
+    /**
+     * @return length of the gzip stream
+     */
+    public long getEncodedLength() throws IOException {
+        return Files.size(file) - dataOffset;
+    }
+
+    @Override
+    public boolean exists() {
+        return Files.exists(file);
+    }
+
+    @Override
+    public long contentLength() {
+        return size;
+    }
+
+    @Override
+    public long lastModified() throws IOException {
+        return Files.getLastModifiedTime(file).toMillis();
+    }
+
+    @Override
+    public String getFilename() {
+        return file.getFileName().toString();
+    }
+
+    @Override
+    public String getDescription() {
+        return "compressed file [" + file + "]";
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        InputStream inputStream = Files.newInputStream(file);
+        try {
+            long skipped = 0;
+            while (skipped < dataOffset) {
+                long count = inputStream.skip(dataOffset - skipped);
+                if (count <= 0) {
+                    throw new IOException("Compressed file " + file + " is truncated");
+                }
+                skipped += count;
+            }
+            return new GZIPInputStream(inputStream, 64 * 1024);
+        } catch (IOException e) {
+            inputStream.close();
+            throw e;
+        }
+    }
+}
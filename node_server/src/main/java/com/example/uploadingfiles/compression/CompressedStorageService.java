@@ -0,0 +1,81 @@
+package com.example.uploadingfiles.compression;
+
+import com.example.uploadingfiles.storage.FileSystemStorageService;
+import com.example.uploadingfiles.storage.StorageException;
+import com.example.uploadingfiles.storage.StorageProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Stores files gzip compressed when they compress, other files are stored as they are.
+ * Whether a file compresses is decided on a sample from its start, so media and archives
+ * only cost the sample. A compressed file is read back as the original file, and sent
+ * without decompressing it to clients that accept gzip.
+ */
+@Service
+@ConditionalOnProperty(name = "storage.mode", havingValue = "compressed")
+public class CompressedStorageService extends FileSystemStorageService {
+
+    private final GzipCodec codec;
+
+    @Autowired
+    public CompressedStorageService(StorageProperties properties, GzipCodec codec) {
+        super(properties);
+        this.codec = codec;
+    }
+
+    @Override
+    public void store(String path, String fileName, Path source) {
+        Path compressed = source.resolveSibling(source.getFileName() + ".gz");
+        try {
+            if (!codec.compresses(source, CompressionStats.AT_REST)) {
+                super.store(path, fileName, source);
+                return;
+            }
+            long size = Files.size(source);
+            try (OutputStream outputStream = Files.newOutputStream(compressed)) {
+                CompressedResource.writeHeader(outputStream, size);
+                codec.compress(source, outputStream, CompressionStats.AT_REST);
+            }
+            if (Files.size(compressed) >= size) {
+                // the sample compressed but the rest of the file did not
+                deleteIfExists(compressed);
+                super.store(path, fileName, source);
+                return;
+            }
+            // every replica reports the same Last-Modified, so range requests can be spread over replicas
+            Files.setLastModifiedTime(compressed, Files.getLastModifiedTime(source));
+        } catch (IOException e) {
+            deleteIfExists(compressed);
+            throw new StorageException("Failed to compress file.", e);
+        }
+        super.store(path, fileName, compressed);
+        deleteIfExists(source);
+    }
+
+    @Override
+    public Resource loadAsResource(String filePath) {
+        Resource resource = super.loadAsResource(filePath);
+        try {
+            CompressedResource compressed = CompressedResource.read(resource.getFile().toPath());
+            return compressed == null ? resource : compressed;
+        } catch (IOException e) {
+            throw new StorageException("Failed to read file.", e);
+        }
+    }
+
+    private static void deleteIfExists(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // a file left behind takes space but is never read
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.uploadingfiles.compression;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+@Controller
+public class CompressionController {
+    private final CompressionStats compressionStats;
+
+    @Autowired
+    public CompressionController(CompressionStats compressionStats) {
+        this.compressionStats = compressionStats;
+    }
+
+    /**
+     * get the compression statistics of this node
+     *
+     * @return bytes in and out, compression ratio and cpu time by stage
+     */
+    @GetMapping("/compression/stats")
+    @ResponseBody
+    public ResponseEntity<?> getStats() {
+        return ResponseEntity.ok(compressionStats.toMap());
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.uploadingfiles.compression;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@ConfigurationProperties("compression")
+public class CompressionProperties {
+
+	/**
+	 * Whether files are gzip compressed on the wire, in downloads that accept it
+	 * and in the files sent to peers
+	 */
+	private boolean wire = true;
+
+	/**
+	 * Deflate level from 1 to 9, the hops between servers are fast so the fastest level pays off
+	 */
+	private int level = 1;
+
+	/**
+	 * Files smaller than this many bytes are never compressed
+	 */
+	private long minSize = 4096;
+
+	/**
+	 * Number of bytes at the start of a file compressed to decide whether the file compresses
+	 */
+	private int sampleSize = 64 * 1024;
+
+	/**
+	 * Share of the size compression must save, files that save less are sent and stored as they are
+	 */
+	private double minSaving = 0.1;
+
+	public boolean isWire() {
+		return wire;
+	}
+
+	public void setWire(boolean wire) {
+		this.wire = wire;
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	public void setLevel(int level) {
+		this.level = level;
+	}
+
+	public long getMinSize() {
+		return minSize;
+	}
+
+	public void setMinSize(long minSize) {
+		this.minSize = minSize;
+	}
+
+	public int getSampleSize() {
+		return sampleSize;
+	}
+
+	public void setSampleSize(int sampleSize) {
+		this.sampleSize = sampleSize;
+	}
+
+	public double getMinSaving() {
+		return minSaving;
+	}
+
+	public void setMinSaving(double minSaving) {
+		this.minSaving = minSaving;
+	}
+}
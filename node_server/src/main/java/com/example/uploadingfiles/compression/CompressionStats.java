@@ -0,0 +1,108 @@
+package com.example.uploadingfiles.compression;
+
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the bytes compression read and wrote and the cpu time it took, by stage.
+ */
+@Component
+public class CompressionStats {
+
+    /**
+     * files compressed to be sent, to peers or in downloads
+     */
+    public static final String WIRE = "wire";
+    /**
+     * files compressed to be stored
+     */
+    public static final String AT_REST = "at-rest";
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final ConcurrentMap<String, Stage> stages = new ConcurrentHashMap<>();
+
+    /**
+     * @return cpu time of the current thread in nanoseconds, wall time if the jvm does not measure cpu time
+     */
+    static long cpuNanos() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    /**
+     * count a compressed file.
+     *
+     * @param stage    stage that compressed the file
+     * @param in       bytes read
+     * @param out      bytes written
+     * @param cpuNanos cpu time compressing took
+     */
+    public void compressed(String stage, long in, long out, long cpuNanos) {
+        Stage counters = stage(stage);
+        counters.files.increment();
+        counters.in.add(in);
+        counters.out.add(out);
+        counters.cpuNanos.add(cpuNanos);
+    }
+
+    /**
+     * count a file that was not compressed because its sample did not compress.
+     *
+     * @param stage    stage that sampled the file
+     * @param cpuNanos cpu time compressing the sample took
+     */
+    public void skipped(String stage, long cpuNanos) {
+        Stage counters = stage(stage);
+        counters.skipped.increment();
+        counters.cpuNanos.add(cpuNanos);
+    }
+
+    /**
+     * count the cpu time of compressing the sample of a file that was then compressed.
+     */
+    public void sampled(String stage, long cpuNanos) {
+        stage(stage).cpuNanos.add(cpuNanos);
+    }
+
+    /**
+     * @return counters of every stage, with the share of bytes compression saved
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (Map.Entry<String, Stage> entry : stages.entrySet()) {
+            Stage counters = entry.getValue();
+            long in = counters.in.sum();
+            long out = counters.out.sum();
+            long cpuNanos = counters.cpuNanos.sum();
+            Map<String, Object> stage = new LinkedHashMap<>();
+            stage.put("files", counters.files.sum());
+            stage.put("skipped", counters.skipped.sum());
+            stage.put("bytesIn", in);
+            stage.put("bytesOut", out);
+            stage.put("ratio", out == 0 ? 0 : (double) in / out);
+            stage.put("cpuMillis", cpuNanos / 1_000_000);
+            stage.put("megabytesPerCpuSecond", cpuNanos == 0 ? 0 : in * 1000.0 / cpuNanos);
+            map.put(entry.getKey(), stage);
+        }
+        return map;
+    }
+
+    private Stage stage(String stage) {
+        return stages.computeIfAbsent(stage, name -> new Stage());
+    }
+
+    private static class Stage {
+        private final LongAdder files = new LongAdder();
+        private final LongAdder skipped = new LongAdder();
+        private final LongAdder in = new LongAdder();
+        private final LongAdder out = new LongAdder();
+        private final LongAdder cpuNanos = new LongAdder();
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.uploadingfiles.compression;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.multipart.MultipartException;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.multipart.MultipartHttpServletRequest;
+import org.springframework.web.multipart.support.StandardMultipartHttpServletRequest;
+import org.springframework.web.multipart.support.StandardServletMultipartResolver;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.Part;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolves multipart requests like the default resolver, but files sent in parts with a
+ * "Content-Encoding: gzip" header are decoded when they are read.
+ * The encoding is set per part because Tomcat parses multipart bodies itself and cannot decode a compressed body,
+ * and because a part stays compressed on its way through the central server.
+ */
+@Component("multipartResolver")
+public class DecodingMultipartResolver extends StandardServletMultipartResolver {
+
+    @Override
+    public MultipartHttpServletRequest resolveMultipart(HttpServletRequest request) throws MultipartException {
+        return new DecodingMultipartRequest(request);
+    }
+
+    private static class DecodingMultipartRequest extends StandardMultipartHttpServletRequest {
+        private MultiValueMap<String, MultipartFile> decodedFiles;
+
+        DecodingMultipartRequest(HttpServletRequest request) throws MultipartException {
+            super(request);
+        }
+
+        @Override
+        protected MultiValueMap<String, MultipartFile> getMultipartFiles() {
+            MultiValueMap<String, MultipartFile> files = super.getMultipartFiles();
+            if (decodedFiles == null) {
+                decodedFiles = decode(files);
+            }
+            return decodedFiles;
+        }
+
+        /**
+         * the files of a name are in the order of their parts, as are the parts of that name holding files.
+         */
+        private MultiValueMap<String, MultipartFile> decode(MultiValueMap<String, MultipartFile> files) {
+            MultiValueMap<String, Part> fileParts = new LinkedMultiValueMap<>();
+            try {
+                for (Part part : getParts()) {
+                    if (part.getSubmittedFileName() != null) {
+                        fileParts.add(part.getName(), part);
+                    }
+                }
+            } catch (IOException | ServletException e) {
+                throw new MultipartException("Failed to read multipart request", e);
+            }
+            MultiValueMap<String, MultipartFile> decoded = new LinkedMultiValueMap<>();
+            for (Map.Entry<String, List<MultipartFile>> entry : files.entrySet()) {
+                List<Part> parts = fileParts.getOrDefault(entry.getKey(), new ArrayList<>());
+                Iterator<Part> partIterator = parts.size() == entry.getValue().size() ? parts.iterator() : null;
+                for (MultipartFile file : entry.getValue()) {
+                    Part part = partIterator == null ? null : partIterator.next();
+                    boolean gzip = part != null && GzipCodec.GZIP.equalsIgnoreCase(part.getHeader(HttpHeaders.CONTENT_ENCODING));
+                    decoded.add(entry.getKey(), gzip ? new GzipMultipartFile(file) : file);
+                }
+            }
+            return decoded;
+        }
+    }
+}
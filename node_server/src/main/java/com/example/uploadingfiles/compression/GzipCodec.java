@@ -0,0 +1,302 @@
+package com.example.uploadingfiles.compression;
+
+import org.apache.hc.client5.http.entity.mime.AbstractContentBody;
+import org.apache.hc.client5.http.entity.mime.FileBody;
+import org.apache.hc.client5.http.entity.mime.FormBodyPart;
+import org.apache.hc.client5.http.entity.mime.FormBodyPartBuilder;
+import org.apache.hc.core5.http.ContentType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses files with gzip, for the wire and for storage.
+ * A file is only compressed if a sample from its start shrinks by compression.min-saving,
+ * so a file that is already compressed costs the sample and nothing more.
+ * The decision is remembered for the size and modification time of the file,
+ * a file downloaded again is only sampled again once it changed.
+ */
+@Component
+public class GzipCodec {
+
+    public static final String GZIP = "gzip";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * number of files whose decision is remembered
+     */
+    private static final int MAX_DECISIONS = 10000;
+
+    private final CompressionProperties properties;
+    private final CompressionStats stats;
+    /**
+     * whether a file compresses, by absolute path, for the version of the file it was sampled in
+     */
+    private final Map<String, Decision> decisions = new LinkedHashMap<String, Decision>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Decision> eldest) {
+            return size() > MAX_DECISIONS;
+        }
+    };
+
+    @Autowired
+    public GzipCodec(CompressionProperties properties, CompressionStats stats) {
+        this.properties = properties;
+        this.stats = stats;
+    }
+
+    /**
+     * @return true if files are compressed on the wire
+     */
+    public boolean isWireEnabled() {
+        return properties.isWire();
+    }
+
+    /**
+     * decide whether a file is worth compressing, by a sample from its start unless the same version
+     * of the file was sampled before.
+     *
+     * @param file  file to sample
+     * @param stage stage the cpu time of the sample is counted for
+     * @return true if the sample saved enough
+     */
+    public boolean compresses(Path file, String stage) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        long size = attributes.size();
+        if (size < properties.getMinSize()) {
+            return false;
+        }
+        String key = file.toAbsolutePath().toString();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        Decision decision;
+        synchronized (decisions) {
+            decision = decisions.get(key);
+        }
+        if (decision != null && decision.size == size && decision.lastModified == lastModified) {
+            return decision.compresses;
+        }
+        boolean compresses = sample(file, size, stage);
+        synchronized (decisions) {
+            decisions.put(key, new Decision(size, lastModified, compresses));
+        }
+        return compresses;
+    }
+
+    /**
+     * compress a sample from the start of a file.
+     */
+    private boolean sample(Path file, long size, String stage) throws IOException {
+        byte[] sample = new byte[(int) Math.min(size, properties.getSampleSize())];
+        int length = 0;
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            int read;
+            while (length < sample.length && (read = inputStream.read(sample, length, sample.length - length)) != -1) {
+                length += read;
+            }
+        }
+        long start = CompressionStats.cpuNanos();
+        Deflater deflater = new Deflater(properties.getLevel(), true);
+        try {
+            deflater.setInput(sample, 0, length);
+            deflater.finish();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long compressed = 0;
+            while (!deflater.finished()) {
+                compressed += deflater.deflate(buffer);
+            }
+            boolean compresses = compressed <= length * (1 - properties.getMinSaving());
+            long cpuNanos = CompressionStats.cpuNanos() - start;
+            if (compresses) {
+                stats.sampled(stage, cpuNanos);
+            } else {
+                stats.skipped(stage, cpuNanos);
+            }
+            return compresses;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * wrap a stream so what is written to it is compressed, the bytes and the cpu time are counted when it is closed.
+     *
+     * @param outputStream stream the compressed bytes are written to
+     * @param stage        stage the compression is counted for
+     * @return stream to write the uncompressed bytes to
+     */
+    public OutputStream compress(OutputStream outputStream, String stage) throws IOException {
+        return new MeteredGzipOutputStream(outputStream, properties.getLevel(), stats, stage);
+    }
+
+    /**
+     * compress a file.
+     *
+     * @param source file to compress
+     * @param target stream the compressed file is written to
+     * @param stage  stage the compression is counted for
+     */
+    public void compress(Path source, OutputStream target, String stage) throws IOException {
+        // closing the gzip stream releases its deflater, the target stays open
+        try (OutputStream outputStream = compress(new UnclosedOutputStream(target), stage)) {
+            Files.copy(source, outputStream);
+        }
+    }
+
+    /**
+     * build the part of a multipart request holding a file.
+     * a file that compresses is sent gzip compressed with a Content-Encoding header on its part,
+     * the part is decoded by the multipart resolver of the receiving node.
+     *
+     * @param name        name of the part
+     * @param file        file to send
+     * @param contentType content type of the file
+     * @param fileName    file name of the part
+     * @return the part
+     */
+    public FormBodyPart filePart(String name, File file, ContentType contentType, String fileName) throws IOException {
+        if (properties.isWire() && compresses(file.toPath(), CompressionStats.WIRE)) {
+            return FormBodyPartBuilder.create(name, new CompressedFileBody(file, contentType, fileName))
+                    .addField(HttpHeaders.CONTENT_ENCODING, GZIP)
+                    .build();
+        }
+        return FormBodyPartBuilder.create(name, new FileBody(file, contentType, fileName)).build();
+    }
+
+    /**
+     * check whether the Accept-Encoding header of a request allows gzip.
+     */
+    public static boolean acceptsGzip(HttpServletRequest request) {
+        String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parameters = coding.trim().split(";");
+            if (!parameters[0].trim().equalsIgnoreCase(GZIP) && !parameters[0].trim().equals("*")) {
+                continue;
+            }
+            for (int i = 1; i < parameters.length; i++) {
+                String parameter = parameters[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(parameter.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * multipart body holding a file that is compressed while it is written, its length is not known up front.
+     */
+    private class CompressedFileBody extends AbstractContentBody {
+        private final File file;
+        private final String fileName;
+
+        CompressedFileBody(File file, ContentType contentType, String fileName) {
+            super(contentType);
+            this.file = file;
+            this.fileName = fileName;
+        }
+
+        @Override
+        public String getFilename() {
+            return fileName;
+        }
+
+        @Override
+        public long getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public void writeTo(OutputStream outputStream) throws IOException {
+            compress(file.toPath(), outputStream, CompressionStats.WIRE);
+        }
+    }
+
+    private static class Decision {
+        private final long size;
+        private final long lastModified;
+        private final boolean compresses;
+
+        Decision(long size, long lastModified, boolean compresses) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.compresses = compresses;
+        }
+    }
+
+    private static class UnclosedOutputStream extends FilterOutputStream {
+        UnclosedOutputStream(OutputStream outputStream) {
+            super(outputStream);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    /**
+     * gzip stream with a chosen level that counts the time spent deflating, not the time spent writing.
+     */
+    private static class MeteredGzipOutputStream extends GZIPOutputStream {
+        private final CompressionStats stats;
+        private final String stage;
+        private long cpuNanos;
+        private boolean counted;
+
+        MeteredGzipOutputStream(OutputStream outputStream, int level, CompressionStats stats, String stage) throws IOException {
+            super(outputStream, BUFFER_SIZE);
+            def.setLevel(level);
+            this.stats = stats;
+            this.stage = stage;
+        }
+
+        @Override
+        protected void deflate() throws IOException {
+            long start = CompressionStats.cpuNanos();
+            int length = def.deflate(buf, 0, buf.length);
+            cpuNanos += CompressionStats.cpuNanos() - start;
+            if (length > 0) {
+                out.write(buf, 0, length);
+            }
+        }
+
+        @Override
+        public void finish() throws IOException {
+            long start = CompressionStats.cpuNanos();
+            super.finish();
+            cpuNanos += CompressionStats.cpuNanos() - start;
+            if (!counted) {
+                counted = true;
+                stats.compressed(stage, def.getBytesRead(), def.getBytesWritten(), cpuNanos);
+            }
+        }
+    }
+}
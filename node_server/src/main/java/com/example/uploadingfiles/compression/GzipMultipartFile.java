@@ -0,0 +1,76 @@
+package com.example.uploadingfiles.compression;
+
+import org.springframework.util.StreamUtils;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * File of a multipart part that was sent gzip compressed, it is decoded while it is read.
+ */
+public class GzipMultipartFile implements MultipartFile {
+
+    private final MultipartFile encoded;
+
+    public GzipMultipartFile(MultipartFile encoded) {
+        this.encoded = encoded;
+    }
+
+    @Override
+    public String getName() {
+        return encoded.getName();
+    }
+
+    @Override
+    public String getOriginalFilename() {
+        return encoded.getOriginalFilename();
+    }
+
+    @Override
+    public String getContentType() {
+        return encoded.getContentType();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return encoded.isEmpty();
+    }
+
+    /**
+     * @return size of the compressed part, the decoded size is not known before it is read
+     */
+    @Override
+    public long getSize() {
+        return encoded.getSize();
+    }
+
+    @Override
+    public byte[] getBytes() throws IOException {
+        try (InputStream inputStream = getInputStream()) {
+            return StreamUtils.copyToByteArray(inputStream);
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return new GZIPInputStream(encoded.getInputStream(), 64 * 1024);
+    }
+
+    @Override
+    public void transferTo(File dest) throws IOException {
+        transferTo(dest.toPath());
+    }
+
+    @Override
+    public void transferTo(Path dest) throws IOException {
+        try (InputStream inputStream = getInputStream()) {
+            Files.copy(inputStream, dest, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
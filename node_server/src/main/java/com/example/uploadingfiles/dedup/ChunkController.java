@@ -0,0 +1,42 @@
+package com.example.uploadingfiles.dedup;
+
+import com.example.uploadingfiles.storage.StorageException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+@Controller
+@ConditionalOnProperty(name = "storage.mode", havingValue = "dedup")
+public class ChunkController {
+
+    private final ChunkTransfer chunkTransfer;
+
+    @Autowired
+    public ChunkController(ChunkTransfer chunkTransfer) {
+        this.chunkTransfer = chunkTransfer;
+    }
+
+    /**
+     * check which chunks this node holds
+     *
+     * @param hashes SHA-256 hashes of chunks separated by white space
+     * @return the hashes of the chunks that are not stored, one per line
+     */
+    @PostMapping("/chunks/missing")
+    @ResponseBody
+    public ResponseEntity<?> getMissingChunks(@RequestBody(required = false) String hashes) {
+        return ResponseEntity.ok(String.join("\n", chunkTransfer.missing(ChunkTransfer.parseHashes(hashes == null ? "" : hashes))));
+    }
+
+    @ExceptionHandler(StorageException.class)
+    public ResponseEntity<?> handleStorageException(StorageException exc) {
+        return new ResponseEntity<Object>(exc.getMessage(), new HttpHeaders(), HttpStatus.BAD_REQUEST);
+    }
+}
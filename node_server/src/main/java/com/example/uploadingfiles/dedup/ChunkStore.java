@@ -0,0 +1,263 @@
+package com.example.uploadingfiles.dedup;
+
+import com.example.uploadingfiles.storage.StorageException;
+import com.example.uploadingfiles.storage.StorageMetrics;
+import com.example.uploadingfiles.storage.StorageProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Stores chunks once by their SHA-256 hash and counts the manifests referencing them.
+ * A chunk is deleted when its last reference is released. Chunks received from peers
+ * before their transaction commits have no reference yet and are removed when they
+ * stay unreferenced longer than a staged file would.
+ * Every change of a chunk happens inside the map entry of its hash, so adding and
+ * removing the same chunk at the same time cannot lose it.
+ */
+@Component
+@ConditionalOnProperty(name = "storage.mode", havingValue = "dedup")
+public class ChunkStore {
+
+    private final Path location;
+    private final Path tmpLocation;
+    private final long unreferencedTimeoutMillis;
+    private final StorageMetrics metrics;
+    private final Map<String, Integer> references = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ChunkStore(StorageProperties properties, StorageMetrics metrics) {
+        this.metrics = metrics;
+        this.location = Paths.get(properties.getChunkLocation()).toAbsolutePath();
+        this.tmpLocation = location.resolve("tmp");
+        this.unreferencedTimeoutMillis = properties.getStagingTimeoutSeconds() * 1000;
+    }
+
+    @PostConstruct
+    public void init() {
+        try {
+            FileSystemUtils.deleteRecursively(tmpLocation);
+            Files.createDirectories(tmpLocation);
+        } catch (IOException e) {
+            throw new StorageException("Could not initialize chunk store", e);
+        }
+    }
+
+    /**
+     * check whether a chunk is stored.
+     */
+    public boolean contains(String hash) {
+        return references.containsKey(hash) || Files.exists(resolve(hash));
+    }
+
+    /**
+     * get the hashes of the given chunks that are not stored.
+     */
+    public List<String> missing(Collection<String> hashes) {
+        List<String> missing = new ArrayList<>();
+        for (String hash : hashes) {
+            if (!contains(hash)) {
+                missing.add(hash);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * add a reference to a chunk, writing the chunk if it is not stored yet.
+     *
+     * @param hash   hash of the chunk
+     * @param data   content of the chunk
+     * @param length length of the chunk
+     */
+    public void retain(String hash, byte[] data, int length) {
+        Path chunk = resolve(hash);
+        references.compute(hash, (key, count) -> {
+            if (count == null && !Files.exists(chunk)) {
+                write(chunk, data, length);
+            }
+            return count == null ? 1 : count + 1;
+        });
+    }
+
+    /**
+     * add a reference to a chunk that is already stored.
+     *
+     * @param hash hash of the chunk
+     */
+    public void retain(String hash) {
+        Path chunk = resolve(hash);
+        references.compute(hash, (key, count) -> {
+            if (count == null && !Files.exists(chunk)) {
+                throw new StorageException("Chunk " + hash + " is not stored.");
+            }
+            return count == null ? 1 : count + 1;
+        });
+    }
+
+    /**
+     * remove a reference to a chunk, the chunk is deleted with its last reference.
+     *
+     * @param hash hash of the chunk
+     */
+    public void release(String hash) {
+        Path chunk = resolve(hash);
+        references.computeIfPresent(hash, (key, count) -> {
+            if (count > 1) {
+                return count - 1;
+            }
+            delete(chunk);
+            return null;
+        });
+    }
+
+    /**
+     * store a chunk received from a peer without referencing it, the content is checked against the hash.
+     *
+     * @param hash        hash of the chunk
+     * @param inputStream content of the chunk
+     */
+    public void add(String hash, InputStream inputStream) throws IOException {
+        Path chunk = resolve(hash);
+        if (Files.exists(chunk)) {
+            return;
+        }
+        Path tmp = createTempFile();
+        try {
+            MessageDigest digest = ContentDefinedChunker.sha256();
+            try (OutputStream outputStream = Files.newOutputStream(tmp)) {
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                    outputStream.write(buffer, 0, read);
+                }
+            }
+            if (!hash.equals(ContentDefinedChunker.toHex(digest.digest()))) {
+                throw new StorageException("Content of chunk " + hash + " does not match its hash.");
+            }
+            long length = Files.size(tmp);
+            references.compute(hash, (key, count) -> {
+                if (!Files.exists(chunk)) {
+                    move(tmp, chunk);
+                    metrics.wrote(length);
+                }
+                return count;
+            });
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * path of a chunk on disk, chunks are spread over folders named after the first two characters of the hash.
+     */
+    public Path resolve(String hash) {
+        if (hash.length() != 64 || !hash.chars().allMatch(c -> c >= '0' && c <= '9' || c >= 'a' && c <= 'f')) {
+            // This is a security check
+            throw new StorageException("Invalid chunk hash " + hash);
+        }
+        return location.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    /**
+     * create an empty file on the same file system as the chunks.
+     */
+    public Path createTempFile() throws IOException {
+        return Files.createTempFile(tmpLocation, "chunk-", null);
+    }
+
+    /**
+     * delete chunks that were received from peers but never referenced.
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void purgeUnreferenced() throws IOException {
+        long expiredBefore = System.currentTimeMillis() - unreferencedTimeoutMillis;
+        try (Stream<Path> chunks = Files.walk(location, 2)) {
+            chunks.filter(path -> !path.startsWith(tmpLocation) && path.getNameCount() == location.getNameCount() + 2)
+                    .forEach(chunk -> {
+                        String hash = chunk.getFileName().toString();
+                        if (references.containsKey(hash) || lastModified(chunk) >= expiredBefore) {
+                            return;
+                        }
+                        references.compute(hash, (key, count) -> {
+                            if (count == null) {
+                                delete(chunk);
+                            }
+                            return count;
+                        });
+                    });
+        }
+    }
+
+    /**
+     * delete every chunk.
+     */
+    public void deleteAll() {
+        references.clear();
+        FileSystemUtils.deleteRecursively(location.toFile());
+        init();
+    }
+
+    private void write(Path chunk, byte[] data, int length) {
+        try {
+            Path tmp = createTempFile();
+            try (OutputStream outputStream = Files.newOutputStream(tmp)) {
+                outputStream.write(data, 0, length);
+            }
+            move(tmp, chunk);
+            metrics.wrote(length);
+        } catch (IOException e) {
+            throw new StorageException("Failed to store chunk.", e);
+        }
+    }
+
+    private void move(Path source, Path chunk) {
+        try {
+            Files.createDirectories(chunk.getParent());
+            try {
+                Files.move(source, chunk, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(source, chunk, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            throw new StorageException("Failed to store chunk.", e);
+        }
+    }
+
+    private void delete(Path chunk) {
+        try {
+            Files.deleteIfExists(chunk);
+        } catch (IOException e) {
+            throw new StorageException("Failed to delete chunk.", e);
+        }
+    }
+
+    private static long lastModified(Path chunk) {
+        try {
+            return Files.getLastModifiedTime(chunk).toMillis();
+        } catch (IOException e) {
+            // deleted in the meantime
+            return Long.MAX_VALUE;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.uploadingfiles.dedup;
+
+import com.example.uploadingfiles.replication.PeerClient;
+import com.example.uploadingfiles.storage.StagingArea;
+import com.example.uploadingfiles.storage.StorageException;
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.entity.mime.ByteArrayBody;
+import org.apache.hc.client5.http.entity.mime.MultipartEntityBuilder;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Sends files to peers as manifests plus the chunks the peer does not hold yet.
+ * Before a PROPOSE message the coordinator asks every peer which chunks of the file it misses,
+ * so a file whose content the peer already stores costs only its manifest on the wire.
+ */
+@Component
+@ConditionalOnProperty(name = "storage.mode", havingValue = "dedup")
+public class ChunkTransfer {
+
+    private final ChunkStore chunkStore;
+    private final DedupStorageService storageService;
+    private final StagingArea stagingArea;
+    private final PeerClient peerClient;
+    private final ContentDefinedChunker chunker = new ContentDefinedChunker();
+
+    @Autowired
+    public ChunkTransfer(ChunkStore chunkStore, DedupStorageService storageService, StagingArea stagingArea, PeerClient peerClient) {
+        this.chunkStore = chunkStore;
+        this.storageService = storageService;
+        this.stagingArea = stagingArea;
+        this.peerClient = peerClient;
+    }
+
+    /**
+     * split a file into chunks without storing them.
+     *
+     * @param file file to split
+     * @return manifest of the file
+     */
+    public Manifest describe(File file) throws IOException {
+        List<Manifest.ChunkRef> chunks = new ArrayList<>();
+        try (InputStream inputStream = Files.newInputStream(file.toPath())) {
+            chunker.split(inputStream, (data, length, hash) -> chunks.add(new Manifest.ChunkRef(hash, length)));
+        }
+        return new Manifest(chunks);
+    }
+
+    /**
+     * build the body of a PROPOSE message for a peer, holding the manifest and the chunks the peer misses.
+     *
+     * @param peer     url of the peer
+     * @param file     file to send
+     * @param fileName name of the file
+     * @param manifest manifest of the file
+     * @return multipart body
+     */
+    public HttpEntity buildProposeEntity(String peer, File file, String fileName, Manifest manifest) throws IOException {
+        HttpPost missingRequest = new HttpPost(peer + "/chunks/missing");
+        missingRequest.setEntity(new StringEntity(manifest.getChunks().stream()
+                .map(Manifest.ChunkRef::getHash)
+                .collect(Collectors.joining("\n")), ContentType.TEXT_PLAIN));
+        Set<String> missing = new HashSet<>(parseHashes(peerClient.executeForString(missingRequest)));
+
+        MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+        builder.addPart("manifest", new ByteArrayBody(manifest.toBytes(), ContentType.TEXT_PLAIN, fileName));
+        long offset = 0;
+        for (Manifest.ChunkRef chunk : manifest.getChunks()) {
+            if (missing.remove(chunk.getHash())) {
+                builder.addPart("chunk", new FileRangeBody(file, offset, chunk.getLength(), chunk.getHash()));
+            }
+            offset += chunk.getLength();
+        }
+        return builder.build();
+    }
+
+    /**
+     * store the chunks of a PROPOSE message and stage its manifest.
+     *
+     * @param txnId    id of the transaction
+     * @param path     path of the folder the file is committed to
+     * @param manifest manifest of the file
+     * @param chunks   chunks this node did not hold
+     */
+    public void stage(String txnId, String path, MultipartFile manifest, List<MultipartFile> chunks) throws IOException {
+        if (chunks != null) {
+            for (MultipartFile chunk : chunks) {
+                try (InputStream inputStream = chunk.getInputStream()) {
+                    chunkStore.add(String.valueOf(chunk.getOriginalFilename()), inputStream);
+                }
+            }
+        }
+        Manifest parsed;
+        try (InputStream inputStream = manifest.getInputStream()) {
+            parsed = Manifest.parse(inputStream);
+        }
+        List<String> missing = chunkStore.missing(parsed.getChunks().stream()
+                .map(Manifest.ChunkRef::getHash)
+                .collect(Collectors.toList()));
+        if (!missing.isEmpty()) {
+            throw new StorageException("Missing chunks " + missing + ".");
+        }
+        stagingArea.stageManifest(txnId, path, manifest);
+    }
+
+    /**
+     * store a committed file whose manifest was staged.
+     *
+     * @param stagedFile staged manifest
+     */
+    public void commit(String path, StagingArea.StagedFile stagedFile) {
+        storageService.storeManifest(path, stagedFile.getFileName(), stagedFile.getFile());
+    }
+
+    /**
+     * get the hashes of the given chunks that this node does not hold.
+     */
+    public List<String> missing(List<String> hashes) {
+        return chunkStore.missing(hashes);
+    }
+
+    /**
+     * parse hashes separated by white space.
+     */
+    public static List<String> parseHashes(String body) {
+        List<String> hashes = new ArrayList<>();
+        for (String hash : Arrays.asList(body.trim().split("\\s+"))) {
+            if (!hash.isEmpty()) {
+                hashes.add(hash);
+            }
+        }
+        return hashes;
+    }
+}
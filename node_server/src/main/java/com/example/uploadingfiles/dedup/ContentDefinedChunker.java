@@ -0,0 +1,125 @@
+package com.example.uploadingfiles.dedup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+/**
+ * Splits a stream into chunks whose boundaries depend on the content, using a gear rolling hash.
+ * An insertion or deletion only moves the boundaries next to it, so two versions of a file
+ * still share most of their chunks. Chunks are between 256KB and 4MB, about 1MB on average.
+ * The parameters and the gear table must be the same on every node, otherwise equal files
+ * produce different chunks.
+ */
+public class ContentDefinedChunker {
+
+    public static final int MIN_CHUNK_SIZE = 256 * 1024;
+    public static final int MAX_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * a boundary is found when the low 20 bits of the hash are zero, about every 1MB after the minimum size
+     */
+    private static final long BOUNDARY_MASK = (1L << 20) - 1;
+
+    /**
+     * the gear hash only depends on the last 64 bytes, so hashing can start that far before the minimum size
+     */
+    private static final int WINDOW = 64;
+    private static final int READ_SIZE = 64 * 1024;
+    private static final long[] GEAR = new long[256];
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    static {
+        Random random = new Random(0x6c6f6164L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /**
+     * receives the chunks of a stream in order.
+     */
+    public interface ChunkHandler {
+        /**
+         * @param data   buffer holding the chunk from index 0, only valid during the call
+         * @param length length of the chunk
+         * @param hash   SHA-256 of the chunk as hex string
+         */
+        void accept(byte[] data, int length, String hash) throws IOException;
+    }
+
+    /**
+     * read a stream to the end and pass every chunk to a handler.
+     *
+     * @param inputStream stream to split
+     * @param handler     handler of the chunks
+     * @return number of bytes read
+     */
+    public long split(InputStream inputStream, ChunkHandler handler) throws IOException {
+        MessageDigest digest = sha256();
+        byte[] buffer = new byte[MAX_CHUNK_SIZE];
+        long total = 0;
+        int length = 0;
+        int scanned = 0;
+        long hash = 0;
+        boolean eof = false;
+        while (true) {
+            if (scanned == length && !eof) {
+                int read = inputStream.read(buffer, length, Math.min(READ_SIZE, buffer.length - length));
+                if (read == -1) {
+                    eof = true;
+                } else {
+                    length += read;
+                    total += read;
+                }
+            }
+            int cut = -1;
+            while (scanned < length) {
+                if (scanned >= MIN_CHUNK_SIZE - WINDOW) {
+                    hash = (hash << 1) + GEAR[buffer[scanned] & 0xff];
+                }
+                scanned++;
+                if (scanned >= MIN_CHUNK_SIZE && (hash & BOUNDARY_MASK) == 0 || scanned == MAX_CHUNK_SIZE) {
+                    cut = scanned;
+                    break;
+                }
+            }
+            if (cut == -1 && eof) {
+                cut = length;
+            }
+            if (cut == -1) {
+                continue;
+            }
+            if (cut > 0) {
+                digest.update(buffer, 0, cut);
+                handler.accept(buffer, cut, toHex(digest.digest()));
+            }
+            if (eof && cut == length) {
+                return total;
+            }
+            System.arraycopy(buffer, cut, buffer, 0, length - cut);
+            length -= cut;
+            scanned = 0;
+            hash = 0;
+        }
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,217 @@
+package com.example.uploadingfiles.dedup;
+
+import com.example.uploadingfiles.storage.FileSystemStorageService;
+import com.example.uploadingfiles.storage.StorageException;
+import com.example.uploadingfiles.storage.StorageProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Stores files as content-defined chunks in a ChunkStore.
+ * The folder tree is kept on disk as for the file system storage, but every file holds a
+ * manifest listing its chunks, so identical content is stored once however often it is uploaded.
+ * Files written before deduplication was enabled are not marked as manifests and are still served as they are.
+ */
+@Service
+@ConditionalOnProperty(name = "storage.mode", havingValue = "dedup")
+public class DedupStorageService extends FileSystemStorageService {
+
+    private final ChunkStore chunkStore;
+    private final ContentDefinedChunker chunker = new ContentDefinedChunker();
+
+    @Autowired
+    public DedupStorageService(StorageProperties properties, ChunkStore chunkStore) {
+        super(properties);
+        this.chunkStore = chunkStore;
+    }
+
+    /**
+     * load the folder tree and count the references of every chunk from the stored manifests.
+     */
+    @Override
+    public void loadIndex() {
+        super.loadIndex();
+        try {
+            Manifest.checkSupported(rootLocation);
+            Files.walkFileTree(rootLocation, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Manifest manifest = Manifest.read(file);
+                    if (manifest != null) {
+                        for (Manifest.ChunkRef chunk : manifest.getChunks()) {
+                            chunkStore.retain(chunk.getHash());
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new StorageException("Could not load manifests", e);
+        }
+    }
+
+    @Override
+    public void store(MultipartFile file) {
+        if (file.isEmpty()) {
+            throw new StorageException("Failed to store empty file.");
+        }
+        store("/", Objects.requireNonNull(file.getOriginalFilename()), file);
+    }
+
+    @Override
+    public void store(String path, MultipartFile file) {
+        if (file.isEmpty()) {
+            throw new StorageException("Failed to store empty file.");
+        }
+        store(path, Objects.requireNonNull(file.getOriginalFilename()), file);
+    }
+
+    private void store(String path, String fileName, MultipartFile file) {
+        try (InputStream inputStream = file.getInputStream()) {
+            store(path, fileName, inputStream, System.currentTimeMillis());
+        } catch (IOException e) {
+            throw new StorageException("Failed to store file.", e);
+        }
+    }
+
+    @Override
+    public void store(String path, String fileName, Path source) {
+        try {
+            try (InputStream inputStream = Files.newInputStream(source)) {
+                store(path, fileName, inputStream, Files.getLastModifiedTime(source).toMillis());
+            }
+            Files.deleteIfExists(source);
+        } catch (IOException e) {
+            throw new StorageException("Failed to store file.", e);
+        }
+    }
+
+    /**
+     * store a file whose manifest was received from a peer, the chunks must already be stored.
+     *
+     * @param path         path of the folder
+     * @param fileName     name of the stored file
+     * @param manifestFile file holding the manifest, it is moved into place
+     */
+    public void storeManifest(String path, String fileName, Path manifestFile) {
+        try {
+            Manifest manifest;
+            try (InputStream inputStream = Files.newInputStream(manifestFile)) {
+                manifest = Manifest.parse(inputStream);
+            }
+            Manifest.mark(manifestFile);
+            List<String> retained = new ArrayList<>();
+            try {
+                for (Manifest.ChunkRef chunk : manifest.getChunks()) {
+                    chunkStore.retain(chunk.getHash());
+                    retained.add(chunk.getHash());
+                }
+                replace(path, fileName, manifestFile);
+            } catch (IOException | RuntimeException e) {
+                retained.forEach(chunkStore::release);
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new StorageException("Failed to store file.", e);
+        }
+    }
+
+    @Override
+    public Resource loadAsResource(String filePath) {
+        Resource resource = super.loadAsResource(filePath);
+        Path file = load(filePath);
+        try {
+            Manifest manifest = Manifest.read(file);
+            return manifest == null ? resource : new ManifestResource(file, manifest, chunkStore);
+        } catch (IOException e) {
+            throw new StorageException("Failed to read file.", e);
+        }
+    }
+
+    @Override
+    public synchronized void deleteFileByPath(String filePath) {
+        Manifest manifest;
+        try {
+            manifest = Manifest.read(load(filePath));
+        } catch (IOException e) {
+            // not a readable file, the checks of the file system storage report why
+            manifest = null;
+        }
+        super.deleteFileByPath(filePath);
+        if (manifest != null) {
+            manifest.getChunks().forEach(chunk -> chunkStore.release(chunk.getHash()));
+        }
+    }
+
+    @Override
+    public void deleteAll() {
+        super.deleteAll();
+        chunkStore.deleteAll();
+    }
+
+    /**
+     * split a stream into chunks, store the new ones and write the manifest in place of the file.
+     */
+    private void store(String path, String fileName, InputStream inputStream, long lastModified) throws IOException {
+        if (!isDirectory(path)) {
+            throw new StorageException("Folder doesn't exist");
+        }
+        List<Manifest.ChunkRef> chunks = new ArrayList<>();
+        List<String> retained = new ArrayList<>();
+        Path manifestFile = chunkStore.createTempFile();
+        try {
+            chunker.split(inputStream, (data, length, hash) -> {
+                chunkStore.retain(hash, data, length);
+                retained.add(hash);
+                chunks.add(new Manifest.ChunkRef(hash, length));
+            });
+            new Manifest(chunks).write(manifestFile);
+            Files.setLastModifiedTime(manifestFile, FileTime.fromMillis(lastModified));
+            replace(path, fileName, manifestFile);
+        } catch (IOException | RuntimeException e) {
+            retained.forEach(chunkStore::release);
+            Files.deleteIfExists(manifestFile);
+            throw e;
+        }
+    }
+
+    /**
+     * move a manifest into place and release the chunks of the file it replaces.
+     * replacements are serialized so the chunks of a replaced file are released only once.
+     */
+    private synchronized void replace(String path, String fileName, Path manifestFile) throws IOException {
+        if (!isDirectory(path)) {
+            throw new StorageException("Folder doesn't exist");
+        }
+        Path destinationFile = load(path).normalize().toAbsolutePath().resolve(Paths.get(fileName).getFileName());
+        Manifest previous = Manifest.read(destinationFile);
+        try {
+            Files.move(manifestFile, destinationFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(manifestFile, destinationFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        metrics.wrote(Files.size(destinationFile));
+        index.addFile(relativize(load(path)).resolve(destinationFile.getFileName()));
+        if (previous != null) {
+            previous.getChunks().forEach(chunk -> chunkStore.release(chunk.getHash()));
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.uploadingfiles.dedup;
+
+import org.apache.hc.client5.http.entity.mime.AbstractContentBody;
+import org.apache.hc.core5.http.ContentType;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Multipart body holding a range of a file, written with FileChannel.transferTo.
+ */
+public class FileRangeBody extends AbstractContentBody {
+
+    private final File file;
+    private final long position;
+    private final long length;
+    private final String filename;
+
+    public FileRangeBody(File file, long position, long length, String filename) {
+        super(ContentType.DEFAULT_BINARY);
+        this.file = file;
+        this.position = position;
+        this.length = length;
+        this.filename = filename;
+    }
+
+    @Override
+    public String getFilename() {
+        return filename;
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(outputStream);
+            long written = 0;
+            while (written < length) {
+                long transferred = channel.transferTo(position + written, length - written, target);
+                if (transferred <= 0) {
+                    throw new IOException("File " + file + " is shorter than expected");
+                }
+                written += transferred;
+            }
+        }
+    }
+
+    @Override
+    public long getContentLength() {
+        return length;
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.uploadingfiles.dedup;
+
+import com.example.uploadingfiles.storage.StorageException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * List of the chunks a file is made of.
+ * Manifests are stored in place of the files, as a header line followed by one line per chunk
+ * with its hash and length. A stored manifest is marked by a user extended attribute, never by its
+ * content, so a plain file that happens to start like a manifest is still served as it is.
+ */
+public class Manifest {
+
+    private static final String HEADER = "dedup-manifest 1";
+    /**
+     * user extended attribute marking a stored file as a manifest
+     */
+    private static final String ATTRIBUTE = "dedup.manifest";
+
+    private final List<ChunkRef> chunks;
+    private final long size;
+
+    public Manifest(List<ChunkRef> chunks) {
+        this.chunks = Collections.unmodifiableList(new ArrayList<>(chunks));
+        long total = 0;
+        for (ChunkRef chunk : chunks) {
+            total += chunk.getLength();
+        }
+        this.size = total;
+    }
+
+    public List<ChunkRef> getChunks() {
+        return chunks;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * read the manifest stored in a file.
+     *
+     * @param file file to read
+     * @return the manifest, or null if the file does not exist or is not marked as a manifest
+     */
+    public static Manifest read(Path file) throws IOException {
+        if (!isManifest(file)) {
+            return null;
+        }
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            return parse(inputStream);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the file is marked as a manifest
+     */
+    public static boolean isManifest(Path file) throws IOException {
+        UserDefinedFileAttributeView view = Files.getFileAttributeView(file, UserDefinedFileAttributeView.class);
+        try {
+            return view != null && view.list().contains(ATTRIBUTE);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    /**
+     * mark a file holding a manifest, the mark moves with the file.
+     *
+     * @param file file holding a manifest
+     */
+    public static void mark(Path file) throws IOException {
+        UserDefinedFileAttributeView view = Files.getFileAttributeView(file, UserDefinedFileAttributeView.class);
+        if (view == null) {
+            throw new StorageException("Extended attributes are not supported, manifests cannot be marked.");
+        }
+        view.write(ATTRIBUTE, ByteBuffer.wrap(HEADER.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    /**
+     * check that manifests can be marked on the file system of a folder.
+     *
+     * @param directory folder manifests are stored in
+     */
+    public static void checkSupported(Path directory) throws IOException {
+        if (!Files.getFileStore(directory).supportsFileAttributeView(UserDefinedFileAttributeView.class)) {
+            throw new StorageException("storage.mode=dedup needs a file system with user extended attributes, "
+                    + directory + " has none.");
+        }
+    }
+
+    /**
+     * parse a manifest received from a peer.
+     *
+     * @param inputStream serialized manifest
+     * @return the manifest
+     */
+    public static Manifest parse(InputStream inputStream) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.US_ASCII));
+        if (!HEADER.equals(reader.readLine())) {
+            throw new StorageException("Invalid manifest.");
+        }
+        return parseChunks(reader);
+    }
+
+    private static Manifest parseChunks(BufferedReader reader) throws IOException {
+        List<ChunkRef> chunks = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] fields = line.split(" ");
+            if (fields.length != 2) {
+                throw new StorageException("Invalid manifest line: " + line);
+            }
+            chunks.add(new ChunkRef(fields[0], Integer.parseInt(fields[1])));
+        }
+        return new Manifest(chunks);
+    }
+
+    /**
+     * write the manifest to a file, replacing its content, and mark the file as a manifest.
+     *
+     * @param file file to write
+     */
+    public void write(Path file) throws IOException {
+        Files.write(file, toBytes());
+        mark(file);
+    }
+
+    public byte[] toBytes() {
+        StringBuilder builder = new StringBuilder(HEADER).append('\n');
+        for (ChunkRef chunk : chunks) {
+            builder.append(chunk.getHash()).append(' ').append(chunk.getLength()).append('\n');
+        }
+        return builder.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public static class ChunkRef {
+        private final String hash;
+        private final int length;
+
+        public ChunkRef(String hash, int length) {
+            this.hash = hash;
+            this.length = length;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public int getLength() {
+            return length;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.uploadingfiles.dedup;
+
+import org.springframework.core.io.AbstractResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * A deduplicated file, read by streaming its chunks one after another.
+ */
+public class ManifestResource extends AbstractResource {
+
+    private final Path manifestFile;
+    private final Manifest manifest;
+    private final ChunkStore chunkStore;
+
+    public ManifestResource(Path manifestFile, Manifest manifest, ChunkStore chunkStore) {
+        this.manifestFile = manifestFile;
+        this.manifest = manifest;
+        this.chunkStore = chunkStore;
+    }
+
+    @Override
+    public String getDescription() {
+        return "deduplicated file [" + manifestFile + "]";
+    }
+
+    @Override
+    public String getFilename() {
+        return manifestFile.getFileName().toString();
+    }
+
+    @Override
+    public boolean exists() {
+        return true;
+    }
+
+    @Override
+    public long contentLength() {
+        return manifest.getSize();
+    }
+
+    @Override
+    public long lastModified() throws IOException {
+        return Files.getLastModifiedTime(manifestFile).toMillis();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new ChunkInputStream(manifest.getChunks());
+    }
+
+    /**
+     * reads the chunks of a manifest in order, skipping whole chunks without opening them.
+     */
+    private class ChunkInputStream extends InputStream {
+        private final List<Manifest.ChunkRef> chunks;
+        private int next;
+        private InputStream current;
+
+        ChunkInputStream(List<Manifest.ChunkRef> chunks) {
+            this.chunks = chunks;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            while (true) {
+                if (current == null) {
+                    if (next == chunks.size()) {
+                        return -1;
+                    }
+                    current = Files.newInputStream(chunkStore.resolve(chunks.get(next++).getHash()));
+                }
+                int read = current.read(buffer, offset, length);
+                if (read != -1) {
+                    return read;
+                }
+                current.close();
+                current = null;
+            }
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = 0;
+            if (current != null) {
+                skipped = current.skip(n);
+                if (skipped < n) {
+                    current.close();
+                    current = null;
+                }
+            }
+            while (current == null && next < chunks.size() && skipped + chunks.get(next).getLength() <= n) {
+                skipped += chunks.get(next++).getLength();
+            }
+            if (current == null && skipped < n && next < chunks.size()) {
+                current = Files.newInputStream(chunkStore.resolve(chunks.get(next++).getHash()));
+                skipped += current.skip(n - skipped);
+            }
+            return skipped;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+            next = chunks.size();
+        }
+    }
+}
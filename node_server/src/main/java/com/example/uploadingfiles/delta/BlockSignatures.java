@@ -0,0 +1,84 @@
+package com.example.uploadingfiles.delta;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Signatures of the blocks of a stored file, a weak rolling checksum and an MD5 hash per block.
+ * A client sends only the parts of a new version of the file that match no block.
+ *
+ * The text form is a line with the version of the file, the block size and the length of the file,
+ * then one line per block with the weak checksum and the hash as hex. The last block may be shorter.
+ */
+public class BlockSignatures {
+
+    public static final int MIN_BLOCK_SIZE = 1024;
+    public static final int MAX_BLOCK_SIZE = 128 * 1024;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private BlockSignatures() {
+    }
+
+    /**
+     * pick a block size like rsync, about the square root of the length of the file.
+     * larger files get larger blocks, so their signatures stay small.
+     *
+     * @param length length of the file
+     * @return block size in bytes
+     */
+    public static int defaultBlockSize(long length) {
+        long size = ((long) Math.sqrt(length) + 63) / 64 * 64;
+        return (int) Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, size));
+    }
+
+    /**
+     * read a file to the end and write the signatures of its blocks.
+     *
+     * @param inputStream content of the file
+     * @param version     version of the file, a delta names the version it was made against
+     * @param length      length of the file
+     * @param blockSize   size of the blocks
+     * @param target      receives the text form
+     */
+    public static void write(InputStream inputStream, String version, long length, int blockSize, Appendable target) throws IOException {
+        target.append(version).append(' ').append(String.valueOf(blockSize)).append(' ').append(String.valueOf(length)).append('\n');
+        MessageDigest md5 = newMd5();
+        byte[] block = new byte[blockSize];
+        while (true) {
+            int filled = 0;
+            int read;
+            while (filled < blockSize && (read = inputStream.read(block, filled, blockSize - filled)) != -1) {
+                filled += read;
+            }
+            if (filled == 0) {
+                return;
+            }
+            md5.update(block, 0, filled);
+            target.append(String.format("%08x", RollingChecksum.of(block, 0, filled))).append(' ')
+                    .append(toHex(md5.digest())).append('\n');
+            if (filled < blockSize) {
+                return;
+            }
+        }
+    }
+
+    static MessageDigest newMd5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[2 * i + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,15 @@
+package com.example.uploadingfiles.delta;
+
+import com.example.uploadingfiles.storage.StorageException;
+
+/**
+ * The stored file is not the version a delta was made against, the whole file has to be sent.
+ */
+public class DeltaBaseChangedException extends StorageException {
+
+	private static final long serialVersionUID = 1L;
+
+	public DeltaBaseChangedException(String message) {
+		super(message);
+	}
+}
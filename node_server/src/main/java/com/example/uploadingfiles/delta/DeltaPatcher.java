@@ -0,0 +1,158 @@
+package com.example.uploadingfiles.delta;
+
+import com.example.uploadingfiles.storage.StorageException;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Rebuilds a new version of a file from the stored version and a delta.
+ *
+ * A delta starts with a header: the magic number, the version of the stored file it was made against,
+ * the block size of the signatures, the length and the SHA-256 of the new version.
+ * Then follow instructions: COPY with the index of the first block and the number of blocks
+ * taken from the stored file, DATA with a length and that many bytes that match no block, and END.
+ * Numbers are written big endian, the version as modified UTF-8 like DataOutputStream does.
+ */
+public class DeltaPatcher {
+
+    public static final int MAGIC = 0x444c5441;
+    public static final byte END = 0;
+    public static final byte COPY = 1;
+    public static final byte DATA = 2;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private DeltaPatcher() {
+    }
+
+    /**
+     * header of a delta.
+     */
+    public static class Header {
+        private final String baseVersion;
+        private final int blockSize;
+        private final long length;
+        private final byte[] sha256;
+
+        Header(String baseVersion, int blockSize, long length, byte[] sha256) {
+            this.baseVersion = baseVersion;
+            this.blockSize = blockSize;
+            this.length = length;
+            this.sha256 = sha256;
+        }
+
+        public String getBaseVersion() {
+            return baseVersion;
+        }
+
+        public int getBlockSize() {
+            return blockSize;
+        }
+
+        public long getLength() {
+            return length;
+        }
+    }
+
+    /**
+     * read the header at the start of a delta.
+     */
+    public static Header readHeader(DataInputStream inputStream) throws IOException {
+        if (inputStream.readInt() != MAGIC) {
+            throw new StorageException("Invalid delta.");
+        }
+        String baseVersion = inputStream.readUTF();
+        int blockSize = inputStream.readInt();
+        long length = inputStream.readLong();
+        byte[] sha256 = new byte[32];
+        inputStream.readFully(sha256);
+        if (blockSize < BlockSignatures.MIN_BLOCK_SIZE || blockSize > BlockSignatures.MAX_BLOCK_SIZE || length < 0) {
+            throw new StorageException("Invalid delta.");
+        }
+        return new Header(baseVersion, blockSize, length, sha256);
+    }
+
+    /**
+     * write the new version of a file, the header of the delta was already read.
+     *
+     * @param inputStream delta after its header
+     * @param header      header of the delta
+     * @param base        stored version of the file
+     * @param target      file the new version is written to
+     */
+    public static void apply(DataInputStream inputStream, Header header, Path base, Path target) throws IOException {
+        MessageDigest sha256 = newSha256();
+        long written = 0;
+        try (FileChannel baseChannel = FileChannel.open(base, StandardOpenOption.READ);
+             OutputStream outputStream = new DigestOutputStream(new BufferedOutputStream(Files.newOutputStream(target), BUFFER_SIZE), sha256)) {
+            long baseLength = baseChannel.size();
+            WritableByteChannel targetChannel = Channels.newChannel(outputStream);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (true) {
+                byte instruction = inputStream.readByte();
+                if (instruction == END) {
+                    break;
+                }
+                if (instruction == COPY) {
+                    long position = (long) inputStream.readInt() * header.blockSize;
+                    long end = Math.min(baseLength, position + (long) inputStream.readInt() * header.blockSize);
+                    if (position < 0 || position >= end) {
+                        throw new StorageException("Delta copies blocks the file does not have.");
+                    }
+                    written += end - position;
+                    while (position < end) {
+                        position += baseChannel.transferTo(position, end - position, targetChannel);
+                    }
+                } else if (instruction == DATA) {
+                    int length = inputStream.readInt();
+                    if (length < 0) {
+                        throw new StorageException("Invalid delta.");
+                    }
+                    written += length;
+                    copy(inputStream, outputStream, length, buffer);
+                } else {
+                    throw new StorageException("Invalid delta.");
+                }
+                if (written > header.length) {
+                    throw new StorageException("Delta rebuilds a longer file than announced.");
+                }
+            }
+        }
+        if (written != header.length || !Arrays.equals(sha256.digest(), header.sha256)) {
+            throw new StorageException("Delta does not rebuild the announced file.");
+        }
+    }
+
+    private static void copy(InputStream inputStream, OutputStream outputStream, int length, byte[] buffer) throws IOException {
+        while (length > 0) {
+            int read = inputStream.read(buffer, 0, Math.min(buffer.length, length));
+            if (read == -1) {
+                throw new StorageException("Delta ends in the middle of its data.");
+            }
+            outputStream.write(buffer, 0, read);
+            length -= read;
+        }
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.uploadingfiles.delta;
+
+import com.example.uploadingfiles.storage.StorageService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Edits of stored files sent as deltas, like rsync does.
+ * A client fetches the signatures of the blocks of the stored file and sends only what changed,
+ * the node rebuilds the new version from the stored one. Replicas holding the same version
+ * get the delta as well and rebuild the file on their own.
+ *
+ * A version is the length and the modification time of a file, the replicas of a file
+ * report the same modification time, so a delta made against one replica fits the others.
+ */
+@Component
+public class DeltaSync {
+
+    private final StorageService storageService;
+
+    @Autowired
+    public DeltaSync(StorageService storageService) {
+        this.storageService = storageService;
+    }
+
+    /**
+     * get the signatures of the blocks of a stored file.
+     *
+     * @param filePath  path of the file
+     * @param blockSize size of the blocks, picked from the length of the file if null
+     * @return signatures in their text form
+     */
+    public String signatures(String filePath, Integer blockSize) throws IOException {
+        Resource resource = storageService.loadAsResource(filePath);
+        long length = resource.contentLength();
+        int size = blockSize == null ? BlockSignatures.defaultBlockSize(length)
+                : Math.max(BlockSignatures.MIN_BLOCK_SIZE, Math.min(BlockSignatures.MAX_BLOCK_SIZE, blockSize));
+        StringBuilder signatures = new StringBuilder();
+        try (InputStream inputStream = resource.getInputStream()) {
+            BlockSignatures.write(inputStream, versionOf(resource), length, size, signatures);
+        }
+        return signatures.toString();
+    }
+
+    /**
+     * rebuild the new version of a stored file from a delta.
+     *
+     * @param path     path of the folder holding the file
+     * @param fileName name of the file
+     * @param delta    delta made against the stored file
+     * @return temporary file holding the new version, owned by the caller
+     * @throws DeltaBaseChangedException if the stored file is not the version the delta was made against
+     */
+    public File rebuild(String path, String fileName, Path delta) throws IOException {
+        Resource resource = storageService.loadAsResource(path.endsWith("/") ? path + fileName : path + "/" + fileName);
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(delta)))) {
+            DeltaPatcher.Header header = DeltaPatcher.readHeader(inputStream);
+            if (!header.getBaseVersion().equals(versionOf(resource))) {
+                throw new DeltaBaseChangedException("File changed since the delta was made.");
+            }
+            // a file that is not stored as it is, compressed or split into chunks or shards, is read once to a plain file
+            Path base = resource.isFile() ? resource.getFile().toPath() : null;
+            File target = File.createTempFile("txn-", null);
+            try {
+                if (base == null) {
+                    base = File.createTempFile("delta-base-", null).toPath();
+                    try (InputStream baseStream = resource.getInputStream()) {
+                        Files.copy(baseStream, base, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+                DeltaPatcher.apply(inputStream, header, base, target.toPath());
+                return target;
+            } catch (IOException | RuntimeException e) {
+                target.delete();
+                throw e;
+            } finally {
+                if (base != null && !resource.isFile()) {
+                    Files.deleteIfExists(base);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return version of a stored file, its length and modification time as hex
+     */
+    public static String versionOf(Resource resource) throws IOException {
+        return Long.toHexString(resource.contentLength()) + "-" + Long.toHexString(resource.lastModified());
+    }
+}
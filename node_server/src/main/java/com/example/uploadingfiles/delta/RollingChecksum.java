@@ -0,0 +1,56 @@
+package com.example.uploadingfiles.delta;
+
+/**
+ * Weak checksum of rsync over a window of bytes.
+ * Moving the window by one byte only takes the byte that leaves and the byte that enters,
+ * so a client can look for known blocks at every offset of a file in one pass.
+ * The client computes the same checksum, any change here must be made there too.
+ */
+public class RollingChecksum {
+
+    private int a;
+    private int b;
+    private int length;
+
+    /**
+     * start over with the bytes of a window.
+     *
+     * @param bytes  buffer holding the window
+     * @param offset start of the window
+     * @param length length of the window
+     */
+    public void reset(byte[] bytes, int offset, int length) {
+        a = 0;
+        b = 0;
+        this.length = length;
+        for (int i = 0; i < length; i++) {
+            int value = bytes[offset + i] & 0xff;
+            a += value;
+            b += (length - i) * value;
+        }
+    }
+
+    /**
+     * move the window by one byte.
+     *
+     * @param out byte leaving the window
+     * @param in  byte entering the window
+     */
+    public void roll(byte out, byte in) {
+        a += (in & 0xff) - (out & 0xff);
+        b += a - length * (out & 0xff);
+    }
+
+    public int getValue() {
+        return (a & 0xffff) | (b << 16);
+    }
+
+    /**
+     * @return weak checksum of a block
+     */
+    public static int of(byte[] bytes, int offset, int length) {
+        RollingChecksum checksum = new RollingChecksum();
+        checksum.reset(bytes, offset, length);
+        return checksum.getValue();
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.uploadingfiles.erasure;
+
+import com.example.uploadingfiles.storage.FileSystemStorageService;
+import com.example.uploadingfiles.storage.StorageException;
+import com.example.uploadingfiles.storage.StorageProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Stores one shard of every erasure coded file.
+ * The folder tree is kept on disk as for the file system storage, but every file holds the shard
+ * of this node, and a download rebuilds the file from the shards of its replicas.
+ * Files that were not erasure coded, because they were written before erasure coding was enabled
+ * or replicated through raft, are stored and served as they are.
+ */
+@Service
+@ConditionalOnProperty(name = "storage.mode", havingValue = "erasure")
+public class ErasureStorageService extends FileSystemStorageService {
+
+    private final ShardTransfer shardTransfer;
+
+    @Autowired
+    public ErasureStorageService(StorageProperties properties, ShardTransfer shardTransfer) {
+        super(properties);
+        this.shardTransfer = shardTransfer;
+    }
+
+    @Override
+    public Resource loadAsResource(String filePath) {
+        Resource resource = super.loadAsResource(filePath);
+        Path file = load(filePath);
+        try {
+            ShardHeader header = ShardHeader.read(file);
+            return header == null ? resource : new StripeResource(file, header, filePath, shardTransfer);
+        } catch (IOException e) {
+            throw new StorageException("Failed to read file.", e);
+        }
+    }
+
+    /**
+     * get the stored shard of a file, for a peer rebuilding the file.
+     *
+     * @param filePath path of the file
+     * @return path of the shard on disk
+     */
+    public Path loadShard(String filePath) {
+        super.loadAsResource(filePath);
+        return load(filePath);
+    }
+}
@@ -0,0 +1,219 @@
+package com.example.uploadingfiles.erasure;
+
+/**
+ * Reed-Solomon code over GF(2^8) turning data shards into parity shards.
+ * The encoding matrix is a Vandermonde matrix made systematic, its first rows are the identity
+ * so the data shards are stored as they are, and any data shards can be rebuilt from any
+ * combination of shards as large as the number of data shards.
+ */
+public class ReedSolomon {
+
+    /**
+     * x^8 + x^4 + x^3 + x^2 + 1, the field polynomial most Reed-Solomon implementations use
+     */
+    private static final int POLYNOMIAL = 0x11d;
+    private static final int[] EXP = new int[510];
+    private static final int[] LOG = new int[256];
+    /**
+     * product of every pair of field elements, the inner loops look products up instead of computing them
+     */
+    private static final byte[][] MULTIPLY = new byte[256][256];
+
+    static {
+        int value = 1;
+        for (int i = 0; i < 255; i++) {
+            EXP[i] = value;
+            EXP[i + 255] = value;
+            LOG[value] = i;
+            value <<= 1;
+            if (value >= 256) {
+                value ^= POLYNOMIAL;
+            }
+        }
+        for (int a = 0; a < 256; a++) {
+            for (int b = 0; b < 256; b++) {
+                MULTIPLY[a][b] = (byte) multiply(a, b);
+            }
+        }
+    }
+
+    private final int dataShards;
+    private final int parityShards;
+    /**
+     * row i gives shard i as a combination of the data shards
+     */
+    private final byte[][] matrix;
+
+    public ReedSolomon(int dataShards, int parityShards) {
+        if (dataShards <= 0 || parityShards < 0 || dataShards + parityShards > 256) {
+            throw new IllegalArgumentException("Invalid number of shards " + dataShards + "+" + parityShards);
+        }
+        this.dataShards = dataShards;
+        this.parityShards = parityShards;
+        int totalShards = dataShards + parityShards;
+        int[][] vandermonde = new int[totalShards][dataShards];
+        for (int row = 0; row < totalShards; row++) {
+            for (int column = 0; column < dataShards; column++) {
+                vandermonde[row][column] = power(row, column);
+            }
+        }
+        int[][] top = new int[dataShards][];
+        System.arraycopy(vandermonde, 0, top, 0, dataShards);
+        int[][] systematic = multiply(vandermonde, invert(top));
+        this.matrix = new byte[totalShards][dataShards];
+        for (int row = 0; row < totalShards; row++) {
+            for (int column = 0; column < dataShards; column++) {
+                matrix[row][column] = (byte) systematic[row][column];
+            }
+        }
+    }
+
+    public int getDataShards() {
+        return dataShards;
+    }
+
+    public int getParityShards() {
+        return parityShards;
+    }
+
+    /**
+     * compute the parity shards of a stripe.
+     *
+     * @param shards data shards followed by the parity shards to fill
+     * @param length number of bytes of every shard to encode
+     */
+    public void encodeParity(byte[][] shards, int length) {
+        byte[][] data = new byte[dataShards][];
+        System.arraycopy(shards, 0, data, 0, dataShards);
+        byte[][] parity = new byte[parityShards][];
+        System.arraycopy(shards, dataShards, parity, 0, parityShards);
+        byte[][] rows = new byte[parityShards][];
+        System.arraycopy(matrix, dataShards, rows, 0, parityShards);
+        codeShards(rows, data, parity, length);
+    }
+
+    /**
+     * get the matrix rebuilding the data shards from the shards at the given indexes.
+     *
+     * @param indexes indexes of as many shards as there are data shards
+     * @return matrix to give to {@link #decode}, it can be kept while the same shards are read
+     */
+    public byte[][] decodeMatrix(int[] indexes) {
+        if (indexes.length != dataShards) {
+            throw new IllegalArgumentException("Need " + dataShards + " shards to decode, got " + indexes.length);
+        }
+        int[][] rows = new int[dataShards][dataShards];
+        for (int i = 0; i < dataShards; i++) {
+            for (int column = 0; column < dataShards; column++) {
+                rows[i][column] = matrix[indexes[i]][column] & 0xff;
+            }
+        }
+        int[][] inverse = invert(rows);
+        byte[][] decodeMatrix = new byte[dataShards][dataShards];
+        for (int row = 0; row < dataShards; row++) {
+            for (int column = 0; column < dataShards; column++) {
+                decodeMatrix[row][column] = (byte) inverse[row][column];
+            }
+        }
+        return decodeMatrix;
+    }
+
+    /**
+     * rebuild the data shards of a stripe.
+     *
+     * @param decodeMatrix matrix of the shards read, from {@link #decodeMatrix}
+     * @param shards       shards read, in the order of the indexes the matrix was built for
+     * @param data         data shards to fill
+     * @param length       number of bytes of every shard to decode
+     */
+    public void decode(byte[][] decodeMatrix, byte[][] shards, byte[][] data, int length) {
+        codeShards(decodeMatrix, shards, data, length);
+    }
+
+    /**
+     * outputs[r] = sum of rows[r][i] * inputs[i], addition in GF(2^8) is xor.
+     */
+    private static void codeShards(byte[][] rows, byte[][] inputs, byte[][] outputs, int length) {
+        for (int r = 0; r < rows.length; r++) {
+            byte[] output = outputs[r];
+            byte[] products = MULTIPLY[rows[r][0] & 0xff];
+            byte[] input = inputs[0];
+            for (int i = 0; i < length; i++) {
+                output[i] = products[input[i] & 0xff];
+            }
+            for (int j = 1; j < inputs.length; j++) {
+                products = MULTIPLY[rows[r][j] & 0xff];
+                input = inputs[j];
+                for (int i = 0; i < length; i++) {
+                    output[i] ^= products[input[i] & 0xff];
+                }
+            }
+        }
+    }
+
+    private static int multiply(int a, int b) {
+        return a == 0 || b == 0 ? 0 : EXP[LOG[a] + LOG[b]];
+    }
+
+    private static int power(int a, int n) {
+        if (n == 0) {
+            return 1;
+        }
+        return a == 0 ? 0 : EXP[LOG[a] * n % 255];
+    }
+
+    private static int[][] multiply(int[][] left, int[][] right) {
+        int[][] product = new int[left.length][right[0].length];
+        for (int row = 0; row < left.length; row++) {
+            for (int column = 0; column < right[0].length; column++) {
+                int value = 0;
+                for (int i = 0; i < right.length; i++) {
+                    value ^= multiply(left[row][i], right[i][column]);
+                }
+                product[row][column] = value;
+            }
+        }
+        return product;
+    }
+
+    /**
+     * invert a square matrix by Gauss-Jordan elimination.
+     */
+    private static int[][] invert(int[][] square) {
+        int size = square.length;
+        int[][] work = new int[size][size * 2];
+        for (int row = 0; row < size; row++) {
+            System.arraycopy(square[row], 0, work[row], 0, size);
+            work[row][size + row] = 1;
+        }
+        for (int column = 0; column < size; column++) {
+            int pivot = column;
+            while (pivot < size && work[pivot][column] == 0) {
+                pivot++;
+            }
+            if (pivot == size) {
+                throw new IllegalArgumentException("Matrix is singular");
+            }
+            int[] swap = work[pivot];
+            work[pivot] = work[column];
+            work[column] = swap;
+            int scale = EXP[255 - LOG[work[column][column]]];
+            for (int i = 0; i < size * 2; i++) {
+                work[column][i] = multiply(work[column][i], scale);
+            }
+            for (int row = 0; row < size; row++) {
+                int factor = work[row][column];
+                if (row != column && factor != 0) {
+                    for (int i = 0; i < size * 2; i++) {
+                        work[row][i] ^= multiply(factor, work[column][i]);
+                    }
+                }
+            }
+        }
+        int[][] inverse = new int[size][size];
+        for (int row = 0; row < size; row++) {
+            System.arraycopy(work[row], size, inverse[row], 0, size);
+        }
+        return inverse;
+    }
+}
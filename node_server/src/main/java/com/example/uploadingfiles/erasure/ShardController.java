@@ -0,0 +1,80 @@
+package com.example.uploadingfiles.erasure;
+
+import com.example.uploadingfiles.storage.StorageException;
+import com.example.uploadingfiles.storage.StorageFileNotFoundException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+@Controller
+@ConditionalOnProperty(name = "storage.mode", havingValue = "erasure")
+public class ShardController {
+
+    private final ErasureStorageService storageService;
+
+    @Autowired
+    public ShardController(ErasureStorageService storageService) {
+        this.storageService = storageService;
+    }
+
+    /**
+     * get the shard of a file stored on this node, read by the node rebuilding the file
+     *
+     * @param path     path of the file
+     * @param offset   position in the shard bytes to start at
+     * @param response response the header line and the shard bytes from the offset on are written to
+     */
+    @GetMapping("/shards")
+    public void getShard(@RequestParam("path") String path, @RequestParam(defaultValue = "0") long offset,
+                         HttpServletResponse response) throws IOException {
+        Path file = storageService.loadShard(path);
+        ShardHeader header = ShardHeader.read(file);
+        if (header == null) {
+            throw new StorageFileNotFoundException(path + " is not erasure coded");
+        }
+        byte[] headerBytes = header.toBytes();
+        long position = headerBytes.length + Math.max(0, offset);
+        long count = Math.max(0, header.getShardLength() - Math.max(0, offset));
+        response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        response.setContentLengthLong(headerBytes.length + count);
+        OutputStream outputStream = response.getOutputStream();
+        outputStream.write(headerBytes);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(outputStream);
+            long end = position + count;
+            while (position < end) {
+                long transferred = channel.transferTo(position, end - position, target);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+            }
+        }
+    }
+
+    @ExceptionHandler(StorageFileNotFoundException.class)
+    public ResponseEntity<?> handleStorageFileNotFound(StorageFileNotFoundException exc) {
+        return ResponseEntity.notFound().build();
+    }
+
+    @ExceptionHandler(StorageException.class)
+    public ResponseEntity<?> handleStorageException(StorageException exc) {
+        return new ResponseEntity<Object>(exc.getMessage(), new HttpHeaders(), HttpStatus.BAD_REQUEST);
+    }
+}
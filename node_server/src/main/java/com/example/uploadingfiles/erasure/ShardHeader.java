@@ -0,0 +1,179 @@
+package com.example.uploadingfiles.erasure;
+
+import com.example.uploadingfiles.storage.StorageException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+/**
+ * Header line of a stored shard, the shard bytes follow it.
+ * A file is cut into stripes of one block per data shard, the last stripe uses smaller blocks
+ * so a small file is not padded to a full stripe. Shard i holds block i of every stripe,
+ * the shards after the data shards hold parity blocks.
+ */
+public class ShardHeader {
+
+    private static final String MAGIC = "erasure-shard 1 ";
+    private static final byte[] MAGIC_BYTES = MAGIC.getBytes(StandardCharsets.US_ASCII);
+    private static final int MAX_LENGTH = 256;
+
+    private final int index;
+    private final int dataShards;
+    private final int parityShards;
+    private final int blockSize;
+    private final long size;
+    /**
+     * id of the transaction that wrote the file, shards of different versions are never mixed
+     */
+    private final String version;
+
+    public ShardHeader(int index, int dataShards, int parityShards, int blockSize, long size, String version) {
+        this.index = index;
+        this.dataShards = dataShards;
+        this.parityShards = parityShards;
+        this.blockSize = blockSize;
+        this.size = size;
+        this.version = version;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getDataShards() {
+        return dataShards;
+    }
+
+    public int getParityShards() {
+        return parityShards;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * @return size of the file the shard belongs to
+     */
+    public long getSize() {
+        return size;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * @return header of another shard of the same file
+     */
+    public ShardHeader withIndex(int index) {
+        return new ShardHeader(index, dataShards, parityShards, blockSize, size, version);
+    }
+
+    /**
+     * @return true if the other shard belongs to the same version of the same file
+     */
+    public boolean isSameFile(ShardHeader other) {
+        return dataShards == other.dataShards && parityShards == other.parityShards && blockSize == other.blockSize
+                && size == other.size && version.equals(other.version);
+    }
+
+    public int getStripes() {
+        long stripeSize = (long) blockSize * dataShards;
+        return (int) ((size + stripeSize - 1) / stripeSize);
+    }
+
+    /**
+     * @return size of the blocks of a stripe, smaller for the last stripe
+     */
+    public int getBlockSize(int stripe) {
+        long stripeSize = (long) blockSize * dataShards;
+        long remaining = size - stripe * stripeSize;
+        return remaining >= stripeSize ? blockSize : (int) ((remaining + dataShards - 1) / dataShards);
+    }
+
+    /**
+     * @return number of shard bytes after the header
+     */
+    public long getShardLength() {
+        int stripes = getStripes();
+        return stripes == 0 ? 0 : (long) (stripes - 1) * blockSize + getBlockSize(stripes - 1);
+    }
+
+    /**
+     * read the header of a stored shard.
+     *
+     * @param file file to read
+     * @return the header, or null if the file does not exist or holds plain content
+     */
+    public static ShardHeader read(Path file) throws IOException {
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            byte[] magic = new byte[MAGIC_BYTES.length];
+            int read = 0;
+            while (read < magic.length) {
+                int count = inputStream.read(magic, read, magic.length - read);
+                if (count == -1) {
+                    return null;
+                }
+                read += count;
+            }
+            for (int i = 0; i < magic.length; i++) {
+                if (magic[i] != MAGIC_BYTES[i]) {
+                    return null;
+                }
+            }
+            return parseFields(readLine(inputStream));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * parse the header at the start of a shard received from a peer, the stream is left at the first shard byte.
+     *
+     * @param inputStream shard
+     * @return the header
+     */
+    public static ShardHeader parse(InputStream inputStream) throws IOException {
+        String line = readLine(inputStream);
+        if (!line.startsWith(MAGIC)) {
+            throw new StorageException("Invalid shard header.");
+        }
+        return parseFields(line.substring(MAGIC.length()));
+    }
+
+    private static ShardHeader parseFields(String line) {
+        String[] fields = line.split(" ");
+        if (fields.length != 6) {
+            throw new StorageException("Invalid shard header: " + line);
+        }
+        try {
+            return new ShardHeader(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]), Integer.parseInt(fields[2]),
+                    Integer.parseInt(fields[3]), Long.parseLong(fields[4]), fields[5]);
+        } catch (NumberFormatException e) {
+            throw new StorageException("Invalid shard header: " + line);
+        }
+    }
+
+    private static String readLine(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = inputStream.read()) != '\n') {
+            if (b == -1 || line.size() == MAX_LENGTH) {
+                throw new StorageException("Invalid shard header.");
+            }
+            line.write(b);
+        }
+        return new String(line.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+    public byte[] toBytes() {
+        return (MAGIC + index + " " + dataShards + " " + parityShards + " " + blockSize + " " + size + " " + version + "\n")
+                .getBytes(StandardCharsets.US_ASCII);
+    }
+}
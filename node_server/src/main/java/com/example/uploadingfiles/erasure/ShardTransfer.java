@@ -0,0 +1,165 @@
+package com.example.uploadingfiles.erasure;
+
+import com.example.uploadingfiles.placement.Placement;
+import com.example.uploadingfiles.replication.PeerClient;
+import com.example.uploadingfiles.storage.StorageProperties;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
+import org.apache.hc.core5.net.URIBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Splits uploaded files into shards for their replicas and fetches the shards of stored files from peers.
+ * The coordinator of an upload encodes the file once and sends every replica only its own shard,
+ * so a file costs (data + parity) / data times its size on the wire and on disk.
+ */
+@Component
+@ConditionalOnProperty(name = "storage.mode", havingValue = "erasure")
+public class ShardTransfer {
+
+    private final ReedSolomon codec;
+    private final int blockSize;
+    private final Placement placement;
+    private final PeerClient peerClient;
+
+    @Autowired
+    public ShardTransfer(StorageProperties properties, Placement placement, PeerClient peerClient) {
+        this.codec = new ReedSolomon(properties.getDataShards(), properties.getParityShards());
+        this.blockSize = properties.getShardBlockSize();
+        this.placement = placement;
+        this.peerClient = peerClient;
+    }
+
+    /**
+     * split a file into one shard per replica, shard i goes to the i-th replica.
+     *
+     * @param file     file to split
+     * @param version  id of the transaction writing the file
+     * @param replicas urls of the replicas of the file
+     * @return shard file of every replica, deleted by the caller once sent
+     */
+    public Map<String, File> encode(File file, String version, String[] replicas) throws IOException {
+        int totalShards = codec.getDataShards() + codec.getParityShards();
+        if (replicas.length != totalShards) {
+            throw new IllegalStateException("A file has " + totalShards + " shards but " + replicas.length + " replicas");
+        }
+        ShardHeader header = new ShardHeader(0, codec.getDataShards(), codec.getParityShards(), blockSize, file.length(), version);
+        Map<String, File> shardFiles = new LinkedHashMap<>();
+        OutputStream[] outputs = new OutputStream[totalShards];
+        try {
+            for (int i = 0; i < totalShards; i++) {
+                File shardFile = File.createTempFile("shard-", null);
+                shardFiles.put(replicas[i], shardFile);
+                outputs[i] = new BufferedOutputStream(Files.newOutputStream(shardFile.toPath()), blockSize);
+                outputs[i].write(header.withIndex(i).toBytes());
+            }
+            byte[][] blocks = new byte[totalShards][blockSize];
+            try (InputStream inputStream = Files.newInputStream(file.toPath())) {
+                for (int stripe = 0; stripe < header.getStripes(); stripe++) {
+                    int length = header.getBlockSize(stripe);
+                    for (int i = 0; i < codec.getDataShards(); i++) {
+                        // the last stripe is padded with zeros, the size in the header cuts them off again
+                        int read = readFully(inputStream, blocks[i], length);
+                        Arrays.fill(blocks[i], read, length, (byte) 0);
+                    }
+                    codec.encodeParity(blocks, length);
+                    for (int i = 0; i < totalShards; i++) {
+                        outputs[i].write(blocks[i], 0, length);
+                    }
+                }
+            }
+            for (OutputStream output : outputs) {
+                output.close();
+            }
+            return shardFiles;
+        } catch (IOException | RuntimeException e) {
+            for (OutputStream output : outputs) {
+                if (output != null) {
+                    output.close();
+                }
+            }
+            shardFiles.values().forEach(File::delete);
+            throw e;
+        }
+    }
+
+    /**
+     * get the code of the shards of a file, files keep the code they were written with.
+     */
+    public ReedSolomon getCodec(ShardHeader header) {
+        if (header.getDataShards() == codec.getDataShards() && header.getParityShards() == codec.getParityShards()) {
+            return codec;
+        }
+        return new ReedSolomon(header.getDataShards(), header.getParityShards());
+    }
+
+    /**
+     * open a shard of a file on the peer holding it.
+     *
+     * @param filePath path of the file
+     * @param expected header the shard must have
+     * @param offset   position in the shard bytes to start at
+     * @return the shard bytes from the offset on
+     * @throws IOException if the peer cannot be reached or holds another version of the file
+     */
+    public InputStream open(String filePath, ShardHeader expected, long offset) throws IOException {
+        String[] replicas = placement.getFileReplicas(filePath);
+        if (expected.getIndex() >= replicas.length) {
+            throw new IOException("No replica holds shard " + expected.getIndex() + " of " + filePath);
+        }
+        CloseableHttpResponse response;
+        try {
+            response = peerClient.open(new HttpGet(new URIBuilder(replicas[expected.getIndex()] + "/shards")
+                    .addParameter("path", filePath)
+                    .addParameter("offset", String.valueOf(offset))
+                    .build()));
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+        try {
+            InputStream content = response.getEntity().getContent();
+            ShardHeader header = ShardHeader.parse(content);
+            if (header.getIndex() != expected.getIndex() || !header.isSameFile(expected)) {
+                throw new IOException("Shard " + expected.getIndex() + " of " + filePath + " belongs to another version");
+            }
+            return new FilterInputStream(content) {
+                @Override
+                public void close() throws IOException {
+                    response.close();
+                }
+            };
+        } catch (IOException | RuntimeException e) {
+            response.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return number of bytes read, less than the length only at the end of the stream
+     */
+    static int readFully(InputStream inputStream, byte[] buffer, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int count = inputStream.read(buffer, read, length - read);
+            if (count == -1) {
+                break;
+            }
+            read += count;
+        }
+        return read;
+    }
+}
@@ -0,0 +1,239 @@
+package com.example.uploadingfiles.erasure;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.AbstractResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * An erasure coded file, read stripe by stripe from as many shards as it has data shards.
+ * The data shards are read when they are available so no decoding is needed, a shard that cannot be
+ * read is replaced by a parity shard and the missing data is rebuilt from it.
+ */
+public class StripeResource extends AbstractResource {
+
+    private static final Logger logger = LoggerFactory.getLogger(StripeResource.class);
+
+    private final Path shardFile;
+    private final ShardHeader header;
+    private final String filePath;
+    private final ShardTransfer shardTransfer;
+
+    /**
+     * @param shardFile     shard of the file stored on this node
+     * @param header        header of that shard
+     * @param filePath      path of the file, its replicas hold the other shards
+     * @param shardTransfer fetches the other shards
+     */
+    public StripeResource(Path shardFile, ShardHeader header, String filePath, ShardTransfer shardTransfer) {
+        this.shardFile = shardFile;
+        this.header = header;
+        this.filePath = filePath;
+        this.shardTransfer = shardTransfer;
+    }
+
+    @Override
+    public String getDescription() {
+        return "erasure coded file [" + shardFile + "]";
+    }
+
+    @Override
+    public String getFilename() {
+        return shardFile.getFileName().toString();
+    }
+
+    @Override
+    public boolean exists() {
+        return true;
+    }
+
+    @Override
+    public long contentLength() {
+        return header.getSize();
+    }
+
+    @Override
+    public long lastModified() throws IOException {
+        return Files.getLastModifiedTime(shardFile).toMillis();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new StripeInputStream();
+    }
+
+    /**
+     * decodes the stripe holding the current position, skipping moves the position without reading.
+     */
+    private class StripeInputStream extends InputStream {
+        private final ReedSolomon codec = shardTransfer.getCodec(header);
+        private final int dataShards = header.getDataShards();
+        private final int totalShards = dataShards + header.getParityShards();
+        /**
+         * open shards by index, they are all positioned at the start of the same stripe
+         */
+        private final InputStream[] shards = new InputStream[totalShards];
+        private final boolean[] failed = new boolean[totalShards];
+        private final byte[][] blocks = new byte[totalShards][];
+        private final byte[][] data = new byte[dataShards][];
+        private final byte[] stripe = new byte[dataShards * header.getBlockSize()];
+        private int[] decodeIndexes;
+        private byte[][] decodeMatrix;
+        /**
+         * stripe the open shards are positioned at
+         */
+        private int nextStripe;
+        private long position;
+        private long stripeStart;
+        private int stripeLength;
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (position >= header.getSize()) {
+                return -1;
+            }
+            if (position < stripeStart || position >= stripeStart + stripeLength) {
+                load((int) (position / stripe.length));
+            }
+            int count = (int) Math.min(length, stripeStart + stripeLength - position);
+            System.arraycopy(stripe, (int) (position - stripeStart), buffer, offset, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, header.getSize() - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public void close() {
+            closeShards();
+        }
+
+        private void load(int index) throws IOException {
+            if (index != nextStripe) {
+                // the open shards are positioned at another stripe, they are reopened at this one
+                closeShards();
+                nextStripe = index;
+            }
+            int length = header.getBlockSize(index);
+            long shardOffset = (long) index * header.getBlockSize();
+            int[] indexes;
+            while (true) {
+                indexes = openShards(shardOffset);
+                int current = -1;
+                try {
+                    for (int i = 0; i < indexes.length; i++) {
+                        current = indexes[i];
+                        if (blocks[current] == null) {
+                            blocks[current] = new byte[header.getBlockSize()];
+                        }
+                        if (ShardTransfer.readFully(shards[current], blocks[current], length) < length) {
+                            throw new IOException("Shard ended early");
+                        }
+                    }
+                    break;
+                } catch (IOException e) {
+                    // the other shards already read part of this stripe, all of them are reopened
+                    logger.warn("Could not read shard {} of {}: {}", current, filePath, e.getMessage());
+                    failed[current] = true;
+                    closeShards();
+                }
+            }
+            nextStripe = index + 1;
+
+            if (indexes[dataShards - 1] == dataShards - 1) {
+                for (int i = 0; i < dataShards; i++) {
+                    data[i] = blocks[i];
+                }
+            } else {
+                if (!Arrays.equals(indexes, decodeIndexes)) {
+                    decodeIndexes = indexes;
+                    decodeMatrix = codec.decodeMatrix(indexes);
+                }
+                byte[][] inputs = new byte[dataShards][];
+                for (int i = 0; i < dataShards; i++) {
+                    inputs[i] = blocks[indexes[i]];
+                    if (data[i] == null || data[i] == blocks[i]) {
+                        data[i] = new byte[header.getBlockSize()];
+                    }
+                }
+                codec.decode(decodeMatrix, inputs, data, length);
+            }
+            for (int i = 0; i < dataShards; i++) {
+                System.arraycopy(data[i], 0, stripe, i * length, length);
+            }
+            stripeStart = (long) index * stripe.length;
+            stripeLength = (int) Math.min((long) dataShards * length, header.getSize() - stripeStart);
+        }
+
+        /**
+         * make sure as many shards as there are data shards are open, data shards first.
+         *
+         * @return indexes of the open shards in ascending order
+         */
+        private int[] openShards(long shardOffset) throws IOException {
+            int[] indexes = new int[dataShards];
+            int open = 0;
+            for (int i = 0; i < totalShards && open < dataShards; i++) {
+                if (failed[i]) {
+                    continue;
+                }
+                if (shards[i] == null) {
+                    try {
+                        shards[i] = i == header.getIndex() ? openLocal(shardOffset)
+                                : shardTransfer.open(filePath, header.withIndex(i), shardOffset);
+                    } catch (IOException | RuntimeException e) {
+                        logger.warn("Could not open shard {} of {}: {}", i, filePath, e.getMessage());
+                        failed[i] = true;
+                        continue;
+                    }
+                }
+                indexes[open++] = i;
+            }
+            if (open < dataShards) {
+                throw new IOException("Only " + open + " of the " + dataShards + " shards needed to read " + filePath + " are available");
+            }
+            return indexes;
+        }
+
+        private InputStream openLocal(long shardOffset) throws IOException {
+            FileChannel channel = FileChannel.open(shardFile, StandardOpenOption.READ);
+            channel.position(header.toBytes().length + shardOffset);
+            return Channels.newInputStream(channel);
+        }
+
+        private void closeShards() {
+            for (int i = 0; i < totalShards; i++) {
+                if (shards[i] != null) {
+                    try {
+                        shards[i].close();
+                    } catch (IOException e) {
+                        // nothing is read from it anymore
+                    }
+                    shards[i] = null;
+                }
+            }
+        }
+    }
+}
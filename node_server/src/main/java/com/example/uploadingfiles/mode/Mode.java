@@ -4,4 +4,5 @@ public enum Mode {
     PREPARE,
     PROPOSE,
     COMMIT,
+    ABORT,
 }
@@ -0,0 +1,147 @@
+package com.example.uploadingfiles.placement;
+
+import com.example.uploadingfiles.storage.StorageProperties;
+import com.example.uploadingfiles.transaction.Operation;
+import com.example.uploadingfiles.transaction.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decides which nodes a mutation is replicated to.
+ * A file lives on its replicas on the hash ring, a directory lives on every node,
+ * so every node can check a folder exists and list the directories in it.
+ * When files are erasure coded the replicas of a file are the nodes holding its shards.
+ */
+@Component
+public class Placement {
+
+    private static final Logger logger = LoggerFactory.getLogger(Placement.class);
+
+    private final HashRing ring;
+    /**
+     * shards a file can be rebuilt from, 0 unless storage.mode is erasure
+     */
+    private final int dataShards;
+    /**
+     * url of this node, null if none of nodeServerUrls is this node
+     */
+    private final String self;
+
+    @Autowired
+    public Placement(@Value("${nodeServerUrls}") String[] nodeServerUrls, @Value("${server.port:0}") int port,
+                     PlacementProperties properties, StorageProperties storageProperties) {
+        this.ring = new HashRing(nodeServerUrls, properties.getVirtualNodes(), properties.getReplicas());
+        this.self = properties.getSelfUrl() == null || properties.getSelfUrl().isEmpty()
+                ? findSelf(nodeServerUrls, port) : properties.getSelfUrl();
+        if (self == null) {
+            logger.warn("None of {} is this node, set placement.self-url", Arrays.toString(nodeServerUrls));
+        }
+        this.dataShards = "erasure".equals(storageProperties.getMode()) ? storageProperties.getDataShards() : 0;
+        if (dataShards > 0 && ring.getReplicas() != dataShards + storageProperties.getParityShards()) {
+            throw new IllegalStateException("placement.replicas must be storage.data-shards plus storage.parity-shards, "
+                    + "and at most the number of nodes");
+        }
+    }
+
+    /**
+     * @return urls of the nodes the mutation is replicated to
+     */
+    public String[] getReplicas(Transaction txn) {
+        switch (txn.getOperation()) {
+            case UPLOAD:
+            case UPLOAD_MANIFEST:
+                return getFileReplicas(txn.getPath() + "/" + txn.getFileName());
+            case DELETE_FILE:
+                return getFileReplicas(txn.getPath());
+            default:
+                return toArray(ring.getNodes());
+        }
+    }
+
+    /**
+     * @return urls of the nodes holding a file, shard i of an erasure coded file is on the i-th of them
+     */
+    public String[] getFileReplicas(String filePath) {
+        return toArray(ring.getReplicas(filePath));
+    }
+
+    /**
+     * @return number of replicas that must accept a mutation, a majority of them,
+     * and for an erasure coded upload at least as many as the shards needed to read the file back
+     */
+    public int getQuorum(Transaction txn) {
+        int majority = getReplicas(txn).length / 2 + 1;
+        boolean upload = txn.getOperation() == Operation.UPLOAD || txn.getOperation() == Operation.UPLOAD_MANIFEST;
+        return upload ? Math.max(majority, dataShards) : majority;
+    }
+
+    /**
+     * @return urls of every node
+     */
+    public String[] getNodes() {
+        return toArray(ring.getNodes());
+    }
+
+    /**
+     * @return url of this node, null if it is not known
+     */
+    public String getSelf() {
+        return self;
+    }
+
+    /**
+     * @return true if this node holds a file
+     */
+    public boolean isReplica(String filePath) {
+        return self != null && ring.getReplicas(filePath).contains(self);
+    }
+
+    /**
+     * @return true if every node holds every file, so a listing of this node is complete
+     */
+    public boolean isFullyReplicated() {
+        return ring.isFullyReplicated();
+    }
+
+    /**
+     * @return the url of nodeServerUrls with the port of this node and an address of this host
+     */
+    private static String findSelf(String[] nodeServerUrls, int port) {
+        List<String> candidates = new ArrayList<>();
+        for (String url : nodeServerUrls) {
+            URI uri = URI.create(url);
+            if (uri.getPort() == port) {
+                candidates.add(url);
+            }
+        }
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+        for (String url : candidates) {
+            try {
+                InetAddress address = InetAddress.getByName(URI.create(url).getHost());
+                if (address.isLoopbackAddress() || address.isAnyLocalAddress() || NetworkInterface.getByInetAddress(address) != null) {
+                    return url;
+                }
+            } catch (IOException e) {
+                // not an address of this host
+            }
+        }
+        return null;
+    }
+
+    private static String[] toArray(List<String> urls) {
+        return urls.toArray(new String[0]);
+    }
+}
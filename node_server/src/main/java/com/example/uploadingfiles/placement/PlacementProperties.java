@@ -0,0 +1,47 @@
+package com.example.uploadingfiles.placement;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@ConfigurationProperties("placement")
+public class PlacementProperties {
+
+	/**
+	 * Number of nodes holding every file, 0 for every node. Directories are kept on every node.
+	 * The central server must use the same value
+	 */
+	private int replicas = 0;
+
+	/**
+	 * Number of points every node owns on the hash ring
+	 */
+	private int virtualNodes = 128;
+
+	/**
+	 * Url of this node as listed in nodeServerUrls, found by the server port if empty
+	 */
+	private String selfUrl;
+
+	public int getReplicas() {
+		return replicas;
+	}
+
+	public void setReplicas(int replicas) {
+		this.replicas = replicas;
+	}
+
+	public int getVirtualNodes() {
+		return virtualNodes;
+	}
+
+	public void setVirtualNodes(int virtualNodes) {
+		this.virtualNodes = virtualNodes;
+	}
+
+	public String getSelfUrl() {
+		return selfUrl;
+	}
+
+	public void setSelfUrl(String selfUrl) {
+		this.selfUrl = selfUrl;
+	}
+}
@@ -0,0 +1,115 @@
+package com.example.uploadingfiles.raft;
+
+import com.example.uploadingfiles.transaction.FencingTokens;
+import com.example.uploadingfiles.transaction.Operation;
+
+import static com.example.uploadingfiles.transaction.GroupCommitLog.NONE;
+import static com.example.uploadingfiles.transaction.GroupCommitLog.decodeField;
+import static com.example.uploadingfiles.transaction.GroupCommitLog.encodeField;
+
+/**
+ * One mutation in the replicated log.
+ * A leader starts its term with an entry without operation, committing it commits every entry before it.
+ */
+public class LogEntry {
+
+    private final long index;
+    private final long term;
+    private final Operation operation;
+    private final long timestamp;
+    private final String path;
+    private final String fileName;
+    private final long fencingToken;
+
+    public LogEntry(long index, long term, Operation operation, long timestamp, String path, String fileName) {
+        this(index, term, operation, timestamp, path, fileName, FencingTokens.NONE);
+    }
+
+    public LogEntry(long index, long term, Operation operation, long timestamp, String path, String fileName,
+                    long fencingToken) {
+        this.index = index;
+        this.term = term;
+        this.operation = operation;
+        this.timestamp = timestamp;
+        this.path = path;
+        this.fileName = fileName;
+        this.fencingToken = fencingToken;
+    }
+
+    public long getIndex() {
+        return index;
+    }
+
+    public long getTerm() {
+        return term;
+    }
+
+    /**
+     * @return the operation, null for the first entry of a leader
+     */
+    public Operation getOperation() {
+        return operation;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * @return fencing token of the lock the mutation was made under, {@link FencingTokens#NONE} if not fenced
+     */
+    public long getFencingToken() {
+        return fencingToken;
+    }
+
+    /**
+     * @return true if the entry carries the content of a file
+     */
+    public boolean isUpload() {
+        return operation == Operation.UPLOAD || operation == Operation.UPLOAD_MANIFEST;
+    }
+
+    /**
+     * @return path of the uploaded file
+     */
+    public String getFilePath() {
+        return path.endsWith("/") ? path + fileName : path + "/" + fileName;
+    }
+
+    /**
+     * @return the entry as a line of space separated fields, without line break
+     */
+    public String toLine() {
+        return String.join(" ", String.valueOf(index), String.valueOf(term), operation == null ? NONE : operation.name(),
+                String.valueOf(timestamp), encodeField(path), encodeField(fileName), String.valueOf(fencingToken));
+    }
+
+    /**
+     * parse a line written by {@link #toLine()}, lines written before fencing tokens were added have no token.
+     *
+     * @param line line without line break
+     * @return the entry, or null if the line is not an entry
+     */
+    public static LogEntry parse(String line) {
+        String[] values = line.split(" ");
+        if (values.length != 6 && values.length != 7) {
+            return null;
+        }
+        try {
+            return new LogEntry(Long.parseLong(values[0]), Long.parseLong(values[1]),
+                    NONE.equals(values[2]) ? null : Operation.valueOf(values[2]),
+                    Long.parseLong(values[3]), decodeField(values[4]), decodeField(values[5]),
+                    values.length == 7 ? Long.parseLong(values[6]) : FencingTokens.NONE);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
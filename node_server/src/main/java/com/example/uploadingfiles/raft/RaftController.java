@@ -0,0 +1,108 @@
+package com.example.uploadingfiles.raft;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.util.List;
+
+@Controller
+@ConditionalOnProperty(name = "replication.mode", havingValue = "raft")
+public class RaftController {
+
+    private final RaftReplicator raftReplicator;
+    private final RaftSnapshot raftSnapshot;
+
+    @Autowired
+    public RaftController(RaftReplicator raftReplicator, RaftSnapshot raftSnapshot) {
+        this.raftReplicator = raftReplicator;
+        this.raftSnapshot = raftSnapshot;
+    }
+
+    /**
+     * ask this node for its vote in an election
+     *
+     * @param term         term of the candidate
+     * @param candidateId  id of the candidate
+     * @param lastLogIndex index of the last entry in the log of the candidate
+     * @param lastLogTerm  term of the last entry in the log of the candidate
+     * @return current term and whether the vote was granted
+     */
+    @PostMapping("/raft/vote")
+    @ResponseBody
+    public ResponseEntity<?> requestVote(@RequestParam long term, @RequestParam String candidateId,
+                                         @RequestParam long lastLogIndex, @RequestParam long lastLogTerm) {
+        return ResponseEntity.ok(raftReplicator.handleVote(term, candidateId, lastLogIndex, lastLogTerm));
+    }
+
+    /**
+     * append entries sent by the leader, an empty message is a heartbeat
+     *
+     * @param term         term of the leader
+     * @param leaderId     id of the leader
+     * @param prevLogIndex index of the entry before the new ones
+     * @param prevLogTerm  term of the entry before the new ones
+     * @param leaderCommit commit index of the leader
+     * @param reset        true if this node may drop its log when it does not hold the previous entry
+     * @param entries      new entries, one per line
+     * @param contents     contents of uploads, named by the index of their entry
+     * @return current term, whether the entries were stored and the index of the last matching entry
+     */
+    @PostMapping("/raft/append")
+    @ResponseBody
+    public ResponseEntity<?> appendEntries(@RequestParam long term, @RequestParam String leaderId,
+                                           @RequestParam long prevLogIndex, @RequestParam long prevLogTerm,
+                                           @RequestParam long leaderCommit, @RequestParam(defaultValue = "false") boolean reset,
+                                           @RequestParam(required = false) String entries,
+                                           @RequestParam(value = "content", required = false) List<MultipartFile> contents) throws IOException {
+        return ResponseEntity.ok(raftReplicator.handleAppend(term, leaderId, prevLogIndex, prevLogTerm, leaderCommit,
+                reset, entries, contents));
+    }
+
+    /**
+     * get the role of this node in the replicated log, the central server sends mutations to the leader
+     *
+     * @return role, term, id of the leader, commit index and last applied index
+     */
+    @GetMapping("/raft/status")
+    @ResponseBody
+    public ResponseEntity<?> getStatus() {
+        return ResponseEntity.ok(raftReplicator.getStatus());
+    }
+
+    /**
+     * list the namespace of this node for a follower that installs it
+     *
+     * @return the index this node applied, then one directory or file per line,
+     * SERVICE_UNAVAILABLE while this node is catching up itself
+     */
+    @GetMapping("/raft/snapshot")
+    @ResponseBody
+    public ResponseEntity<String> getSnapshot() {
+        if (raftReplicator.isCatchingUp()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Catching up");
+        }
+        return ResponseEntity.ok().contentType(MediaType.TEXT_PLAIN).body(raftSnapshot.list());
+    }
+
+    /**
+     * get whether this node applied what it missed, the central server sends no reads to a node catching up
+     *
+     * @return CATCHING_UP or CAUGHT_UP
+     */
+    @GetMapping("/catch-up/status")
+    @ResponseBody
+    public ResponseEntity<String> getCatchUpStatus() {
+        return ResponseEntity.ok().contentType(MediaType.TEXT_PLAIN)
+                .body(raftReplicator.isCatchingUp() ? "CATCHING_UP" : "CAUGHT_UP");
+    }
+}
@@ -0,0 +1,273 @@
+package com.example.uploadingfiles.raft;
+
+import com.example.uploadingfiles.replication.ReplicationProperties;
+import com.example.uploadingfiles.transaction.GroupCommitLog;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Durable state of a node taking part in the replicated log: its id, the current term and vote,
+ * the entries and how far they were applied to the storage.
+ * Every change is appended as a line, the methods changing the state return the number of lines
+ * to pass to {@link #sync(long)} before the change may be relied upon.
+ * Applied entries beyond the retention are dropped, the log then starts after a base index.
+ */
+@Component
+@ConditionalOnProperty(name = "replication.mode", havingValue = "raft")
+public class RaftLog extends GroupCommitLog {
+
+    private String nodeId;
+    private long currentTerm;
+    private String votedFor;
+    private long lastApplied;
+    private long baseIndex;
+    private long baseTerm;
+    private final List<LogEntry> entries = new ArrayList<>();
+
+    @Autowired
+    public RaftLog(ReplicationProperties properties) {
+        super(Paths.get(properties.getLogLocation()).resolve("raft.log"), properties.getLogMaxBytes());
+    }
+
+    /**
+     * read the log and pick an id for this node the first time it starts.
+     */
+    @Override
+    @PostConstruct
+    public void open() {
+        super.open();
+        long count = 0;
+        synchronized (lock) {
+            if (nodeId == null) {
+                nodeId = UUID.randomUUID().toString();
+                count = append("NODE " + nodeId);
+            }
+        }
+        sync(count);
+    }
+
+    /**
+     * wait until the first count lines are on disk.
+     */
+    public void sync(long count) {
+        awaitDurable(count);
+    }
+
+    public String getNodeId() {
+        synchronized (lock) {
+            return nodeId;
+        }
+    }
+
+    public long getCurrentTerm() {
+        synchronized (lock) {
+            return currentTerm;
+        }
+    }
+
+    /**
+     * @return id of the node this node voted for in the current term, null if it did not vote
+     */
+    public String getVotedFor() {
+        synchronized (lock) {
+            return votedFor;
+        }
+    }
+
+    public long setTerm(long term, String votedFor) {
+        synchronized (lock) {
+            long count = append("TERM " + term + " " + encodeField(votedFor));
+            this.currentTerm = term;
+            this.votedFor = votedFor;
+            return count;
+        }
+    }
+
+    public long getLastApplied() {
+        synchronized (lock) {
+            return lastApplied;
+        }
+    }
+
+    public long setApplied(long index) {
+        synchronized (lock) {
+            long count = append("APPLIED " + index);
+            lastApplied = index;
+            return count;
+        }
+    }
+
+    /**
+     * @return index of the last entry dropped from the log, every entry up to it is applied
+     */
+    public long getBaseIndex() {
+        synchronized (lock) {
+            return baseIndex;
+        }
+    }
+
+    public long lastIndex() {
+        synchronized (lock) {
+            return baseIndex + entries.size();
+        }
+    }
+
+    public long lastTerm() {
+        synchronized (lock) {
+            return entries.isEmpty() ? baseTerm : entries.get(entries.size() - 1).getTerm();
+        }
+    }
+
+    /**
+     * @return term of the entry at an index, -1 if the log does not hold it
+     */
+    public long termAt(long index) {
+        synchronized (lock) {
+            if (index == baseIndex) {
+                return baseTerm;
+            }
+            if (index < baseIndex || index > baseIndex + entries.size()) {
+                return -1;
+            }
+            return entries.get((int) (index - baseIndex - 1)).getTerm();
+        }
+    }
+
+    /**
+     * get consecutive entries.
+     *
+     * @param from index of the first entry, after the base index
+     * @param max  largest number of entries
+     * @return the entries, fewer than max at the end of the log
+     */
+    public List<LogEntry> entries(long from, int max) {
+        synchronized (lock) {
+            int start = (int) (from - baseIndex - 1);
+            if (start < 0 || start >= entries.size()) {
+                return Collections.emptyList();
+            }
+            return new ArrayList<>(entries.subList(start, Math.min(entries.size(), start + max)));
+        }
+    }
+
+    public long append(LogEntry entry) {
+        synchronized (lock) {
+            if (entry.getIndex() != baseIndex + entries.size() + 1) {
+                throw new IllegalStateException("Entry " + entry.getIndex() + " does not follow the log");
+            }
+            long count = append("ENTRY " + entry.toLine());
+            entries.add(entry);
+            return count;
+        }
+    }
+
+    /**
+     * drop the entry at an index and every entry after it.
+     */
+    public long truncate(long fromIndex) {
+        synchronized (lock) {
+            long count = append("TRUNCATE " + fromIndex);
+            truncateEntries(fromIndex);
+            return count;
+        }
+    }
+
+    /**
+     * drop every entry and continue the log after the given entry,
+     * used when a follower is too far behind for the leader to send the entries it misses.
+     */
+    public long reset(long index, long term) {
+        synchronized (lock) {
+            long count = append("BASE " + index + " " + term);
+            resetEntries(index, term);
+            return count;
+        }
+    }
+
+    /**
+     * drop applied entries beyond the retention and compact the log file.
+     *
+     * @param retention number of applied entries to keep
+     */
+    public void compact(int retention) {
+        synchronized (lock) {
+            long newBase = lastApplied - retention;
+            // compact once a whole retention worth of entries can be dropped, not after every entry
+            if (newBase - baseIndex < retention) {
+                return;
+            }
+            baseTerm = termAt(newBase);
+            entries.subList(0, (int) (newBase - baseIndex)).clear();
+            baseIndex = newBase;
+        }
+        checkpoint();
+    }
+
+    @Override
+    protected void replay(String line) {
+        int separator = line.indexOf(' ');
+        String type = separator == -1 ? line : line.substring(0, separator);
+        String[] values = line.substring(separator + 1).split(" ");
+        switch (type) {
+            case "NODE":
+                nodeId = values[0];
+                break;
+            case "TERM":
+                currentTerm = Long.parseLong(values[0]);
+                votedFor = decodeField(values[1]);
+                break;
+            case "APPLIED":
+                lastApplied = Long.parseLong(values[0]);
+                break;
+            case "ENTRY":
+                LogEntry entry = LogEntry.parse(line.substring(separator + 1));
+                if (entry != null) {
+                    truncateEntries(entry.getIndex());
+                    entries.add(entry);
+                }
+                break;
+            case "TRUNCATE":
+                truncateEntries(Long.parseLong(values[0]));
+                break;
+            case "BASE":
+                resetEntries(Long.parseLong(values[0]), Long.parseLong(values[1]));
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    protected List<String> snapshot() {
+        List<String> lines = new ArrayList<>();
+        lines.add("NODE " + nodeId);
+        lines.add("TERM " + currentTerm + " " + encodeField(votedFor));
+        lines.add("BASE " + baseIndex + " " + baseTerm);
+        lines.add("APPLIED " + lastApplied);
+        for (LogEntry entry : entries) {
+            lines.add("ENTRY " + entry.toLine());
+        }
+        return lines;
+    }
+
+    private void truncateEntries(long fromIndex) {
+        int start = (int) Math.max(0, fromIndex - baseIndex - 1);
+        if (start < entries.size()) {
+            entries.subList(start, entries.size()).clear();
+        }
+    }
+
+    private void resetEntries(long index, long term) {
+        entries.clear();
+        baseIndex = index;
+        baseTerm = term;
+    }
+}
@@ -0,0 +1,939 @@
+package com.example.uploadingfiles.raft;
+
+import com.example.uploadingfiles.compression.GzipCodec;
+import com.example.uploadingfiles.placement.Placement;
+import com.example.uploadingfiles.replication.PeerClient;
+import com.example.uploadingfiles.replication.ReplicationProperties;
+import com.example.uploadingfiles.replication.Replicator;
+import com.example.uploadingfiles.storage.StorageException;
+import com.example.uploadingfiles.storage.StorageService;
+import com.example.uploadingfiles.transaction.FencingTokens;
+import com.example.uploadingfiles.transaction.Operation;
+import com.example.uploadingfiles.transaction.Transaction;
+import com.example.uploadingfiles.transaction.TransactionResponse;
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.entity.mime.MultipartEntityBuilder;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.net.URIBuilder;
+import org.apache.hc.core5.util.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.example.uploadingfiles.transaction.TransactionResponse.TXN_FAILED;
+import static com.example.uploadingfiles.transaction.TransactionResponse.TXN_FENCED;
+import static com.example.uploadingfiles.transaction.TransactionResponse.TXN_NOT_LEADER;
+import static com.example.uploadingfiles.transaction.TransactionResponse.TXN_PROPOSE_FAILED;
+import static com.example.uploadingfiles.transaction.TransactionResponse.TXN_SUCCESS;
+
+/**
+ * Replicates mutations through a log kept by an elected leader, following Raft.
+ * The leader appends a mutation to its log and sends it to every follower, it is committed as soon as
+ * a majority stored it, so a write costs one round trip. Followers apply committed entries to the storage
+ * in log order. Mutations sent to a follower are refused with TXN_NOT_LEADER, the central server
+ * routes them to the leader.
+ *
+ * The leader keeps one sender per follower that sends all entries the follower misses in one message,
+ * so concurrent writes share round trips, and counts itself once its own log is on disk. Committed entries
+ * are applied locally on every node, the leader included. The content of an upload travels with its entry
+ * and is kept next to the log, linked to the stored file, until the entry is compacted away, so a follower
+ * catching up receives the bytes the entry wrote even when a later entry replaced or deleted the file.
+ * A follower behind the entries the leader still holds installs the storage of a peer through {@link RaftSnapshot}
+ * and reports that it is catching up, so the central server sends it no reads until it applied the entries after it.
+ * Entries carry the fencing token of the lock they were made under and every node records it when it applies them,
+ * so a new leader refuses the holders of expired locks once it applied the entries of earlier terms.
+ *
+ * The log is replicated to every node, so every node holds every file whatever placement.replicas is,
+ * and files are stored whole even when storage.mode is erasure.
+ */
+@Component
+@ConditionalOnProperty(name = "replication.mode", havingValue = "raft")
+public class RaftReplicator implements Replicator {
+
+    private static final Logger logger = LoggerFactory.getLogger(RaftReplicator.class);
+
+    /**
+     * largest number of committed entries applied before the results are reported
+     */
+    private static final int APPLY_BATCH = 1024;
+
+    public enum Role {
+        FOLLOWER,
+        CANDIDATE,
+        LEADER
+    }
+
+    @Value("${nodeServerUrls}")
+    private String[] nodeServerUrls;
+    private final RaftLog raftLog;
+    private final StorageService storageService;
+    private final PeerClient peerClient;
+    private final ReplicationProperties properties;
+    private final FencingTokens fencingTokens;
+    private final GzipCodec codec;
+    private final RaftSnapshot snapshot;
+    private final Path contentLocation;
+    private final String nodeId;
+    private final String selfUrl;
+
+    /**
+     * guards the role, the commit index and the progress of the followers
+     */
+    private final Object lock = new Object();
+    /**
+     * progress of every follower, by url
+     */
+    private final Map<String, Progress> progress = new LinkedHashMap<>();
+    private final Map<Long, CompletableFuture<TransactionResponse>> pendingResults = new HashMap<>();
+    private Role role = Role.FOLLOWER;
+    private String leaderId;
+    private long commitIndex;
+    /**
+     * index of the last entry known to be on the disk of this node, counted by the leader like a follower's
+     */
+    private long durableIndex;
+    /**
+     * commit index when this node last installed a snapshot, it catches up until it applied the entries up to it
+     */
+    private long catchUpIndex;
+    /**
+     * index of the first entry this node appended as leader of the current term
+     */
+    private long termStartIndex;
+    private long electionDeadline;
+    private volatile boolean running = true;
+
+    private ExecutorService executor;
+    private ScheduledExecutorService timer;
+
+    @Autowired
+    public RaftReplicator(RaftLog raftLog, StorageService storageService, PeerClient peerClient, ReplicationProperties properties,
+                          FencingTokens fencingTokens, GzipCodec codec, RaftSnapshot snapshot, Placement placement) {
+        this.raftLog = raftLog;
+        this.codec = codec;
+        this.snapshot = snapshot;
+        this.fencingTokens = fencingTokens;
+        this.storageService = storageService;
+        this.peerClient = peerClient;
+        this.properties = properties;
+        this.contentLocation = Paths.get(properties.getLogLocation()).resolve("content");
+        this.nodeId = raftLog.getNodeId();
+        this.selfUrl = placement.getSelf();
+    }
+
+    @PostConstruct
+    public void start() {
+        if (selfUrl == null) {
+            throw new IllegalStateException("None of nodeServerUrls is this node, set placement.self-url");
+        }
+        // a node that stopped while installing a snapshot applied less than its base index
+        commitIndex = Math.max(raftLog.getLastApplied(), raftLog.getBaseIndex());
+        catchUpIndex = commitIndex;
+        try {
+            Files.createDirectories(contentLocation);
+            try (Stream<Path> files = Files.list(contentLocation)) {
+                for (Path file : files.collect(Collectors.toList())) {
+                    // content of compacted entries, of entries lost with the end of the log and of messages that were being received
+                    if (!isContentOfLoggedEntry(file)) {
+                        Files.delete(file);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new StorageException("Could not initialize replicated log", e);
+        }
+        AtomicInteger threadCounter = new AtomicInteger();
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "raft-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "raft-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        synchronized (lock) {
+            for (String peer : nodeServerUrls) {
+                if (!peer.equals(selfUrl)) {
+                    progress.put(peer, new Progress());
+                }
+            }
+            resetElectionDeadline();
+        }
+        for (String peer : progress.keySet()) {
+            executor.execute(() -> replicateTo(peer));
+        }
+        executor.execute(this::syncOwnLog);
+        executor.execute(this::applyCommitted);
+        timer.scheduleWithFixedDelay(this::checkElectionTimeout, 50, 50, TimeUnit.MILLISECONDS);
+        logger.info("Node {} joined the replicated log at term {}, applied up to {}", nodeId, raftLog.getCurrentTerm(), commitIndex);
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+        timer.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    @Override
+    public TransactionResponse replicate(Transaction txn) {
+        return replicateAll(Collections.singletonList(txn));
+    }
+
+    /**
+     * append the mutations as entries in order, they are sent to the followers in the same messages
+     * and committed together unless the leader fails while appending or sending them.
+     * the log is the order mutations are committed in, so the leader checks fencing tokens before appending.
+     */
+    @Override
+    public TransactionResponse replicateAll(List<Transaction> txns) {
+        Map<String, Path> pendingContents = new HashMap<>();
+        try {
+            Set<String> createdDirectories = new HashSet<>();
+            for (Transaction txn : txns) {
+                if (txn.getOperation() == Operation.CREATE_DIR) {
+                    createdDirectories.add(txn.getPath());
+                }
+                if (txn.getFile() == null) {
+                    continue;
+                }
+                if (!createdDirectories.contains(txn.getPath()) && !storageService.isDirectory(txn.getPath())) {
+                    return TXN_PROPOSE_FAILED;
+                }
+                // moved next to the log first, so taking the index below is only a rename
+                Path pendingContent = contentLocation.resolve("pending-" + txn.getId());
+                Files.move(txn.getFile().toPath(), pendingContent, StandardCopyOption.REPLACE_EXISTING);
+                pendingContents.put(txn.getId(), pendingContent);
+            }
+            List<CompletableFuture<TransactionResponse>> results = new ArrayList<>();
+            // appended a message worth at a time, so the senders keep sending heartbeats during a bulk operation
+            for (int from = 0; from < txns.size(); from += properties.getMaxEntriesPerMessage()) {
+                synchronized (lock) {
+                    if (role != Role.LEADER) {
+                        return results.isEmpty() ? TXN_NOT_LEADER : TXN_FAILED;
+                    }
+                    if (from == 0) {
+                        // entries of earlier terms raise the tokens of their paths once applied, so the leader applies them first
+                        long deadline = System.currentTimeMillis() + properties.getPeerTimeoutMillis();
+                        long waitMillis;
+                        while (role == Role.LEADER && raftLog.getLastApplied() < termStartIndex
+                                && (waitMillis = deadline - System.currentTimeMillis()) > 0) {
+                            lock.wait(waitMillis);
+                        }
+                        if (role != Role.LEADER) {
+                            return TXN_NOT_LEADER;
+                        }
+                        if (raftLog.getLastApplied() < termStartIndex) {
+                            return TXN_FAILED;
+                        }
+                        if (!fencingTokens.admitAll(txns)) {
+                            return TXN_FENCED;
+                        }
+                    }
+                    for (Transaction txn : txns.subList(from, Math.min(txns.size(), from + properties.getMaxEntriesPerMessage()))) {
+                        long index = raftLog.lastIndex() + 1;
+                        Path pendingContent = pendingContents.remove(txn.getId());
+                        if (pendingContent != null) {
+                            Files.move(pendingContent, contentFile(index), StandardCopyOption.REPLACE_EXISTING);
+                        }
+                        raftLog.append(new LogEntry(index, raftLog.getCurrentTerm(), txn.getOperation(), txn.getTimestamp(),
+                                txn.getPath(), txn.getFileName(), txn.getFencingToken()));
+                        CompletableFuture<TransactionResponse> result = new CompletableFuture<>();
+                        pendingResults.put(index, result);
+                        results.add(result);
+                    }
+                    lock.notifyAll();
+                }
+            }
+            // every message to a follower may take a full peer timeout
+            long messages = 1 + txns.size() / properties.getMaxEntriesPerMessage();
+            long deadline = System.currentTimeMillis()
+                    + messages * (properties.getConnectTimeoutMillis() + properties.getPeerTimeoutMillis());
+            TransactionResponse response = TXN_SUCCESS;
+            for (CompletableFuture<TransactionResponse> result : results) {
+                TransactionResponse entryResponse = result.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                if (response == TXN_SUCCESS) {
+                    response = entryResponse;
+                }
+            }
+            return response;
+        } catch (IOException e) {
+            throw new StorageException("Failed to store file.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return TXN_FAILED;
+        } catch (ExecutionException | TimeoutException e) {
+            return TXN_FAILED;
+        } finally {
+            for (Path pendingContent : pendingContents.values()) {
+                deleteIfExists(pendingContent);
+            }
+            for (Transaction txn : txns) {
+                if (txn.getFile() != null) {
+                    deleteIfExists(txn.getFile().toPath());
+                }
+                // followers get the whole file with the entry, the log holds no deltas
+                if (txn.getDelta() != null) {
+                    deleteIfExists(txn.getDelta().toPath());
+                }
+            }
+        }
+    }
+
+    /**
+     * handle a RequestVote message of a candidate.
+     *
+     * @return the current term and whether the vote was granted, separated by a space
+     */
+    public String handleVote(long term, String candidateId, long lastLogIndex, long lastLogTerm) {
+        long count = 0;
+        boolean granted = false;
+        long currentTerm;
+        synchronized (lock) {
+            if (term > raftLog.getCurrentTerm()) {
+                count = stepDown(term);
+            }
+            currentTerm = raftLog.getCurrentTerm();
+            String votedFor = raftLog.getVotedFor();
+            boolean upToDate = lastLogTerm > raftLog.lastTerm()
+                    || lastLogTerm == raftLog.lastTerm() && lastLogIndex >= raftLog.lastIndex();
+            if (term == currentTerm && (votedFor == null || votedFor.equals(candidateId)) && upToDate) {
+                granted = true;
+                count = raftLog.setTerm(term, candidateId);
+                resetElectionDeadline();
+            }
+        }
+        raftLog.sync(count);
+        return currentTerm + " " + granted;
+    }
+
+    /**
+     * handle an AppendEntries message of a leader.
+     *
+     * @param term         term of the leader
+     * @param leaderId     id of the leader
+     * @param prevLogIndex index of the entry before the new ones
+     * @param prevLogTerm  term of the entry before the new ones
+     * @param leaderCommit commit index of the leader
+     * @param reset        true if the follower may drop its log when it does not hold the previous entry
+     * @param entries      new entries, one per line
+     * @param contents     contents of uploads, named by the index of their entry
+     * @return the current term, whether the entries were stored and the index of the last entry matching
+     * the leader, or the last index of this log if they were not stored, separated by spaces
+     */
+    public String handleAppend(long term, String leaderId, long prevLogIndex, long prevLogTerm, long leaderCommit,
+                               boolean reset, String entries, List<MultipartFile> contents) throws IOException {
+        List<LogEntry> newEntries = new ArrayList<>();
+        if (entries != null) {
+            for (String line : entries.split("\n")) {
+                LogEntry entry = line.isEmpty() ? null : LogEntry.parse(line);
+                if (entry != null) {
+                    newEntries.add(entry);
+                }
+            }
+        }
+        Map<Long, Path> receivedContents = new HashMap<>();
+        try {
+            if (contents != null) {
+                for (MultipartFile content : contents) {
+                    Path received = contentLocation.resolve("incoming-" + UUID.randomUUID()).toAbsolutePath();
+                    content.transferTo(received);
+                    receivedContents.put(Long.parseLong(String.valueOf(content.getOriginalFilename())), received);
+                }
+            }
+            long count;
+            long matchIndex = prevLogIndex;
+            synchronized (lock) {
+                long currentTerm = raftLog.getCurrentTerm();
+                if (term < currentTerm) {
+                    return currentTerm + " false " + raftLog.lastIndex();
+                }
+                count = 0;
+                if (term > currentTerm || role != Role.FOLLOWER) {
+                    count = stepDown(term);
+                }
+                this.leaderId = leaderId;
+                resetElectionDeadline();
+
+                // entries this node applied are committed, hence the same on every node
+                if (reset && prevLogIndex > raftLog.getLastApplied() && raftLog.termAt(prevLogIndex) != prevLogTerm) {
+                    logger.warn("Replicated log is too far behind, installing the storage of a peer that applied entry {}", prevLogIndex);
+                    deleteContents(raftLog.getBaseIndex() + 1, raftLog.lastIndex());
+                    count = raftLog.reset(prevLogIndex, prevLogTerm);
+                    // applied once the snapshot is installed, the apply thread installs it
+                    commitIndex = Math.max(commitIndex, prevLogIndex);
+                } else if (prevLogIndex > raftLog.getBaseIndex() && raftLog.termAt(prevLogIndex) != prevLogTerm) {
+                    // entries up to the base index are applied, hence committed and the same on every node
+                    return raftLog.getCurrentTerm() + " false " + Math.min(raftLog.lastIndex(), prevLogIndex - 1);
+                }
+
+                for (LogEntry entry : newEntries) {
+                    if (entry.getIndex() <= raftLog.getBaseIndex()) {
+                        matchIndex = entry.getIndex();
+                        continue;
+                    }
+                    if (entry.getIndex() <= raftLog.lastIndex()) {
+                        if (raftLog.termAt(entry.getIndex()) == entry.getTerm()) {
+                            matchIndex = entry.getIndex();
+                            continue;
+                        }
+                        deleteContents(entry.getIndex(), raftLog.lastIndex());
+                        raftLog.truncate(entry.getIndex());
+                    }
+                    Path received = receivedContents.remove(entry.getIndex());
+                    if (received != null) {
+                        Files.move(received, contentFile(entry.getIndex()), StandardCopyOption.REPLACE_EXISTING);
+                    } else if (entry.isUpload()) {
+                        // an upload is never stored without the bytes it wrote, the leader sends them again
+                        logger.warn("Entry {} arrived without its content, not stored", entry.getIndex());
+                        break;
+                    }
+                    count = raftLog.append(entry);
+                    matchIndex = entry.getIndex();
+                }
+                if (leaderCommit > commitIndex) {
+                    commitIndex = Math.max(commitIndex, Math.min(leaderCommit, matchIndex));
+                    lock.notifyAll();
+                }
+            }
+            raftLog.sync(count);
+            return term + " true " + matchIndex;
+        } finally {
+            for (Path received : receivedContents.values()) {
+                deleteIfExists(received);
+            }
+        }
+    }
+
+    /**
+     * @return role, term, id of the leader, commit index and last applied index of this node separated by spaces
+     */
+    public String getStatus() {
+        synchronized (lock) {
+            return String.join(" ", role.name(), String.valueOf(raftLog.getCurrentTerm()), String.valueOf(leaderId),
+                    String.valueOf(commitIndex), String.valueOf(raftLog.getLastApplied()));
+        }
+    }
+
+    /**
+     * @return true while this node installs a snapshot or applies the entries committed before it installed one,
+     * its storage is missing mutations meanwhile
+     */
+    public boolean isCatchingUp() {
+        synchronized (lock) {
+            return raftLog.getLastApplied() < Math.max(raftLog.getBaseIndex(), catchUpIndex);
+        }
+    }
+
+    private void checkElectionTimeout() {
+        long term;
+        long count;
+        long lastLogIndex;
+        long lastLogTerm;
+        synchronized (lock) {
+            if (role == Role.LEADER || System.currentTimeMillis() < electionDeadline) {
+                return;
+            }
+            term = raftLog.getCurrentTerm() + 1;
+            role = Role.CANDIDATE;
+            leaderId = null;
+            count = raftLog.setTerm(term, nodeId);
+            resetElectionDeadline();
+            lastLogIndex = raftLog.lastIndex();
+            lastLogTerm = raftLog.lastTerm();
+        }
+        // the vote for itself is on disk before any peer is asked, without stalling appends and heartbeats meanwhile
+        raftLog.sync(count);
+        startElection(term, lastLogIndex, lastLogTerm);
+    }
+
+    /**
+     * ask every peer for its vote in a term this node already voted for itself in.
+     */
+    private void startElection(long term, long lastLogIndex, long lastLogTerm) {
+        logger.info("Starting election for term {}", term);
+        if (quorum() == 1) {
+            synchronized (lock) {
+                if (role == Role.CANDIDATE && raftLog.getCurrentTerm() == term) {
+                    becomeLeader();
+                }
+            }
+            return;
+        }
+        AtomicInteger votes = new AtomicInteger(1);
+        for (String peer : progress.keySet()) {
+            executor.execute(() -> {
+                try {
+                    HttpPost request = new HttpPost(new URIBuilder(peer + "/raft/vote")
+                            .addParameter("term", String.valueOf(term))
+                            .addParameter("candidateId", nodeId)
+                            .addParameter("lastLogIndex", String.valueOf(lastLogIndex))
+                            .addParameter("lastLogTerm", String.valueOf(lastLogTerm))
+                            .build());
+                    request.setConfig(RequestConfig.custom()
+                            .setResponseTimeout(Timeout.ofMilliseconds(properties.getElectionTimeoutMillis()))
+                            .build());
+                    String[] response = peerClient.executeForString(request).trim().split(" ");
+                    long count = 0;
+                    synchronized (lock) {
+                        long peerTerm = Long.parseLong(response[0]);
+                        if (peerTerm > raftLog.getCurrentTerm()) {
+                            count = stepDown(peerTerm);
+                        } else if (Boolean.parseBoolean(response[1]) && votes.incrementAndGet() == quorum()
+                                && role == Role.CANDIDATE && raftLog.getCurrentTerm() == term) {
+                            becomeLeader();
+                        }
+                    }
+                    raftLog.sync(count);
+                } catch (IOException | URISyntaxException | RuntimeException e) {
+                    logger.debug("Vote request to {} failed: {}", peer, e.toString());
+                }
+            });
+        }
+    }
+
+    private void becomeLeader() {
+        role = Role.LEADER;
+        leaderId = nodeId;
+        durableIndex = 0;
+        long nextIndex = raftLog.lastIndex() + 1;
+        termStartIndex = nextIndex;
+        for (Progress peer : progress.values()) {
+            peer.nextIndex = nextIndex;
+            peer.matchIndex = 0;
+            peer.retryAt = 0;
+            peer.nextHeartbeat = 0;
+        }
+        // an entry of the new term, committing it commits the entries of earlier terms
+        raftLog.append(new LogEntry(nextIndex, raftLog.getCurrentTerm(), null, System.currentTimeMillis(), null, null));
+        logger.info("Elected leader for term {}", raftLog.getCurrentTerm());
+        lock.notifyAll();
+    }
+
+    /**
+     * follow the leader of a newer term, mutations waiting for this node as leader fail.
+     *
+     * @return number of log lines to sync before answering
+     */
+    private long stepDown(long term) {
+        long count = 0;
+        if (term > raftLog.getCurrentTerm()) {
+            count = raftLog.setTerm(term, null);
+        }
+        if (role == Role.LEADER) {
+            logger.info("Stepping down as leader, term {} started", term);
+            for (CompletableFuture<TransactionResponse> result : pendingResults.values()) {
+                result.complete(TXN_FAILED);
+            }
+            pendingResults.clear();
+        }
+        role = Role.FOLLOWER;
+        resetElectionDeadline();
+        lock.notifyAll();
+        return count;
+    }
+
+    /**
+     * send the entries a peer misses, or a heartbeat when it misses nothing, for as long as this node leads.
+     */
+    private void replicateTo(String peer) {
+        Progress peerProgress = progress.get(peer);
+        while (running) {
+            long term;
+            long prevLogIndex;
+            long prevLogTerm;
+            long leaderCommit;
+            boolean reset = false;
+            List<LogEntry> entries;
+            synchronized (lock) {
+                try {
+                    long waitMillis;
+                    while (running && (waitMillis = millisUntilSend(peerProgress)) != 0) {
+                        lock.wait(Math.max(waitMillis, 0));
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (!running) {
+                    return;
+                }
+                term = raftLog.getCurrentTerm();
+                prevLogIndex = peerProgress.nextIndex - 1;
+                if (prevLogIndex < raftLog.getBaseIndex()) {
+                    reset = true;
+                    prevLogIndex = raftLog.getBaseIndex();
+                }
+                entries = raftLog.entries(prevLogIndex + 1, properties.getMaxEntriesPerMessage());
+                int missing;
+                while ((missing = firstWithoutContent(entries)) == 0) {
+                    // an entry is never sent without the bytes it wrote, the peer copies the storage of a node that applied it
+                    logger.warn("Content of entry {} is missing, {} installs a snapshot instead", entries.get(0).getIndex(), peer);
+                    reset = true;
+                    prevLogIndex = entries.get(0).getIndex();
+                    entries = raftLog.entries(prevLogIndex + 1, properties.getMaxEntriesPerMessage());
+                }
+                if (missing > 0) {
+                    entries = entries.subList(0, missing);
+                }
+                prevLogTerm = raftLog.termAt(prevLogIndex);
+                leaderCommit = commitIndex;
+                peerProgress.nextHeartbeat = System.currentTimeMillis() + properties.getHeartbeatMillis();
+            }
+            try {
+                String[] response = sendAppend(peer, term, prevLogIndex, prevLogTerm, leaderCommit, reset, entries).trim().split(" ");
+                synchronized (lock) {
+                    long peerTerm = Long.parseLong(response[0]);
+                    long index = Long.parseLong(response[2]);
+                    if (peerTerm > raftLog.getCurrentTerm()) {
+                        raftLog.sync(stepDown(peerTerm));
+                    } else if (role == Role.LEADER && raftLog.getCurrentTerm() == term) {
+                        if (Boolean.parseBoolean(response[1])) {
+                            peerProgress.matchIndex = Math.max(peerProgress.matchIndex, index);
+                            peerProgress.nextIndex = peerProgress.matchIndex + 1;
+                            peerProgress.sentCommit = Math.max(peerProgress.sentCommit, leaderCommit);
+                            advanceCommitIndex();
+                        } else {
+                            peerProgress.nextIndex = Math.max(1, Math.min(peerProgress.nextIndex - 1, index + 1));
+                        }
+                    }
+                }
+            } catch (IOException | URISyntaxException | RuntimeException e) {
+                logger.debug("Append to {} failed: {}", peer, e.toString());
+                synchronized (lock) {
+                    peerProgress.retryAt = System.currentTimeMillis() + properties.getHeartbeatMillis();
+                }
+            }
+        }
+    }
+
+    /**
+     * make the entries the leader appended durable on this node and count them as stored here,
+     * the leader is one of the majority without sending its entries to itself.
+     */
+    private void syncOwnLog() {
+        while (running) {
+            long term;
+            long index;
+            synchronized (lock) {
+                try {
+                    while (running && (role != Role.LEADER || durableIndex >= raftLog.lastIndex())) {
+                        lock.wait();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (!running) {
+                    return;
+                }
+                term = raftLog.getCurrentTerm();
+                index = raftLog.lastIndex();
+            }
+            // appends go on meanwhile, the next round makes them durable
+            raftLog.flush();
+            synchronized (lock) {
+                if (role == Role.LEADER && raftLog.getCurrentTerm() == term) {
+                    durableIndex = Math.max(durableIndex, index);
+                    advanceCommitIndex();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 0 if a message should be sent to the peer now, otherwise how long to wait, negative to wait for a change
+     */
+    private long millisUntilSend(Progress peer) {
+        if (role != Role.LEADER) {
+            return -1;
+        }
+        long now = System.currentTimeMillis();
+        if (now < peer.retryAt) {
+            return peer.retryAt - now;
+        }
+        if (peer.nextIndex <= raftLog.lastIndex() || peer.sentCommit < commitIndex || now >= peer.nextHeartbeat) {
+            return 0;
+        }
+        return peer.nextHeartbeat - now;
+    }
+
+    private String sendAppend(String peer, long term, long prevLogIndex, long prevLogTerm, long leaderCommit,
+                              boolean reset, List<LogEntry> entries) throws IOException, URISyntaxException {
+        HttpPost request = new HttpPost(new URIBuilder(peer + "/raft/append")
+                .addParameter("term", String.valueOf(term))
+                .addParameter("leaderId", nodeId)
+                .addParameter("prevLogIndex", String.valueOf(prevLogIndex))
+                .addParameter("prevLogTerm", String.valueOf(prevLogTerm))
+                .addParameter("leaderCommit", String.valueOf(leaderCommit))
+                .addParameter("reset", String.valueOf(reset))
+                .build());
+        MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+        builder.addTextBody("entries", entries.stream().map(LogEntry::toLine).collect(Collectors.joining("\n")), ContentType.TEXT_PLAIN);
+        for (LogEntry entry : entries) {
+            if (entry.isUpload()) {
+                // compacted away meanwhile if the file is gone, the message fails and the next one resets the follower
+                File content = contentFile(entry.getIndex()).toFile();
+                builder.addPart(codec.filePart("content", content, ContentType.DEFAULT_BINARY, String.valueOf(entry.getIndex())));
+            }
+        }
+        request.setEntity(builder.build());
+        return peerClient.executeForString(request);
+    }
+
+    /**
+     * commit the last entry of the current term that a majority stored, with every entry before it.
+     */
+    private void advanceCommitIndex() {
+        for (long index = raftLog.lastIndex(); index > commitIndex; index--) {
+            if (raftLog.termAt(index) != raftLog.getCurrentTerm()) {
+                return;
+            }
+            int stored = durableIndex >= index ? 1 : 0;
+            for (Progress peer : progress.values()) {
+                if (peer.matchIndex >= index) {
+                    stored++;
+                }
+            }
+            if (stored >= quorum()) {
+                commitIndex = index;
+                lock.notifyAll();
+                return;
+            }
+        }
+    }
+
+    /**
+     * apply committed entries to the storage in log order and report the results to waiting mutations.
+     */
+    private void applyCommitted() {
+        while (running) {
+            List<LogEntry> batch;
+            long baseIndex;
+            synchronized (lock) {
+                try {
+                    while (running && raftLog.getLastApplied() >= commitIndex) {
+                        lock.wait();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (!running) {
+                    return;
+                }
+                long lastApplied = raftLog.getLastApplied();
+                baseIndex = raftLog.getBaseIndex();
+                batch = lastApplied < baseIndex ? Collections.emptyList()
+                        : raftLog.entries(lastApplied + 1, (int) Math.min(commitIndex - lastApplied, APPLY_BATCH));
+            }
+            if (raftLog.getLastApplied() < baseIndex) {
+                // installed on this thread, so no entry is applied while the storage is replaced
+                installSnapshot(baseIndex);
+                continue;
+            }
+            if (batch.isEmpty()) {
+                continue;
+            }
+            Map<Long, TransactionResponse> results = new HashMap<>();
+            for (LogEntry entry : batch) {
+                results.put(entry.getIndex(), apply(entry));
+            }
+            raftLog.sync(raftLog.setApplied(batch.get(batch.size() - 1).getIndex()));
+            synchronized (lock) {
+                for (Map.Entry<Long, TransactionResponse> result : results.entrySet()) {
+                    CompletableFuture<TransactionResponse> pending = pendingResults.remove(result.getKey());
+                    if (pending != null) {
+                        pending.complete(result.getValue());
+                    }
+                }
+                // a new leader waits for the entries of earlier terms before it admits mutations
+                lock.notifyAll();
+            }
+            long compactedIndex = raftLog.getBaseIndex();
+            raftLog.compact(properties.getLogRetention());
+            deleteContents(compactedIndex + 1, raftLog.getBaseIndex());
+        }
+    }
+
+    /**
+     * make the storage reflect every entry up to the base index of the log, the entries after it are applied next.
+     * the node keeps trying while no peer that applied the base index can be reached.
+     */
+    private void installSnapshot(long baseIndex) {
+        if (!snapshot.install(baseIndex)) {
+            try {
+                Thread.sleep(properties.getElectionTimeoutMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+        long count;
+        synchronized (lock) {
+            count = raftLog.setApplied(Math.max(raftLog.getLastApplied(), baseIndex));
+            catchUpIndex = commitIndex;
+        }
+        raftLog.sync(count);
+    }
+
+    private TransactionResponse apply(LogEntry entry) {
+        if (entry.getOperation() == null) {
+            return TXN_SUCCESS;
+        }
+        // every node refuses the older holders of the lock, whichever node leads next
+        fencingTokens.committed(entry.getOperation(), entry.getPath(), entry.getFileName(), entry.getFencingToken());
+        Path link = null;
+        try {
+            switch (entry.getOperation()) {
+                case UPLOAD:
+                case UPLOAD_MANIFEST:
+                    Path content = contentFile(entry.getIndex());
+                    if (!Files.exists(content)) {
+                        logger.warn("Content of entry {} is missing, {} is not written", entry.getIndex(), entry.getFilePath());
+                        return TXN_FAILED;
+                    }
+                    // every replica reports the same Last-Modified, so range requests can be spread over replicas
+                    Files.setLastModifiedTime(content, FileTime.fromMillis(entry.getTimestamp()));
+                    // the content stays for followers catching up, stored files are replaced and never written in place
+                    link = contentLocation.resolve("apply-" + entry.getIndex()).toAbsolutePath();
+                    Files.deleteIfExists(link);
+                    try {
+                        Files.createLink(link, content);
+                    } catch (UnsupportedOperationException | FileSystemException e) {
+                        Files.copy(content, link, StandardCopyOption.COPY_ATTRIBUTES);
+                    }
+                    storageService.store(entry.getPath(), entry.getFileName(), link);
+                    break;
+                case CREATE_DIR:
+                    storageService.createDirectoryByPath(entry.getPath());
+                    break;
+                case DELETE_DIR:
+                    storageService.deleteDirectoryByPath(entry.getPath());
+                    break;
+                case DELETE_FILE:
+                    storageService.deleteFileByPath(entry.getPath());
+                    break;
+            }
+            return TXN_SUCCESS;
+        } catch (StorageException | IOException e) {
+            logger.warn("Entry {} failed: {}", entry.getIndex(), e.getMessage());
+            return TXN_FAILED;
+        } finally {
+            deleteIfExists(link);
+        }
+    }
+
+    private int quorum() {
+        return nodeServerUrls.length / 2 + 1;
+    }
+
+    private void resetElectionDeadline() {
+        int timeout = properties.getElectionTimeoutMillis();
+        electionDeadline = System.currentTimeMillis() + timeout + ThreadLocalRandom.current().nextInt(timeout);
+    }
+
+    private Path contentFile(long index) {
+        return contentLocation.resolve(String.valueOf(index)).toAbsolutePath();
+    }
+
+    /**
+     * @return position of the first upload whose content is not next to the log, -1 if every content is
+     */
+    private int firstWithoutContent(List<LogEntry> entries) {
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.get(i).isUpload() && !Files.exists(contentFile(entries.get(i).getIndex()))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isContentOfLoggedEntry(Path file) {
+        try {
+            long index = Long.parseLong(file.getFileName().toString());
+            return index > raftLog.getBaseIndex() && index <= raftLog.lastIndex();
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * delete the contents of the entries from an index up to another, both included.
+     */
+    private void deleteContents(long fromIndex, long toIndex) {
+        for (long index = fromIndex; index <= toIndex; index++) {
+            deleteIfExists(contentFile(index));
+        }
+    }
+
+    private static void deleteIfExists(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Could not delete {}", file, e);
+        }
+    }
+
+    /**
+     * replication state of one peer, as seen by the leader
+     */
+    private static class Progress {
+        /**
+         * index of the next entry to send
+         */
+        private long nextIndex = 1;
+        /**
+         * index of the last entry known to be stored on the peer
+         */
+        private long matchIndex;
+        /**
+         * commit index last sent to the peer
+         */
+        private long sentCommit;
+        private long nextHeartbeat;
+        private long retryAt;
+    }
+}
@@ -0,0 +1,249 @@
+package com.example.uploadingfiles.raft;
+
+import com.example.uploadingfiles.placement.Placement;
+import com.example.uploadingfiles.replication.PeerClient;
+import com.example.uploadingfiles.replication.PeerStatusException;
+import com.example.uploadingfiles.storage.StorageException;
+import com.example.uploadingfiles.storage.StorageService;
+import com.example.uploadingfiles.transaction.FencingTokens;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
+import org.apache.hc.core5.net.URIBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static com.example.uploadingfiles.transaction.GroupCommitLog.decodeField;
+import static com.example.uploadingfiles.transaction.GroupCommitLog.encodeField;
+
+/**
+ * Rebuilds the storage of a follower that fell behind the entries the leader still holds, from a peer that applied them.
+ * The namespace of the peer is listed with the index it applied before the listing started, the follower deletes
+ * what the peer does not have and downloads the files that differ, then applies the entries after its new base index.
+ *
+ * The listing is not taken at a single index, files may already reflect later entries. Every entry after the base
+ * index is applied again over it and every entry replaces, creates or deletes a path as a whole, so once the follower
+ * applied the entries up to the index of the peer at the end of the transfer its storage is the same as the peer's.
+ * The fencing tokens of the peer come with the listing, the entries compacted away no longer carry them.
+ */
+@Component
+@ConditionalOnProperty(name = "replication.mode", havingValue = "raft")
+public class RaftSnapshot {
+
+    private static final Logger logger = LoggerFactory.getLogger(RaftSnapshot.class);
+
+    private static final String DIRECTORY = "D";
+    private static final String FILE = "F";
+    private static final String TOKEN = "T";
+
+    private final RaftLog raftLog;
+    private final StorageService storageService;
+    private final PeerClient peerClient;
+    private final Placement placement;
+    private final FencingTokens fencingTokens;
+
+    @Autowired
+    public RaftSnapshot(RaftLog raftLog, StorageService storageService, PeerClient peerClient, Placement placement,
+                        FencingTokens fencingTokens) {
+        this.raftLog = raftLog;
+        this.fencingTokens = fencingTokens;
+        this.storageService = storageService;
+        this.peerClient = peerClient;
+        this.placement = placement;
+    }
+
+    /**
+     * list the namespace of this node for a follower.
+     *
+     * @return the index this node applied on the first line, then its fencing tokens, then one directory or file per line,
+     * parents first
+     */
+    public String list() {
+        StringBuilder body = new StringBuilder();
+        body.append(raftLog.getLastApplied()).append('\n');
+        for (String token : fencingTokens.export()) {
+            body.append(TOKEN).append(' ').append(token).append('\n');
+        }
+        for (Map.Entry<String, Entry> entry : walk().entrySet()) {
+            body.append(entry.getValue().format(entry.getKey())).append('\n');
+        }
+        return body.toString();
+    }
+
+    /**
+     * make the storage of this node the same as the storage of a peer that applied every entry up to an index.
+     *
+     * @param baseIndex index of the last entry the storage must reflect
+     * @return false if no peer that applied the entry could be reached
+     */
+    public boolean install(long baseIndex) {
+        for (String peer : placement.getNodes()) {
+            if (peer.equals(placement.getSelf())) {
+                continue;
+            }
+            try {
+                String[] lines = peerClient.executeForString(new HttpGet(new URIBuilder(peer + "/raft/snapshot").build())).split("\n");
+                long applied = Long.parseLong(lines[0].trim());
+                if (applied < baseIndex) {
+                    logger.debug("{} applied up to {}, not up to {}", peer, applied, baseIndex);
+                    continue;
+                }
+                NavigableMap<String, Entry> theirs = new TreeMap<>();
+                List<String> tokens = new ArrayList<>();
+                for (int i = 1; i < lines.length; i++) {
+                    if (lines[i].startsWith(TOKEN + " ")) {
+                        tokens.add(lines[i].substring(TOKEN.length() + 1));
+                    } else if (!lines[i].isEmpty()) {
+                        Map.Entry<String, Entry> entry = Entry.parse(lines[i]);
+                        theirs.put(entry.getKey(), entry.getValue());
+                    }
+                }
+                fencingTokens.merge(tokens);
+                copyFrom(peer, theirs);
+                logger.info("Installed the storage of {}, applied up to {}", peer, applied);
+                return true;
+            } catch (PeerStatusException e) {
+                // the peer is installing a snapshot itself
+                logger.debug("No snapshot from {}: {}", peer, e.getMessage());
+            } catch (IOException | StorageException | NumberFormatException e) {
+                logger.warn("Could not install the storage of {}", peer, e);
+            } catch (URISyntaxException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return false;
+    }
+
+    private void copyFrom(String peer, NavigableMap<String, Entry> theirs) throws IOException {
+        NavigableMap<String, Entry> mine = walk();
+        // content first, so a directory is deleted after what is in it
+        for (Map.Entry<String, Entry> entry : mine.descendingMap().entrySet()) {
+            Entry their = theirs.get(entry.getKey());
+            if (their != null && their.directory == entry.getValue().directory) {
+                continue;
+            }
+            if (entry.getValue().directory) {
+                storageService.deleteDirectoryByPath(entry.getKey());
+            } else {
+                storageService.deleteFileByPath(entry.getKey());
+            }
+        }
+        // parents sort before their content
+        for (Map.Entry<String, Entry> entry : theirs.entrySet()) {
+            Entry their = entry.getValue();
+            Entry my = mine.get(entry.getKey());
+            if (their.directory) {
+                if (my == null || !my.directory) {
+                    storageService.createDirectoryByPath(entry.getKey());
+                }
+            } else if (my == null || my.directory || my.time != their.time || my.size != their.size) {
+                pull(peer, entry.getKey(), their);
+            }
+        }
+    }
+
+    /**
+     * download a file from a peer and store it with the modification time it has there.
+     */
+    private void pull(String peer, String path, Entry their) throws IOException {
+        int slash = path.lastIndexOf('/');
+        String folder = slash == 0 ? "/" : path.substring(0, slash);
+        Path download = Files.createTempFile("raft-snapshot-", null);
+        try {
+            HttpGet request = new HttpGet(new URIBuilder(peer + "/files").addParameter("path", path).build());
+            try (CloseableHttpResponse response = peerClient.open(request)) {
+                Files.copy(response.getEntity().getContent(), download, StandardCopyOption.REPLACE_EXISTING);
+            } catch (PeerStatusException e) {
+                if (e.getStatus() == 404) {
+                    // deleted on the peer since the listing, an entry after the base index deletes it here too
+                    return;
+                }
+                throw e;
+            }
+            Files.setLastModifiedTime(download, FileTime.fromMillis(their.time));
+            storageService.store(folder, path.substring(slash + 1), download);
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        } finally {
+            Files.deleteIfExists(download);
+        }
+    }
+
+    /**
+     * @return every directory and file of the storage by path, the root excluded
+     */
+    private NavigableMap<String, Entry> walk() {
+        NavigableMap<String, Entry> entries = new TreeMap<>();
+        List<String> directories = new ArrayList<>();
+        directories.add("/");
+        while (!directories.isEmpty()) {
+            String directory = directories.remove(directories.size() - 1);
+            List<String> names = new ArrayList<>();
+            try {
+                storageService.loadAllByPath(directory).forEach(name -> names.add(name.toString()));
+            } catch (NoSuchFileException | StorageException e) {
+                // deleted meanwhile
+                continue;
+            }
+            for (String name : names) {
+                String path = directory.equals("/") ? "/" + name : directory + "/" + name;
+                if (storageService.isDirectory(path)) {
+                    entries.put(path, new Entry(true, 0, 0));
+                    directories.add(path);
+                } else {
+                    try {
+                        Resource resource = storageService.loadAsResource(path);
+                        entries.put(path, new Entry(false, resource.lastModified(), resource.contentLength()));
+                    } catch (IOException | StorageException e) {
+                        // deleted meanwhile
+                    }
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * a directory, or a file with its modification time and size
+     */
+    private static class Entry {
+        private final boolean directory;
+        private final long time;
+        private final long size;
+
+        Entry(boolean directory, long time, long size) {
+            this.directory = directory;
+            this.time = time;
+            this.size = size;
+        }
+
+        String format(String path) {
+            return directory ? DIRECTORY + " " + encodeField(path)
+                    : String.join(" ", FILE, encodeField(path), String.valueOf(time), String.valueOf(size));
+        }
+
+        static Map.Entry<String, Entry> parse(String line) {
+            String[] values = line.split(" ");
+            Entry entry = DIRECTORY.equals(values[0]) ? new Entry(true, 0, 0)
+                    : new Entry(false, Long.parseLong(values[2]), Long.parseLong(values[3]));
+            return new AbstractMap.SimpleImmutableEntry<>(decodeField(values[1]), entry);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.example.uploadingfiles.replication;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.hc.client5.http.ConnectTimeoutException;
+import org.apache.hc.client5.http.HttpHostConnectException;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.metrics.http.Outcome;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Http client shared by all messages sent to peers.
+ * Connections to peers are pooled and kept alive between transactions.
+ * Every request is timed by peer, route and outcome as peer.requests, requests that time out are also counted
+ * as peer.timeouts.
+ */
+@Component
+public class PeerClient {
+
+    /**
+     * routes of the requests sent to peers, a segment in braces stands for any id
+     */
+    private static final List<String> ROUTES = Arrays.asList(
+            "/dirs", "/files", "/shards", "/chunks/missing",
+            "/transactions", "/transactions/{txnId}",
+            "/raft/vote", "/raft/append", "/raft/snapshot",
+            "/catch-up/journal", "/anti-entropy/tree", "/anti-entropy/entries");
+
+    private final CloseableHttpClient httpClient;
+    private final MeterRegistry registry;
+
+    @Autowired
+    public PeerClient(ReplicationProperties properties, MeterRegistry registry) {
+        this.registry = registry;
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(Timeout.ofMilliseconds(properties.getConnectTimeoutMillis()))
+                .setResponseTimeout(Timeout.ofMilliseconds(properties.getPeerTimeoutMillis()))
+                .build();
+
+        this.httpClient = HttpClients.custom()
+                .setConnectionManager(PoolingHttpClientConnectionManagerBuilder.create()
+                        .setMaxConnPerRoute(properties.getThreads())
+                        .setMaxConnTotal(properties.getThreads() * 4)
+                        .build())
+                .setDefaultRequestConfig(requestConfig)
+                .build();
+    }
+
+    /**
+     * send a request to a peer and discard the response body.
+     *
+     * @param request request to send
+     * @return status code of the response
+     * @throws IOException if the peer cannot be reached
+     */
+    public int execute(ClassicHttpRequest request) throws IOException {
+        long start = System.nanoTime();
+        try {
+            int status = httpClient.execute(request, response -> {
+                EntityUtils.consume(response.getEntity());
+                return response.getCode();
+            });
+            record(request, start, Outcome.forStatus(status).name());
+            return status;
+        } catch (IOException e) {
+            record(request, start, e);
+            throw e;
+        }
+    }
+
+    /**
+     * send a request to a peer and read the response body.
+     *
+     * @param request request to send
+     * @return body of the response
+     * @throws IOException if the peer cannot be reached or does not answer with a success status
+     */
+    public String executeForString(ClassicHttpRequest request) throws IOException {
+        long start = System.nanoTime();
+        try {
+            String result = httpClient.execute(request, response -> {
+                String body = response.getEntity() == null ? "" : EntityUtils.toString(response.getEntity());
+                if (response.getCode() >= 300) {
+                    throw new PeerStatusException(response.getCode(), "Peer answered " + response.getCode() + ": " + body);
+                }
+                return body;
+            });
+            record(request, start, Outcome.SUCCESS.name());
+            return result;
+        } catch (IOException e) {
+            record(request, start, e);
+            throw e;
+        }
+    }
+
+    /**
+     * send a request to a peer and keep the response open, so its body can be streamed.
+     *
+     * @param request request to send
+     * @return the response, the caller must close it
+     * @throws IOException if the peer cannot be reached or does not answer with a success status
+     */
+    public CloseableHttpResponse open(ClassicHttpRequest request) throws IOException {
+        long start = System.nanoTime();
+        CloseableHttpResponse response;
+        try {
+            response = httpClient.execute(request);
+        } catch (IOException e) {
+            record(request, start, e);
+            throw e;
+        }
+        // timed until the headers arrived, the body is streamed by the caller
+        record(request, start, Outcome.forStatus(response.getCode()).name());
+        if (response.getCode() >= 300) {
+            response.close();
+            throw new PeerStatusException(response.getCode(), "Peer answered " + response.getCode());
+        }
+        return response;
+    }
+
+    private void record(ClassicHttpRequest request, long start, IOException e) {
+        if (e instanceof PeerStatusException) {
+            record(request, start, Outcome.forStatus(((PeerStatusException) e).getStatus()).name());
+        } else if (e instanceof ConnectTimeoutException || e instanceof SocketTimeoutException) {
+            record(request, start, "TIMEOUT");
+            Counter.builder("peer.timeouts")
+                    .description("Requests to peers that timed out connecting or waiting for the response")
+                    .tag("peer", peer(request))
+                    .tag("phase", e instanceof ConnectTimeoutException ? "connect" : "response")
+                    .register(registry)
+                    .increment();
+        } else if (e instanceof HttpHostConnectException) {
+            record(request, start, "CONNECT_ERROR");
+        } else {
+            record(request, start, "IO_ERROR");
+        }
+    }
+
+    private void record(ClassicHttpRequest request, long start, String outcome) {
+        Timer.builder("peer.requests")
+                .description("Round trip of requests to peers")
+                .tag("peer", peer(request))
+                .tag("uri", uri(request))
+                .tag("outcome", outcome)
+                .register(registry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private static String peer(ClassicHttpRequest request) {
+        return request.getScheme() + "://" + request.getAuthority();
+    }
+
+    /**
+     * route template of a request, so ids in paths do not make new series.
+     * a path that matches none of the routes peers are sent to is tagged UNKNOWN.
+     */
+    static String uri(ClassicHttpRequest request) {
+        String path = request.getPath();
+        int end = path.indexOf('?');
+        if (end >= 0) {
+            path = path.substring(0, end);
+        }
+        String[] segments = path.split("/", -1);
+        for (String route : ROUTES) {
+            if (matches(route.split("/", -1), segments)) {
+                return route;
+            }
+        }
+        return "UNKNOWN";
+    }
+
+    private static boolean matches(String[] route, String[] segments) {
+        if (route.length != segments.length) {
+            return false;
+        }
+        for (int i = 0; i < route.length; i++) {
+            if (!route[i].startsWith("{") && !route[i].equals(segments[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        httpClient.close();
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.uploadingfiles.replication;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a peer answers with a status that is not a success.
+ */
+public class PeerStatusException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int status;
+
+	public PeerStatusException(int status, String message) {
+		super(message);
+		this.status = status;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+}
@@ -0,0 +1,234 @@
+package com.example.uploadingfiles.replication;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Sends one message to every peer at the same time and waits for a majority.
+ * The caller is released as soon as a quorum of peers acknowledged the message,
+ * or as soon as enough peers failed that a quorum can no longer be reached.
+ * Peers that have not answered yet keep running in the background.
+ * The depth of the queue of messages waiting for a thread is published as executor.queued with name=replication.
+ */
+@Component
+public class ReplicationDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReplicationDispatcher.class);
+
+    private final ThreadPoolExecutor executor;
+    private final long quorumTimeoutMillis;
+    private final Counter rejected;
+    private final Timer quorumReached;
+    private final Timer quorumMissed;
+    private final Timer quorumInterrupted;
+    private final Timer quorumTimedOut;
+
+    @Autowired
+    public ReplicationDispatcher(ReplicationProperties properties, MeterRegistry registry) {
+        AtomicInteger threadCounter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(properties.getThreads(), properties.getThreads(),
+                60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(properties.getQueueCapacity()),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "replication-" + threadCounter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+        this.quorumTimeoutMillis = properties.getConnectTimeoutMillis() + properties.getPeerTimeoutMillis();
+        new ExecutorServiceMetrics(executor, "replication", Tags.empty()).bindTo(registry);
+        this.rejected = Counter.builder("replication.rejected")
+                .description("Messages to peers dropped because the replication queue was full")
+                .register(registry);
+        this.quorumReached = quorumTimer(registry, "quorum");
+        this.quorumMissed = quorumTimer(registry, "no-quorum");
+        this.quorumInterrupted = quorumTimer(registry, "interrupted");
+        this.quorumTimedOut = quorumTimer(registry, "timeout");
+    }
+
+    private static Timer quorumTimer(MeterRegistry registry, String outcome) {
+        return Timer.builder("replication.quorum")
+                .description("Time a mutation waited for enough of its replicas")
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    /**
+     * send a message to all peers concurrently.
+     *
+     * @param peers urls of the peers
+     * @param call  sends the message to one peer, returns true if the peer acknowledged it
+     * @return true if a majority of the peers acknowledged the message
+     */
+    public boolean dispatch(String[] peers, PeerCall call) {
+        return dispatch(peers, call, () -> {
+        });
+    }
+
+    /**
+     * send a message to all peers concurrently.
+     *
+     * @param peers      urls of the peers
+     * @param call       sends the message to one peer, returns true if the peer acknowledged it
+     * @param onComplete runs once every peer has answered or failed, which may be after this method returned
+     * @return true if a majority of the peers acknowledged the message
+     */
+    public boolean dispatch(String[] peers, PeerCall call, Runnable onComplete) {
+        return dispatch(peers, call, onComplete, quorumTimeoutMillis);
+    }
+
+    /**
+     * send a message that may take peers longer than usual to all peers concurrently.
+     *
+     * @param peers         urls of the peers
+     * @param call          sends the message to one peer, returns true if the peer acknowledged it
+     * @param onComplete    runs once every peer has answered or failed, which may be after this method returned
+     * @param timeoutMillis how long to wait for a majority of the peers
+     * @return true if a majority of the peers acknowledged the message
+     */
+    public boolean dispatch(String[] peers, PeerCall call, Runnable onComplete, long timeoutMillis) {
+        return dispatch(peers, peers.length / 2 + 1, call, onComplete, timeoutMillis);
+    }
+
+    /**
+     * send a message to all peers concurrently and wait for a given number of them.
+     *
+     * @param peers         urls of the peers
+     * @param quorum        number of peers that must acknowledge the message
+     * @param call          sends the message to one peer, returns true if the peer acknowledged it
+     * @param onComplete    runs once every peer has answered or failed, which may be after this method returned
+     * @param timeoutMillis how long to wait for the quorum
+     * @return true if the quorum acknowledged the message
+     */
+    public boolean dispatch(String[] peers, int quorum, PeerCall call, Runnable onComplete, long timeoutMillis) {
+        long start = System.nanoTime();
+        int allowedFailures = peers.length - quorum;
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        AtomicInteger acks = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        AtomicInteger finished = new AtomicInteger();
+
+        for (String peer : peers) {
+            Runnable task = () -> {
+                boolean ack;
+                try {
+                    ack = call.send(peer);
+                } catch (Exception e) {
+                    logger.warn("Message to {} failed: {}", peer, e.toString());
+                    ack = false;
+                }
+                if (ack) {
+                    if (acks.incrementAndGet() >= quorum) {
+                        result.complete(true);
+                    }
+                } else if (failures.incrementAndGet() > allowedFailures) {
+                    result.complete(false);
+                }
+                if (finished.incrementAndGet() == peers.length) {
+                    onComplete.run();
+                }
+            };
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                logger.warn("Message to {} rejected, replication queue is full", peer);
+                rejected.increment();
+                if (failures.incrementAndGet() > allowedFailures) {
+                    result.complete(false);
+                }
+                if (finished.incrementAndGet() == peers.length) {
+                    onComplete.run();
+                }
+            }
+        }
+
+        return await(result, start, timeoutMillis);
+    }
+
+    /**
+     * send a message to all peers concurrently and wait until their answers are enough,
+     * used when the peers do not all receive the same mutations so a majority of them is not a quorum.
+     *
+     * @param peers         urls of the peers
+     * @param call          sends the message to one peer, returns true if the peer acknowledged it
+     * @param enough        checked after every acknowledgement, true once the acknowledgements so far are enough
+     * @param onComplete    runs once every peer has answered or failed, which may be after this method returned
+     * @param timeoutMillis how long to wait for enough acknowledgements
+     * @return true if the acknowledgements were enough before every peer answered and before the timeout
+     */
+    public boolean dispatchUntil(String[] peers, PeerCall call, BooleanSupplier enough, Runnable onComplete, long timeoutMillis) {
+        long start = System.nanoTime();
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        AtomicInteger finished = new AtomicInteger();
+        Runnable finish = () -> {
+            if (finished.incrementAndGet() == peers.length) {
+                result.complete(enough.getAsBoolean());
+                onComplete.run();
+            }
+        };
+
+        for (String peer : peers) {
+            Runnable task = () -> {
+                try {
+                    if (call.send(peer) && enough.getAsBoolean()) {
+                        result.complete(true);
+                    }
+                } catch (Exception e) {
+                    logger.warn("Message to {} failed: {}", peer, e.toString());
+                }
+                finish.run();
+            };
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                logger.warn("Message to {} rejected, replication queue is full", peer);
+                rejected.increment();
+                finish.run();
+            }
+        }
+
+        return await(result, start, timeoutMillis);
+    }
+
+    /**
+     * wait for the answers of the peers and time the wait as replication.quorum by outcome.
+     */
+    private boolean await(CompletableFuture<Boolean> result, long start, long timeoutMillis) {
+        Timer outcome;
+        try {
+            outcome = result.get(timeoutMillis, TimeUnit.MILLISECONDS) ? quorumReached : quorumMissed;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            outcome = quorumInterrupted;
+        } catch (ExecutionException | TimeoutException e) {
+            outcome = quorumTimedOut;
+        }
+        outcome.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return outcome == quorumReached;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * a message sent to a single peer
+     */
+    @FunctionalInterface
+    public interface PeerCall {
+        boolean send(String peerUrl) throws Exception;
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.uploadingfiles.replication;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@ConfigurationProperties("replication")
+public class ReplicationProperties {
+
+	/**
+	 * How mutations are replicated, "2pc" runs a two phase commit per mutation on the node that received it,
+	 * "raft" appends them to a log replicated by an elected leader
+	 */
+	private String mode = "2pc";
+
+	/**
+	 * Number of threads sending messages to peers
+	 */
+	private int threads = 16;
+
+	/**
+	 * Number of peer messages that may wait for a free thread
+	 */
+	private int queueCapacity = 256;
+
+	/**
+	 * Milliseconds to wait for a tcp connection to a peer
+	 */
+	private int connectTimeoutMillis = 1000;
+
+	/**
+	 * Milliseconds to wait for the response of a single peer
+	 */
+	private int peerTimeoutMillis = 10000;
+
+	/**
+	 * Slowest rate in bytes per second a file is expected to reach a peer at,
+	 * the proposal of a file may take a peer timeout plus the time to send the file at this rate
+	 */
+	private long minTransferBytesPerSecond = 8 * 1024 * 1024;
+
+	/**
+	 * Milliseconds a coordinator waits for more mutations to replicate them in one round, 0 to replicate every mutation on its own
+	 */
+	private int batchWindowMillis = 2;
+
+	/**
+	 * Largest number of mutations replicated in one round
+	 */
+	private int batchMaxOperations = 64;
+
+	/**
+	 * Largest total size in bytes of the files uploaded in one round, larger files are replicated on their own
+	 */
+	private long batchMaxBytes = 1024 * 1024;
+
+	/**
+	 * Milliseconds between messages of the leader to idle followers
+	 */
+	private int heartbeatMillis = 200;
+
+	/**
+	 * Milliseconds without a message from the leader before a follower starts an election,
+	 * every node waits a random time between this and twice this
+	 */
+	private int electionTimeoutMillis = 1000;
+
+	/**
+	 * Folder location for the replicated log
+	 */
+	private String logLocation = "replication-log";
+
+	/**
+	 * Size in bytes the replicated log file may reach before it is compacted
+	 */
+	private long logMaxBytes = 16 * 1024 * 1024;
+
+	/**
+	 * Number of applied entries kept in the replicated log for followers that fall behind, with the contents of their uploads,
+	 * a follower further behind installs the storage of a peer
+	 */
+	private int logRetention = 10000;
+
+	/**
+	 * Largest number of log entries sent to a follower in one message, a follower has to receive and store
+	 * a message within the election timeout, uploads included
+	 */
+	private int maxEntriesPerMessage = 64;
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	public int getConnectTimeoutMillis() {
+		return connectTimeoutMillis;
+	}
+
+	public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+		this.connectTimeoutMillis = connectTimeoutMillis;
+	}
+
+	public int getPeerTimeoutMillis() {
+		return peerTimeoutMillis;
+	}
+
+	public void setPeerTimeoutMillis(int peerTimeoutMillis) {
+		this.peerTimeoutMillis = peerTimeoutMillis;
+	}
+
+	public String getMode() {
+		return mode;
+	}
+
+	public void setMode(String mode) {
+		this.mode = mode;
+	}
+
+	public int getHeartbeatMillis() {
+		return heartbeatMillis;
+	}
+
+	public void setHeartbeatMillis(int heartbeatMillis) {
+		this.heartbeatMillis = heartbeatMillis;
+	}
+
+	public int getElectionTimeoutMillis() {
+		return electionTimeoutMillis;
+	}
+
+	public void setElectionTimeoutMillis(int electionTimeoutMillis) {
+		this.electionTimeoutMillis = electionTimeoutMillis;
+	}
+
+	public String getLogLocation() {
+		return logLocation;
+	}
+
+	public void setLogLocation(String logLocation) {
+		this.logLocation = logLocation;
+	}
+
+	public long getLogMaxBytes() {
+		return logMaxBytes;
+	}
+
+	public void setLogMaxBytes(long logMaxBytes) {
+		this.logMaxBytes = logMaxBytes;
+	}
+
+	public int getLogRetention() {
+		return logRetention;
+	}
+
+	public void setLogRetention(int logRetention) {
+		this.logRetention = logRetention;
+	}
+
+	public int getMaxEntriesPerMessage() {
+		return maxEntriesPerMessage;
+	}
+
+	public void setMaxEntriesPerMessage(int maxEntriesPerMessage) {
+		this.maxEntriesPerMessage = maxEntriesPerMessage;
+	}
+
+	public int getBatchWindowMillis() {
+		return batchWindowMillis;
+	}
+
+	public void setBatchWindowMillis(int batchWindowMillis) {
+		this.batchWindowMillis = batchWindowMillis;
+	}
+
+	public int getBatchMaxOperations() {
+		return batchMaxOperations;
+	}
+
+	public void setBatchMaxOperations(int batchMaxOperations) {
+		this.batchMaxOperations = batchMaxOperations;
+	}
+
+	public long getBatchMaxBytes() {
+		return batchMaxBytes;
+	}
+
+	public void setBatchMaxBytes(long batchMaxBytes) {
+		this.batchMaxBytes = batchMaxBytes;
+	}
+
+	public long getMinTransferBytesPerSecond() {
+		return minTransferBytesPerSecond;
+	}
+
+	public void setMinTransferBytesPerSecond(long minTransferBytesPerSecond) {
+		this.minTransferBytesPerSecond = minTransferBytesPerSecond;
+	}
+}
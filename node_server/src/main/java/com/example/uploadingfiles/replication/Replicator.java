@@ -0,0 +1,31 @@
+package com.example.uploadingfiles.replication;
+
+import com.example.uploadingfiles.transaction.Transaction;
+import com.example.uploadingfiles.transaction.TransactionResponse;
+
+import java.util.List;
+
+/**
+ * Replicates mutations received from the central server to every node.
+ * The implementation is picked by replication.mode.
+ */
+public interface Replicator {
+
+    /**
+     * replicate a mutation to the nodes, this node included.
+     * the file of an upload and its delta are owned by the replicator from now on and deleted once they are no longer needed.
+     *
+     * @param txn mutation to replicate
+     * @return TXN_SUCCESS if the mutation was committed, otherwise why it was not
+     */
+    TransactionResponse replicate(Transaction txn);
+
+    /**
+     * replicate several mutations as one operation, they are applied in order and either all of them or none.
+     * the files of the uploads are owned by the replicator from now on.
+     *
+     * @param txns mutations to replicate, an upload may go to a directory created by an earlier mutation
+     * @return TXN_SUCCESS if every mutation was committed, otherwise why they were not
+     */
+    TransactionResponse replicateAll(List<Transaction> txns);
+}
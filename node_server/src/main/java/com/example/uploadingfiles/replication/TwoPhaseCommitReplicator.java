@@ -0,0 +1,485 @@
+package com.example.uploadingfiles.replication;
+
+import com.example.uploadingfiles.compression.GzipCodec;
+import com.example.uploadingfiles.dedup.ChunkTransfer;
+import com.example.uploadingfiles.dedup.Manifest;
+import com.example.uploadingfiles.erasure.ShardTransfer;
+import com.example.uploadingfiles.mode.Mode;
+import com.example.uploadingfiles.placement.Placement;
+import com.example.uploadingfiles.storage.StorageException;
+import com.example.uploadingfiles.transaction.FencingTokens;
+import com.example.uploadingfiles.transaction.Operation;
+import com.example.uploadingfiles.transaction.Transaction;
+import com.example.uploadingfiles.transaction.TransactionBatch;
+import com.example.uploadingfiles.transaction.TransactionLog;
+import com.example.uploadingfiles.transaction.TransactionRecord;
+import com.example.uploadingfiles.transaction.TransactionRecord.Phase;
+import com.example.uploadingfiles.transaction.TransactionResponse;
+import org.apache.hc.client5.http.classic.methods.HttpDelete;
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.entity.mime.MultipartEntityBuilder;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.apache.hc.core5.net.URIBuilder;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static com.example.uploadingfiles.mode.Mode.ABORT;
+import static com.example.uploadingfiles.mode.Mode.COMMIT;
+import static com.example.uploadingfiles.mode.Mode.PROPOSE;
+import static com.example.uploadingfiles.transaction.TransactionResponse.TXN_FAILED;
+import static com.example.uploadingfiles.transaction.TransactionResponse.TXN_PROPOSE_FAILED;
+import static com.example.uploadingfiles.transaction.TransactionResponse.TXN_SUCCESS;
+
+/**
+ * Replicates mutations with a two phase commit, coordinated by the node that received them.
+ * The coordinator sends PROPOSE to the nodes holding the path of the mutation and COMMIT once a majority
+ * of them accepted, so each round costs two round trips but any node can coordinate.
+ *
+ * Mutations arriving within a short window are replicated in one round as a {@link TransactionBatch}.
+ * The first mutation opens the batch and its thread replicates the batch once the window passed
+ * or the batch is full, every caller then gets the result of its own mutation.
+ * Large files and deduplicated files are replicated on their own.
+ * When files are erasure coded the coordinator splits every file and each replica only gets its own shard.
+ * A file rebuilt from a delta is sent as the delta, a replica that holds another version of the file
+ * answers 412 Precondition Failed and gets the whole file.
+ */
+@Component
+@ConditionalOnProperty(name = "replication.mode", havingValue = "2pc", matchIfMissing = true)
+public class TwoPhaseCommitReplicator implements Replicator {
+
+    private final ReplicationDispatcher replicationDispatcher;
+    private final Placement placement;
+    private final PeerClient peerClient;
+    private final TransactionLog transactionLog;
+    private final int batchWindowMillis;
+    private final int batchMaxOperations;
+    private final long batchMaxBytes;
+    private final long quorumTimeoutMillis;
+    private final int connectTimeoutMillis;
+    private final int peerTimeoutMillis;
+    private final long minTransferBytesPerSecond;
+
+    /**
+     * guards the open batch
+     */
+    private final Object batchLock = new Object();
+    /**
+     * batch that still takes mutations, null if none is open
+     */
+    private TransactionBatch openBatch;
+    /**
+     * sends files to peers as chunks, null unless storage.mode is dedup
+     */
+    private final ChunkTransfer chunkTransfer;
+    /**
+     * splits files into shards, null unless storage.mode is erasure
+     */
+    private final ShardTransfer shardTransfer;
+    private final GzipCodec codec;
+
+    @Autowired
+    public TwoPhaseCommitReplicator(ReplicationDispatcher replicationDispatcher, PeerClient peerClient,
+                                    TransactionLog transactionLog, ObjectProvider<ChunkTransfer> chunkTransfer,
+                                    ObjectProvider<ShardTransfer> shardTransfer,
+                                    ReplicationProperties properties, Placement placement, GzipCodec codec) {
+        this.replicationDispatcher = replicationDispatcher;
+        this.codec = codec;
+        this.placement = placement;
+        this.peerClient = peerClient;
+        this.transactionLog = transactionLog;
+        this.chunkTransfer = chunkTransfer.getIfAvailable();
+        this.shardTransfer = shardTransfer.getIfAvailable();
+        this.batchWindowMillis = properties.getBatchWindowMillis();
+        this.batchMaxOperations = properties.getBatchMaxOperations();
+        this.batchMaxBytes = properties.getBatchMaxBytes();
+        // the proposal and the commit of a mutation replicated alone may both take a full peer timeout
+        this.quorumTimeoutMillis = 2L * (properties.getConnectTimeoutMillis() + properties.getPeerTimeoutMillis());
+        this.connectTimeoutMillis = properties.getConnectTimeoutMillis();
+        this.peerTimeoutMillis = properties.getPeerTimeoutMillis();
+        this.minTransferBytesPerSecond = properties.getMinTransferBytesPerSecond();
+    }
+
+    @Override
+    public TransactionResponse replicate(Transaction txn) {
+        if (!isBatchable(txn)) {
+            return replicateAlone(txn);
+        }
+        TransactionBatch batch;
+        CompletableFuture<TransactionResponse> result;
+        boolean opened = false;
+        synchronized (batchLock) {
+            if (openBatch == null || openBatch.getBytes() + fileSize(txn) > batchMaxBytes) {
+                // a full batch is closed by the thread that notices, its opener replicates it
+                batchLock.notifyAll();
+                openBatch = new TransactionBatch();
+                opened = true;
+            }
+            batch = openBatch;
+            result = batch.add(txn);
+            if (batch.size() >= batchMaxOperations) {
+                openBatch = null;
+                batchLock.notifyAll();
+            }
+        }
+        if (opened) {
+            awaitBatch(batch);
+            replicateBatch(batch, false);
+        }
+        try {
+            // a batch of replicate calls holds at most batchMaxOperations mutations, both of its phases may run out
+            return result.get(batchWindowMillis + 2 * phaseTimeoutMillis(batchMaxOperations), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return TXN_FAILED;
+        } catch (ExecutionException | TimeoutException e) {
+            return TXN_FAILED;
+        }
+    }
+
+    /**
+     * replicate the mutations in one round, they are only committed if a majority accepted every one of them.
+     */
+    @Override
+    public TransactionResponse replicateAll(List<Transaction> txns) {
+        TransactionBatch batch = new TransactionBatch();
+        List<CompletableFuture<TransactionResponse>> results = new ArrayList<>();
+        for (Transaction txn : txns) {
+            results.add(batch.add(txn));
+        }
+        replicateBatch(batch, true);
+        // every mutation got the same decision, the results only differ if peers failed to apply some
+        for (CompletableFuture<TransactionResponse> result : results) {
+            TransactionResponse response = result.getNow(TXN_FAILED);
+            if (response != TXN_SUCCESS) {
+                return response;
+            }
+        }
+        return TXN_SUCCESS;
+    }
+
+    private TransactionResponse replicateAlone(Transaction txn) {
+        if (!sendProposeMessage(txn)) {
+            sendAbortMessage(txn);
+            return TXN_PROPOSE_FAILED;
+        }
+        if (!sendCommitMessage(txn)) {
+            return TXN_FAILED;
+        }
+        return TXN_SUCCESS;
+    }
+
+    private boolean isBatchable(Transaction txn) {
+        if (batchWindowMillis <= 0) {
+            return false;
+        }
+        // a deduplicated file sends its manifest and chunks with a message of its own, a delta may be followed by the file
+        return txn.getFile() == null || chunkTransfer == null && txn.getDelta() == null && fileSize(txn) <= batchMaxBytes;
+    }
+
+    private static long fileSize(Transaction txn) {
+        return txn.getFile() == null ? 0 : txn.getFile().length();
+    }
+
+    /**
+     * wait until the window of a batch passed or the batch was closed because it is full.
+     */
+    private void awaitBatch(TransactionBatch batch) {
+        long deadline = System.currentTimeMillis() + batchWindowMillis;
+        synchronized (batchLock) {
+            long remaining;
+            while (openBatch == batch && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                try {
+                    batchLock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            if (openBatch == batch) {
+                openBatch = null;
+            }
+        }
+    }
+
+    /**
+     * replicate a batch in one round: every replica votes on each of its mutations, a mutation a majority
+     * of its replicas accepted is committed, the others are aborted, and one message per peer carries
+     * all the decisions.
+     *
+     * @param atomic true to abort every mutation of the batch if one of them is not accepted
+     */
+    private void replicateBatch(TransactionBatch batch, boolean atomic) {
+        List<Transaction> txns = batch.getTransactions();
+        long responseTimeoutMillis = responseTimeoutMillis(txns.size());
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(Timeout.ofMilliseconds(connectTimeoutMillis))
+                .setResponseTimeout(Timeout.ofMilliseconds(responseTimeoutMillis))
+                .build();
+        Map<String, Map<String, File>> shards = encode(txns);
+        try {
+            Map<String, List<Transaction>> peerTxns = new LinkedHashMap<>();
+            Map<String, AtomicInteger> votes = new HashMap<>();
+            for (Transaction txn : txns) {
+                for (String replica : placement.getReplicas(txn)) {
+                    peerTxns.computeIfAbsent(replica, peer -> new ArrayList<>()).add(txn);
+                }
+                votes.put(txn.getId(), new AtomicInteger());
+            }
+            String[] peers = peerTxns.keySet().toArray(new String[0]);
+            boolean allAccepted = replicationDispatcher.dispatchUntil(peers, peer -> {
+                HttpPost request = new HttpPost(new URIBuilder(peer + "/transactions")
+                        .addParameter("mode", String.valueOf(PROPOSE))
+                        .build());
+                request.setConfig(requestConfig);
+                MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+                builder.addTextBody("records", toLines(peerTxns.get(peer), Phase.PROPOSE), ContentType.TEXT_PLAIN.withCharset(StandardCharsets.UTF_8));
+                for (Transaction txn : peerTxns.get(peer)) {
+                    if (txn.getFile() != null) {
+                        builder.addPart(codec.filePart(txn.getId(), fileFor(txn, peer, shards), ContentType.DEFAULT_BINARY, txn.getFileName()));
+                    }
+                }
+                request.setEntity(builder.build());
+                for (String txnId : peerClient.executeForString(request).trim().split(" ")) {
+                    AtomicInteger accepted = votes.get(txnId);
+                    if (accepted != null) {
+                        accepted.incrementAndGet();
+                    }
+                }
+                return true;
+            }, () -> hasQuorum(txns, votes), () -> deleteFiles(txns, shards), phaseTimeoutMillis(txns.size()));
+
+            // decided on the votes of the peers that answered first, a late vote cannot change the decision
+            List<Transaction> committed = new ArrayList<>();
+            Map<String, TransactionRecord> decisions = new HashMap<>();
+            List<TransactionRecord> commitDecisions = new ArrayList<>();
+            for (Transaction txn : txns) {
+                boolean commit = atomic ? allAccepted : hasQuorum(Collections.singletonList(txn), votes);
+                if (commit) {
+                    committed.add(txn);
+                    commitDecisions.add(new TransactionRecord(Phase.COMMIT, txn.getId(), null, txn.getTimestamp(), null, null));
+                } else {
+                    transactionLog.abort(txn.getId());
+                    batch.complete(txn.getId(), TXN_PROPOSE_FAILED);
+                }
+                decisions.put(txn.getId(), toRecord(txn, commit ? Phase.COMMIT : Phase.ABORT));
+            }
+            transactionLog.logAll(commitDecisions);
+            Map<String, AtomicInteger> acks = new HashMap<>();
+            for (Transaction txn : txns) {
+                acks.put(txn.getId(), new AtomicInteger());
+            }
+            boolean acknowledged = replicationDispatcher.dispatchUntil(peers, peer -> {
+                HttpPost request = new HttpPost(new URIBuilder(peer + "/transactions")
+                        .addParameter("mode", String.valueOf(COMMIT))
+                        .build());
+                request.setConfig(requestConfig);
+                request.setEntity(new StringEntity(peerTxns.get(peer).stream().map(txn -> decisions.get(txn.getId()).toLine())
+                        .collect(Collectors.joining("\n")), ContentType.TEXT_PLAIN.withCharset(StandardCharsets.UTF_8)));
+                if (peerClient.execute(request) != 201) {
+                    return false;
+                }
+                for (Transaction txn : peerTxns.get(peer)) {
+                    acks.get(txn.getId()).incrementAndGet();
+                }
+                return true;
+            }, () -> hasQuorum(committed, acks), () -> {
+            }, phaseTimeoutMillis(txns.size()));
+            for (Transaction txn : committed) {
+                batch.complete(txn.getId(), acknowledged ? TXN_SUCCESS : TXN_FAILED);
+            }
+        } finally {
+            batch.completeAll(TXN_FAILED);
+        }
+    }
+
+    /**
+     * a bulk operation is much larger than a batch of concurrent mutations, peers get a timeout per full batch.
+     *
+     * @return how long a peer may take to answer one phase of a batch of that many mutations
+     */
+    private long responseTimeoutMillis(int size) {
+        return (long) peerTimeoutMillis * (1 + size / batchMaxOperations);
+    }
+
+    /**
+     * @return how long one phase of a batch of that many mutations waits for its quorum
+     */
+    private long phaseTimeoutMillis(int size) {
+        return connectTimeoutMillis + responseTimeoutMillis(size);
+    }
+
+    /**
+     * @return true if a quorum of the replicas of every mutation answered
+     */
+    private boolean hasQuorum(List<Transaction> txns, Map<String, AtomicInteger> answers) {
+        for (Transaction txn : txns) {
+            if (answers.get(txn.getId()).get() < placement.getQuorum(txn)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * split the files of uploads into a shard per replica when files are erasure coded.
+     *
+     * @return shard files by transaction id and peer url, empty unless storage.mode is erasure
+     */
+    private Map<String, Map<String, File>> encode(List<Transaction> txns) {
+        Map<String, Map<String, File>> shards = new HashMap<>();
+        if (shardTransfer == null) {
+            return shards;
+        }
+        try {
+            for (Transaction txn : txns) {
+                if (txn.getFile() != null) {
+                    shards.put(txn.getId(), shardTransfer.encode(txn.getFile(), txn.getId(), placement.getReplicas(txn)));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            deleteFiles(txns, shards);
+            throw new StorageException("Failed to encode file.", e);
+        }
+        return shards;
+    }
+
+    private HttpEntity fileEntity(Transaction txn, String peer, Map<String, Map<String, File>> shards) throws IOException {
+        MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+        builder.addPart(codec.filePart("file", fileFor(txn, peer, shards), ContentType.DEFAULT_BINARY, txn.getFileName()));
+        return builder.build();
+    }
+
+    /**
+     * @return the file a peer gets for an upload, its own shard when files are erasure coded
+     */
+    private static File fileFor(Transaction txn, String peer, Map<String, Map<String, File>> shards) {
+        Map<String, File> txnShards = shards.get(txn.getId());
+        return txnShards == null ? txn.getFile() : txnShards.get(peer);
+    }
+
+    private static void deleteFiles(List<Transaction> txns, Map<String, Map<String, File>> shards) {
+        for (Transaction txn : txns) {
+            if (txn.getFile() != null) {
+                txn.getFile().delete();
+            }
+            if (txn.getDelta() != null) {
+                txn.getDelta().delete();
+            }
+        }
+        for (Map<String, File> txnShards : shards.values()) {
+            txnShards.values().forEach(File::delete);
+        }
+    }
+
+    private static String toLines(List<Transaction> txns, Phase phase) {
+        return txns.stream().map(txn -> toRecord(txn, phase).toLine()).collect(Collectors.joining("\n"));
+    }
+
+    private static TransactionRecord toRecord(Transaction txn, Phase phase) {
+        return new TransactionRecord(phase, txn.getId(), txn.getOperation(), txn.getTimestamp(), txn.getPath(), txn.getFileName(),
+                txn.getFencingToken());
+    }
+
+    private boolean sendProposeMessage(Transaction txn) {
+        Manifest manifest = null;
+        if (chunkTransfer != null && txn.getFile() != null) {
+            try {
+                manifest = chunkTransfer.describe(txn.getFile());
+            } catch (IOException e) {
+                throw new StorageException("Failed to read file.", e);
+            }
+        }
+        Manifest fileManifest = manifest;
+        List<Transaction> txns = Collections.singletonList(txn);
+        Map<String, Map<String, File>> shards = encode(txns);
+        return replicationDispatcher.dispatch(placement.getReplicas(txn), placement.getQuorum(txn), peer -> {
+            HttpUriRequestBase request = buildMessage(peer, txn, PROPOSE);
+            if (fileManifest != null) {
+                request.setEntity(chunkTransfer.buildProposeEntity(peer, txn.getFile(), txn.getFileName(), fileManifest));
+            } else if (txn.getDelta() != null && !shards.containsKey(txn.getId())) {
+                MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+                builder.addPart(codec.filePart("delta", txn.getDelta(), ContentType.DEFAULT_BINARY, txn.getFileName()));
+                request.setEntity(builder.build());
+                int status = peerClient.execute(request);
+                if (status != HttpStatus.SC_PRECONDITION_FAILED) {
+                    return status == 200;
+                }
+                // the peer holds another version of the file
+                request = buildMessage(peer, txn, PROPOSE);
+                request.setEntity(fileEntity(txn, peer, shards));
+            } else if (txn.getFile() != null) {
+                request.setEntity(fileEntity(txn, peer, shards));
+            }
+            int status = peerClient.execute(request);
+            return isDelete(txn) ? status < 300 : status == 200;
+        }, () -> deleteFiles(txns, shards), proposeTimeoutMillis(txn));
+    }
+
+    /**
+     * the PROPOSE message of an upload carries the file, a large file takes longer than a peer timeout to reach the peers.
+     *
+     * @return milliseconds the peers have to accept a mutation
+     */
+    private long proposeTimeoutMillis(Transaction txn) {
+        return quorumTimeoutMillis / 2 + fileSize(txn) * 1000 / minTransferBytesPerSecond;
+    }
+
+    private boolean sendCommitMessage(Transaction txn) {
+        transactionLog.commit(txn.getId());
+        return replicationDispatcher.dispatch(placement.getReplicas(txn), placement.getQuorum(txn), peer -> {
+            int status = peerClient.execute(buildMessage(peer, txn, COMMIT));
+            return isDelete(txn) ? status < 300 : status == 201;
+        }, () -> {
+        }, quorumTimeoutMillis / 2);
+    }
+
+    private boolean sendAbortMessage(Transaction txn) {
+        transactionLog.abort(txn.getId());
+        return replicationDispatcher.dispatch(placement.getReplicas(txn), peer ->
+                peerClient.execute(buildMessage(peer, txn, ABORT)) < 300);
+    }
+
+    private static boolean isDelete(Transaction txn) {
+        return txn.getOperation() == Operation.DELETE_DIR || txn.getOperation() == Operation.DELETE_FILE;
+    }
+
+    private static HttpUriRequestBase buildMessage(String peer, Transaction txn, Mode mode) throws URISyntaxException {
+        String endpoint = txn.getOperation() == Operation.CREATE_DIR || txn.getOperation() == Operation.DELETE_DIR ? "/dirs" : "/files";
+        URIBuilder uriBuilder = new URIBuilder(peer + endpoint);
+        uriBuilder.addParameter("path", txn.getPath());
+        uriBuilder.addParameter("mode", String.valueOf(mode));
+        uriBuilder.addParameter("txnId", txn.getId());
+        uriBuilder.addParameter("timestamp", String.valueOf(txn.getTimestamp()));
+        if (txn.getFencingToken() != FencingTokens.NONE) {
+            uriBuilder.addParameter("fencingToken", String.valueOf(txn.getFencingToken()));
+        }
+        URI uri = uriBuilder.build();
+        return isDelete(txn) ? new HttpDelete(uri) : new HttpPost(uri);
+    }
+}
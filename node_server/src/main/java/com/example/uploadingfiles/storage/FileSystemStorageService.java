@@ -1,29 +1,66 @@
 package com.example.uploadingfiles.storage;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.UrlResource;
 import org.springframework.stereotype.Service;
 import org.springframework.util.FileSystemUtils;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.annotation.PostConstruct;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.nio.file.*;
+import java.util.List;
 import java.util.Objects;
 import java.util.stream.Stream;
 
+/**
+ * Stores files in a folder on disk.
+ * The folder tree is mirrored in a NamespaceIndex, listings and existence checks
+ * are answered from the index without touching the disk.
+ */
 @Service
+@ConditionalOnProperty(name = "storage.mode", havingValue = "filesystem", matchIfMissing = true)
 public class FileSystemStorageService implements StorageService {
 
-    private final Path rootLocation;
+    protected final Path rootLocation;
+    protected final NamespaceIndex index = new NamespaceIndex();
+    protected StorageMetrics metrics = StorageMetrics.NONE;
 
     @Autowired
     public FileSystemStorageService(StorageProperties properties) {
         this.rootLocation = Paths.get(properties.getLocation());
     }
 
+    /**
+     * follow the changes of the index, set before the index is loaded.
+     */
+    @Autowired(required = false)
+    public void setNamespaceListener(NamespaceIndex.Listener listener) {
+        index.setListener(listener);
+    }
+
+    @Autowired(required = false)
+    public void setMetrics(StorageMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * create the storage folder and load its content into the index before any request is served.
+     */
+    @PostConstruct
+    public void loadIndex() {
+        init();
+        try {
+            index.rebuild(rootLocation);
+        } catch (IOException e) {
+            throw new StorageException("Could not index storage", e);
+        }
+    }
+
     @Override
     public void store(MultipartFile file) {
         try {
@@ -39,9 +76,10 @@ public class FileSystemStorageService implements StorageService {
                         "Cannot store file outside current directory.");
             }
             try (InputStream inputStream = file.getInputStream()) {
-                Files.copy(inputStream, destinationFile,
-                        StandardCopyOption.REPLACE_EXISTING);
+                metrics.wrote(Files.copy(inputStream, destinationFile,
+                        StandardCopyOption.REPLACE_EXISTING));
             }
+            index.addFile(Paths.get(destinationFile.getFileName().toString()));
         } catch (IOException e) {
             throw new StorageException("Failed to store file.", e);
         }
@@ -59,16 +97,43 @@ public class FileSystemStorageService implements StorageService {
                     .normalize()
                     .toAbsolutePath();
 
-            if (!Files.exists(folderPath)) {
+            if (!isDirectory(path)) {
                 throw new StorageException("Folder doesn't exist");
             }
 
             Path destinationFile = folderPath.resolve(Paths.get(Objects.requireNonNull(file.getOriginalFilename())));
 
             try (InputStream inputStream = file.getInputStream()) {
-                Files.copy(inputStream, destinationFile,
-                        StandardCopyOption.REPLACE_EXISTING);
+                metrics.wrote(Files.copy(inputStream, destinationFile,
+                        StandardCopyOption.REPLACE_EXISTING));
             }
+            index.addFile(relativize(load(path)).resolve(destinationFile.getFileName()));
+        } catch (IOException e) {
+            throw new StorageException("Failed to store file.", e);
+        }
+    }
+
+    @Override
+    public void store(String path, String fileName, Path source) {
+        try {
+            Path folderPath = load(path)
+                    .normalize()
+                    .toAbsolutePath();
+
+            if (!isDirectory(path)) {
+                throw new StorageException("Folder doesn't exist");
+            }
+
+            Path destinationFile = folderPath.resolve(Paths.get(fileName).getFileName());
+
+            try {
+                Files.move(source, destinationFile,
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(source, destinationFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            metrics.wrote(Files.size(destinationFile));
+            index.addFile(relativize(load(path)).resolve(destinationFile.getFileName()));
         } catch (IOException e) {
             throw new StorageException("Failed to store file.", e);
         }
@@ -79,6 +144,7 @@ public class FileSystemStorageService implements StorageService {
         try {
             Path path = load(dirPath);
             Files.createDirectories(path);
+            index.addDirectory(relativize(path));
         } catch (IOException e) {
             throw new StorageException("Failed to create directory.", e);
         }
@@ -90,13 +156,14 @@ public class FileSystemStorageService implements StorageService {
         try {
             Path path = load(dirPath);
 
-            if (!Files.exists(path)) {
+            if (!index.exists(relativize(path))) {
                 throw new StorageException("Directory doesn't exist.");
             }
-            if (!Files.isDirectory(path)) {
+            if (!index.isDirectory(relativize(path))) {
                 throw new StorageException(dirPath + " is not a directory");
             }
             Files.deleteIfExists(path);
+            index.remove(relativize(path));
         } catch (IOException e) {
             throw new StorageException("Failed to delete directory.", e);
         }
@@ -105,24 +172,21 @@ public class FileSystemStorageService implements StorageService {
 
     @Override
     public Stream<Path> loadAllByPath(String rootPath) throws NoSuchFileException {
-        try {
-            if (!rootPath.startsWith("/")) {
-                throw new StorageException("Path should start with /");
-            }
-
-            Path dirPath = load(rootPath);
+        if (!rootPath.startsWith("/")) {
+            throw new StorageException("Path should start with /");
+        }
 
-            if (!Files.isDirectory(dirPath)) {
-                throw new StorageException("This is not a directory");
-            }
-            return Files.walk(dirPath, 1)
-                    .filter(path -> !path.equals(dirPath))
-                    .map(dirPath::relativize);
-        } catch (NoSuchFileException nfe) {
-            throw nfe;
-        } catch (IOException e) {
-            throw new StorageException("Failed to read stored files", e);
+        List<String> names = index.list(relativize(load(rootPath)));
+        if (names == null) {
+            throw new StorageException("This is not a directory");
         }
+        metrics.listed(names.size());
+        return names.stream().map(Paths::get);
+    }
+
+    @Override
+    public boolean isDirectory(String dirPath) {
+        return index.isDirectory(relativize(load(dirPath)));
     }
 
 
@@ -146,9 +210,12 @@ public class FileSystemStorageService implements StorageService {
         try {
             Path file = load(filePath);
 
-            if (Files.isDirectory(file)) {
+            if (index.isDirectory(relativize(file))) {
                 throw new StorageException("Cannot download a folder");
             }
+            if (!index.exists(relativize(file))) {
+                throw new StorageFileNotFoundException("Could not read file: " + filePath);
+            }
             Resource resource = new UrlResource(file.toUri());
             if (resource.exists() || resource.isReadable()) {
                 return resource;
@@ -166,13 +233,14 @@ public class FileSystemStorageService implements StorageService {
     public void deleteFileByPath(String filePath) {
         try {
             Path path = load(filePath);
-            if (!Files.exists(path)) {
+            if (!index.exists(relativize(path))) {
                 throw new StorageException("File doesn't exist.");
             }
-            if (Files.isDirectory(path)) {
+            if (index.isDirectory(relativize(path))) {
                 throw new StorageException(filePath + " is not a file");
             }
             Files.deleteIfExists(path);
+            index.remove(relativize(path));
         } catch (IOException e) {
             throw new StorageException("Failed to delete directory.", e);
         }
@@ -181,6 +249,14 @@ public class FileSystemStorageService implements StorageService {
     @Override
     public void deleteAll() {
         FileSystemUtils.deleteRecursively(rootLocation.toFile());
+        index.clear();
+    }
+
+    /**
+     * path of an entry returned by load, relative to the root location.
+     */
+    protected Path relativize(Path entryPath) {
+        return rootLocation.normalize().relativize(entryPath);
     }
 
     @Override
@@ -0,0 +1,228 @@
+package com.example.uploadingfiles.storage;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * In-memory tree of the files and directories under the storage root.
+ * Every directory keeps its entries in a concurrent sorted map, so listings and
+ * existence checks are answered from memory while mutations are applied concurrently.
+ * Paths are given relative to the storage root, the empty path is the root itself.
+ */
+public class NamespaceIndex {
+
+    private volatile Entry root = Entry.directory();
+    private volatile Listener listener = Listener.NONE;
+
+    /**
+     * told about every change of the index, in the order the changes were made.
+     * calls are made on the thread changing the index, so they must return quickly.
+     */
+    public interface Listener {
+        Listener NONE = new Listener() {
+        };
+
+        /**
+         * a file was added or replaced.
+         */
+        default void fileAdded(Path path) {
+        }
+
+        /**
+         * a directory was added, its missing parents are added as well without a call of their own.
+         */
+        default void directoryAdded(Path path) {
+        }
+
+        /**
+         * a file or a directory with everything under it was removed.
+         */
+        default void removed(Path path) {
+        }
+
+        /**
+         * every entry was removed, the entries of a rebuilt index follow.
+         */
+        default void reset() {
+        }
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener == null ? Listener.NONE : listener;
+    }
+
+    /**
+     * replace the index with the current content of a folder on disk.
+     *
+     * @param rootLocation storage root
+     * @throws IOException if the folder cannot be read
+     */
+    public void rebuild(Path rootLocation) throws IOException {
+        Entry newRoot = Entry.directory();
+        List<Path> files = new ArrayList<>();
+        List<Path> directories = new ArrayList<>();
+        if (Files.isDirectory(rootLocation)) {
+            Files.walkFileTree(rootLocation, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (!dir.equals(rootLocation)) {
+                        put(newRoot, rootLocation.relativize(dir), Entry.directory());
+                        directories.add(rootLocation.relativize(dir));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    put(newRoot, rootLocation.relativize(file), attrs.isDirectory() ? Entry.directory() : Entry.FILE);
+                    (attrs.isDirectory() ? directories : files).add(rootLocation.relativize(file));
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        root = newRoot;
+        listener.reset();
+        directories.forEach(listener::directoryAdded);
+        files.forEach(listener::fileAdded);
+    }
+
+    /**
+     * remove every entry.
+     */
+    public void clear() {
+        root = Entry.directory();
+        listener.reset();
+    }
+
+    /**
+     * add a directory and all its missing parents.
+     *
+     * @param path path of the directory
+     */
+    public void addDirectory(Path path) {
+        Entry entry = root;
+        for (Path name : path) {
+            if (name.toString().isEmpty()) {
+                continue;
+            }
+            Entry child = entry.children.computeIfAbsent(name.toString(), key -> Entry.directory());
+            if (!child.isDirectory()) {
+                Entry directory = Entry.directory();
+                entry.children.put(name.toString(), directory);
+                child = directory;
+            }
+            entry = child;
+        }
+        listener.directoryAdded(path);
+    }
+
+    /**
+     * add a file, replacing an entry with the same name.
+     *
+     * @param path path of the file
+     */
+    public void addFile(Path path) {
+        put(root, path, Entry.FILE);
+        listener.fileAdded(path);
+    }
+
+    /**
+     * remove a file or a directory with everything under it.
+     *
+     * @param path path of the entry
+     */
+    public void remove(Path path) {
+        Entry parent = find(path.getParent());
+        if (parent != null && parent.isDirectory() && path.getFileName() != null) {
+            if (parent.children.remove(path.getFileName().toString()) != null) {
+                listener.removed(path);
+            }
+        }
+    }
+
+    public boolean exists(Path path) {
+        return find(path) != null;
+    }
+
+    public boolean isDirectory(Path path) {
+        Entry entry = find(path);
+        return entry != null && entry.isDirectory();
+    }
+
+    /**
+     * get the names of the entries of a directory in sorted order.
+     *
+     * @param path path of the directory
+     * @return names of the entries, or null if there is no directory at the path
+     */
+    public List<String> list(Path path) {
+        Entry entry = find(path);
+        if (entry == null || !entry.isDirectory()) {
+            return null;
+        }
+        return new ArrayList<>(entry.children.keySet());
+    }
+
+    private Entry find(Path path) {
+        Entry entry = root;
+        if (path == null) {
+            return entry;
+        }
+        for (Path name : path) {
+            if (name.toString().isEmpty()) {
+                continue;
+            }
+            if (!entry.isDirectory()) {
+                return null;
+            }
+            entry = entry.children.get(name.toString());
+            if (entry == null) {
+                return null;
+            }
+        }
+        return entry;
+    }
+
+    private static void put(Entry root, Path path, Entry value) {
+        Path parentPath = path.getParent();
+        Entry parent = root;
+        if (parentPath != null) {
+            for (Path name : parentPath) {
+                parent = parent.children.computeIfAbsent(name.toString(), key -> Entry.directory());
+                if (!parent.isDirectory()) {
+                    return;
+                }
+            }
+        }
+        parent.children.put(path.getFileName().toString(), value);
+    }
+
+    private static class Entry {
+        private static final Entry FILE = new Entry(null);
+
+        /**
+         * entries of a directory by name, null for files
+         */
+        private final ConcurrentNavigableMap<String, Entry> children;
+
+        private Entry(ConcurrentNavigableMap<String, Entry> children) {
+            this.children = children;
+        }
+
+        static Entry directory() {
+            return new Entry(new ConcurrentSkipListMap<>());
+        }
+
+        boolean isDirectory() {
+            return children != null;
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package com.example.uploadingfiles.storage;
+
+import com.example.uploadingfiles.replication.ReplicationProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Holds the files of proposed transactions until they are committed or aborted.
+ * A staged file is written once when the transaction is proposed and moved into
+ * the storage on commit, so the bytes only travel to a peer once.
+ */
+@Component
+public class StagingArea {
+
+    private final Path stagingLocation;
+    private final long timeoutMillis;
+    private final long commitWaitMillis;
+    private final Map<String, StagedFile> stagedFiles = new ConcurrentHashMap<>();
+
+    @Autowired
+    public StagingArea(StorageProperties properties, ReplicationProperties replicationProperties) {
+        this.stagingLocation = Paths.get(properties.getStagingLocation());
+        this.timeoutMillis = properties.getStagingTimeoutSeconds() * 1000;
+        this.commitWaitMillis = replicationProperties.getPeerTimeoutMillis();
+    }
+
+    /**
+     * create the staging folder, files left from a previous run are kept until the transaction log is replayed.
+     */
+    @PostConstruct
+    public void init() {
+        try {
+            Files.createDirectories(stagingLocation);
+        } catch (IOException e) {
+            throw new StorageException("Could not initialize staging area", e);
+        }
+    }
+
+    /**
+     * take the file a transaction staged before the node restarted.
+     *
+     * @param txnId    id of the transaction
+     * @param path     path of the folder the file is committed to
+     * @param fileName name of the file
+     * @param manifest true if the staged file is a manifest
+     * @return staged file, or null if the file is gone
+     */
+    public StagedFile restore(String txnId, String path, String fileName, boolean manifest) {
+        Path stagedPath = resolve(txnId);
+        if (!Files.exists(stagedPath)) {
+            return null;
+        }
+        return new StagedFile(path, fileName, stagedPath, manifest);
+    }
+
+    /**
+     * delete the files left from a previous run, but those of transactions still in doubt.
+     *
+     * @param keptTxnIds ids of the transactions whose files are kept until their outcome is known
+     */
+    public void clear(Set<String> keptTxnIds) {
+        try (Stream<Path> files = Files.list(stagingLocation)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (!keptTxnIds.contains(file.getFileName().toString())) {
+                    FileSystemUtils.deleteRecursively(file);
+                }
+            }
+        } catch (IOException e) {
+            throw new StorageException("Could not clear staging area", e);
+        }
+    }
+
+    /**
+     * stage the file of a proposed transaction.
+     *
+     * @param txnId id of the transaction
+     * @param path  path of the folder the file is committed to
+     * @param file  file to stage
+     */
+    public void stage(String txnId, String path, MultipartFile file) {
+        if (file.isEmpty()) {
+            throw new StorageException("Failed to stage empty file.");
+        }
+        Path stagedPath = resolve(txnId);
+        try {
+            file.transferTo(stagedPath);
+        } catch (IOException e) {
+            throw new StorageException("Failed to stage file.", e);
+        }
+        put(txnId, new StagedFile(path, Objects.requireNonNull(file.getOriginalFilename()), stagedPath, false));
+    }
+
+    /**
+     * stage a file that is already on disk, like a file rebuilt from a delta.
+     *
+     * @param txnId    id of the transaction
+     * @param path     path of the folder the file is committed to
+     * @param fileName name of the file
+     * @param source   file to move into the staging area
+     */
+    public void stage(String txnId, String path, String fileName, Path source) {
+        Path stagedPath = resolve(txnId);
+        try {
+            Files.move(source, stagedPath, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new StorageException("Failed to stage file.", e);
+        }
+        put(txnId, new StagedFile(path, fileName, stagedPath, false));
+    }
+
+    /**
+     * stage the manifest of a deduplicated file, its chunks are stored separately.
+     *
+     * @param txnId    id of the transaction
+     * @param path     path of the folder the file is committed to
+     * @param manifest manifest of the file, named like the file
+     */
+    public void stageManifest(String txnId, String path, MultipartFile manifest) {
+        Path stagedPath = resolve(txnId);
+        try {
+            manifest.transferTo(stagedPath);
+        } catch (IOException e) {
+            throw new StorageException("Failed to stage manifest.", e);
+        }
+        put(txnId, new StagedFile(path, Objects.requireNonNull(manifest.getOriginalFilename()), stagedPath, true));
+    }
+
+    /**
+     * take the staged file of a transaction out of the staging area.
+     * the coordinator commits as soon as a quorum of peers staged the file, so the COMMIT message
+     * can reach this node while its PROPOSE is still being received, in that case it waits for the file.
+     *
+     * @param txnId id of the transaction
+     * @return staged file
+     */
+    public StagedFile remove(String txnId) {
+        StagedFile stagedFile = stagedFiles.remove(txnId);
+        if (stagedFile == null) {
+            stagedFile = awaitStaged(txnId);
+        }
+        if (stagedFile == null) {
+            throw new StorageFileNotFoundException("No file staged for transaction " + txnId);
+        }
+        return stagedFile;
+    }
+
+    /**
+     * delete a staged file that was taken out of the staging area, if it was not moved into the storage.
+     *
+     * @param stagedFile staged file
+     */
+    public void release(StagedFile stagedFile) {
+        delete(stagedFile);
+    }
+
+    /**
+     * discard the staged file of a transaction, if there is one.
+     *
+     * @param txnId id of the transaction
+     */
+    public void abort(String txnId) {
+        StagedFile stagedFile = stagedFiles.remove(txnId);
+        if (stagedFile != null) {
+            delete(stagedFile);
+        }
+    }
+
+    /**
+     * discard files of transactions that were neither committed nor aborted in time.
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void purgeExpired() {
+        long expiredBefore = System.currentTimeMillis() - timeoutMillis;
+        stagedFiles.entrySet().removeIf(entry -> {
+            if (entry.getValue().getStagedAt() < expiredBefore) {
+                delete(entry.getValue());
+                return true;
+            }
+            return false;
+        });
+    }
+
+    private void put(String txnId, StagedFile stagedFile) {
+        stagedFiles.put(txnId, stagedFile);
+        synchronized (stagedFiles) {
+            stagedFiles.notifyAll();
+        }
+    }
+
+    private StagedFile awaitStaged(String txnId) {
+        long deadline = System.currentTimeMillis() + commitWaitMillis;
+        synchronized (stagedFiles) {
+            StagedFile stagedFile;
+            while ((stagedFile = stagedFiles.remove(txnId)) == null) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return null;
+                }
+                try {
+                    stagedFiles.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+            return stagedFile;
+        }
+    }
+
+    private Path resolve(String txnId) {
+        Path stagedPath = stagingLocation.resolve(txnId).normalize();
+        if (!stagingLocation.normalize().equals(stagedPath.getParent())) {
+            // This is a security check
+            throw new StorageException("Invalid transaction id.");
+        }
+        return stagedPath.toAbsolutePath();
+    }
+
+    private void delete(StagedFile stagedFile) {
+        try {
+            Files.deleteIfExists(stagedFile.getFile());
+        } catch (IOException e) {
+            throw new StorageException("Failed to delete staged file.", e);
+        }
+    }
+
+    public static class StagedFile {
+        private final String path;
+        private final String fileName;
+        private final Path file;
+        private final long stagedAt;
+        private final boolean manifest;
+
+        StagedFile(String path, String fileName, Path file, boolean manifest) {
+            this.path = path;
+            this.fileName = fileName;
+            this.file = file;
+            this.stagedAt = System.currentTimeMillis();
+            this.manifest = manifest;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        public long getStagedAt() {
+            return stagedAt;
+        }
+
+        /**
+         * @return true if the staged file is the manifest of a deduplicated file rather than its content
+         */
+        public boolean isManifest() {
+            return manifest;
+        }
+
+        public void setLastModified(long millis) {
+            try {
+                Files.setLastModifiedTime(file, FileTime.fromMillis(millis));
+            } catch (IOException e) {
+                throw new StorageException("Failed to set modification time of staged file.", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.uploadingfiles.storage;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Counts the bytes written to and read from the storage folder and the size of directory listings.
+ * Downloads are also counted by how they reached the socket, so the share that was not zero-copy is visible.
+ * Meters are looked up once, recording is an atomic add.
+ */
+@Component
+public class StorageMetrics {
+
+    /**
+     * records nothing, used until the metrics of the application are set
+     */
+    public static final StorageMetrics NONE = new StorageMetrics(new CompositeMeterRegistry());
+
+    private final Counter bytesWritten;
+    private final Counter bytesRead;
+    private final DistributionSummary listingEntries;
+    private final Counter bytesSentfile;
+    private final Counter bytesCopied;
+    private final Counter bytesGzipped;
+
+    @Autowired
+    public StorageMetrics(MeterRegistry registry) {
+        this.bytesWritten = Counter.builder("storage.bytes.written")
+                .description("Bytes written to the storage folder, after compression and deduplication")
+                .baseUnit("bytes")
+                .register(registry);
+        this.bytesRead = Counter.builder("storage.bytes.read")
+                .description("Bytes of stored files sent to clients and peers")
+                .baseUnit("bytes")
+                .register(registry);
+        this.listingEntries = DistributionSummary.builder("storage.listing.entries")
+                .description("Entries in a directory listing")
+                .serviceLevelObjectives(1, 10, 100, 1000, 10000, 100000)
+                .register(registry);
+        this.bytesSentfile = sentCounter(registry, "sendfile");
+        this.bytesCopied = sentCounter(registry, "copy");
+        this.bytesGzipped = sentCounter(registry, "gzip");
+    }
+
+    private static Counter sentCounter(MeterRegistry registry, String transfer) {
+        return Counter.builder("download.bytes")
+                .description("Bytes of stored files sent in downloads, by sendfile, copied through the heap, or gzip compressed")
+                .baseUnit("bytes")
+                .tag("transfer", transfer)
+                .register(registry);
+    }
+
+    public void wrote(long bytes) {
+        bytesWritten.increment(bytes);
+    }
+
+    public void read(long bytes) {
+        bytesRead.increment(bytes);
+    }
+
+    public void sentfile(long bytes) {
+        bytesSentfile.increment(bytes);
+    }
+
+    public void copied(long bytes) {
+        bytesCopied.increment(bytes);
+    }
+
+    public void gzipped(long bytes) {
+        bytesGzipped.increment(bytes);
+    }
+
+    public void listed(int entries) {
+        listingEntries.record(entries);
+    }
+}
@@ -5,11 +5,82 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 @ConfigurationProperties("storage")
 public class StorageProperties {
 
+	/**
+	 * How files are stored, "filesystem" keeps every file as it is,
+	 * "dedup" splits files into chunks that are stored once by their hash,
+	 * "erasure" stores one data or parity shard of every file on each of its replicas,
+	 * "compressed" stores files gzip compressed unless they do not compress
+	 */
+	private String mode = "filesystem";
+
 	/**
 	 * Folder location for storing files
 	 */
 	private String location = "upload-dir";
 
+	/**
+	 * Folder location for chunks when files are deduplicated
+	 */
+	private String chunkLocation = "chunk-dir";
+
+	/**
+	 * Number of shards a file is split into when files are erasure coded, any of that many shards rebuild it
+	 */
+	private int dataShards = 3;
+
+	/**
+	 * Number of parity shards added to the data shards, as many replicas may be lost
+	 */
+	private int parityShards = 2;
+
+	/**
+	 * Size in bytes of the block every data shard gets from a stripe of the file
+	 */
+	private int shardBlockSize = 64 * 1024;
+
+	/**
+	 * Folder location for files of transactions that are not committed yet
+	 */
+	private String stagingLocation = "staging-dir";
+
+	/**
+	 * Folder location for the transaction log
+	 */
+	private String transactionLogLocation = "txn-log";
+
+	/**
+	 * Size in bytes the transaction log may reach before it is compacted
+	 */
+	private long transactionLogMaxBytes = 16 * 1024 * 1024;
+
+	/**
+	 * Number of applied mutations journaled for peers that catch up after missing them
+	 */
+	private int journalMaxEntries = 100000;
+
+	/**
+	 * Seconds a staged file is kept before its transaction is considered abandoned
+	 */
+	private long stagingTimeoutSeconds = 300;
+
+	/**
+	 * Seconds a chunked upload may stay idle before it is discarded
+	 */
+	private long uploadSessionTimeoutSeconds = 3600;
+
+	/**
+	 * Largest chunk a chunked upload may use, in bytes
+	 */
+	private long maxChunkSize = 64 * 1024 * 1024;
+
+	public String getMode() {
+		return mode;
+	}
+
+	public void setMode(String mode) {
+		this.mode = mode;
+	}
+
 	public String getLocation() {
 		return location;
 	}
@@ -18,4 +89,92 @@ public class StorageProperties {
 		this.location = location;
 	}
 
+	public String getChunkLocation() {
+		return chunkLocation;
+	}
+
+	public void setChunkLocation(String chunkLocation) {
+		this.chunkLocation = chunkLocation;
+	}
+
+	public int getDataShards() {
+		return dataShards;
+	}
+
+	public void setDataShards(int dataShards) {
+		this.dataShards = dataShards;
+	}
+
+	public int getParityShards() {
+		return parityShards;
+	}
+
+	public void setParityShards(int parityShards) {
+		this.parityShards = parityShards;
+	}
+
+	public int getShardBlockSize() {
+		return shardBlockSize;
+	}
+
+	public void setShardBlockSize(int shardBlockSize) {
+		this.shardBlockSize = shardBlockSize;
+	}
+
+	public String getStagingLocation() {
+		return stagingLocation;
+	}
+
+	public void setStagingLocation(String stagingLocation) {
+		this.stagingLocation = stagingLocation;
+	}
+
+	public String getTransactionLogLocation() {
+		return transactionLogLocation;
+	}
+
+	public void setTransactionLogLocation(String transactionLogLocation) {
+		this.transactionLogLocation = transactionLogLocation;
+	}
+
+	public long getTransactionLogMaxBytes() {
+		return transactionLogMaxBytes;
+	}
+
+	public void setTransactionLogMaxBytes(long transactionLogMaxBytes) {
+		this.transactionLogMaxBytes = transactionLogMaxBytes;
+	}
+
+	public int getJournalMaxEntries() {
+		return journalMaxEntries;
+	}
+
+	public void setJournalMaxEntries(int journalMaxEntries) {
+		this.journalMaxEntries = journalMaxEntries;
+	}
+
+	public long getStagingTimeoutSeconds() {
+		return stagingTimeoutSeconds;
+	}
+
+	public void setStagingTimeoutSeconds(long stagingTimeoutSeconds) {
+		this.stagingTimeoutSeconds = stagingTimeoutSeconds;
+	}
+
+	public long getUploadSessionTimeoutSeconds() {
+		return uploadSessionTimeoutSeconds;
+	}
+
+	public void setUploadSessionTimeoutSeconds(long uploadSessionTimeoutSeconds) {
+		this.uploadSessionTimeoutSeconds = uploadSessionTimeoutSeconds;
+	}
+
+	public long getMaxChunkSize() {
+		return maxChunkSize;
+	}
+
+	public void setMaxChunkSize(long maxChunkSize) {
+		this.maxChunkSize = maxChunkSize;
+	}
+
 }
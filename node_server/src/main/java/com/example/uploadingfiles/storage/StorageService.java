@@ -24,6 +24,15 @@ public interface StorageService {
      */
     void store(String path, MultipartFile file);
 
+    /**
+     * store a file by path by moving an existing file on disk into place.
+     *
+     * @param path     path of the folder
+     * @param fileName name of the stored file
+     * @param source   file to move, must be on the same file system as the storage
+     */
+    void store(String path, String fileName, Path source);
+
     /**
      * create a directory by path.
      *
@@ -47,6 +56,14 @@ public interface StorageService {
 
     Stream<Path> loadAllByPath(String rootPath) throws NoSuchFileException;
 
+    /**
+     * check whether a directory exists.
+     *
+     * @param dirPath path of the directory
+     * @return true if there is a directory at the path
+     */
+    boolean isDirectory(String dirPath);
+
     /**
      * get the path of an entry on disk,
      * if the entry is not a sub entry of the root location, return root location.
@@ -0,0 +1,247 @@
+package com.example.uploadingfiles.storage;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the state of chunked uploads.
+ * The target file is preallocated when a session starts and every chunk is written
+ * straight to its offset, so chunks can arrive in any order and on parallel connections,
+ * a failed chunk is sent again on its own and the finished file is never copied or read back.
+ */
+@Component
+public class UploadSessionService {
+
+    private final Path stagingLocation;
+    private final long timeoutMillis;
+    private final long maxChunkSize;
+    private final Map<String, UploadSession> sessions = new ConcurrentHashMap<>();
+
+    @Autowired
+    public UploadSessionService(StorageProperties properties) {
+        this.stagingLocation = Paths.get(properties.getStagingLocation());
+        this.timeoutMillis = properties.getUploadSessionTimeoutSeconds() * 1000;
+        this.maxChunkSize = properties.getMaxChunkSize();
+    }
+
+    /**
+     * start a chunked upload.
+     *
+     * @param path      path of the folder the file is uploaded to
+     * @param fileName  name of the file
+     * @param size      size of the file in bytes
+     * @param chunkSize size of every chunk but the last one
+     * @return the new session
+     */
+    public UploadSession initiate(String path, String fileName, long size, long chunkSize) {
+        if (fileName == null || fileName.isEmpty() || fileName.contains("/") || fileName.contains("\\")) {
+            throw new StorageException("Invalid file name.");
+        }
+        if (size <= 0) {
+            throw new StorageException("Failed to store empty file.");
+        }
+        if (chunkSize <= 0 || chunkSize > maxChunkSize) {
+            throw new StorageException("Chunk size must be between 1 and " + maxChunkSize + " bytes.");
+        }
+        String id = UUID.randomUUID().toString();
+        Path file = stagingLocation.resolve("upload-" + id).toAbsolutePath();
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file.toFile(), "rw")) {
+            randomAccessFile.setLength(size);
+        } catch (IOException e) {
+            throw new StorageException("Failed to allocate upload.", e);
+        }
+        UploadSession session = new UploadSession(id, path, fileName, file, size, chunkSize);
+        sessions.put(id, session);
+        return session;
+    }
+
+    /**
+     * write one chunk of an upload, a chunk that was written before is overwritten.
+     *
+     * @param id          id of the session
+     * @param index       index of the chunk
+     * @param inputStream body of the chunk
+     */
+    public void writeChunk(String id, int index, InputStream inputStream) {
+        UploadSession session = get(id);
+        if (index < 0 || index >= session.getChunkCount()) {
+            throw new StorageException("Invalid chunk index " + index + ".");
+        }
+        long position = index * session.getChunkSize();
+        long expected = Math.min(session.getChunkSize(), session.getSize() - position);
+        try (FileChannel channel = FileChannel.open(session.getFile(), StandardOpenOption.WRITE)) {
+            ReadableByteChannel source = Channels.newChannel(inputStream);
+            long written = 0;
+            while (written < expected) {
+                long transferred = channel.transferFrom(source, position + written, expected - written);
+                if (transferred <= 0) {
+                    break;
+                }
+                written += transferred;
+            }
+            if (written != expected || inputStream.read() != -1) {
+                throw new StorageException("Chunk " + index + " must be " + expected + " bytes.");
+            }
+        } catch (IOException e) {
+            throw new StorageException("Failed to store chunk " + index + ".", e);
+        }
+        session.markReceived(index);
+    }
+
+    /**
+     * get a running upload.
+     *
+     * @param id id of the session
+     * @return the session
+     */
+    public UploadSession get(String id) {
+        UploadSession session = sessions.get(id);
+        if (session == null) {
+            throw new StorageFileNotFoundException("No upload session " + id);
+        }
+        session.touch();
+        return session;
+    }
+
+    /**
+     * end an upload whose chunks have all arrived, the caller takes over the assembled file.
+     *
+     * @param id id of the session
+     * @return the finished session
+     */
+    public UploadSession complete(String id) {
+        UploadSession session = get(id);
+        List<Integer> missing = session.getMissingChunks();
+        if (!missing.isEmpty()) {
+            throw new StorageException("Missing chunks " + missing + ".");
+        }
+        if (!sessions.remove(id, session)) {
+            throw new StorageFileNotFoundException("No upload session " + id);
+        }
+        return session;
+    }
+
+    /**
+     * cancel an upload and delete what was written so far.
+     *
+     * @param id id of the session
+     */
+    public void abort(String id) {
+        UploadSession session = sessions.remove(id);
+        if (session != null) {
+            delete(session);
+        }
+    }
+
+    /**
+     * discard uploads that have not been touched in time.
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void purgeExpired() {
+        long expiredBefore = System.currentTimeMillis() - timeoutMillis;
+        sessions.entrySet().removeIf(entry -> {
+            if (entry.getValue().getLastAccess() < expiredBefore) {
+                delete(entry.getValue());
+                return true;
+            }
+            return false;
+        });
+    }
+
+    private void delete(UploadSession session) {
+        try {
+            Files.deleteIfExists(session.getFile());
+        } catch (IOException e) {
+            throw new StorageException("Failed to delete upload.", e);
+        }
+    }
+
+    public static class UploadSession {
+        private final String id;
+        private final String path;
+        private final String fileName;
+        private final Path file;
+        private final long size;
+        private final long chunkSize;
+        private final int chunkCount;
+        private final BitSet received;
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        UploadSession(String id, String path, String fileName, Path file, long size, long chunkSize) {
+            this.id = id;
+            this.path = path;
+            this.fileName = fileName;
+            this.file = file;
+            this.size = size;
+            this.chunkSize = chunkSize;
+            this.chunkCount = (int) ((size + chunkSize - 1) / chunkSize);
+            this.received = new BitSet(chunkCount);
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getChunkSize() {
+            return chunkSize;
+        }
+
+        public int getChunkCount() {
+            return chunkCount;
+        }
+
+        long getLastAccess() {
+            return lastAccess;
+        }
+
+        void touch() {
+            lastAccess = System.currentTimeMillis();
+        }
+
+        synchronized void markReceived(int index) {
+            received.set(index);
+        }
+
+        public synchronized List<Integer> getMissingChunks() {
+            List<Integer> missing = new ArrayList<>();
+            for (int i = received.nextClearBit(0); i < chunkCount; i = received.nextClearBit(i + 1)) {
+                missing.add(i);
+            }
+            return missing;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.uploadingfiles.transaction;
+
+import com.example.uploadingfiles.storage.StorageProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Journal of the mutations this node applied, in the order it applied them, numbered by a sequence of its own.
+ * A node that restarts after missing transactions asks its peers for the mutations applied since the newest one
+ * it has itself, so catching up takes as long as what changed meanwhile rather than all the data.
+ * Only the last entries are kept, the commit time of the newest dropped entry is the horizon:
+ * a peer asking for mutations older than the horizon cannot catch up from the journal.
+ */
+@Component
+public class CommitJournal extends GroupCommitLog {
+
+    private static final String HORIZON = "HORIZON";
+
+    private final int maxEntries;
+    /**
+     * entries by sequence, guarded by the lock
+     */
+    private final Deque<Entry> entries = new ArrayDeque<>();
+    private long lastSequence;
+    private long horizon;
+    private long watermark;
+
+    @Autowired
+    public CommitJournal(StorageProperties properties) {
+        super(Paths.get(properties.getTransactionLogLocation()).resolve("journal.log"), properties.getTransactionLogMaxBytes());
+        this.maxEntries = properties.getJournalMaxEntries();
+    }
+
+    /**
+     * add a mutation that was applied, it is written with the next flush.
+     * a mutation lost in a crash is sent again by the peers, the catch-up starts a little before the newest entry.
+     *
+     * @param record COMMIT record of the transaction
+     */
+    public void append(TransactionRecord record) {
+        synchronized (lock) {
+            Entry entry = new Entry(lastSequence + 1, record.getTimestamp(), record.getOperation(), record.getPath(), record.getFileName());
+            append(entry.toLine());
+            add(entry);
+        }
+    }
+
+    /**
+     * get the entries committed at or after a time, in the order they were applied.
+     *
+     * @param since commit time of the oldest mutation wanted
+     * @param after sequence of the last entry already read, 0 for the first page
+     * @param limit largest number of entries returned
+     * @return the entries, null if entries committed since then were dropped
+     */
+    public List<Entry> read(long since, long after, int limit) {
+        synchronized (lock) {
+            if (horizon > 0 && since <= horizon) {
+                return null;
+            }
+            List<Entry> page = new ArrayList<>();
+            for (Entry entry : entries) {
+                if (entry.sequence > after && entry.timestamp >= since) {
+                    page.add(entry);
+                    if (page.size() == limit) {
+                        break;
+                    }
+                }
+            }
+            return page;
+        }
+    }
+
+    /**
+     * @return commit time of the newest mutation in the journal, 0 if it never had any
+     */
+    public long getWatermark() {
+        synchronized (lock) {
+            return watermark;
+        }
+    }
+
+    @Override
+    protected void replay(String line) {
+        if (line.startsWith(HORIZON + " ")) {
+            horizon = Math.max(horizon, Long.parseLong(line.substring(HORIZON.length() + 1)));
+            watermark = Math.max(watermark, horizon);
+            return;
+        }
+        Entry entry = Entry.parse(line);
+        if (entry != null) {
+            add(entry);
+        }
+    }
+
+    @Override
+    protected List<String> snapshot() {
+        List<String> lines = new ArrayList<>();
+        lines.add(HORIZON + " " + horizon);
+        for (Entry entry : entries) {
+            lines.add(entry.toLine());
+        }
+        return lines;
+    }
+
+    private void add(Entry entry) {
+        entries.addLast(entry);
+        lastSequence = Math.max(lastSequence, entry.sequence);
+        watermark = Math.max(watermark, entry.timestamp);
+        while (entries.size() > maxEntries) {
+            horizon = Math.max(horizon, entries.removeFirst().timestamp);
+        }
+    }
+
+    /**
+     * a mutation as it is journaled, written as a line of space separated fields.
+     */
+    public static class Entry {
+        private final long sequence;
+        private final long timestamp;
+        private final Operation operation;
+        private final String path;
+        private final String fileName;
+
+        public Entry(long sequence, long timestamp, Operation operation, String path, String fileName) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.operation = operation;
+            this.path = path;
+            this.fileName = fileName;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public Operation getOperation() {
+            return operation;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public TransactionRecord toRecord() {
+            return new TransactionRecord(TransactionRecord.Phase.COMMIT, null, operation, timestamp, path, fileName);
+        }
+
+        public String toLine() {
+            return String.join(" ", String.valueOf(sequence), String.valueOf(timestamp), operation.name(),
+                    encodeField(path), encodeField(fileName));
+        }
+
+        /**
+         * @return the entry, or null if the line is not an entry
+         */
+        public static Entry parse(String line) {
+            String[] values = line.split(" ");
+            if (values.length != 5) {
+                return null;
+            }
+            try {
+                return new Entry(Long.parseLong(values[0]), Long.parseLong(values[1]), Operation.valueOf(values[2]),
+                        decodeField(values[3]), decodeField(values[4]));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+}
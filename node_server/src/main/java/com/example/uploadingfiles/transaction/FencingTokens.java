@@ -0,0 +1,313 @@
+package com.example.uploadingfiles.transaction;
+
+import com.example.uploadingfiles.storage.StorageProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Highest fencing token proposed or committed for every path.
+ * The central server hands out a larger token with every lock it grants, a mutation carrying a smaller
+ * token than one already seen for its path was made under a lock that expired and is refused,
+ * so a holder that lost its lease cannot overwrite the work of the next one.
+ * Locks on a path conflict with locks on the paths above and below it, so a mutation is also refused when a larger
+ * token was seen for one of its ancestors, or for anything below a directory it creates or deletes.
+ * Tokens are only checked when a replica votes on a mutation, a replica that voted yes must commit it,
+ * so every replica applies the same decision even if their tokens differ.
+ *
+ * A raised token is logged before the vote is answered, so a node that restarts still refuses the stale holder.
+ * The tokens of the MAX_PATHS paths and directories used most recently are kept, the token of one that is evicted raises a floor
+ * every mutation must reach. Tokens only grow, so the floor only refuses locks granted before the evicted mutation,
+ * a lock held that long is refused as if it expired. Mutations without a token are never refused.
+ */
+@Component
+public class FencingTokens extends GroupCommitLog {
+
+    /**
+     * token of mutations made without a fenced lock
+     */
+    public static final long NONE = 0;
+
+    /**
+     * number of paths whose token is kept
+     */
+    private static final int MAX_PATHS = 100000;
+
+    private static final String TOKEN = "TOKEN";
+    private static final String FLOOR = "FLOOR";
+
+    private final int maxPaths;
+    /**
+     * smallest token admitted for any path, the largest token of the paths evicted so far
+     */
+    private long floor = NONE;
+    /**
+     * highest token by normalized path, in the order the paths were used
+     */
+    private final Map<String, Long> highest = new EvictingMap();
+    /**
+     * highest token of a path and every path below it, by normalized path, in the order the paths were used
+     */
+    private final Map<String, Long> below = new EvictingMap();
+
+    @Autowired
+    public FencingTokens(StorageProperties properties) {
+        this(Paths.get(properties.getTransactionLogLocation()).resolve("fencing.log"), properties.getTransactionLogMaxBytes(), MAX_PATHS);
+    }
+
+    FencingTokens(Path logFile, long maxBytes, int maxPaths) {
+        super(logFile, maxBytes);
+        this.maxPaths = maxPaths;
+    }
+
+    /**
+     * admit a mutation a replica votes on and remember its token, returns once the token is on disk.
+     *
+     * @param operation operation of the mutation
+     * @param path      path of the mutation
+     * @param fileName  name of the uploaded file, null unless the mutation is an upload
+     * @param token     fencing token of the mutation, null or {@link #NONE} if it was not made under a fenced lock
+     * @return false if a mutation with a larger token was seen for the same path, the replica votes no
+     */
+    public boolean admit(Operation operation, String path, String fileName, Long token) {
+        if (!isFenced(token)) {
+            return true;
+        }
+        String key = key(operation, path, fileName);
+        long count;
+        synchronized (lock) {
+            if (refuses(operation, key, token)) {
+                return false;
+            }
+            count = raise(key, highest.get(key), token);
+        }
+        if (count > 0) {
+            awaitDurable(count);
+        }
+        return true;
+    }
+
+    public boolean admit(Transaction txn) {
+        return admit(txn.getOperation(), txn.getPath(), txn.getFileName(), txn.getFencingToken());
+    }
+
+    /**
+     * admit mutations that are committed together, returns once their tokens are on disk.
+     * every mutation is checked before any token is raised, so a refused batch leaves no token behind
+     * that would refuse the next holder of a lock for a mutation that was never made.
+     *
+     * @return false if one of the mutations is refused, no token was raised then
+     */
+    public boolean admitAll(List<Transaction> txns) {
+        long count = 0;
+        synchronized (lock) {
+            for (Transaction txn : txns) {
+                if (isFenced(txn.getFencingToken())
+                        && refuses(txn.getOperation(), key(txn.getOperation(), txn.getPath(), txn.getFileName()), txn.getFencingToken())) {
+                    return false;
+                }
+            }
+            for (Transaction txn : txns) {
+                if (isFenced(txn.getFencingToken())) {
+                    String key = key(txn.getOperation(), txn.getPath(), txn.getFileName());
+                    count = Math.max(count, raise(key, highest.get(key), txn.getFencingToken()));
+                }
+            }
+        }
+        if (count > 0) {
+            awaitDurable(count);
+        }
+        return true;
+    }
+
+    public boolean admit(TransactionRecord record) {
+        return admit(record.getOperation(), record.getPath(), record.getFileName(), record.getFencingToken());
+    }
+
+    /**
+     * remember the token of a committed mutation, it is never refused since the decision was already taken.
+     * a replica that voted no or missed the proposal refuses older tokens from now on like the others.
+     */
+    public void committed(Operation operation, String path, String fileName, Long token) {
+        if (!isFenced(token)) {
+            return;
+        }
+        String key = key(operation, path, fileName);
+        long count;
+        synchronized (lock) {
+            count = raise(key, highest.get(key), token);
+        }
+        if (count > 0) {
+            awaitDurable(count);
+        }
+    }
+
+    public void committed(TransactionRecord record) {
+        committed(record.getOperation(), record.getPath(), record.getFileName(), record.getFencingToken());
+    }
+
+    /**
+     * @return the floor and the highest token of every path kept, one per line, for a node that copies the storage of this one
+     */
+    public List<String> export() {
+        synchronized (lock) {
+            return snapshot();
+        }
+    }
+
+    /**
+     * raise the floor and the tokens to those exported by another node, returns once they are on disk.
+     * a node that copied the storage of another refuses the holders of locks that node refused.
+     *
+     * @param lines lines returned by {@link #export()}
+     */
+    public void merge(List<String> lines) {
+        long count = 0;
+        synchronized (lock) {
+            for (String line : lines) {
+                String[] fields = line.split(" ");
+                try {
+                    if (fields.length == 3 && TOKEN.equals(fields[0])) {
+                        String key = decodeField(fields[1]);
+                        count = Math.max(count, raise(key, highest.get(key), Long.parseLong(fields[2])));
+                    } else if (fields.length == 2 && FLOOR.equals(fields[0]) && Long.parseLong(fields[1]) > floor) {
+                        floor = Long.parseLong(fields[1]);
+                        count = append(line);
+                    }
+                } catch (NumberFormatException ignored) {
+                    // not a line of this log
+                }
+            }
+        }
+        if (count > 0) {
+            awaitDurable(count);
+        }
+    }
+
+    /**
+     * @return true if a mutation with the token was made under a larger token seen for its path, an ancestor or below it,
+     * or under a token below the floor, the caller holds the lock
+     */
+    private boolean refuses(Operation operation, String key, long token) {
+        Long previous = highest.get(key);
+        return token < floor || previous != null && token < previous || token < fence(operation, key);
+    }
+
+    private static boolean isFenced(Long token) {
+        return token != null && token != NONE;
+    }
+
+    /**
+     * @return highest token seen for an ancestor of a path, or below it if the operation is on the directory itself
+     */
+    private long fence(Operation operation, String key) {
+        long fence = NONE;
+        for (String ancestor = parent(key); ancestor != null; ancestor = parent(ancestor)) {
+            fence = Math.max(fence, highest.getOrDefault(ancestor, NONE));
+        }
+        if (operation == Operation.CREATE_DIR || operation == Operation.DELETE_DIR) {
+            fence = Math.max(fence, below.getOrDefault(key, NONE));
+        }
+        return fence;
+    }
+
+    /**
+     * raise the token of a path and log it, the caller holds the lock.
+     *
+     * @return number of lines to wait for to have the token on disk, 0 if the token was not raised
+     */
+    private long raise(String key, Long previous, long token) {
+        if (previous != null && previous >= token) {
+            return 0;
+        }
+        long evictedFloor = floor;
+        record(key, token);
+        long count = append(String.join(" ", TOKEN, encodeField(key), String.valueOf(token)));
+        if (floor != evictedFloor) {
+            count = append(String.join(" ", FLOOR, String.valueOf(floor)));
+        }
+        return count;
+    }
+
+    @Override
+    protected void replay(String line) {
+        String[] fields = line.split(" ");
+        try {
+            if (fields.length == 3 && TOKEN.equals(fields[0])) {
+                record(decodeField(fields[1]), Long.parseLong(fields[2]));
+            } else if (fields.length == 2 && FLOOR.equals(fields[0])) {
+                floor = Math.max(floor, Long.parseLong(fields[1]));
+            }
+        } catch (NumberFormatException ignored) {
+            // not a line of this log
+        }
+    }
+
+    @Override
+    protected List<String> snapshot() {
+        List<String> lines = new ArrayList<>(highest.size() + 1);
+        lines.add(String.join(" ", FLOOR, String.valueOf(floor)));
+        for (Map.Entry<String, Long> entry : highest.entrySet()) {
+            lines.add(String.join(" ", TOKEN, encodeField(entry.getKey()), String.valueOf(entry.getValue())));
+        }
+        return lines;
+    }
+
+    private void record(String key, long token) {
+        highest.merge(key, token, Math::max);
+        for (String path = key; path != null; path = parent(path)) {
+            below.merge(path, token, Math::max);
+        }
+    }
+
+    private static String key(Operation operation, String path, String fileName) {
+        return normalize(operation == Operation.UPLOAD || operation == Operation.UPLOAD_MANIFEST ? path + "/" + fileName : path);
+    }
+
+    private static String normalize(String path) {
+        StringBuilder normalized = new StringBuilder();
+        for (String name : path.split("/")) {
+            if (!name.isEmpty()) {
+                normalized.append('/').append(name);
+            }
+        }
+        return normalized.length() == 0 ? "/" : normalized.toString();
+    }
+
+    /**
+     * @return parent of a normalized path, null for the root
+     */
+    private static String parent(String key) {
+        if (key.equals("/")) {
+            return null;
+        }
+        int slash = key.lastIndexOf('/');
+        return slash == 0 ? "/" : key.substring(0, slash);
+    }
+
+    /**
+     * tokens of the paths used most recently, the token of a path that is evicted raises the floor
+     */
+    private class EvictingMap extends LinkedHashMap<String, Long> {
+        private static final long serialVersionUID = 1L;
+
+        EvictingMap() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            if (size() <= maxPaths) {
+                return false;
+            }
+            floor = Math.max(floor, eldest.getValue());
+            return true;
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package com.example.uploadingfiles.transaction;
+
+import com.example.uploadingfiles.storage.StorageException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file of lines, forced to disk with group commit.
+ * A thread that needs its line on disk flushes every line appended so far with a single fsync,
+ * threads appending meanwhile wait for the next flush, which takes all of their lines at once.
+ * The number of fsyncs therefore follows the disk rather than the number of concurrent writers.
+ *
+ * Every line is preceded by the CRC32 of its content, so a line torn by a crash ends the log on replay.
+ * When the file grows too large it is replaced by a snapshot of the lines still needed.
+ */
+public abstract class GroupCommitLog {
+
+    private static final Logger logger = LoggerFactory.getLogger(GroupCommitLog.class);
+
+    /**
+     * value of a field that is not set
+     */
+    public static final String NONE = "-";
+
+    /**
+     * guards the lines appended and the state subclasses derive from them
+     */
+    protected final Object lock = new Object();
+
+    private final Path logFile;
+    private final long maxBytes;
+
+    /**
+     * lines appended but not written yet
+     */
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private long appendedCount;
+    private long durableCount;
+    private boolean flushing;
+    private IOException failure;
+    private FileChannel channel;
+    private long size;
+
+    protected GroupCommitLog(Path logFile, long maxBytes) {
+        this.logFile = logFile;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * apply a line read from the log left by the previous run.
+     *
+     * @param line line without checksum and line break
+     */
+    protected abstract void replay(String line);
+
+    /**
+     * get the lines that replace the log when it is compacted, called while holding the lock.
+     */
+    protected abstract List<String> snapshot();
+
+    /**
+     * read the log left by the previous run and open it for appending.
+     * a line torn by a crash ends the log, it is cut off so new lines follow the last complete one.
+     */
+    @PostConstruct
+    public void open() {
+        try {
+            Files.createDirectories(logFile.getParent());
+            long validLength = 0;
+            if (Files.exists(logFile)) {
+                byte[] content = Files.readAllBytes(logFile);
+                int start = 0;
+                synchronized (lock) {
+                    for (int end = 0; end < content.length; end++) {
+                        if (content[end] != '\n') {
+                            continue;
+                        }
+                        String line = checked(new String(content, start, end - start, StandardCharsets.UTF_8));
+                        if (line == null) {
+                            break;
+                        }
+                        replay(line);
+                        start = end + 1;
+                    }
+                }
+                validLength = start;
+                if (validLength < content.length) {
+                    logger.warn("Ignoring {} damaged bytes at the end of {}", content.length - validLength, logFile);
+                }
+            }
+            channel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            channel.truncate(validLength);
+            channel.position(validLength);
+            size = validLength;
+        } catch (IOException e) {
+            throw new StorageException("Could not open " + logFile, e);
+        }
+    }
+
+    /**
+     * append a line, the caller must hold the lock.
+     *
+     * @param line line without line break
+     * @return number of lines to wait for with {@link #awaitDurable(long)} to have this line on disk
+     */
+    protected long append(String line) {
+        if (failure != null) {
+            throw new StorageException("Log " + logFile + " is not writable", failure);
+        }
+        byte[] bytes = (Long.toHexString(crc(line)) + " " + line + "\n").getBytes(StandardCharsets.UTF_8);
+        pending.write(bytes, 0, bytes.length);
+        return ++appendedCount;
+    }
+
+    /**
+     * wait until the first count lines are on disk.
+     * if no flush is running the caller flushes every pending line itself,
+     * otherwise it waits for the running flush and checks again.
+     */
+    protected void awaitDurable(long count) {
+        awaitDurable(count, false);
+    }
+
+    /**
+     * write every pending line to disk.
+     */
+    @Scheduled(fixedDelay = 1000)
+    public void flush() {
+        long count;
+        synchronized (lock) {
+            count = appendedCount;
+        }
+        awaitDurable(count, false);
+    }
+
+    /**
+     * replace the log with a snapshot of the lines still needed.
+     */
+    public void checkpoint() {
+        long count;
+        synchronized (lock) {
+            count = appendedCount;
+        }
+        awaitDurable(count, true);
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        flush();
+        synchronized (lock) {
+            channel.close();
+        }
+    }
+
+    private void awaitDurable(long count, boolean compact) {
+        while (true) {
+            byte[] batch;
+            byte[] snapshot = null;
+            long batchCount;
+            synchronized (lock) {
+                while (flushing) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new StorageException("Interrupted while writing " + logFile);
+                    }
+                }
+                if (failure != null) {
+                    throw new StorageException("Log " + logFile + " is not writable", failure);
+                }
+                if (durableCount >= count && !compact) {
+                    return;
+                }
+                flushing = true;
+                batch = pending.toByteArray();
+                pending.reset();
+                batchCount = appendedCount;
+                if (compact || size + batch.length > maxBytes) {
+                    // the snapshot already holds the effect of the batch
+                    StringBuilder builder = new StringBuilder();
+                    for (String line : snapshot()) {
+                        builder.append(Long.toHexString(crc(line))).append(' ').append(line).append('\n');
+                    }
+                    snapshot = builder.toString().getBytes(StandardCharsets.UTF_8);
+                }
+            }
+            IOException error = null;
+            try {
+                if (snapshot != null) {
+                    rewrite(snapshot);
+                } else if (batch.length > 0) {
+                    ByteBuffer buffer = ByteBuffer.wrap(batch);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    channel.force(false);
+                    size += batch.length;
+                }
+            } catch (IOException e) {
+                logger.error("Failed to write {}", logFile, e);
+                error = e;
+            }
+            synchronized (lock) {
+                flushing = false;
+                if (error != null) {
+                    failure = error;
+                } else {
+                    durableCount = batchCount;
+                }
+                lock.notifyAll();
+            }
+            compact = false;
+        }
+    }
+
+    /**
+     * write the snapshot to a new file and move it over the log, so a crash leaves either log complete.
+     */
+    private void rewrite(byte[] snapshot) throws IOException {
+        Path tmpFile = logFile.resolveSibling(logFile.getFileName() + ".tmp");
+        try (FileChannel tmpChannel = FileChannel.open(tmpFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(snapshot);
+            while (buffer.hasRemaining()) {
+                tmpChannel.write(buffer);
+            }
+            tmpChannel.force(false);
+        }
+        Files.move(tmpFile, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel.close();
+        channel = FileChannel.open(logFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        size = snapshot.length;
+    }
+
+    /**
+     * @return the content of a line read from disk, or null if its checksum does not match
+     */
+    private static String checked(String line) {
+        int separator = line.indexOf(' ');
+        if (separator == -1) {
+            return null;
+        }
+        String content = line.substring(separator + 1);
+        try {
+            return Long.parseLong(line.substring(0, separator), 16) == crc(content) ? content : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static long crc(String content) {
+        CRC32 crc = new CRC32();
+        crc.update(content.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+
+    /**
+     * encode a value as a field of a line, so it holds no spaces or line breaks.
+     */
+    public static String encodeField(String value) {
+        if (value == null) {
+            return NONE;
+        }
+        try {
+            String encoded = URLEncoder.encode(value, "UTF-8");
+            return NONE.equals(encoded) ? "%2D" : encoded;
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String decodeField(String field) {
+        if (NONE.equals(field)) {
+            return null;
+        }
+        try {
+            return URLDecoder.decode(field, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
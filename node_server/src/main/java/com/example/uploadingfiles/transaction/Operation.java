@@ -0,0 +1,12 @@
+package com.example.uploadingfiles.transaction;
+
+/**
+ * Kinds of mutations that are replicated to the nodes holding their path.
+ */
+public enum Operation {
+    UPLOAD,
+    UPLOAD_MANIFEST,
+    CREATE_DIR,
+    DELETE_DIR,
+    DELETE_FILE
+}
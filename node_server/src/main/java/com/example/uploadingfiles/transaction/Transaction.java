@@ -1,23 +1,76 @@
 package com.example.uploadingfiles.transaction;
 
-import org.springframework.web.multipart.MultipartFile;
-
 import java.io.File;
+import java.util.UUID;
 
 public class Transaction {
+    private final String id;
+    private final long timestamp;
+    private final Operation operation;
     private File file;
+    private String fileName;
     private String path;
+    private long fencingToken = FencingTokens.NONE;
+    private File delta;
+
+    public Transaction(Operation operation, String path) {
+        this(operation, null, null, path);
+    }
 
-    public Transaction(File file, String path) {
+    public Transaction(Operation operation, File file, String fileName, String path) {
+        this.id = UUID.randomUUID().toString();
+        this.timestamp = System.currentTimeMillis();
+        this.operation = operation;
         this.file = file;
+        this.fileName = fileName;
         this.path = path;
     }
 
+    public String getId() {
+        return id;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
     public File getFile() {
         return file;
     }
 
+    public String getFileName() {
+        return fileName;
+    }
+
     public String getPath() {
         return path;
     }
+
+    /**
+     * @return fencing token of the lock the mutation was made under, {@link FencingTokens#NONE} if not fenced
+     */
+    public long getFencingToken() {
+        return fencingToken;
+    }
+
+    public Transaction setFencingToken(Long fencingToken) {
+        this.fencingToken = fencingToken == null ? FencingTokens.NONE : fencingToken;
+        return this;
+    }
+
+    /**
+     * @return delta the file of an upload was rebuilt from, replicas holding the same version get it instead of the file
+     */
+    public File getDelta() {
+        return delta;
+    }
+
+    public Transaction setDelta(File delta) {
+        this.delta = delta;
+        return this;
+    }
 }
@@ -0,0 +1,72 @@
+package com.example.uploadingfiles.transaction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Mutations replicated together as one multi-operation transaction, so they share the round trips.
+ * Every mutation keeps its own id and is logged, voted on and decided on its own,
+ * a mutation a peer refuses does not fail the other mutations of the batch.
+ */
+public class TransactionBatch {
+
+    private final Map<String, Transaction> transactions = new LinkedHashMap<>();
+    private final Map<String, CompletableFuture<TransactionResponse>> results = new LinkedHashMap<>();
+    private long bytes;
+
+    /**
+     * add a mutation to the batch.
+     *
+     * @return completed with the result of the mutation once the batch was replicated
+     */
+    public CompletableFuture<TransactionResponse> add(Transaction txn) {
+        CompletableFuture<TransactionResponse> result = new CompletableFuture<>();
+        transactions.put(txn.getId(), txn);
+        results.put(txn.getId(), result);
+        if (txn.getFile() != null) {
+            bytes += txn.getFile().length();
+        }
+        return result;
+    }
+
+    /**
+     * @return the mutations in the order they were added, which is the order they are applied in
+     */
+    public List<Transaction> getTransactions() {
+        return Collections.unmodifiableList(new ArrayList<>(transactions.values()));
+    }
+
+    public int size() {
+        return transactions.size();
+    }
+
+    /**
+     * @return total size of the uploaded files
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * report the result of a mutation to its caller.
+     */
+    public void complete(String txnId, TransactionResponse response) {
+        CompletableFuture<TransactionResponse> result = results.get(txnId);
+        if (result != null) {
+            result.complete(response);
+        }
+    }
+
+    /**
+     * report a result to every caller that has none yet.
+     */
+    public void completeAll(TransactionResponse response) {
+        for (CompletableFuture<TransactionResponse> result : results.values()) {
+            result.complete(response);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.example.uploadingfiles.transaction;
+
+import com.example.uploadingfiles.storage.StagingArea;
+import com.example.uploadingfiles.storage.StorageException;
+import com.example.uploadingfiles.storage.StorageService;
+import com.example.uploadingfiles.transaction.TransactionRecord.Phase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.multipart.MultipartHttpServletRequest;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+
+@Controller
+public class TransactionController {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransactionController.class);
+
+    private final TransactionLog transactionLog;
+    private final StagingArea stagingArea;
+    private final StorageService storageService;
+    private final FencingTokens fencingTokens;
+
+    @Autowired
+    public TransactionController(TransactionLog transactionLog, StagingArea stagingArea, StorageService storageService,
+                                 FencingTokens fencingTokens) {
+        this.transactionLog = transactionLog;
+        this.stagingArea = stagingArea;
+        this.storageService = storageService;
+        this.fencingTokens = fencingTokens;
+    }
+
+    /**
+     * get the outcome of a transaction, asked by peers that recover from a crash
+     *
+     * @param txnId id of the transaction
+     * @return COMMIT, ABORT or UNKNOWN
+     */
+    @GetMapping("/transactions/{txnId}")
+    @ResponseBody
+    public ResponseEntity<?> getOutcome(@PathVariable String txnId) {
+        TransactionRecord.Phase outcome = transactionLog.getOutcome(txnId);
+        return ResponseEntity.ok(outcome == null ? "UNKNOWN" : outcome.name());
+    }
+
+    /**
+     * propose a batch of transactions, every file is a part named by the id of its transaction.
+     * this node votes on every transaction on its own, an upload may go to a directory created earlier in the batch.
+     * a transaction made under an expired lock gets a no vote if a later holder of the lock was already seen.
+     *
+     * @param records PROPOSE records of the transactions, one per line
+     * @param request request with the files of the uploads
+     * @return ids of the transactions this node accepted, separated by spaces
+     */
+    @PostMapping(path = "/transactions", params = "mode=PROPOSE")
+    @ResponseBody
+    public ResponseEntity<?> proposeBatch(@RequestParam("records") String records, MultipartHttpServletRequest request) {
+        List<TransactionRecord> accepted = new ArrayList<>();
+        Map<String, MultipartFile> files = new LinkedHashMap<>();
+        Set<String> createdDirectories = new HashSet<>();
+        for (TransactionRecord record : parse(records)) {
+            if (record.getOperation() == Operation.CREATE_DIR) {
+                createdDirectories.add(record.getPath());
+            }
+            MultipartFile file = isUpload(record) ? request.getFile(record.getTxnId()) : null;
+            if (isUpload(record) && (file == null || file.isEmpty()
+                    || !createdDirectories.contains(record.getPath()) && !storageService.isDirectory(record.getPath()))) {
+                continue;
+            }
+            if (!fencingTokens.admit(record)) {
+                logger.warn("Transaction {} on {} was made under an expired lock", record.getTxnId(), record.getPath());
+                continue;
+            }
+            if (file != null) {
+                files.put(record.getTxnId(), file);
+            }
+            accepted.add(record);
+        }
+        // the votes are logged before the files are staged, a COMMIT waiting for a file must not be logged before it
+        transactionLog.logAll(accepted);
+        StringJoiner acceptedIds = new StringJoiner(" ");
+        for (TransactionRecord record : accepted) {
+            MultipartFile file = files.get(record.getTxnId());
+            if (file != null) {
+                try {
+                    stagingArea.stage(record.getTxnId(), record.getPath(), file);
+                } catch (RuntimeException e) {
+                    // this node votes no, nothing is left to recover
+                    logger.warn("Could not stage transaction {}: {}", record.getTxnId(), e.getMessage());
+                    transactionLog.done(record.getTxnId());
+                    continue;
+                }
+            }
+            acceptedIds.add(record.getTxnId());
+        }
+        return ResponseEntity.ok(acceptedIds.toString());
+    }
+
+    /**
+     * commit or abort every transaction of a batch, committed transactions are applied in the order of the records.
+     * fencing tokens were checked by the votes, a committed transaction is applied whatever its token.
+     *
+     * @param records COMMIT or ABORT record of every transaction, one per line
+     * @return CREATED once every committed transaction was applied
+     */
+    @PostMapping(path = "/transactions", params = "mode=COMMIT")
+    @ResponseBody
+    public ResponseEntity<?> decideBatch(@RequestBody String records) {
+        List<TransactionRecord> commits = new ArrayList<>();
+        Map<String, StagingArea.StagedFile> stagedFiles = new LinkedHashMap<>();
+        StringJoiner failed = new StringJoiner(" ");
+        try {
+            for (TransactionRecord record : parse(records)) {
+                if (record.getPhase() == Phase.ABORT) {
+                    transactionLog.abort(record.getTxnId());
+                    stagingArea.abort(record.getTxnId());
+                    continue;
+                }
+                fencingTokens.committed(record);
+                if (isUpload(record)) {
+                    try {
+                        // waits for a file still being received with the PROPOSE message
+                        stagedFiles.put(record.getTxnId(), stagingArea.remove(record.getTxnId()));
+                    } catch (StorageException e) {
+                        failed.add(record.getTxnId());
+                        continue;
+                    }
+                }
+                commits.add(record);
+            }
+            transactionLog.logAll(commits);
+            for (TransactionRecord record : commits) {
+                try {
+                    apply(record, stagedFiles.get(record.getTxnId()));
+                    transactionLog.done(record.getTxnId());
+                } catch (StorageException e) {
+                    logger.warn("Could not apply transaction {}: {}", record.getTxnId(), e.getMessage());
+                    failed.add(record.getTxnId());
+                }
+            }
+        } finally {
+            for (StagingArea.StagedFile stagedFile : stagedFiles.values()) {
+                stagingArea.release(stagedFile);
+            }
+        }
+        if (failed.length() > 0) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(failed.toString());
+        }
+        return ResponseEntity.status(HttpStatus.CREATED).body("Transactions committed");
+    }
+
+    private void apply(TransactionRecord record, StagingArea.StagedFile stagedFile) {
+        switch (record.getOperation()) {
+            case UPLOAD:
+                // every replica reports the same Last-Modified, so range requests can be spread over replicas
+                stagedFile.setLastModified(record.getTimestamp());
+                storageService.store(record.getPath(), stagedFile.getFileName(), stagedFile.getFile());
+                break;
+            case CREATE_DIR:
+                storageService.createDirectoryByPath(record.getPath());
+                break;
+            case DELETE_DIR:
+                storageService.deleteDirectoryByPath(record.getPath());
+                break;
+            case DELETE_FILE:
+                storageService.deleteFileByPath(record.getPath());
+                break;
+            default:
+                throw new StorageException("Operation " + record.getOperation() + " cannot be batched");
+        }
+    }
+
+    private static boolean isUpload(TransactionRecord record) {
+        return record.getOperation() == Operation.UPLOAD || record.getOperation() == Operation.UPLOAD_MANIFEST;
+    }
+
+    private static List<TransactionRecord> parse(String lines) {
+        List<TransactionRecord> records = new ArrayList<>();
+        for (String line : lines.split("\n")) {
+            TransactionRecord record = TransactionRecord.parse(line.trim());
+            if (record != null && record.getOperation() != null) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+}
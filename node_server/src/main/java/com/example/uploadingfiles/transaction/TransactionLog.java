@@ -0,0 +1,194 @@
+package com.example.uploadingfiles.transaction;
+
+import com.example.uploadingfiles.storage.StorageProperties;
+import com.example.uploadingfiles.transaction.TransactionRecord.Phase;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only log of the transactions this node takes part in.
+ * A node logs its vote before answering a PROPOSE message and the decision before applying a COMMIT,
+ * so after a crash it can finish committed transactions and resolve the ones it voted for.
+ * Records are forced to disk with group commit, so durability does not cap the number of concurrent transactions.
+ * Transactions are added to the commit journal once they are applied.
+ */
+@Component
+public class TransactionLog extends GroupCommitLog {
+
+    /**
+     * number of decided transactions whose outcome is remembered for peers that recover
+     */
+    private static final int MAX_OUTCOMES = 10000;
+
+    /**
+     * transactions that were proposed or committed but not finished yet, by id
+     */
+    private final Map<String, TransactionRecord> inFlight = new LinkedHashMap<>();
+    private final Map<String, Phase> outcomes = new LinkedHashMap<String, Phase>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Phase> eldest) {
+            return size() > MAX_OUTCOMES;
+        }
+    };
+
+    private final CommitJournal journal;
+
+    @Autowired
+    public TransactionLog(StorageProperties properties, CommitJournal journal) {
+        super(Paths.get(properties.getTransactionLogLocation()).resolve("txn.log"), properties.getTransactionLogMaxBytes());
+        this.journal = journal;
+    }
+
+    /**
+     * log the vote of this node for a transaction, returns once the record is on disk.
+     */
+    public void propose(String txnId, Operation operation, long timestamp, String path, String fileName) {
+        append(new TransactionRecord(Phase.PROPOSE, txnId, operation, timestamp, path, fileName), true);
+    }
+
+    /**
+     * log that a transaction is committed and is about to be applied, returns once the record is on disk.
+     */
+    public void commit(String txnId, Operation operation, long timestamp, String path, String fileName) {
+        append(new TransactionRecord(Phase.COMMIT, txnId, operation, timestamp, path, fileName), true);
+    }
+
+    /**
+     * log the decision of a coordinator to commit a transaction, before the COMMIT message is sent,
+     * returns once the record is on disk.
+     */
+    public void commit(String txnId) {
+        append(new TransactionRecord(Phase.COMMIT, txnId, null, System.currentTimeMillis(), null, null), true);
+    }
+
+    /**
+     * log that a transaction is aborted.
+     * the record is written with the next flush, a transaction without outcome is aborted anyway.
+     */
+    public void abort(String txnId) {
+        append(new TransactionRecord(Phase.ABORT, txnId, null, System.currentTimeMillis(), null, null), false);
+    }
+
+    /**
+     * log that a committed transaction was applied, the record is written with the next flush.
+     */
+    public void done(String txnId) {
+        append(new TransactionRecord(Phase.DONE, txnId, null, System.currentTimeMillis(), null, null), false);
+    }
+
+    /**
+     * log records of several transactions with a single write, returns once they are on disk.
+     * used for transactions replicated in one batch.
+     */
+    public void logAll(List<TransactionRecord> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        long count = 0;
+        List<TransactionRecord> applied = new ArrayList<>();
+        synchronized (lock) {
+            for (TransactionRecord record : records) {
+                count = append(record.toLine());
+                TransactionRecord done = track(record);
+                if (done != null) {
+                    applied.add(done);
+                }
+            }
+        }
+        applied.forEach(journal::append);
+        awaitDurable(count);
+    }
+
+    /**
+     * get the outcome of a transaction.
+     *
+     * @param txnId id of the transaction
+     * @return COMMIT or ABORT, null if this node does not know the outcome
+     */
+    public Phase getOutcome(String txnId) {
+        synchronized (lock) {
+            return outcomes.get(txnId);
+        }
+    }
+
+    /**
+     * get the transactions that were proposed or committed but not finished, in the order they were logged.
+     */
+    public List<TransactionRecord> getInFlight() {
+        synchronized (lock) {
+            return new ArrayList<>(inFlight.values());
+        }
+    }
+
+    private void append(TransactionRecord record, boolean durable) {
+        long count;
+        TransactionRecord applied;
+        synchronized (lock) {
+            count = append(record.toLine());
+            applied = track(record);
+        }
+        if (applied != null) {
+            journal.append(applied);
+        }
+        if (durable) {
+            awaitDurable(count);
+        }
+    }
+
+    @Override
+    protected void replay(String line) {
+        TransactionRecord record = TransactionRecord.parse(line);
+        if (record != null) {
+            track(record);
+        }
+    }
+
+    /**
+     * @return the COMMIT record of a transaction that was applied with this record, otherwise null
+     */
+    private TransactionRecord track(TransactionRecord record) {
+        String txnId = record.getTxnId();
+        switch (record.getPhase()) {
+            case PROPOSE:
+                inFlight.putIfAbsent(txnId, record);
+                break;
+            case COMMIT:
+                outcomes.put(txnId, Phase.COMMIT);
+                if (record.getOperation() != null) {
+                    inFlight.put(txnId, record);
+                }
+                break;
+            case ABORT:
+                outcomes.put(txnId, Phase.ABORT);
+                inFlight.remove(txnId);
+                break;
+            case DONE:
+                TransactionRecord finished = inFlight.remove(txnId);
+                if (finished != null && finished.getPhase() == Phase.COMMIT) {
+                    return finished;
+                }
+                break;
+        }
+        return null;
+    }
+
+    @Override
+    protected List<String> snapshot() {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, Phase> outcome : outcomes.entrySet()) {
+            if (!inFlight.containsKey(outcome.getKey())) {
+                lines.add(new TransactionRecord(outcome.getValue(), outcome.getKey(), null, 0, null, null).toLine());
+            }
+        }
+        for (TransactionRecord record : inFlight.values()) {
+            lines.add(record.toLine());
+        }
+        return lines;
+    }
+}
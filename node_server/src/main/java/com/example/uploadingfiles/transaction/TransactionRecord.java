@@ -0,0 +1,113 @@
+package com.example.uploadingfiles.transaction;
+
+import static com.example.uploadingfiles.transaction.GroupCommitLog.NONE;
+import static com.example.uploadingfiles.transaction.GroupCommitLog.decodeField;
+import static com.example.uploadingfiles.transaction.GroupCommitLog.encodeField;
+
+/**
+ * One entry of the transaction log, written as a line of space separated fields.
+ */
+public class TransactionRecord {
+
+    public enum Phase {
+        /**
+         * the node staged the transaction and voted to commit it
+         */
+        PROPOSE,
+        /**
+         * the transaction was committed, its effect may not be applied yet
+         */
+        COMMIT,
+        /**
+         * the transaction was aborted
+         */
+        ABORT,
+        /**
+         * the effect of a committed transaction was applied
+         */
+        DONE
+    }
+
+    private final Phase phase;
+    private final String txnId;
+    private final Operation operation;
+    private final long timestamp;
+    private final String path;
+    private final String fileName;
+    private final long fencingToken;
+
+    public TransactionRecord(Phase phase, String txnId, Operation operation, long timestamp, String path, String fileName) {
+        this(phase, txnId, operation, timestamp, path, fileName, FencingTokens.NONE);
+    }
+
+    public TransactionRecord(Phase phase, String txnId, Operation operation, long timestamp, String path, String fileName,
+                             long fencingToken) {
+        this.phase = phase;
+        this.txnId = txnId;
+        this.operation = operation;
+        this.timestamp = timestamp;
+        this.path = path;
+        this.fileName = fileName;
+        this.fencingToken = fencingToken;
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    public String getTxnId() {
+        return txnId;
+    }
+
+    /**
+     * @return the operation, null for ABORT and DONE records
+     */
+    public Operation getOperation() {
+        return operation;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public long getFencingToken() {
+        return fencingToken;
+    }
+
+    /**
+     * @return the record as a line, without line break
+     */
+    public String toLine() {
+        return String.join(" ", phase.name(), encodeField(txnId), operation == null ? NONE : operation.name(),
+                String.valueOf(timestamp), encodeField(path), encodeField(fileName), String.valueOf(fencingToken));
+    }
+
+    /**
+     * parse a line written by {@link #toLine()}, lines written before fencing tokens were added have no token.
+     *
+     * @param line line without the line break
+     * @return the record, or null if the line is not a record
+     */
+    public static TransactionRecord parse(String line) {
+        String[] values = line.split(" ");
+        if (values.length != 6 && values.length != 7) {
+            return null;
+        }
+        try {
+            return new TransactionRecord(Phase.valueOf(values[0]), decodeField(values[1]),
+                    NONE.equals(values[2]) ? null : Operation.valueOf(values[2]),
+                    Long.parseLong(values[3]), decodeField(values[4]), decodeField(values[5]),
+                    values.length == 7 ? Long.parseLong(values[6]) : FencingTokens.NONE);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.example.uploadingfiles.transaction;
+
+import com.example.uploadingfiles.dedup.ChunkTransfer;
+import com.example.uploadingfiles.placement.Placement;
+import com.example.uploadingfiles.replication.PeerClient;
+import com.example.uploadingfiles.storage.StagingArea;
+import com.example.uploadingfiles.storage.StorageException;
+import com.example.uploadingfiles.storage.StorageProperties;
+import com.example.uploadingfiles.storage.StorageService;
+import com.example.uploadingfiles.transaction.TransactionRecord.Phase;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Replays the transaction log when the node starts, before it serves any request.
+ * Committed transactions are applied again where their effect is missing. A transaction this node
+ * voted for without learning the outcome is committed if a peer knows it was committed, and rolled back
+ * once every peer answered and one of them knows it was aborted, or none of them knows it long after its
+ * coordinator would have decided. Otherwise the transaction stays in doubt: it is kept in the log with
+ * its staged file and the peers are asked again until they know.
+ */
+@Component
+public class TransactionRecovery {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransactionRecovery.class);
+
+    private final TransactionLog transactionLog;
+    private final StagingArea stagingArea;
+    private final StorageService storageService;
+    private final PeerClient peerClient;
+    private final Placement placement;
+    private final ObjectProvider<ChunkTransfer> chunkTransfer;
+    private final long stagingTimeoutMillis;
+    /**
+     * transactions this node voted for whose outcome no peer could tell yet
+     */
+    private final Map<String, TransactionRecord> inDoubt = new ConcurrentHashMap<>();
+
+    @Autowired
+    public TransactionRecovery(TransactionLog transactionLog, StagingArea stagingArea, StorageService storageService,
+                               PeerClient peerClient, Placement placement, ObjectProvider<ChunkTransfer> chunkTransfer,
+                               StorageProperties properties) {
+        this.transactionLog = transactionLog;
+        this.stagingArea = stagingArea;
+        this.storageService = storageService;
+        this.peerClient = peerClient;
+        this.placement = placement;
+        this.chunkTransfer = chunkTransfer;
+        this.stagingTimeoutMillis = properties.getStagingTimeoutSeconds() * 1000;
+    }
+
+    @PostConstruct
+    public void recover() {
+        for (TransactionRecord record : transactionLog.getInFlight()) {
+            if (record.getPhase() == Phase.COMMIT) {
+                logger.info("Finishing committed transaction {}", record.getTxnId());
+                apply(record);
+            } else if (!resolve(record)) {
+                logger.info("Transaction {} is in doubt until a peer knows its outcome", record.getTxnId());
+                inDoubt.put(record.getTxnId(), record);
+            }
+        }
+        stagingArea.clear(inDoubt.keySet());
+        transactionLog.checkpoint();
+    }
+
+    /**
+     * ask the peers again for the outcome of the transactions in doubt.
+     */
+    @Scheduled(fixedDelay = 5000)
+    public void retryInDoubt() {
+        for (TransactionRecord record : inDoubt.values()) {
+            if (resolve(record)) {
+                inDoubt.remove(record.getTxnId());
+            }
+        }
+    }
+
+    /**
+     * commit or roll back a transaction this node voted for, if its outcome is known.
+     *
+     * @return false if the transaction is still in doubt
+     */
+    private boolean resolve(TransactionRecord record) {
+        // this node coordinated the transaction and decided on it, or a peer learned the decision
+        Phase outcome = transactionLog.getOutcome(record.getTxnId());
+        if (outcome == null) {
+            outcome = askPeers(record);
+        }
+        if (outcome == Phase.COMMIT) {
+            logger.info("Committing transaction {}", record.getTxnId());
+            transactionLog.commit(record.getTxnId(), record.getOperation(), record.getTimestamp(),
+                    record.getPath(), record.getFileName());
+            apply(record);
+            return true;
+        }
+        if (outcome == Phase.ABORT) {
+            logger.info("Rolling back transaction {}", record.getTxnId());
+            transactionLog.abort(record.getTxnId());
+            StagingArea.StagedFile stagedFile = stagingArea.restore(record.getTxnId(), record.getPath(), record.getFileName(),
+                    record.getOperation() == Operation.UPLOAD_MANIFEST);
+            if (stagedFile != null) {
+                stagingArea.release(stagedFile);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * apply a committed transaction, every operation is skipped if its effect is already there.
+     */
+    private void apply(TransactionRecord record) {
+        try {
+            switch (record.getOperation()) {
+                case UPLOAD:
+                case UPLOAD_MANIFEST:
+                    boolean manifest = record.getOperation() == Operation.UPLOAD_MANIFEST;
+                    StagingArea.StagedFile stagedFile = stagingArea.restore(record.getTxnId(), record.getPath(),
+                            record.getFileName(), manifest);
+                    if (stagedFile == null) {
+                        // the file was moved into the storage before the node stopped
+                        break;
+                    }
+                    try {
+                        stagedFile.setLastModified(record.getTimestamp());
+                        if (manifest) {
+                            ChunkTransfer transfer = chunkTransfer.getIfAvailable();
+                            if (transfer == null) {
+                                throw new StorageException("Deduplication is not enabled on this node");
+                            }
+                            transfer.commit(record.getPath(), stagedFile);
+                        } else {
+                            storageService.store(record.getPath(), record.getFileName(), stagedFile.getFile());
+                        }
+                    } finally {
+                        stagingArea.release(stagedFile);
+                    }
+                    break;
+                case CREATE_DIR:
+                    storageService.createDirectoryByPath(record.getPath());
+                    break;
+                case DELETE_DIR:
+                    if (storageService.isDirectory(record.getPath())) {
+                        storageService.deleteDirectoryByPath(record.getPath());
+                    }
+                    break;
+                case DELETE_FILE:
+                    storageService.deleteFileByPath(record.getPath());
+                    break;
+            }
+        } catch (StorageException e) {
+            logger.warn("Could not apply transaction {}: {}", record.getTxnId(), e.getMessage());
+        }
+        transactionLog.done(record.getTxnId());
+    }
+
+    /**
+     * ask every peer for the outcome of a transaction.
+     * a peer that voted no or never got the proposal cannot tell that the transaction was committed,
+     * so an abort is only trusted once every peer answered and none of them committed it.
+     * a coordinator logs its decision before it sends it, if no peer knows the outcome once the staged files
+     * of the transaction were abandoned, its coordinator stopped before deciding and it was committed nowhere.
+     *
+     * @return COMMIT if a peer committed the transaction, ABORT if every peer answered and one aborted it
+     * or none of them knows it after the staging timeout, null if the transaction is still in doubt
+     */
+    private Phase askPeers(TransactionRecord record) {
+        String txnId = record.getTxnId();
+        boolean aborted = false;
+        boolean everyPeerAnswered = true;
+        for (String peer : placement.getNodes()) {
+            if (peer.equals(placement.getSelf())) {
+                continue;
+            }
+            try {
+                String outcome = peerClient.executeForString(new HttpGet(peer + "/transactions/" + URLEncoder.encode(txnId, "UTF-8"))).trim();
+                if (Phase.COMMIT.name().equals(outcome)) {
+                    return Phase.COMMIT;
+                }
+                aborted |= Phase.ABORT.name().equals(outcome);
+            } catch (IOException e) {
+                everyPeerAnswered = false;
+                logger.debug("Could not ask {} for the outcome of transaction {}", peer, txnId, e);
+            }
+        }
+        if (!everyPeerAnswered) {
+            return null;
+        }
+        return aborted || System.currentTimeMillis() - record.getTimestamp() > stagingTimeoutMillis ? Phase.ABORT : null;
+    }
+}
@@ -5,5 +5,11 @@ public enum TransactionResponse {
     TXN_PROPOSE_FAILED,
     TXN_SUCCESS,
     TXN_FAILED,
-    TXN_UNKNOWN_MODE
+    TXN_ABORTED,
+    TXN_UNKNOWN_MODE,
+    TXN_NOT_LEADER,
+    /**
+     * the lock the mutation was made under expired and a later holder already changed the path
+     */
+    TXN_FENCED
 }
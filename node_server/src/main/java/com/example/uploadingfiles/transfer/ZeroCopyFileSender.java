@@ -0,0 +1,217 @@
+package com.example.uploadingfiles.transfer;
+
+import com.example.uploadingfiles.compression.CompressedResource;
+import com.example.uploadingfiles.compression.CompressionStats;
+import com.example.uploadingfiles.compression.GzipCodec;
+import com.example.uploadingfiles.storage.StorageMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Writes stored files to http responses without copying them through the heap.
+ * Files on disk are handed to Tomcat as sendfile requests, so the kernel copies
+ * the bytes from the page cache to the socket. Regions below download.sendfile-min-size,
+ * and every region when the connector has no sendfile, are copied through a heap buffer
+ * to the servlet output stream instead, this copy is counted apart as download.bytes{transfer=copy}.
+ * Single byte ranges are supported so clients can resume or split downloads.
+ * Whole files are sent gzip compressed to clients that accept it, a file stored compressed
+ * is sent as it is stored, any other file is compressed while it is sent if it compresses.
+ * Whether a file compresses is only sampled for clients that accept gzip, and once per version
+ * of the file, clients that do not accept it get the file with sendfile.
+ */
+@Component
+public class ZeroCopyFileSender {
+
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private final long sendfileMinSize;
+    private final GzipCodec codec;
+    private final StorageMetrics metrics;
+
+    @Autowired
+    public ZeroCopyFileSender(@Value("${download.sendfile-min-size:49152}") long sendfileMinSize, GzipCodec codec,
+                              StorageMetrics metrics) {
+        this.sendfileMinSize = sendfileMinSize;
+        this.codec = codec;
+        this.metrics = metrics;
+    }
+
+    /**
+     * write a resource as the body of a response.
+     * a single byte range in the Range header is answered with 206 Partial Content,
+     * unless an If-Range header shows that the client holds another version of the file.
+     *
+     * @param resource resource to send
+     * @param request  request of the client
+     * @param response response to write to
+     * @throws IOException if the resource cannot be read or the client went away
+     */
+    public void send(Resource resource, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        long length = resource.contentLength();
+        long lastModified = resource.lastModified();
+        boolean gzip = request.getHeader(HttpHeaders.RANGE) == null && GzipCodec.acceptsGzip(request) && isWorthEncoding(resource);
+        // the compressed file is another representation, it must not be mistaken for the file
+        String etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + (gzip ? "-gzip" : "") + "\"";
+        if (codec.isWireEnabled()) {
+            response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+
+        if (new ServletWebRequest(request, response).checkNotModified(etag, lastModified)) {
+            return;
+        }
+        response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                "attachment; filename=\"" + resource.getFilename() + "\"");
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (gzip) {
+            sendGzip(resource, request, response);
+            return;
+        }
+
+        long start = 0;
+        long end = length - 1;
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader != null && isIfRangeSatisfied(request, etag, lastModified)) {
+            List<HttpRange> ranges;
+            try {
+                ranges = HttpRange.parseRanges(rangeHeader);
+                if (ranges.size() == 1) {
+                    start = ranges.get(0).getRangeStart(length);
+                    end = ranges.get(0).getRangeEnd(length);
+                    if (start >= length || start > end) {
+                        throw new IllegalArgumentException("Range starts after the end of the file");
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                response.sendError(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                return;
+            }
+            if (ranges.size() == 1) {
+                response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+            }
+        }
+        long count = end - start + 1;
+        response.setContentLengthLong(count);
+        if (count <= 0) {
+            return;
+        }
+
+        metrics.read(count);
+        if (!resource.isFile()) {
+            metrics.copied(count);
+            try (InputStream inputStream = resource.getInputStream()) {
+                StreamUtils.copyRange(inputStream, response.getOutputStream(), start, end);
+            }
+            return;
+        }
+
+        sendRegion(resource.getFile().toPath(), start, count, request, response);
+    }
+
+    private boolean isWorthEncoding(Resource resource) throws IOException {
+        if (!codec.isWireEnabled()) {
+            return false;
+        }
+        if (resource instanceof CompressedResource) {
+            return true;
+        }
+        return resource.isFile() && codec.compresses(resource.getFile().toPath(), CompressionStats.WIRE);
+    }
+
+    /**
+     * send a whole file gzip compressed, a file stored compressed is sent without decompressing it.
+     */
+    private void sendGzip(Resource resource, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setHeader(HttpHeaders.CONTENT_ENCODING, GzipCodec.GZIP);
+        if (resource instanceof CompressedResource) {
+            CompressedResource compressed = (CompressedResource) resource;
+            long count = compressed.getEncodedLength();
+            response.setContentLengthLong(count);
+            metrics.read(count);
+            sendRegion(compressed.getStoredFile(), compressed.getDataOffset(), count, request, response);
+            return;
+        }
+        // the compressed length is not known up front, the response is chunked
+        metrics.read(resource.contentLength());
+        metrics.gzipped(resource.contentLength());
+        codec.compress(resource.getFile().toPath(), response.getOutputStream(), CompressionStats.WIRE);
+    }
+
+    /**
+     * send a region of a file with sendfile, or copy it to the response if it is small or sendfile is not available.
+     */
+    private void sendRegion(Path file, long start, long count, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (count >= sendfileMinSize && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            metrics.sentfile(count);
+            request.setAttribute(SENDFILE_FILENAME, file.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, start + count);
+            return;
+        }
+        metrics.copied(count);
+        copy(file, start, count, response.getOutputStream());
+    }
+
+    /**
+     * check whether the version named in an If-Range header is the current one, a missing header always matches.
+     */
+    private boolean isIfRangeSatisfied(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(etag);
+        }
+        try {
+            return request.getDateHeader(HttpHeaders.IF_RANGE) / 1000 == lastModified / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * copy a region of a file to a stream. this is not zero-copy: the channel wrapping the stream
+     * reads the file into a heap buffer and writes the buffer to the stream, it only saves a copy
+     * for small regions where setting up sendfile costs more than copying.
+     */
+    private void copy(Path file, long position, long count, OutputStream outputStream) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(outputStream);
+            long end = position + count;
+            while (position < end) {
+                long transferred = channel.transferTo(position, end - position, target);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.uploadingfiles.compression;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GzipCodecTest {
+
+    private final CompressionStats stats = new CompressionStats();
+    private final GzipCodec codec = new GzipCodec(new CompressionProperties(), stats);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void sameVersionIsSampledOnce() throws IOException {
+        Path file = directory.resolve("random.bin");
+        byte[] random = new byte[64 * 1024];
+        new Random(1).nextBytes(random);
+        Files.write(file, random);
+
+        assertFalse(codec.compresses(file, CompressionStats.WIRE));
+        assertFalse(codec.compresses(file, CompressionStats.WIRE));
+        assertEquals(1L, wire().get("skipped"));
+    }
+
+    @Test
+    void changedFileIsSampledAgain() throws IOException {
+        Path file = directory.resolve("file.bin");
+        byte[] random = new byte[64 * 1024];
+        new Random(1).nextBytes(random);
+        Files.write(file, random);
+        assertFalse(codec.compresses(file, CompressionStats.WIRE));
+
+        byte[] zeros = new byte[64 * 1024];
+        Arrays.fill(zeros, (byte) 0);
+        Files.write(file, zeros);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 1000));
+        assertTrue(codec.compresses(file, CompressionStats.WIRE));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> wire() {
+        return (Map<String, Object>) stats.toMap().get(CompressionStats.WIRE);
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.uploadingfiles.dedup;
+
+import com.example.uploadingfiles.storage.StorageMetrics;
+import com.example.uploadingfiles.storage.StorageProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.Resource;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DedupStorageServiceTest {
+
+    @TempDir
+    Path directory;
+
+    private StorageProperties properties;
+    private Path location;
+
+    @BeforeEach
+    void setUp() {
+        location = directory.resolve("upload-dir");
+        properties = new StorageProperties();
+        properties.setLocation(location.toString());
+        properties.setChunkLocation(directory.resolve("chunk-dir").toString());
+    }
+
+    @Test
+    void plainFileLookingLikeManifestIsServedAsItIs() throws IOException {
+        byte[] content = "dedup-manifest 1\n0000 12\n".getBytes(StandardCharsets.US_ASCII);
+        Files.createDirectories(location);
+        Files.write(location.resolve("notes.txt"), content);
+
+        DedupStorageService storageService = start();
+        assertFalse(Manifest.isManifest(location.resolve("notes.txt")));
+        assertArrayEquals(content, read(storageService.loadAsResource("/notes.txt")));
+    }
+
+    @Test
+    void storedFileIsMarkedAndReadBack() throws IOException {
+        byte[] content = new byte[200 * 1024];
+        new Random(1).nextBytes(content);
+        Path source = Files.write(directory.resolve("source.bin"), content);
+
+        DedupStorageService storageService = start();
+        storageService.store("/", "file.bin", source);
+        assertTrue(Manifest.isManifest(location.resolve("file.bin")));
+        assertArrayEquals(content, read(storageService.loadAsResource("/file.bin")));
+
+        // the chunk references are counted again from the marked manifests
+        DedupStorageService restarted = start();
+        assertArrayEquals(content, read(restarted.loadAsResource("/file.bin")));
+    }
+
+    private DedupStorageService start() {
+        ChunkStore chunkStore = new ChunkStore(properties, StorageMetrics.NONE);
+        chunkStore.init();
+        DedupStorageService storageService = new DedupStorageService(properties, chunkStore);
+        storageService.loadIndex();
+        return storageService;
+    }
+
+    private static byte[] read(Resource resource) throws IOException {
+        try (InputStream inputStream = resource.getInputStream()) {
+            return StreamUtils.copyToByteArray(inputStream);
+        }
+    }
+}
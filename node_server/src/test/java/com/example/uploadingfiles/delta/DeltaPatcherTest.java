@@ -0,0 +1,163 @@
+package com.example.uploadingfiles.delta;
+
+import com.example.uploadingfiles.storage.StorageException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DeltaPatcherTest {
+
+    private static final int BLOCK_SIZE = BlockSignatures.MIN_BLOCK_SIZE;
+
+    @TempDir
+    Path directory;
+
+    private Path base;
+    private Path target;
+    private byte[] baseBytes;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        base = directory.resolve("base");
+        target = directory.resolve("target");
+        // not a multiple of the block size, the last block is partial
+        baseBytes = new byte[3 * BLOCK_SIZE + 100];
+        new Random(1).nextBytes(baseBytes);
+        Files.write(base, baseBytes);
+    }
+
+    @Test
+    void rebuildsTheNewVersion() throws IOException {
+        byte[] inserted = new byte[37];
+        new Random(2).nextBytes(inserted);
+        // block 1 dropped, data inserted before block 2, the partial last block kept
+        byte[] expected = concat(Arrays.copyOfRange(baseBytes, 0, BLOCK_SIZE),
+                inserted, Arrays.copyOfRange(baseBytes, 2 * BLOCK_SIZE, baseBytes.length));
+
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        DataOutputStream out = header(delta, expected.length, sha256(expected));
+        copy(out, 0, 1);
+        data(out, inserted);
+        copy(out, 2, 2);
+        out.writeByte(DeltaPatcher.END);
+
+        apply(delta.toByteArray());
+        assertArrayEquals(expected, Files.readAllBytes(target));
+    }
+
+    @Test
+    void headerIsReadBack() throws IOException {
+        byte[] sha256 = sha256(baseBytes);
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        header(delta, baseBytes.length, sha256);
+        DeltaPatcher.Header header = DeltaPatcher.readHeader(new DataInputStream(new ByteArrayInputStream(delta.toByteArray())));
+        assertEquals("v1", header.getBaseVersion());
+        assertEquals(BLOCK_SIZE, header.getBlockSize());
+        assertEquals(baseBytes.length, header.getLength());
+    }
+
+    @Test
+    void longerThanAnnouncedIsRefused() throws IOException {
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        DataOutputStream out = header(delta, BLOCK_SIZE, sha256(Arrays.copyOf(baseBytes, BLOCK_SIZE)));
+        copy(out, 0, 1);
+        data(out, new byte[]{1});
+        out.writeByte(DeltaPatcher.END);
+
+        StorageException e = assertThrows(StorageException.class, () -> apply(delta.toByteArray()));
+        assertEquals("Delta rebuilds a longer file than announced.", e.getMessage());
+    }
+
+    @Test
+    void wrongSha256IsRefused() throws IOException {
+        byte[] sha256 = sha256(baseBytes);
+        sha256[0] ^= 1;
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        DataOutputStream out = header(delta, baseBytes.length, sha256);
+        copy(out, 0, 4);
+        out.writeByte(DeltaPatcher.END);
+
+        StorageException e = assertThrows(StorageException.class, () -> apply(delta.toByteArray()));
+        assertEquals("Delta does not rebuild the announced file.", e.getMessage());
+    }
+
+    @Test
+    void shorterThanAnnouncedIsRefused() throws IOException {
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        DataOutputStream out = header(delta, baseBytes.length, sha256(baseBytes));
+        copy(out, 0, 3);
+        out.writeByte(DeltaPatcher.END);
+
+        StorageException e = assertThrows(StorageException.class, () -> apply(delta.toByteArray()));
+        assertEquals("Delta does not rebuild the announced file.", e.getMessage());
+    }
+
+    @Test
+    void copyPastTheBaseIsRefused() throws IOException {
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        DataOutputStream out = header(delta, BLOCK_SIZE, new byte[32]);
+        copy(out, 4, 1);
+        out.writeByte(DeltaPatcher.END);
+
+        assertThrows(StorageException.class, () -> apply(delta.toByteArray()));
+    }
+
+    private void apply(byte[] delta) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(delta));
+        DeltaPatcher.apply(in, DeltaPatcher.readHeader(in), base, target);
+    }
+
+    private static DataOutputStream header(ByteArrayOutputStream delta, long length, byte[] sha256) throws IOException {
+        DataOutputStream out = new DataOutputStream(delta);
+        out.writeInt(DeltaPatcher.MAGIC);
+        out.writeUTF("v1");
+        out.writeInt(BLOCK_SIZE);
+        out.writeLong(length);
+        out.write(sha256);
+        return out;
+    }
+
+    private static void copy(DataOutputStream out, int firstBlock, int blocks) throws IOException {
+        out.writeByte(DeltaPatcher.COPY);
+        out.writeInt(firstBlock);
+        out.writeInt(blocks);
+    }
+
+    private static void data(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeByte(DeltaPatcher.DATA);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            bytes.write(part, 0, part.length);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] sha256(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
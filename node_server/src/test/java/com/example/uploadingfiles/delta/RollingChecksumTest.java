@@ -0,0 +1,35 @@
+package com.example.uploadingfiles.delta;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RollingChecksumTest {
+
+    @Test
+    void rollingGivesTheChecksumOfEveryWindow() {
+        byte[] bytes = new byte[8192];
+        new Random(1).nextBytes(bytes);
+        for (int window : new int[]{1, 7, 1024, 4096}) {
+            RollingChecksum checksum = new RollingChecksum();
+            checksum.reset(bytes, 0, window);
+            assertEquals(RollingChecksum.of(bytes, 0, window), checksum.getValue());
+            for (int offset = 1; offset + window <= bytes.length; offset++) {
+                checksum.roll(bytes[offset - 1], bytes[offset + window - 1]);
+                assertEquals(RollingChecksum.of(bytes, offset, window), checksum.getValue(),
+                        "window of " + window + " at " + offset);
+            }
+        }
+    }
+
+    @Test
+    void checksumIsPinned() {
+        // the client computes the same checksum, a change here must be made there too
+        byte[] bytes = "The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(0x5ba20fd9, RollingChecksum.of(bytes, 0, bytes.length));
+        assertEquals(0x00620062, RollingChecksum.of(new byte[]{'b'}, 0, 1));
+    }
+}
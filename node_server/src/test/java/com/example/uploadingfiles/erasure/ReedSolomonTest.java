@@ -0,0 +1,89 @@
+package com.example.uploadingfiles.erasure;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ReedSolomonTest {
+
+    private static final int SHARD_SIZE = 257;
+
+    @Test
+    void everyLossOfUpToParityShardsIsRebuilt() {
+        int[][] codes = {{1, 1}, {2, 1}, {3, 2}, {4, 4}, {10, 4}};
+        for (int[] code : codes) {
+            rebuildsAfterEveryLoss(code[0], code[1]);
+        }
+    }
+
+    @Test
+    void fewerShardsThanDataShardsAreRefused() {
+        ReedSolomon codec = new ReedSolomon(3, 2);
+        assertThrows(IllegalArgumentException.class, () -> codec.decodeMatrix(new int[]{0, 4}));
+    }
+
+    private void rebuildsAfterEveryLoss(int dataShards, int parityShards) {
+        ReedSolomon codec = new ReedSolomon(dataShards, parityShards);
+        int totalShards = dataShards + parityShards;
+        Random random = new Random(dataShards * 31L + parityShards);
+        byte[][] shards = new byte[totalShards][SHARD_SIZE];
+        for (int i = 0; i < dataShards; i++) {
+            random.nextBytes(shards[i]);
+        }
+        byte[][] original = new byte[dataShards][];
+        for (int i = 0; i < dataShards; i++) {
+            original[i] = shards[i].clone();
+        }
+        codec.encodeParity(shards, SHARD_SIZE);
+        for (int i = 0; i < dataShards; i++) {
+            assertArrayEquals(original[i], shards[i], "data shard " + i + " changed by encoding");
+        }
+
+        for (int lost = 0; lost <= parityShards; lost++) {
+            for (List<Integer> lostShards : combinations(totalShards, lost)) {
+                int[] indexes = new int[dataShards];
+                byte[][] read = new byte[dataShards][];
+                int count = 0;
+                for (int i = 0; i < totalShards && count < dataShards; i++) {
+                    if (!lostShards.contains(i)) {
+                        indexes[count] = i;
+                        read[count] = shards[i];
+                        count++;
+                    }
+                }
+                byte[][] rebuilt = new byte[dataShards][SHARD_SIZE];
+                codec.decode(codec.decodeMatrix(indexes), read, rebuilt, SHARD_SIZE);
+                for (int i = 0; i < dataShards; i++) {
+                    assertArrayEquals(original[i], rebuilt[i],
+                            dataShards + "+" + parityShards + " without shards " + lostShards + ": data shard " + i + " differs");
+                }
+            }
+        }
+    }
+
+    /**
+     * @return every set of size elements of 0 to n - 1
+     */
+    private static List<List<Integer>> combinations(int n, int size) {
+        List<List<Integer>> combinations = new ArrayList<>();
+        addCombinations(n, size, 0, new ArrayList<>(), combinations);
+        return combinations;
+    }
+
+    private static void addCombinations(int n, int size, int start, List<Integer> current, List<List<Integer>> combinations) {
+        if (current.size() == size) {
+            combinations.add(new ArrayList<>(current));
+            return;
+        }
+        for (int i = start; i < n; i++) {
+            current.add(i);
+            addCombinations(n, size, i + 1, current, combinations);
+            current.remove(current.size() - 1);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.uploadingfiles.placement;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Pins the placements of the ring, the central server's HashRingTest pins the same ones,
+ * so both copies of the ring place every path on the same node servers.
+ */
+class HashRingTest {
+
+    private static final String[] NODES = {"http://node-1:8080", "http://node-2:8080", "http://node-3:8080",
+            "http://node-4:8080", "http://node-5:8080"};
+
+    private final HashRing ring = new HashRing(NODES, 100, 3);
+
+    @Test
+    void pathsArePlacedAsOnTheCentralServer() {
+        assertEquals(Arrays.asList("http://node-1:8080", "http://node-5:8080", "http://node-4:8080"), ring.getReplicas("/"));
+        assertEquals(Arrays.asList("http://node-4:8080", "http://node-1:8080", "http://node-5:8080"), ring.getReplicas("/a"));
+        assertEquals(Arrays.asList("http://node-4:8080", "http://node-2:8080", "http://node-1:8080"), ring.getReplicas("/a/b.txt"));
+        assertEquals(Arrays.asList("http://node-1:8080", "http://node-3:8080", "http://node-2:8080"), ring.getReplicas("/photos/2022/cat.png"));
+    }
+
+    @Test
+    void manyPathsArePlacedAsOnTheCentralServer() throws NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        for (int i = 0; i < 1000; i++) {
+            String replicas = String.join(",", ring.getReplicas("/dir-" + (i % 10) + "/file-" + i));
+            digest.update((replicas + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        assertEquals("c1b5518cd7989e8c3155005135a14d47c39d14772f18ad8ad7d1fed9d62882f3", hex.toString());
+    }
+
+    @Test
+    void pathIsNormalized() {
+        assertEquals(ring.getReplicas("/a/b.txt"), ring.getReplicas("a//b.txt/"));
+    }
+
+    @Test
+    void everyNodeHoldsEveryPathWithoutReplicaCount() {
+        HashRing full = new HashRing(NODES, 100, 0);
+        assertEquals(Arrays.asList(NODES), full.getReplicas("/a/b.txt"));
+    }
+}
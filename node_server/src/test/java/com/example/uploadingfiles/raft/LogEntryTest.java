@@ -0,0 +1,44 @@
+package com.example.uploadingfiles.raft;
+
+import com.example.uploadingfiles.transaction.FencingTokens;
+import com.example.uploadingfiles.transaction.Operation;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class LogEntryTest {
+
+    @Test
+    void entryIsReadBack() {
+        LogEntry entry = LogEntry.parse(new LogEntry(7, 2, Operation.UPLOAD, 1000, "/a b", "f.txt", 42).toLine());
+        assertEquals(7, entry.getIndex());
+        assertEquals(2, entry.getTerm());
+        assertEquals(Operation.UPLOAD, entry.getOperation());
+        assertEquals(1000, entry.getTimestamp());
+        assertEquals("/a b", entry.getPath());
+        assertEquals("f.txt", entry.getFileName());
+        assertEquals(42, entry.getFencingToken());
+    }
+
+    @Test
+    void firstEntryOfALeaderIsReadBack() {
+        LogEntry entry = LogEntry.parse(new LogEntry(8, 3, null, 1000, null, null).toLine());
+        assertNull(entry.getOperation());
+        assertNull(entry.getPath());
+        assertEquals(FencingTokens.NONE, entry.getFencingToken());
+    }
+
+    @Test
+    void entryWrittenBeforeFencingTokensHasNoToken() {
+        LogEntry entry = LogEntry.parse("7 2 DELETE_FILE 1000 %2Fa%2Ff.txt -");
+        assertEquals(Operation.DELETE_FILE, entry.getOperation());
+        assertEquals(FencingTokens.NONE, entry.getFencingToken());
+    }
+
+    @Test
+    void otherLinesAreNoEntries() {
+        assertNull(LogEntry.parse("7 2 DELETE_FILE"));
+        assertNull(LogEntry.parse("7 2 RENAME 1000 - - 0"));
+    }
+}
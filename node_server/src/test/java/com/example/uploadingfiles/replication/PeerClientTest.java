@@ -0,0 +1,29 @@
+package com.example.uploadingfiles.replication;
+
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PeerClientTest {
+
+    @Test
+    void idsAreTemplated() {
+        assertEquals("/transactions/{txnId}", PeerClient.uri(new HttpGet("http://localhost:9001/transactions/1c9f0e1a-77aa")));
+        assertEquals("/transactions/{txnId}", PeerClient.uri(new HttpGet("http://localhost:9001/transactions/other-id")));
+    }
+
+    @Test
+    void queryIsDropped() {
+        assertEquals("/files", PeerClient.uri(new HttpPost("http://localhost:9001/files?path=/a&mode=PROPOSE&txnId=1")));
+        assertEquals("/transactions", PeerClient.uri(new HttpPost("http://localhost:9001/transactions?mode=COMMIT")));
+        assertEquals("/raft/append", PeerClient.uri(new HttpPost("http://localhost:9001/raft/append?term=3")));
+    }
+
+    @Test
+    void unknownPathIsNotTaggedWithItsSegments() {
+        assertEquals("UNKNOWN", PeerClient.uri(new HttpGet("http://localhost:9001/uploads/abc")));
+        assertEquals("UNKNOWN", PeerClient.uri(new HttpGet("http://localhost:9001/transactions/a/b")));
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.uploadingfiles.transaction;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FencingTokensTest {
+
+    @TempDir
+    Path directory;
+
+    private FencingTokens fencingTokens;
+
+    @BeforeEach
+    void open() {
+        fencingTokens = open(1000);
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        fencingTokens.close();
+    }
+
+    @Test
+    void staleTokenIsRefused() {
+        assertTrue(fencingTokens.admit(Operation.CREATE_DIR, "/a", null, 5L));
+        assertFalse(fencingTokens.admit(Operation.CREATE_DIR, "/a", null, 4L));
+        assertTrue(fencingTokens.admit(Operation.CREATE_DIR, "/a", null, 5L));
+        assertTrue(fencingTokens.admit(Operation.DELETE_DIR, "/a", null, 6L));
+        assertFalse(fencingTokens.admit(Operation.DELETE_DIR, "/a", null, 5L));
+    }
+
+    @Test
+    void refusedTokenDoesNotLowerTheHighest() {
+        assertTrue(fencingTokens.admit(Operation.CREATE_DIR, "/a", null, 5L));
+        assertFalse(fencingTokens.admit(Operation.CREATE_DIR, "/a", null, 3L));
+        assertFalse(fencingTokens.admit(Operation.CREATE_DIR, "/a", null, 4L));
+    }
+
+    @Test
+    void pathsAreFencedApart() {
+        assertTrue(fencingTokens.admit(Operation.CREATE_DIR, "/a", null, 5L));
+        assertTrue(fencingTokens.admit(Operation.CREATE_DIR, "/b", null, 4L));
+        assertTrue(fencingTokens.admit(Operation.UPLOAD, "/c", "f.txt", 3L));
+        assertTrue(fencingTokens.admit(Operation.UPLOAD, "/c", "g.txt", 2L));
+        assertFalse(fencingTokens.admit(Operation.UPLOAD_MANIFEST, "/c", "f.txt", 2L));
+    }
+
+    @Test
+    void directoryOperationIsFencedByNewerTokenBelowIt() {
+        fencingTokens.committed(Operation.UPLOAD, "/a/x", "f.txt", 7L);
+        assertFalse(fencingTokens.admit(Operation.DELETE_DIR, "/a", null, 6L));
+        assertFalse(fencingTokens.admit(Operation.DELETE_DIR, "/a/", null, 6L));
+        assertFalse(fencingTokens.admit(Operation.CREATE_DIR, "/a/x", null, 6L));
+        assertTrue(fencingTokens.admit(Operation.DELETE_DIR, "/a", null, 8L));
+    }
+
+    @Test
+    void mutationIsFencedByNewerTokenOfAnAncestor() {
+        assertTrue(fencingTokens.admit(Operation.DELETE_DIR, "/a", null, 8L));
+        assertFalse(fencingTokens.admit(Operation.UPLOAD, "/a/x", "f.txt", 7L));
+        assertFalse(fencingTokens.admit(Operation.DELETE_FILE, "/a/x/f.txt", null, 7L));
+        assertFalse(fencingTokens.admit(Operation.CREATE_DIR, "/a/x/y", null, 7L));
+        assertTrue(fencingTokens.admit(Operation.UPLOAD, "/a/x", "f.txt", 9L));
+    }
+
+    @Test
+    void siblingsAndNamesSharingAPrefixAreFencedApart() {
+        assertTrue(fencingTokens.admit(Operation.CREATE_DIR, "/a/x", null, 9L));
+        assertTrue(fencingTokens.admit(Operation.CREATE_DIR, "/a/y", null, 5L));
+        assertTrue(fencingTokens.admit(Operation.DELETE_DIR, "/ab", null, 5L));
+        assertTrue(fencingTokens.admit(Operation.UPLOAD, "/a", "f.txt", 5L));
+        // a file has nothing below it
+        assertTrue(fencingTokens.admit(Operation.DELETE_FILE, "/a/x.txt", null, 5L));
+    }
+
+    @Test
+    void pathIsNormalized() {
+        assertTrue(fencingTokens.admit(Operation.CREATE_DIR, "/a/b/", null, 5L));
+        assertFalse(fencingTokens.admit(Operation.DELETE_DIR, "a//b", null, 4L));
+    }
+
+    @Test
+    void mutationWithoutTokenIsAdmitted() {
+        assertTrue(fencingTokens.admit(Operation.CREATE_DIR, "/a", null, 5L));
+        assertTrue(fencingTokens.admit(Operation.CREATE_DIR, "/a", null, null));
+        assertTrue(fencingTokens.admit(Operation.CREATE_DIR, "/a", null, FencingTokens.NONE));
+    }
+
+    @Test
+    void committedTokenFencesReplicaThatDidNotVote() {
+        fencingTokens.committed(Operation.DELETE_FILE, "/a/f.txt", null, 7L);
+        assertFalse(fencingTokens.admit(Operation.DELETE_FILE, "/a/f.txt", null, 6L));
+        assertFalse(fencingTokens.admit(Operation.UPLOAD, "/a", "f.txt", 6L));
+    }
+
+    @Test
+    void committedOlderTokenIsNeverRefused() {
+        assertTrue(fencingTokens.admit(Operation.CREATE_DIR, "/a", null, 8L));
+        // decided before the replica saw the larger token, it is applied and leaves the highest token alone
+        fencingTokens.committed(Operation.CREATE_DIR, "/a", null, 7L);
+        assertFalse(fencingTokens.admit(Operation.CREATE_DIR, "/a", null, 7L));
+        assertTrue(fencingTokens.admit(Operation.CREATE_DIR, "/a", null, 8L));
+    }
+
+    @Test
+    void refusedBatchRaisesNoToken() {
+        assertTrue(fencingTokens.admit(Operation.CREATE_DIR, "/b", null, 5L));
+        assertFalse(fencingTokens.admitAll(Arrays.asList(
+                new Transaction(Operation.CREATE_DIR, "/a").setFencingToken(7L),
+                new Transaction(Operation.DELETE_DIR, "/b").setFencingToken(4L))));
+        assertTrue(fencingTokens.admit(Operation.CREATE_DIR, "/a", null, 6L));
+    }
+
+    @Test
+    void admittedBatchRaisesEveryToken() {
+        assertTrue(fencingTokens.admitAll(Arrays.asList(
+                new Transaction(Operation.CREATE_DIR, "/a").setFencingToken(7L),
+                new Transaction(Operation.UPLOAD, null, "f.txt", "/b").setFencingToken(7L),
+                new Transaction(Operation.CREATE_DIR, "/c"))));
+        assertFalse(fencingTokens.admit(Operation.CREATE_DIR, "/a", null, 6L));
+        assertFalse(fencingTokens.admit(Operation.DELETE_FILE, "/b/f.txt", null, 6L));
+        assertTrue(fencingTokens.admit(Operation.CREATE_DIR, "/c", null, 1L));
+    }
+
+    @Test
+    void mergedTokensFenceLikeTheExportingNode() throws IOException {
+        fencingTokens.close();
+        fencingTokens = open(3);
+        assertTrue(fencingTokens.admit(Operation.CREATE_DIR, "/a", null, 5L));
+        // evicts /a from the tokens below a path, into the floor
+        assertTrue(fencingTokens.admit(Operation.UPLOAD, "/b", "f.txt", 7L));
+        List<String> exported = fencingTokens.export();
+        fencingTokens.close();
+
+        Files.delete(directory.resolve("fencing.log"));
+        fencingTokens = open(1000);
+        assertTrue(fencingTokens.admit(Operation.CREATE_DIR, "/c", null, 9L));
+        fencingTokens.merge(exported);
+        assertFalse(fencingTokens.admit(Operation.CREATE_DIR, "/d", null, 4L));
+        assertFalse(fencingTokens.admit(Operation.DELETE_FILE, "/b/f.txt", null, 6L));
+        assertFalse(fencingTokens.admit(Operation.CREATE_DIR, "/c", null, 8L));
+        fencingTokens.close();
+
+        fencingTokens = open(1000);
+        assertFalse(fencingTokens.admit(Operation.DELETE_FILE, "/b/f.txt", null, 6L));
+        assertTrue(fencingTokens.admit(Operation.DELETE_FILE, "/b/f.txt", null, 7L));
+    }
+
+    @Test
+    void tokensSurviveARestart() throws IOException {
+        assertTrue(fencingTokens.admit(Operation.CREATE_DIR, "/a", null, 5L));
+        fencingTokens.committed(Operation.DELETE_FILE, "/b/f.txt", null, 7L);
+        fencingTokens.close();
+
+        fencingTokens = open(1000);
+        assertFalse(fencingTokens.admit(Operation.CREATE_DIR, "/a", null, 4L));
+        assertFalse(fencingTokens.admit(Operation.UPLOAD, "/b", "f.txt", 6L));
+        assertFalse(fencingTokens.admit(Operation.DELETE_DIR, "/b", null, 6L));
+        assertTrue(fencingTokens.admit(Operation.CREATE_DIR, "/a", null, 5L));
+    }
+
+    @Test
+    void tokensSurviveACheckpoint() throws IOException {
+        assertTrue(fencingTokens.admit(Operation.CREATE_DIR, "/a", null, 5L));
+        fencingTokens.checkpoint();
+        fencingTokens.close();
+
+        fencingTokens = open(1000);
+        assertFalse(fencingTokens.admit(Operation.CREATE_DIR, "/a", null, 4L));
+    }
+
+    @Test
+    void evictedPathRaisesTheFloor() throws IOException {
+        fencingTokens.close();
+        fencingTokens = open(2);
+        assertTrue(fencingTokens.admit(Operation.CREATE_DIR, "/a", null, 5L));
+        assertTrue(fencingTokens.admit(Operation.CREATE_DIR, "/b", null, 3L));
+        // evicts /a, the least recently used path
+        assertTrue(fencingTokens.admit(Operation.CREATE_DIR, "/c", null, 6L));
+
+        assertFalse(fencingTokens.admit(Operation.CREATE_DIR, "/a", null, 4L));
+        assertFalse(fencingTokens.admit(Operation.CREATE_DIR, "/d", null, 4L));
+        assertTrue(fencingTokens.admit(Operation.CREATE_DIR, "/d", null, 5L));
+        fencingTokens.close();
+
+        fencingTokens = open(2);
+        assertFalse(fencingTokens.admit(Operation.CREATE_DIR, "/e", null, 4L));
+    }
+
+    private FencingTokens open(int maxPaths) {
+        FencingTokens tokens = new FencingTokens(directory.resolve("fencing.log"), 1024 * 1024, maxPaths);
+        tokens.open();
+        return tokens;
+    }
+}